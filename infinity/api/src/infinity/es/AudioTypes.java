@@ -51,54 +51,91 @@ public class AudioTypes {
     public static final String BURST = "burst";
     public static final String REPEL = "repel";
 
-    public static AudioType repel(final EntityData ed) {
-        return AudioType.create(REPEL, ed);
-    }
-
-    public static AudioType fire_thor(final EntityData ed) {
-        return AudioType.create(FIRE_THOR, ed);
-    }
+    /**
+     * The known audio types in a fixed order, so that a type can be sent as its
+     * index instead of as a name or a string table id.
+     */
+    private static final String[] TYPES = { FIRE_THOR, PICKUP_PRIZE, FIRE_GRAVBOMB, FIRE_GUNS_L1, FIRE_GUNS_L2,
+            FIRE_GUNS_L3, FIRE_GUNS_L4, FIRE_BOMBS_L1, FIRE_BOMBS_L2, FIRE_BOMBS_L3, FIRE_BOMBS_L4, EXPLOSION2, BURST,
+            REPEL };
 
-    public static AudioType pickup_prize(final EntityData ed) {
-        return AudioType.create(PICKUP_PRIZE, ed);
+    /**
+     * Returns the index of the specified audio type or -1 if it is not a known
+     * type.
+     */
+    public static int getTypeId(final String typeName) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i].equals(typeName)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
-    public static AudioType fire_gravbomb(final EntityData ed) {
-        return AudioType.create(FIRE_GRAVBOMB, ed);
+    /**
+     * Returns the audio type for an index returned by getTypeId() or null if
+     * there is none.
+     */
+    public static String getTypeName(final int typeId) {
+        return typeId >= 0 && typeId < TYPES.length ? TYPES[typeId] : null;
     }
 
-    // Bombs
-    public static AudioType fire_bomb(final EntityData ed, final BombLevelEnum level) {
+    public static String bombTypeName(final BombLevelEnum level) {
         switch (level.level) {
         case 1:
-            return AudioType.create(FIRE_BOMBS_L1, ed);
+            return FIRE_BOMBS_L1;
         case 2:
-            return AudioType.create(FIRE_BOMBS_L2, ed);
+            return FIRE_BOMBS_L2;
         case 3:
-            return AudioType.create(FIRE_BOMBS_L3, ed);
+            return FIRE_BOMBS_L3;
         case 4:
-            return AudioType.create(FIRE_BOMBS_L4, ed);
+            return FIRE_BOMBS_L4;
         default:
             throw new UnsupportedOperationException("Unknown bomb level: " + level.level);
         }
     }
 
-    // Bullets
-    public static AudioType fire_bullet(final EntityData ed, final GunLevelEnum level) {
+    public static String bulletTypeName(final GunLevelEnum level) {
         switch (level.level) {
         case 1:
-            return AudioType.create(FIRE_GUNS_L1, ed);
+            return FIRE_GUNS_L1;
         case 2:
-            return AudioType.create(FIRE_GUNS_L2, ed);
+            return FIRE_GUNS_L2;
         case 3:
-            return AudioType.create(FIRE_GUNS_L3, ed);
+            return FIRE_GUNS_L3;
         case 4:
-            return AudioType.create(FIRE_GUNS_L4, ed);
+            return FIRE_GUNS_L4;
         default:
             throw new UnsupportedOperationException("Unknown gun level: " + level.level);
         }
     }
 
+    public static AudioType repel(final EntityData ed) {
+        return AudioType.create(REPEL, ed);
+    }
+
+    public static AudioType fire_thor(final EntityData ed) {
+        return AudioType.create(FIRE_THOR, ed);
+    }
+
+    public static AudioType pickup_prize(final EntityData ed) {
+        return AudioType.create(PICKUP_PRIZE, ed);
+    }
+
+    public static AudioType fire_gravbomb(final EntityData ed) {
+        return AudioType.create(FIRE_GRAVBOMB, ed);
+    }
+
+    // Bombs
+    public static AudioType fire_bomb(final EntityData ed, final BombLevelEnum level) {
+        return AudioType.create(bombTypeName(level), ed);
+    }
+
+    // Bullets
+    public static AudioType fire_bullet(final EntityData ed, final GunLevelEnum level) {
+        return AudioType.create(bulletTypeName(level), ed);
+    }
+
     public static AudioType explosion2(final EntityData ed) {
         return AudioType.create(EXPLOSION2, ed);
     }
@@ -50,12 +50,19 @@ import com.simsilica.mathd.trans.TransitionBuffer;
  * Furthermore, special care is taken to make sure that all BodyPosition objecst
  * for a particular entity share the internal data buffer.
  *
+ * On the server, a BodyPosition can instead be a view over a slot in a shared
+ * PositionHistory so that recording frames and reading the latest one doesn't
+ * create garbage.
+ *
  * @author Paul Speed
  */
 public final class BodyPosition implements EntityComponent {
     // private transient int size;
     private transient TransitionBuffer<PositionTransition3d> position;
     private transient PositionTransition3d lastTransition;
+    private transient PositionHistory history;
+    private transient int slot = -1;
+    private transient int generation;
 
     public BodyPosition() {
     }
@@ -65,6 +72,17 @@ public final class BodyPosition implements EntityComponent {
         position = PositionTransition3d.createBuffer(history);
     }
 
+    /**
+     * Creates a BodyPosition whose frames are kept in a newly allocated slot of
+     * the specified history store. The slot should be released through
+     * release() once the body goes away.
+     */
+    public BodyPosition(final PositionHistory history) {
+        this.history = history;
+        slot = history.allocate();
+        generation = history.getGeneration(slot);
+    }
+
     /**
      * Called for a retrieved entity to make sure this BodyPosition has it's shared
      * transition buffer. It must be called for all retrieved BodyPosition
@@ -78,7 +96,17 @@ public final class BodyPosition implements EntityComponent {
     }
 
     public boolean isInitialized() {
-        return position != null;
+        return position != null || history != null;
+    }
+
+    /**
+     * Returns the slot in the shared history store to that store and detaches
+     * this view from it.
+     */
+    public void release() {
+        if (history != null && history.isValid(slot, generation)) {
+            history.release(slot);
+        }
     }
 
     public TransitionBuffer<PositionTransition3d> getBuffer() {
@@ -86,12 +114,21 @@ public final class BodyPosition implements EntityComponent {
     }
 
     public void addFrame(final long endTime, final Vec3d pos, final Quatd quat, final boolean visible) {
+        if (history != null) {
+            if (history.isValid(slot, generation)) {
+                history.addFrame(slot, endTime, pos, quat, visible);
+            }
+            return;
+        }
         final PositionTransition3d trans = new PositionTransition3d(endTime, pos, quat, visible);
         getBuffer().addTransition(trans);
         lastTransition = trans;
     }
 
     public PositionTransition3d getFrame(final long time) {
+        if (history != null) {
+            return toTransition(lastFrameIndex() < 0 ? -1 : history.findFrame(slot, time));
+        }
         return getBuffer().getTransition(time);
     }
 
@@ -100,14 +137,58 @@ public final class BodyPosition implements EntityComponent {
      * applied through addFrame().
      */
     public PositionTransition3d getLastFrame() {
+        if (history != null) {
+            return toTransition(lastFrameIndex());
+        }
         return lastTransition;
     }
 
+    /**
+     * Returns the time of the most recent frame applied through addFrame() or -1
+     * if there is none.
+     */
+    public long getLastTime() {
+        if (history != null) {
+            final int frame = lastFrameIndex();
+            return frame < 0 ? -1 : history.getTime(frame);
+        }
+        return lastTransition == null ? -1 : lastTransition.getEndTime();
+    }
+
+    /**
+     * Copies the most recent position applied through addFrame() into the store
+     * and returns it, or returns null if there is none.
+     */
+    public Vec3d getLastLocation(final Vec3d store) {
+        if (history != null) {
+            final int frame = lastFrameIndex();
+            return frame < 0 ? null : history.getLocation(frame, store);
+        }
+        final Vec3d loc = getLastLocation();
+        return loc == null ? null : store.set(loc);
+    }
+
+    /**
+     * Copies the most recent orientation applied through addFrame() into the
+     * store and returns it, or returns null if there is none.
+     */
+    public Quatd getLastOrientation(final Quatd store) {
+        if (history != null) {
+            final int frame = lastFrameIndex();
+            return frame < 0 ? null : history.getOrientation(frame, store);
+        }
+        final Quatd orient = getLastOrientation();
+        return orient == null ? null : store.set(orient);
+    }
+
     /**
      * A convenience method for the server-side code to get the most recent position
      * applied through addFrame().
      */
     public Vec3d getLastLocation() {
+        if (history != null) {
+            return getLastLocation(new Vec3d());
+        }
         if (lastTransition == null) {
             return null;
         }
@@ -119,14 +200,35 @@ public final class BodyPosition implements EntityComponent {
      * orientation applied through addFrame().
      */
     public Quatd getLastOrientation() {
+        if (history != null) {
+            return getLastOrientation(new Quatd());
+        }
         if (lastTransition == null) {
             return null;
         }
         return lastTransition.getRotation(lastTransition.getEndTime(), true);
     }
 
+    private int lastFrameIndex() {
+        if (!history.isValid(slot, generation)) {
+            return -1;
+        }
+        return history.getLastFrame(slot);
+    }
+
+    private PositionTransition3d toTransition(final int frame) {
+        if (frame < 0) {
+            return null;
+        }
+        return new PositionTransition3d(history.getTime(frame), history.getLocation(frame, new Vec3d()),
+                history.getOrientation(frame, new Quatd()), history.isVisible(frame));
+    }
+
     @Override
     public String toString() {
+        if (history != null) {
+            return "BodyPosition[slot=" + slot + ", " + history + "]";
+        }
         return "BodyPosition[" + position + "]";
     }
 }
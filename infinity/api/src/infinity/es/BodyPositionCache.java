@@ -36,11 +36,10 @@
 
 package infinity.es;
 
-import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.simsilica.es.EntityId;
 import com.simsilica.mathd.trans.PositionTransition3d;
@@ -53,6 +52,9 @@ import com.simsilica.mathd.trans.TransitionBuffer;
  * so we will kind of back into it by keeping a cache of the internal buffers.
  * BodyPosition will check this cache when initialized.
  *
+ * Lookups don't lock. Each weak reference remembers its entity so a background
+ * cleaner can drop the entry directly once the buffer has been collected.
+ *
  * @author Paul Speed
  */
 public class BodyPositionCache {
@@ -65,33 +67,107 @@ public class BodyPositionCache {
     private final ReferenceQueue<TransitionBuffer<PositionTransition3d>> refs = new ReferenceQueue<>();
 
     /**
-     * A map with weakly referenced values. We'll clean out the values from the
-     * queue whenever a new get() is performed. The theory is that garbage hanging
-     * around is less bad if no one is requesting it anyway.
+     * A map with weakly referenced values. Collected values are removed by the
+     * cleaner thread as soon as the reference queue hands them over.
      */
-    private final Map<EntityId, WeakReference<TransitionBuffer<PositionTransition3d>>> map = new HashMap<>();
+    private final ConcurrentHashMap<EntityId, BufferReference> map = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    protected BodyPositionCache() {
+        final Thread cleaner = new Thread(this::clean, "BodyPositionCache-cleaner");
+        cleaner.setDaemon(true);
+        cleaner.start();
+    }
 
     public static TransitionBuffer<PositionTransition3d> getBuffer(final EntityId id, final int size) {
         return instance.get(id, size);
     }
 
-    protected synchronized TransitionBuffer<PositionTransition3d> get(final EntityId id, final int size) {
+    /**
+     * Returns the number of lookups that found a live buffer.
+     */
+    public static long getHitCount() {
+        return instance.hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that had to create a new buffer.
+     */
+    public static long getMissCount() {
+        return instance.misses.sum();
+    }
+
+    /**
+     * Returns the number of collected buffers removed from the cache.
+     */
+    public static long getEvictionCount() {
+        return instance.evictions.sum();
+    }
+
+    /**
+     * Returns the number of entries currently in the cache, including ones whose
+     * buffers were collected but not cleaned up yet.
+     */
+    public static int getSize() {
+        return instance.map.size();
+    }
+
+    protected TransitionBuffer<PositionTransition3d> get(final EntityId id, final int size) {
 
         // See if we've already got one
-        WeakReference<TransitionBuffer<PositionTransition3d>> result = map.get(id);
-        if (result == null || result.get() == null) {
-            // Need to create a new one
-            final TransitionBuffer<PositionTransition3d> buffer = PositionTransition3d.createBuffer(size);
-            result = new WeakReference<>(buffer, refs);
-            map.put(id, result);
+        final BufferReference existing = map.get(id);
+        if (existing != null) {
+            final TransitionBuffer<PositionTransition3d> buffer = existing.get();
+            if (buffer != null) {
+                hits.increment();
+                return buffer;
+            }
         }
+        misses.increment();
 
-        // Clean out any dead references to keep our map from growing and growing
-        Reference<? extends TransitionBuffer<PositionTransition3d>> toRemove;
-        while ((toRemove = refs.poll()) != null) {
-            map.values().remove(toRemove);
+        // Need to create a new one... but another thread may beat us to it
+        final TransitionBuffer<PositionTransition3d> buffer = PositionTransition3d.createBuffer(size);
+        final BufferReference ref = new BufferReference(id, buffer, refs);
+        while (true) {
+            final BufferReference current = map.putIfAbsent(id, ref);
+            if (current == null) {
+                return buffer;
+            }
+            final TransitionBuffer<PositionTransition3d> other = current.get();
+            if (other != null) {
+                return other;
+            }
+            if (map.replace(id, current, ref)) {
+                return buffer;
+            }
         }
+    }
+
+    private void clean() {
+        while (true) {
+            final BufferReference ref;
+            try {
+                ref = (BufferReference) refs.remove();
+            } catch (final InterruptedException e) {
+                return;
+            }
+            // Only remove the entry if it hasn't already been replaced
+            if (map.remove(ref.id, ref)) {
+                evictions.increment();
+            }
+        }
+    }
+
+    private static class BufferReference extends WeakReference<TransitionBuffer<PositionTransition3d>> {
+        private final EntityId id;
 
-        return result.get();
+        public BufferReference(final EntityId id, final TransitionBuffer<PositionTransition3d> buffer,
+                final ReferenceQueue<TransitionBuffer<PositionTransition3d>> queue) {
+            super(buffer, queue);
+            this.id = id;
+        }
     }
 }
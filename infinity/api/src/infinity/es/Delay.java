@@ -30,7 +30,8 @@ import java.util.HashSet;
 import com.simsilica.es.EntityComponent;
 
 /**
- * Represents a time-to-live for an entity.
+ * Sets or removes a group of components on an entity once the sim time reaches
+ * the expire time.
  *
  * @author Asser Fahrenholz
  */
@@ -44,15 +45,28 @@ public class Delay implements EntityComponent {
     private final HashSet<EntityComponent> delayedComponents;
     private final String type;
 
-    public Delay(final long deltaMillis, final HashSet<EntityComponent> delayedComponents, final String type) {
-        start = System.nanoTime();
+    /**
+     * @param startTime         the sim time the delay starts at
+     * @param deltaMillis       how long to wait in milliseconds
+     * @param delayedComponents the components to set or remove
+     * @param type              SET or REMOVE
+     */
+    public Delay(final long startTime, final long deltaMillis, final HashSet<EntityComponent> delayedComponents,
+            final String type) {
+        start = startTime;
         delta = deltaMillis * 1000000;
         this.delayedComponents = delayedComponents;
         this.type = type;
     }
 
-    public double getPercent() {
-        final long time = System.nanoTime();
+    /**
+     * @return the sim time at which the delayed components are applied
+     */
+    public long getExpireTime() {
+        return start + delta;
+    }
+
+    public double getPercent(final long time) {
         return (double) (time - start) / delta;
     }
 
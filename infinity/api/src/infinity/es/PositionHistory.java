@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.es;
+
+import java.util.Arrays;
+
+import com.simsilica.mathd.Quatd;
+import com.simsilica.mathd.Vec3d;
+
+/**
+ * Keeps a small ring of position, rotation, and visibility frames for many
+ * bodies in flat primitive arrays. Each body is assigned a dense slot index
+ * and its frames live next to each other so that recording a frame or reading
+ * the latest one never allocates. Slots are recycled when released and carry a
+ * generation so that stale views can tell their slot has been handed to
+ * another body.
+ *
+ * This is meant to be written and read from the game loop thread.
+ *
+ * @author Asser Fahrenholz
+ */
+public class PositionHistory {
+
+    private final int history;
+    private int capacity;
+
+    private long[] times;
+    private double[] positions;
+    private double[] rotations;
+    private boolean[] visible;
+
+    private int[] heads;
+    private int[] counts;
+    private int[] generations;
+
+    private int[] freeSlots;
+    private int freeCount;
+    private int nextSlot;
+
+    /**
+     * Creates a store keeping 'history' frames per body with room for
+     * 'initialSlots' bodies before the arrays have to grow.
+     */
+    public PositionHistory(final int history, final int initialSlots) {
+        if (history < 1) {
+            throw new IllegalArgumentException("History must be at least 1:" + history);
+        }
+        this.history = history;
+        this.capacity = Math.max(1, initialSlots);
+        times = new long[capacity * history];
+        positions = new double[capacity * history * 3];
+        rotations = new double[capacity * history * 4];
+        visible = new boolean[capacity * history];
+        heads = new int[capacity];
+        counts = new int[capacity];
+        generations = new int[capacity];
+        freeSlots = new int[capacity];
+    }
+
+    public int getHistorySize() {
+        return history;
+    }
+
+    /**
+     * Returns the number of slots currently handed out.
+     */
+    public int size() {
+        return nextSlot - freeCount;
+    }
+
+    /**
+     * Hands out an empty slot, reusing a released one when possible.
+     */
+    public int allocate() {
+        final int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (nextSlot == capacity) {
+                grow(capacity * 2);
+            }
+            slot = nextSlot++;
+        }
+        heads[slot] = history - 1;
+        counts[slot] = 0;
+        return slot;
+    }
+
+    /**
+     * Returns the slot to the pool. Views holding the old generation will see
+     * no frames from then on.
+     */
+    public void release(final int slot) {
+        generations[slot]++;
+        counts[slot] = 0;
+        freeSlots[freeCount++] = slot;
+    }
+
+    public int getGeneration(final int slot) {
+        return generations[slot];
+    }
+
+    public boolean isValid(final int slot, final int generation) {
+        return slot >= 0 && slot < nextSlot && generations[slot] == generation;
+    }
+
+    /**
+     * Records a frame for the slot, overwriting the oldest one once the ring is
+     * full.
+     */
+    public void addFrame(final int slot, final long time, final Vec3d pos, final Quatd rot, final boolean vis) {
+        final int head = heads[slot] == history - 1 ? 0 : heads[slot] + 1;
+        heads[slot] = head;
+        if (counts[slot] < history) {
+            counts[slot]++;
+        }
+        final int frame = slot * history + head;
+        times[frame] = time;
+        visible[frame] = vis;
+        final int p = frame * 3;
+        positions[p] = pos.x;
+        positions[p + 1] = pos.y;
+        positions[p + 2] = pos.z;
+        final int r = frame * 4;
+        rotations[r] = rot.x;
+        rotations[r + 1] = rot.y;
+        rotations[r + 2] = rot.z;
+        rotations[r + 3] = rot.w;
+    }
+
+    public int getFrameCount(final int slot) {
+        return counts[slot];
+    }
+
+    /**
+     * Returns the frame index of the most recent frame for the slot or -1 if
+     * nothing has been recorded yet. Frame indexes are only good until the next
+     * addFrame() for that slot.
+     */
+    public int getLastFrame(final int slot) {
+        if (counts[slot] == 0) {
+            return -1;
+        }
+        return slot * history + heads[slot];
+    }
+
+    /**
+     * Returns the frame index of the oldest recorded frame that ends at or after
+     * the specified time, the most recent frame if all of them are older, or -1
+     * if nothing has been recorded yet.
+     */
+    public int findFrame(final int slot, final long time) {
+        final int count = counts[slot];
+        if (count == 0) {
+            return -1;
+        }
+        final int base = slot * history;
+        // Walk from oldest to newest
+        int index = heads[slot] - count + 1;
+        if (index < 0) {
+            index += history;
+        }
+        for (int i = 0; i < count; i++) {
+            final int frame = base + index;
+            if (times[frame] >= time) {
+                return frame;
+            }
+            index = index == history - 1 ? 0 : index + 1;
+        }
+        return base + heads[slot];
+    }
+
+    public long getTime(final int frame) {
+        return times[frame];
+    }
+
+    public boolean isVisible(final int frame) {
+        return visible[frame];
+    }
+
+    public double getX(final int frame) {
+        return positions[frame * 3];
+    }
+
+    public double getY(final int frame) {
+        return positions[frame * 3 + 1];
+    }
+
+    public double getZ(final int frame) {
+        return positions[frame * 3 + 2];
+    }
+
+    public Vec3d getLocation(final int frame, final Vec3d store) {
+        final int p = frame * 3;
+        return store.set(positions[p], positions[p + 1], positions[p + 2]);
+    }
+
+    public Quatd getOrientation(final int frame, final Quatd store) {
+        final int r = frame * 4;
+        return store.set(rotations[r], rotations[r + 1], rotations[r + 2], rotations[r + 3]);
+    }
+
+    private void grow(final int size) {
+        capacity = size;
+        times = Arrays.copyOf(times, size * history);
+        positions = Arrays.copyOf(positions, size * history * 3);
+        rotations = Arrays.copyOf(rotations, size * history * 4);
+        visible = Arrays.copyOf(visible, size * history);
+        heads = Arrays.copyOf(heads, size);
+        counts = Arrays.copyOf(counts, size);
+        generations = Arrays.copyOf(generations, size);
+        freeSlots = Arrays.copyOf(freeSlots, size);
+    }
+
+    @Override
+    public String toString() {
+        return "PositionHistory[history=" + history + ", size=" + size() + ", capacity=" + capacity + "]";
+    }
+}
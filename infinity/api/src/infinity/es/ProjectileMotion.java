@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.es;
+
+import com.simsilica.es.EntityComponent;
+import com.simsilica.mathd.Vec3d;
+
+/**
+ * The closed form motion of a projectile. A projectile travels in a straight
+ * line from its origin at a constant velocity, so both the server and the
+ * clients can calculate its position at any time from this one component
+ * instead of having it stepped as a rigid body and streamed every frame. The
+ * component is replaced when the projectile bounces.
+ *
+ * @author Asser
+ */
+public class ProjectileMotion implements EntityComponent {
+
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+
+    private final long startTime;
+    private final Vec3d origin;
+    private final Vec3d velocity;
+
+    public ProjectileMotion() {
+        this(0, new Vec3d(), new Vec3d());
+    }
+
+    /**
+     * @param startTime the sim time in nanoseconds at which the projectile is at
+     *                  the origin
+     * @param origin    the location at the start time
+     * @param velocity  the velocity in units per second
+     */
+    public ProjectileMotion(final long startTime, final Vec3d origin, final Vec3d velocity) {
+        this.startTime = startTime;
+        this.origin = origin;
+        this.velocity = velocity;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public Vec3d getOrigin() {
+        return origin;
+    }
+
+    public Vec3d getVelocity() {
+        return velocity;
+    }
+
+    /**
+     * Calculates the location of the projectile at the specified time.
+     *
+     * @param time  the sim time in nanoseconds
+     * @param store the vector to store the location in
+     * @return the store
+     */
+    public Vec3d getLocation(final long time, final Vec3d store) {
+        final double t = (time - startTime) / NANOS_PER_SECOND;
+        store.x = origin.x + velocity.x * t;
+        store.y = origin.y + velocity.y * t;
+        store.z = origin.z + velocity.z * t;
+        return store;
+    }
+
+    @Override
+    public String toString() {
+        return "ProjectileMotion[startTime=" + startTime + ", origin=" + origin + ", velocity=" + velocity + "]";
+    }
+}
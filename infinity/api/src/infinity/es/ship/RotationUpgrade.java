@@ -5,12 +5,14 @@
  */
 package infinity.es.ship;
 
+import com.simsilica.es.EntityComponent;
+
 /**
  * Amount added per 'Rotation' Prize
  *
  * @author Asser Fahrenholz
  */
-public class RotationUpgrade {
+public class RotationUpgrade implements EntityComponent {
 
     int energyUpgrade;
 
@@ -5,12 +5,14 @@
  */
 package infinity.es.ship;
 
+import com.simsilica.es.EntityComponent;
+
 /**
  * Initial speed of ship (0 = can't move)
  *
  * @author Asser Fahrenholz
  */
-public class Speed {
+public class Speed implements EntityComponent {
 
     int speed;
 
@@ -5,12 +5,14 @@
  */
 package infinity.es.ship;
 
+import com.simsilica.es.EntityComponent;
+
 /**
  * Amount added per 'Speed' Prize
  *
  * @author Asser Fahrenholz
  */
-public class SpeedUpgrade {
+public class SpeedUpgrade implements EntityComponent {
 
     int energyUpgrade;
 
@@ -5,12 +5,14 @@
  */
 package infinity.es.ship;
 
+import com.simsilica.es.EntityComponent;
+
 /**
  * Initial thrust of ship (0 = none)
  *
  * @author Asser Fahrenholz
  */
-public class Thrust {
+public class Thrust implements EntityComponent {
 
     int thrust;
 
@@ -5,12 +5,14 @@
  */
 package infinity.es.ship;
 
+import com.simsilica.es.EntityComponent;
+
 /**
  * Amount added per 'Thruster' Prize
  *
  * @author Asser Fahrenholz
  */
-public class ThrustUpgrade {
+public class ThrustUpgrade implements EntityComponent {
 
     int energyUpgrade;
 
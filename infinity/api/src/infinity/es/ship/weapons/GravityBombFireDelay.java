@@ -33,31 +33,21 @@ import com.simsilica.es.EntityComponent;
  */
 public class GravityBombFireDelay implements EntityComponent {
 
-    private final long start;
     private final long delta;
 
     public GravityBombFireDelay() {
-        start = System.nanoTime();
         delta = 1000000 * 10;
     }
 
     public GravityBombFireDelay(final long deltaMillis) {
-        start = System.nanoTime();
         delta = deltaMillis * 1000000;
     }
 
-    public double getPercent() {
-        final long time = System.nanoTime();
-        return (double) (time - start) / delta;
-    }
-
     /**
-     * Create a new copy of this class witht the same delay
-     *
-     * @return new BombFireDelay instance
+     * @return the sim time in nanoseconds between two gravity bombs
      */
-    public GravityBombFireDelay copy() {
-        return new GravityBombFireDelay(delta / 1000000);
+    public long getCooldown() {
+        return delta;
     }
 
     @Override
@@ -33,31 +33,21 @@ import com.simsilica.es.EntityComponent;
  */
 public class GunFireDelay implements EntityComponent {
 
-    private final long start;
     private final long delta;
 
     public GunFireDelay() {
-        start = System.nanoTime();
         delta = 1000000 * 10;
     }
 
     public GunFireDelay(final long deltaMillis) {
-        start = System.nanoTime();
         delta = deltaMillis * 1000000;
     }
 
-    public double getPercent() {
-        final long time = System.nanoTime();
-        return (double) (time - start) / delta;
-    }
-
     /**
-     * Create a new copy of this class witht the same delay
-     *
-     * @return new BombFireDelay instance
+     * @return the sim time in nanoseconds between two volleys of bullets
      */
-    public GunFireDelay copy() {
-        return new GunFireDelay(delta / 1000000);
+    public long getCooldown() {
+        return delta;
     }
 
     @Override
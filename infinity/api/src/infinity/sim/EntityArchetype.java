@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.sim;
+
+import java.util.Arrays;
+
+import com.simsilica.es.EntityComponent;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+
+/**
+ * An immutable template of the components shared by every entity of one kind.
+ * The components of an archetype are created once, with any string ids already
+ * looked up, and are shared by all the entities created from it. Creating an
+ * entity sets the template and the per-entity components with a single
+ * setComponents() call.
+ *
+ * The components must be immutable, like all components should be. Per-entity
+ * components passed to create() should not repeat a type of the template.
+ *
+ * @author Asser Fahrenholz
+ */
+public final class EntityArchetype {
+
+    private final String name;
+    private final EntityComponent[] components;
+
+    private EntityArchetype(final String name, final EntityComponent[] components) {
+        this.name = name;
+        this.components = components;
+    }
+
+    public static EntityArchetype of(final String name, final EntityComponent... components) {
+        return new EntityArchetype(name, components.clone());
+    }
+
+    /**
+     * Returns a new archetype with the components added, replacing the template
+     * components of the same type.
+     */
+    public EntityArchetype with(final String name, final EntityComponent... more) {
+        EntityComponent[] result = components.clone();
+        int size = result.length;
+        for (final EntityComponent c : more) {
+            final int i = indexOf(result, size, c.getClass());
+            if (i >= 0) {
+                result[i] = c;
+            } else {
+                if (size == result.length) {
+                    result = Arrays.copyOf(result, size + more.length);
+                }
+                result[size++] = c;
+            }
+        }
+        return new EntityArchetype(name, Arrays.copyOf(result, size));
+    }
+
+    private static int indexOf(final EntityComponent[] array, final int size, final Class<?> type) {
+        for (int i = 0; i < size; i++) {
+            if (array[i].getClass() == type) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Creates an entity with the template components and the per-entity
+     * components.
+     */
+    public EntityId create(final EntityData ed, final EntityComponent... instance) {
+        final EntityId result = ed.createEntity();
+        apply(ed, result, instance);
+        return result;
+    }
+
+    /**
+     * Sets the template components and the per-entity components on an existing
+     * entity.
+     */
+    public void apply(final EntityData ed, final EntityId id, final EntityComponent... instance) {
+        final EntityComponent[] all = Arrays.copyOf(components, components.length + instance.length);
+        System.arraycopy(instance, 0, all, components.length, instance.length);
+        ed.setComponents(id, all);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of template components
+     */
+    public int size() {
+        return components.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends EntityComponent> T get(final Class<T> type) {
+        final int i = indexOf(components, components.length, type);
+        return i < 0 ? null : (T) components[i];
+    }
+
+    @Override
+    public String toString() {
+        return "EntityArchetype[" + name + ", " + Arrays.toString(components) + "]";
+    }
+}
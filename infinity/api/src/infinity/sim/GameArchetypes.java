@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.sim;
+
+import com.simsilica.es.EntityData;
+import com.simsilica.ext.mphys.Gravity;
+import com.simsilica.ext.mphys.Mass;
+import com.simsilica.ext.mphys.ShapeInfo;
+
+import infinity.es.CollisionCategory;
+import infinity.es.Frequency;
+import infinity.es.Gold;
+import infinity.es.ShapeNames;
+import infinity.es.WeaponTypes;
+import infinity.es.ship.Energy;
+import infinity.es.ship.EnergyMax;
+import infinity.es.ship.Recharge;
+import infinity.es.ship.actions.Burst;
+import infinity.es.ship.actions.BurstMax;
+import infinity.es.ship.actions.Repel;
+import infinity.es.ship.actions.RepelMax;
+import infinity.es.ship.actions.Thor;
+import infinity.es.ship.actions.ThorMax;
+import infinity.es.ship.weapons.Bomb;
+import infinity.es.ship.weapons.BombCost;
+import infinity.es.ship.weapons.BombFireDelay;
+import infinity.es.ship.weapons.BombLevelEnum;
+import infinity.es.ship.weapons.GravityBomb;
+import infinity.es.ship.weapons.GravityBombCost;
+import infinity.es.ship.weapons.GravityBombFireDelay;
+import infinity.es.ship.weapons.Gun;
+import infinity.es.ship.weapons.GunCost;
+import infinity.es.ship.weapons.GunFireDelay;
+import infinity.es.ship.weapons.GunLevelEnum;
+import infinity.es.ship.weapons.Mine;
+import infinity.es.ship.weapons.MineCost;
+import infinity.es.ship.weapons.MineFireDelay;
+import infinity.es.ship.weapons.MineMax;
+
+/**
+ * The archetypes of the entities that are created often: ships and
+ * projectiles. They are resolved once per EntityData, so the shape and weapon
+ * type names are only looked up in the string index once.
+ *
+ * @author Asser Fahrenholz
+ */
+public final class GameArchetypes {
+
+    private static final int LEVELS = 4;
+
+    private static volatile GameArchetypes current;
+
+    private final EntityData ed;
+    private final EntityArchetype warbird;
+    private final EntityArchetype[] bullets = new EntityArchetype[LEVELS];
+    private final EntityArchetype[] bombs = new EntityArchetype[LEVELS];
+    private final EntityArchetype burst;
+    private final EntityArchetype thor;
+
+    private GameArchetypes(final EntityData ed) {
+        this.ed = ed;
+
+        warbird = EntityArchetype.of(ShapeNames.SHIP_WARBIRD,
+                ShapeInfo.create(ShapeNames.SHIP_WARBIRD, CorePhysicsConstants.SHIPSIZERADIUS, ed), new Mass(1),
+                Gravity.ZERO, new Frequency(1), new Gold(0), new Energy(CoreGameConstants.SHIPHEALTH),
+                new EnergyMax(CoreGameConstants.SHIPHEALTH * 2), new Recharge(100),
+                new Bomb(BombLevelEnum.BOMB_1), new BombCost(2), new BombFireDelay(500),
+                new Burst(5), new BurstMax(5),
+                new Gun(GunLevelEnum.LEVEL_1), new GunCost(10), new GunFireDelay(250),
+                new GravityBomb(BombLevelEnum.BOMB_1), new GravityBombCost(10), new GravityBombFireDelay(1000),
+                new Mine(BombLevelEnum.BOMB_1), new MineCost(50), new MineFireDelay(500), new MineMax(4),
+                new Thor(2), new ThorMax(2),
+                new Repel(10), new RepelMax(20),
+                new CollisionCategory(CollisionFilters.FILTER_CATEGORY_DYNAMIC_PLAYERS));
+
+        for (final GunLevelEnum level : GunLevelEnum.values()) {
+            final String shape = "bullet_l" + level.level;
+            bullets[level.level - 1] = EntityArchetype.of(shape,
+                    ShapeInfo.create(shape, CorePhysicsConstants.BULLETSIZERADIUS, ed), WeaponTypes.bullet(ed));
+        }
+
+        final BombLevelEnum[] bombLevels = { BombLevelEnum.BOMB_1, BombLevelEnum.BOMB_2, BombLevelEnum.BOMB_3,
+                BombLevelEnum.BOMB_4 };
+        for (final BombLevelEnum level : bombLevels) {
+            final String shape = "bomb_l" + level.level;
+            bombs[level.level - 1] = EntityArchetype.of(shape,
+                    ShapeInfo.create(shape, CorePhysicsConstants.BOMBSIZERADIUS, ed), WeaponTypes.bomb(ed));
+        }
+
+        burst = EntityArchetype.of(ShapeNames.BURST,
+                ShapeInfo.create(ShapeNames.BURST, CorePhysicsConstants.BURSTSIZERADIUS, ed), WeaponTypes.burst(ed));
+        thor = EntityArchetype.of(ShapeNames.THOR,
+                ShapeInfo.create(ShapeNames.THOR, CorePhysicsConstants.THORSIZERADIUS, ed), WeaponTypes.thor(ed));
+    }
+
+    /**
+     * Returns the archetypes of the entity data, resolving them the first time.
+     * The server has a single EntityData, so only the last one is kept.
+     */
+    public static GameArchetypes get(final EntityData ed) {
+        GameArchetypes result = current;
+        if (result == null || result.ed != ed) {
+            result = new GameArchetypes(ed);
+            current = result;
+        }
+        return result;
+    }
+
+    public EntityArchetype getWarbird() {
+        return warbird;
+    }
+
+    public EntityArchetype getBullet(final GunLevelEnum level) {
+        return bullets[level.level - 1];
+    }
+
+    public EntityArchetype getBomb(final BombLevelEnum level) {
+        return bombs[level.level - 1];
+    }
+
+    public EntityArchetype getBurst() {
+        return burst;
+    }
+
+    public EntityArchetype getThor() {
+        return thor;
+    }
+}
@@ -33,7 +33,6 @@ import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import com.simsilica.es.Name;
 import com.simsilica.es.common.Decay;
-import com.simsilica.ext.mphys.Gravity;
 import com.simsilica.ext.mphys.Impulse;
 import com.simsilica.ext.mphys.Mass;
 import com.simsilica.ext.mphys.ShapeInfo;
@@ -46,14 +45,15 @@ import infinity.es.AudioTypes;
 import infinity.es.Bounty;
 import infinity.es.Buff;
 import infinity.es.CollisionCategory;
+import infinity.es.Damage;
 import infinity.es.Delay;
 import infinity.es.Flag;
 import infinity.es.Frequency;
-import infinity.es.Gold;
 import infinity.es.GravityWell;
 import infinity.es.HealthChange;
 import infinity.es.Meta;
 import infinity.es.Parent;
+import infinity.es.ProjectileMotion;
 import infinity.es.PrizeType;
 import infinity.es.ShapeNames;
 import infinity.es.Spawner;
@@ -61,30 +61,8 @@ import infinity.es.TileType;
 import infinity.es.TileTypes;
 import infinity.es.WarpTouch;
 import infinity.es.WeaponTypes;
-import infinity.es.ship.Energy;
-import infinity.es.ship.EnergyMax;
-import infinity.es.ship.Recharge;
-import infinity.es.ship.actions.Burst;
-import infinity.es.ship.actions.BurstMax;
-import infinity.es.ship.actions.Repel;
-import infinity.es.ship.actions.RepelMax;
-import infinity.es.ship.actions.Thor;
-import infinity.es.ship.actions.ThorMax;
-import infinity.es.ship.weapons.Bomb;
-import infinity.es.ship.weapons.BombCost;
-import infinity.es.ship.weapons.BombFireDelay;
 import infinity.es.ship.weapons.BombLevelEnum;
-import infinity.es.ship.weapons.GravityBomb;
-import infinity.es.ship.weapons.GravityBombCost;
-import infinity.es.ship.weapons.GravityBombFireDelay;
-import infinity.es.ship.weapons.Gun;
-import infinity.es.ship.weapons.GunCost;
-import infinity.es.ship.weapons.GunFireDelay;
 import infinity.es.ship.weapons.GunLevelEnum;
-import infinity.es.ship.weapons.Mine;
-import infinity.es.ship.weapons.MineCost;
-import infinity.es.ship.weapons.MineFireDelay;
-import infinity.es.ship.weapons.MineMax;
 
 /**
  * Utility methods for creating the common game entities used by the simulation.
@@ -112,48 +90,57 @@ public class GameEntities {
 
     public static EntityId createDelayedBomb(final EntityData ed, final EntityId owner, final PhysicsSpace<?, ?> phys,
             final long createdTime, final Vec3d pos, final Vec3d linearVelocity, final long decayMillis,
-            final long scheduledMillis, final HashSet<EntityComponent> delayedComponents, final BombLevelEnum level) {
+            final long scheduledMillis, final HashSet<EntityComponent> delayedComponents, final BombLevelEnum level,
+            final Damage damage) {
 
-        final EntityId lastDelayedBomb = GameEntities.createBomb(ed, owner, phys, createdTime, pos, linearVelocity,
-                decayMillis, level);
+        // A gravity bomb turns into a gravity well, which needs a rigid body, so
+        // unlike the other projectiles it is still simulated by the physics
+        final EntityId lastDelayedBomb = ed.createEntity();
 
-        ed.setComponents(lastDelayedBomb, new Delay(scheduledMillis, delayedComponents, Delay.SET));
+        ed.setComponents(lastDelayedBomb, ShapeInfo.create("bomb_l" + level.level, 0.5, ed),
+                new SpawnPosition(phys.getGrid(), pos), new Mass(5),
+                new Decay(createdTime, createdTime + TimeUnit.NANOSECONDS.convert(decayMillis, TimeUnit.MILLISECONDS)),
+                new Impulse(linearVelocity),
+                new CollisionCategory(CollisionFilters.FILTER_CATEGORY_DYNAMIC_PROJECTILES), new Parent(owner),
+                damage);
+        ed.setComponent(lastDelayedBomb, new Meta(createdTime));
+
+        ed.setComponents(lastDelayedBomb, new Delay(createdTime, scheduledMillis, delayedComponents, Delay.SET));
         ed.setComponents(lastDelayedBomb, WeaponTypes.gravityBomb(ed));
 
         return lastDelayedBomb;
     }
 
-    public static EntityId createBomb(final EntityData ed, final EntityId owner, final PhysicsSpace<?, ?> phys,
-            final long createdTime, final Vec3d pos, final Vec3d linearVelocity, final long decayMillis,
-            final BombLevelEnum level) {
-        final EntityId lastBomb = ed.createEntity();
-
-        ed.setComponents(lastBomb, ShapeInfo.create("bomb_l" + level.level, 0.5, ed),
-                new SpawnPosition(phys.getGrid(), pos), new Mass(5),
-                new Decay(createdTime, createdTime + TimeUnit.NANOSECONDS.convert(decayMillis, TimeUnit.MILLISECONDS)),
-                WeaponTypes.bomb(ed), new Impulse(linearVelocity),
-                new CollisionCategory(CollisionFilters.FILTER_CATEGORY_DYNAMIC_PROJECTILES), new Parent(owner));
-
+    /**
+     * Creates a bomb. Bombs are not rigid bodies, they move by their
+     * ProjectileMotion and the ProjectileSystem checks them for hits.
+     */
+    public static EntityId createBomb(final EntityData ed, final EntityId owner,
+            @SuppressWarnings("unused") final PhysicsSpace<?, ?> phys, final long createdTime, final Vec3d pos,
+            final Vec3d linearVelocity, final long decayMillis, final BombLevelEnum level, final Damage damage) {
         // new PointLightComponent(level.lightColor, level.lightRadius,
         // CorePhysicsConstants.SHIPLIGHTOFFSET));
-        ed.setComponent(lastBomb, new Meta(createdTime));
-        return lastBomb;
+        return GameArchetypes.get(ed).getBomb(level).create(ed, new ProjectileMotion(createdTime, pos, linearVelocity),
+                new Decay(createdTime, createdTime + TimeUnit.NANOSECONDS.convert(decayMillis, TimeUnit.MILLISECONDS)),
+                new Parent(owner), new Meta(createdTime), damage);
     }
 
-    public static EntityId createBullet(final EntityData ed, final EntityId owner, final PhysicsSpace<?, ?> phys,
-            final long createdTime, final Vec3d pos, final Vec3d linearVelocity, final long decayMillis,
-            @SuppressWarnings("unused") final GunLevelEnum level, final String shapeName) {
-        final EntityId lastBullet = ed.createEntity();
-
-        ed.setComponents(lastBullet, ShapeInfo.create(shapeName, 0.125, ed), new SpawnPosition(phys.getGrid(), pos),
-                new Mass(1),
+    /**
+     * Creates a bullet. Bullets are not rigid bodies, they move by their
+     * ProjectileMotion and the ProjectileSystem checks them for hits.
+     */
+    public static EntityId createBullet(final EntityData ed, final EntityId owner,
+            @SuppressWarnings("unused") final PhysicsSpace<?, ?> phys, final long createdTime, final Vec3d pos,
+            final Vec3d linearVelocity, final long decayMillis, final GunLevelEnum level, final String shapeName,
+            final Damage damage) {
+        EntityArchetype bullet = GameArchetypes.get(ed).getBullet(level);
+        if (!bullet.getName().equals(shapeName)) {
+            bullet = bullet.with(shapeName, ShapeInfo.create(shapeName, CorePhysicsConstants.BULLETSIZERADIUS, ed));
+        }
+
+        return bullet.create(ed, new ProjectileMotion(createdTime, pos, linearVelocity),
                 new Decay(createdTime, createdTime + TimeUnit.NANOSECONDS.convert(decayMillis, TimeUnit.MILLISECONDS)),
-                WeaponTypes.bullet(ed), new Impulse(linearVelocity),
-                new CollisionCategory(CollisionFilters.FILTER_CATEGORY_DYNAMIC_PROJECTILES), new Parent(owner));
-
-        ed.setComponent(lastBullet, new Meta(createdTime));
-
-        return lastBullet;
+                new Parent(owner), new Meta(createdTime), damage);
     }
 
     public static EntityId createArena(final EntityData ed, @SuppressWarnings("unused") final EntityId owner,
@@ -329,65 +316,12 @@ public class GameEntities {
     // complex types used in the backend
     public static EntityId createWarbird(final EntityData ed, final EntityId owner, final PhysicsSpace<?, ?> phys,
             final long createdTime) {
-        final EntityId result = ed.createEntity();
         final Name name = ed.getComponent(owner, Name.class);
-        ed.setComponent(result, name);
-
-        ed.setComponents(result, ShapeInfo.create(ShapeNames.SHIP_WARBIRD, CorePhysicsConstants.SHIPSIZERADIUS, ed));
-
-        // ViewTypes.ship_warbird(ed),
-        // PhysicsMassTypes.normal(ed),
-        // PhysicsShapes.ship());
-        ed.setComponent(result, new SpawnPosition(phys.getGrid(), new Vec3d(20, 0.5, 20)));
-        ed.setComponent(result, new Mass(1));
-        ed.setComponent(result, Gravity.ZERO);
-
-        ed.setComponent(result, new Frequency(1));
-        ed.setComponent(result, new Gold(0));
-
-        ed.setComponent(result, new Energy(CoreGameConstants.SHIPHEALTH));
-        ed.setComponent(result, new EnergyMax(CoreGameConstants.SHIPHEALTH * 2));
-        ed.setComponent(result, new Recharge(100));
-
-        // Add bombs:
-        ed.setComponent(result, new Bomb(BombLevelEnum.BOMB_1));
-        ed.setComponent(result, new BombCost(2));
-        ed.setComponent(result, new BombFireDelay(500));
-
-        // Add burst:
-        ed.setComponent(result, new Burst(5));
-        ed.setComponent(result, new BurstMax(5));
-
-        // Add guns:
-        ed.setComponent(result, new Gun(GunLevelEnum.LEVEL_1));
-        ed.setComponent(result, new GunCost(10));
-        ed.setComponent(result, new GunFireDelay(250));
-
-        // Add gravity bombs
-        ed.setComponent(result, new GravityBomb(BombLevelEnum.BOMB_1));
-        ed.setComponent(result, new GravityBombCost(10));
-        ed.setComponent(result, new GravityBombFireDelay(1000));
-
-        // Add mines
-        ed.setComponent(result, new Mine(BombLevelEnum.BOMB_1));
-        ed.setComponent(result, new MineCost(50));
-        ed.setComponent(result, new MineFireDelay(500));
-        ed.setComponent(result, new MineMax(4));
-
-        // Add thors
-        ed.setComponent(result, new Thor(2));
-        ed.setComponent(result, new ThorMax(2));
-
-        // Add repels
-        ed.setComponent(result, new Repel(10));
-        ed.setComponent(result, new RepelMax(20));
-
-        ed.setComponent(result, new CollisionCategory(CollisionFilters.FILTER_CATEGORY_DYNAMIC_PLAYERS));
 
         // ed.setComponent(result, new PointLightComponent(ColorRGBA.White,
         // CoreViewConstants.SHIPLIGHTRADIUS, CorePhysicsConstants.SHIPLIGHTOFFSET));
-        ed.setComponent(result, new Meta(createdTime));
-        return result;
+        return GameArchetypes.get(ed).getWarbird().create(ed, name,
+                new SpawnPosition(phys.getGrid(), new Vec3d(20, 0.5, 20)), new Meta(createdTime));
     }
 
     public static EntityId createPrize(final EntityData ed, final PhysicsSpace<?, ?> phys, final long createdTime,
@@ -415,25 +349,13 @@ public class GameEntities {
         return result;
     }
 
-    public static EntityId createBurst(final EntityData ed, final EntityId owner, final PhysicsSpace<?, ?> phys,
-            final long createdTime, final Vec3d pos, @SuppressWarnings("unused") final Vec3d linearVelocity,
-            final long decayMillis) {
-        final EntityId lastBomb = ed.createEntity();
-
-        ed.setComponents(lastBomb,
-                // ViewTypes.burst(ed),
-                ShapeInfo.create(ShapeNames.BURST, CorePhysicsConstants.BURSTSIZERADIUS, ed),
-                new SpawnPosition(phys.getGrid(), pos),
-                // new PhysicsVelocity(new Vec3d(linearVelocity.x, linearVelocity.y)),
-                new Decay(createdTime, createdTime + TimeUnit.NANOSECONDS.convert(decayMillis, TimeUnit.MILLISECONDS)),
-                WeaponTypes.burst(ed),
-                // PhysicsMassTypes.normal_bullet(ed),
-                // PhysicsShapes.burst(),
-                new Parent(owner)
+    public static EntityId createBurst(final EntityData ed, final EntityId owner,
+            @SuppressWarnings("unused") final PhysicsSpace<?, ?> phys, final long createdTime, final Vec3d pos,
+            final Vec3d linearVelocity, final long decayMillis, final Damage damage) {
         // new PointLightComponent(level.lightColor, level.lightRadius));
-        );
-        ed.setComponent(lastBomb, new Meta(createdTime));
-        return lastBomb;
+        return GameArchetypes.get(ed).getBurst().create(ed, new ProjectileMotion(createdTime, pos, linearVelocity),
+                new Decay(createdTime, createdTime + TimeUnit.NANOSECONDS.convert(decayMillis, TimeUnit.MILLISECONDS)),
+                new Parent(owner), new Meta(createdTime), damage);
     }
 
     public static EntityId createMapTile(final EntityData ed, @SuppressWarnings("unused") final EntityId owner,
@@ -489,17 +411,11 @@ public class GameEntities {
         return lastWarpTo;
     }
 
-    public static EntityId createThor(final EntityData ed, final EntityId owner, final PhysicsSpace<?, ?> phys,
-            final long createdTime, final Vec3d pos, @SuppressWarnings("unused") final Vec3d attackVelocity,
-            final long thorDecay) {
-        final EntityId lastBomb = ed.createEntity();
-
-        ed.setComponents(lastBomb, ShapeInfo.create(ShapeNames.THOR, CorePhysicsConstants.THORSIZERADIUS, ed),
-                new SpawnPosition(phys.getGrid(), pos),
+    public static EntityId createThor(final EntityData ed, final EntityId owner,
+            @SuppressWarnings("unused") final PhysicsSpace<?, ?> phys, final long createdTime, final Vec3d pos,
+            final Vec3d attackVelocity, final long thorDecay, final Damage damage) {
+        return GameArchetypes.get(ed).getThor().create(ed, new ProjectileMotion(createdTime, pos, attackVelocity),
                 new Decay(createdTime, createdTime + TimeUnit.NANOSECONDS.convert(thorDecay, TimeUnit.MILLISECONDS)),
-                WeaponTypes.thor(ed), new Parent(owner));
-        ed.setComponent(lastBomb, new Meta(createdTime));
-
-        return lastBomb;
+                new Parent(owner), new Meta(createdTime), damage);
     }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.es;
+
+import java.util.concurrent.CountDownLatch;
+
+import com.simsilica.es.EntityId;
+import com.simsilica.mathd.trans.PositionTransition3d;
+import com.simsilica.mathd.trans.TransitionBuffer;
+
+/**
+ * Looks up the position buffers of 2000 bodies from several threads at once,
+ * the way the client's views and the server's publishers share the cache.
+ * The buffers are kept alive so every lookup after the first is a hit.
+ */
+public class BodyPositionCacheBench {
+
+    private static final int BODIES = 2000;
+    private static final int THREADS = 8;
+    private static final int LOOKUPS = 1 << 22;
+    private static final int ROUNDS = 5;
+
+    public static void main(final String... args) throws InterruptedException {
+        final EntityId[] ids = new EntityId[BODIES];
+        @SuppressWarnings("unchecked")
+        final TransitionBuffer<PositionTransition3d>[] buffers = new TransitionBuffer[BODIES];
+        for (int i = 0; i < BODIES; i++) {
+            ids[i] = new EntityId(i);
+            buffers[i] = BodyPositionCache.getBuffer(ids[i], 12);
+        }
+
+        for (int threads = 1; threads <= THREADS; threads *= 2) {
+            for (int round = 0; round < ROUNDS; round++) {
+                final long time = run(ids, threads);
+                System.out.printf("%d threads, round %d: %.1f ns/lookup, %d hits, %d misses%n", threads, round,
+                        (double) time / LOOKUPS, BodyPositionCache.getHitCount(), BodyPositionCache.getMissCount());
+            }
+        }
+        // Keep the buffers reachable until the end
+        System.out.println(buffers.length + " buffers");
+    }
+
+    /**
+     * Splits the lookups over the threads and returns the wall time they took.
+     */
+    private static long run(final EntityId[] ids, final int threads) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(threads);
+        final int perThread = LOOKUPS / threads;
+        final long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * 7;
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    BodyPositionCache.getBuffer(ids[(i + offset) % ids.length], 12);
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        return System.nanoTime() - start;
+    }
+}
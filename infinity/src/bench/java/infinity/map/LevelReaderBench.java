@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.map;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Reads every level file below a directory with LevelReader, both memory
+ * mapped and from a stream, and reports the time and the bytes allocated per
+ * pass. The directory defaults to the shipped maps.
+ */
+public class LevelReaderBench {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(final String... args) throws IOException {
+        final Path dir = Paths.get(args.length > 0 ? args[0] : "assets/Maps");
+        final List<Path> files;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            files = walk.filter(p -> p.toString().endsWith(".lvl")).sorted().collect(Collectors.toList());
+        }
+
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long tiles = 0;
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            for (final Path file : files) {
+                tiles += LevelReader.map(file).getTileCount();
+            }
+            final long mapped = System.nanoTime() - start;
+            final long mappedBytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+            bytes = threads.getThreadAllocatedBytes(thread);
+            start = System.nanoTime();
+            for (final Path file : files) {
+                try (java.io.InputStream in = Files.newInputStream(file)) {
+                    tiles += LevelReader.read(in).getTileCount();
+                }
+            }
+            final long streamed = System.nanoTime() - start;
+            final long streamedBytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+            System.out.printf("round %d: %d files, mapped %.1f ms %.1f MB, streamed %.1f ms %.1f MB (%d tiles)%n",
+                    round, files.size(), mapped / 1e6, mappedBytes / 1e6, streamed / 1e6, streamedBytes / 1e6, tiles);
+        }
+    }
+}
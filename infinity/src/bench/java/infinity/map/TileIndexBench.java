@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.map;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Fills a TileIndex from a level file, remasking every tile the way a map
+ * import does, and then times single tile edits with the remask of their
+ * neighbours. The level defaults to the arena the server loads.
+ */
+public class TileIndexBench {
+
+    private static final int EDITS = 1 << 18;
+    private static final int ROUNDS = 5;
+
+    private static long sum;
+
+    public static void main(final String... args) throws IOException {
+        final Path file = Paths.get(args.length > 0 ? args[0] : "assets/Maps/aswz/aswz.lvl");
+        final LevelReader level = LevelReader.map(file);
+        final int size = LevelReader.MAP_SIZE;
+        final TileIndex.RemaskListener listener = (x, z, id, index) -> sum += index;
+
+        final Random random = new Random(1);
+        final int[] edits = new int[EDITS];
+        for (int i = 0; i < EDITS; i++) {
+            edits[i] = random.nextInt(size * size);
+        }
+
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            final TileIndex index = new TileIndex();
+            long start = System.nanoTime();
+            final long[] cells = new long[level.getTileCount()];
+            int count = 0;
+            for (int z = 0; z < size; z++) {
+                for (int x = 0; x < size; x++) {
+                    if (level.getTile(x, z) != 0 && count < cells.length) {
+                        index.put(x, z, count);
+                        cells[count++] = TileIndex.pack(x, z);
+                    }
+                }
+            }
+            index.remask(cells, count, listener);
+            final long load = System.nanoTime() - start;
+
+            final long bytes = threads.getThreadAllocatedBytes(thread);
+            start = System.nanoTime();
+            for (final int cell : edits) {
+                final int x = cell % size;
+                final int z = cell / size;
+                if (index.remove(x, z) == TileIndex.NO_ENTITY) {
+                    index.put(x, z, cell);
+                }
+                index.remask(x, z, listener);
+            }
+            final long edit = System.nanoTime() - start;
+            final long allocated = threads.getThreadAllocatedBytes(thread) - bytes;
+
+            System.out.printf("round %d: %d tiles loaded in %.2f ms, edit %.1f ns, %.2f bytes/edit (%d)%n", round,
+                    count, load / 1e6, (double) edit / EDITS, (double) allocated / EDITS, sum);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.simsilica.es.EntityChange;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.base.DefaultEntityData;
+
+import infinity.es.BodyPosition;
+
+/**
+ * Diffs the visible bodies of 200 connections every frame. Each connection
+ * sees a window of the bodies that slides a little every frame, so a few
+ * bodies come into view and a few leave, and the queue of every connection
+ * holds a BodyPosition change for every body. Reports the time and the bytes
+ * allocated per frame for all connections together.
+ */
+public class BodyVisibilityBench {
+
+    private static final int CONNECTIONS = 200;
+    private static final int BODIES = 2000;
+    private static final int VISIBLE = 300;
+    private static final int SLIDES = 64;
+    private static final int FRAMES = 200;
+    private static final int ROUNDS = 5;
+
+    public static void main(final String... args) {
+        final EntityData ed = new DefaultEntityData();
+        final List<EntityChange> changes = new ArrayList<>();
+        for (int i = 0; i < BODIES; i++) {
+            final EntityId id = ed.createEntity();
+            ed.setComponent(id, new BodyPosition());
+            changes.add(new EntityChange(id, BodyPosition.class));
+        }
+        final long first = changes.get(0).getEntityId().getId();
+
+        // The active sets a connection goes through as its window slides
+        @SuppressWarnings("unchecked")
+        final Set<Long>[] windows = new Set[SLIDES];
+        for (int s = 0; s < SLIDES; s++) {
+            windows[s] = new HashSet<>();
+            for (int i = 0; i < VISIBLE; i++) {
+                windows[s].add(Long.valueOf(first + (s * 4 + i) % BODIES));
+            }
+        }
+
+        final BodyVisibility[] connections = new BodyVisibility[CONNECTIONS];
+        for (int c = 0; c < CONNECTIONS; c++) {
+            connections[c] = new BodyVisibility(null);
+            connections[c].initialize(ed);
+        }
+        // The hosted entity data queues the changes of a connection the same way
+        final ConcurrentLinkedQueue<EntityChange> updates = new ConcurrentLinkedQueue<>();
+
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+
+        // Warm up
+        run(connections, windows, changes, updates, FRAMES);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            // Filling the queues costs the same with or without the diff, so it
+            // is measured on its own and taken out
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            run(null, windows, changes, updates, FRAMES);
+            final long fillTime = System.nanoTime() - start;
+            final long fillBytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+            bytes = threads.getThreadAllocatedBytes(thread);
+            start = System.nanoTime();
+            final long sent = run(connections, windows, changes, updates, FRAMES);
+            final long time = System.nanoTime() - start - fillTime;
+            final long allocated = threads.getThreadAllocatedBytes(thread) - bytes - fillBytes;
+            System.out.printf("round %d: %.1f us/frame, %.0f bytes/frame, %.1f changes/connection%n", round,
+                    time / 1000.0 / FRAMES, (double) allocated / FRAMES, (double) sent / FRAMES / CONNECTIONS);
+        }
+    }
+
+    /**
+     * Runs the frames, only filling the queues if there are no connections.
+     */
+    private static long run(final BodyVisibility[] connections, final Set<Long>[] windows,
+            final List<EntityChange> changes, final ConcurrentLinkedQueue<EntityChange> updates, final int frames) {
+        long sent = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            for (int c = 0; c < CONNECTIONS; c++) {
+                updates.clear();
+                updates.addAll(changes);
+                if (connections != null) {
+                    connections[c].collectChanges(windows[(frame + c) % windows.length], updates);
+                }
+                sent += updates.size();
+            }
+        }
+        return sent;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import com.simsilica.mathd.Vec3i;
+import com.simsilica.mblock.CellArray;
+import com.simsilica.mworld.Coordinates;
+import com.simsilica.mworld.LeafData;
+import com.simsilica.mworld.LeafInfo;
+
+/**
+ * Measures the store, flush and load throughput of a FileLeafDb with leaves
+ * that hold a sparse arena layer, like the imported maps do.
+ */
+public class FileLeafDbBench {
+
+    private static final int LEAVES = 1024;
+    private static final int ROUNDS = 5;
+
+    private static LeafData createLeaf(final int index, final Random random) {
+        final int x = index % 32;
+        final int z = index / 32;
+        final long leafId = Coordinates.leafToLeafId(x, 0, z);
+        final CellArray cells = new CellArray(LeafInfo.SIZE);
+        int empty = LeafInfo.CELL_COUNT;
+        for (int i = 0; i < LeafInfo.SIZE; i++) {
+            for (int k = 0; k < LeafInfo.SIZE; k++) {
+                if (random.nextInt(8) == 0) {
+                    cells.setCell(i, 0, k, 1 | (20 << 8));
+                    empty--;
+                }
+            }
+        }
+        final Vec3i world = new Vec3i(x * LeafInfo.SIZE, 0, z * LeafInfo.SIZE);
+        return new LeafData(new LeafInfo(world, leafId), cells, empty);
+    }
+
+    public static void main(final String... args) throws IOException {
+        final File file = File.createTempFile("leaves", ".db");
+        file.deleteOnExit();
+
+        final Random random = new Random(1);
+        final LeafData[] leaves = new LeafData[LEAVES];
+        for (int i = 0; i < LEAVES; i++) {
+            leaves[i] = createLeaf(i, random);
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            // Keep the background flushes out of the measurement
+            final FileLeafDb db = new FileLeafDb(file, new EmptyLeafDb(), Long.MAX_VALUE / 2);
+            long start = System.nanoTime();
+            for (final LeafData leaf : leaves) {
+                db.storeLeaf(leaf);
+            }
+            final long store = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            db.flush();
+            final long flush = System.nanoTime() - start;
+            db.close();
+
+            final FileLeafDb reopened = new FileLeafDb(file, new EmptyLeafDb(), Long.MAX_VALUE / 2);
+            start = System.nanoTime();
+            int cells = 0;
+            for (final LeafData leaf : leaves) {
+                cells += reopened.loadStoredLeaf(leaf.getInfo().leafId).getCell(0, 0, 0);
+            }
+            final long load = System.nanoTime() - start;
+            reopened.close();
+
+            System.out.println("round " + round + ": store " + rate(store) + " leaves/s, flush " + rate(flush)
+                    + " leaves/s, load " + rate(load) + " leaves/s (" + cells + ")");
+        }
+    }
+
+    private static long rate(final long nanos) {
+        return LEAVES * 1000000000L / Math.max(1, nanos);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server.chat;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import infinity.sim.AccessLevel;
+import infinity.sim.CommandConsumer;
+
+/**
+ * Floods CommandRouter with chat lines while 100 pattern commands are
+ * registered, one line in ten being a command. The same lines are also run
+ * through a copy of every pattern the way ChatHostedService matched them
+ * before, as the baseline. Reports the time per line for both.
+ */
+public class CommandRouterBench {
+
+    private static final int COMMANDS = 100;
+    private static final int LINES = 1 << 10;
+    private static final int MESSAGES = 200000;
+    private static final int ROUNDS = 5;
+
+    private static int hits;
+
+    public static void main(final String... args) {
+        final CommandRouter router = new CommandRouter();
+        final Map<Pattern, CommandConsumer> patterns = new HashMap<>();
+        for (int i = 0; i < COMMANDS; i++) {
+            final Pattern pattern = Pattern.compile("\\~cmd" + i + "\\s(\\w+)");
+            final CommandConsumer consumer = new CommandConsumer(AccessLevel.PLAYER_LEVEL, (id, arg) -> hits++);
+            router.addPattern(pattern, consumer);
+            patterns.put(pattern, consumer);
+        }
+
+        final Random random = new Random(1);
+        final String[] lines = new String[LINES];
+        for (int i = 0; i < LINES; i++) {
+            if (random.nextInt(10) == 0) {
+                lines[i] = "~cmd" + random.nextInt(COMMANDS) + " argument";
+            } else {
+                lines[i] = "just chatting about things " + i;
+            }
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGES; i++) {
+                final String line = lines[i & LINES - 1];
+                for (final Pattern pattern : new HashSet<>(patterns.keySet())) {
+                    final Matcher matcher = pattern.matcher(line);
+                    if (matcher.matches()) {
+                        patterns.get(pattern).getConsumer().accept(null, matcher.group(1));
+                    }
+                }
+            }
+            final long scan = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < MESSAGES; i++) {
+                router.route(null, lines[i & LINES - 1], id -> AccessLevel.PLAYER_LEVEL);
+            }
+            final long routed = System.nanoTime() - start;
+
+            System.out.printf("round %d: scan %.0f ns/line, router %.0f ns/line, %d hits%n", round,
+                    (double) scan / MESSAGES, (double) routed / MESSAGES, hits);
+        }
+    }
+}
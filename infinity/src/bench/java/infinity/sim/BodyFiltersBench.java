@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.sim;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Filters a storm of contacts between ships, projectiles and static bodies
+ * through BodyFilters, the check ContactSystem makes for every new contact.
+ * A quarter of the projectiles hit their own ship, which the parent check has
+ * to reject. Reports the time and the bytes allocated per contact.
+ */
+public class BodyFiltersBench {
+
+    private static final int SHIPS = 500;
+    private static final int PROJECTILES = 10000;
+    private static final int STATICS = 2000;
+    private static final int CONTACTS = 1 << 22;
+    private static final int ROUNDS = 5;
+
+    public static void main(final String... args) {
+        final BodyFilters filters = new BodyFilters();
+        final CategoryFilter ship = CollisionFilters.FILTER_CATEGORY_DYNAMIC_PLAYERS;
+        final CategoryFilter projectile = CollisionFilters.FILTER_CATEGORY_DYNAMIC_PROJECTILES;
+        final CategoryFilter wall = CollisionFilters.FILTER_CATEGORY_STATIC_BODIES;
+        long id = 1;
+        for (int i = 0; i < SHIPS; i++) {
+            filters.put(id++, ship.getCategory(), ship.getMask(), BodyFilters.NO_PARENT);
+        }
+        for (int i = 0; i < PROJECTILES; i++) {
+            filters.put(id++, projectile.getCategory(), projectile.getMask(), 1 + i % SHIPS);
+        }
+        for (int i = 0; i < STATICS; i++) {
+            filters.put(id++, wall.getCategory(), wall.getMask(), BodyFilters.NO_PARENT);
+        }
+
+        // Contacts pair a projectile or a ship with anything
+        final Random random = new Random(1);
+        final long[] pairs = new long[CONTACTS * 2];
+        for (int i = 0; i < CONTACTS; i++) {
+            final long one = 1 + random.nextInt(SHIPS + PROJECTILES);
+            final long two;
+            if (one > SHIPS && random.nextInt(4) == 0) {
+                two = 1 + (one - SHIPS - 1) % SHIPS;
+            } else {
+                two = 1 + random.nextInt(SHIPS + PROJECTILES + STATICS);
+            }
+            pairs[i * 2] = one;
+            pairs[i * 2 + 1] = two;
+        }
+
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            final long bytes = threads.getThreadAllocatedBytes(thread);
+            final long start = System.nanoTime();
+            int allowed = 0;
+            for (int i = 0; i < pairs.length; i += 2) {
+                if (filters.isAllowed(pairs[i], pairs[i + 1])) {
+                    allowed++;
+                }
+            }
+            final long time = System.nanoTime() - start;
+            final long allocated = threads.getThreadAllocatedBytes(thread) - bytes;
+            System.out.printf("round %d: %.1f ns/contact, %.3f bytes/contact, %d of %d allowed%n", round,
+                    (double) time / CONTACTS, (double) allocated / CONTACTS, allowed, CONTACTS);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.sim;
+
+import java.util.Random;
+
+/**
+ * Measures circle sweeps and point checks against a tile grid the size of an
+ * arena. The grid gets walls of random length, about as many tiles as a
+ * legacy map has, and the paths are short moves like a ship or a projectile
+ * makes in one frame.
+ */
+public class InfinityMBlockCollisionSystemBench {
+
+    private static final int SIZE = 1024;
+    private static final int WALLS = 1500;
+    private static final int PATHS = 1 << 16;
+    private static final int ROUNDS = 5;
+    private static final int REPEATS = 16;
+
+    public static void main(final String... args) {
+        final Random random = new Random(1);
+        final InfinityMBlockCollisionSystem grid = new InfinityMBlockCollisionSystem(-SIZE / 2, -SIZE / 2, SIZE);
+        for (int i = 0; i < WALLS; i++) {
+            final int x = random.nextInt(SIZE) - SIZE / 2;
+            final int z = random.nextInt(SIZE) - SIZE / 2;
+            final int length = 1 + random.nextInt(20);
+            final boolean across = random.nextBoolean();
+            for (int k = 0; k < length; k++) {
+                grid.setSolid(across ? x + k : x, across ? z : z + k, true);
+            }
+        }
+
+        final double[] paths = new double[PATHS * 4];
+        for (int i = 0; i < PATHS; i++) {
+            paths[i * 4] = (random.nextDouble() - 0.5) * SIZE;
+            paths[i * 4 + 1] = (random.nextDouble() - 0.5) * SIZE;
+            paths[i * 4 + 2] = (random.nextDouble() - 0.5) * 4;
+            paths[i * 4 + 3] = (random.nextDouble() - 0.5) * 4;
+        }
+        System.out.println(grid.getTileCount() + " tiles");
+
+        for (int round = 0; round < ROUNDS; round++) {
+            int hits = 0;
+            long start = System.nanoTime();
+            for (int r = 0; r < REPEATS; r++) {
+                for (int i = 0; i < paths.length; i += 4) {
+                    if (grid.sweep(paths[i], paths[i + 1], paths[i + 2], paths[i + 3], 0.5) <= 1) {
+                        hits++;
+                    }
+                }
+            }
+            final long sweeps = System.nanoTime() - start;
+
+            int solid = 0;
+            start = System.nanoTime();
+            for (int r = 0; r < REPEATS; r++) {
+                for (int i = 0; i < paths.length; i += 4) {
+                    if (grid.isSolid((int) Math.floor(paths[i]), (int) Math.floor(paths[i + 1]))) {
+                        solid++;
+                    }
+                }
+            }
+            final long points = System.nanoTime() - start;
+
+            System.out.printf("round %d: sweep %.1f ns (%d hits), isSolid %.1f ns (%d solid)%n", round,
+                    (double) sweeps / (PATHS * REPEATS), hits, (double) points / (PATHS * REPEATS), solid);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.sim;
+
+import java.lang.management.ManagementFactory;
+
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.base.DefaultEntityData;
+import com.simsilica.ext.mblock.SphereFactory;
+import com.simsilica.ext.mphys.Gravity;
+import com.simsilica.ext.mphys.Mass;
+import com.simsilica.ext.mphys.ShapeInfo;
+import com.simsilica.ext.mphys.SpawnPosition;
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mblock.phys.MBlockShape;
+import com.simsilica.mphys.RigidBody;
+import com.simsilica.sim.GameSystemManager;
+
+import infinity.InfinityConstants;
+import infinity.es.ShapeNames;
+import infinity.es.input.MovementInput;
+import infinity.es.ship.SpeedUpgrade;
+import infinity.es.ship.ThrustUpgrade;
+import infinity.server.AssetLoaderService;
+import infinity.systems.SettingsSystem;
+
+/**
+ * Steps 500 player drivers with the default arena settings and reports the
+ * time and the bytes allocated per step. Half of the ships carry upgrades so
+ * the settings lookups are part of the measurement.
+ */
+public class PlayerDriverBench {
+
+    private static final int DRIVERS = 500;
+    private static final int STEPS = 10000;
+    private static final int ROUNDS = 5;
+    private static final double TPF = 1 / 60.0;
+
+    public static void main(final String... args) {
+        final AssetLoaderService assetLoader = new AssetLoaderService();
+        assetLoader.initialize(null);
+        final GameSystemManager systems = new GameSystemManager();
+        final SettingsSystem settings = systems.register(SettingsSystem.class, new SettingsSystem(assetLoader, null));
+        systems.initialize();
+
+        final EntityData ed = new DefaultEntityData();
+        final InfinityEntityBodyFactory bodies = new InfinityEntityBodyFactory(ed,
+                Gravity.ZERO.getLinearAcceleration(), new BodyTemplates(ed, new SphereFactory()));
+        final PlayerDriver[] drivers = new PlayerDriver[DRIVERS];
+        for (int i = 0; i < DRIVERS; i++) {
+            final EntityId ship = ed.createEntity();
+            final ShapeInfo shape = ShapeInfo.create(ShapeNames.SHIP_WARBIRD, CorePhysicsConstants.SHIPSIZERADIUS, ed);
+            ed.setComponent(ship, shape);
+            if (i % 2 == 0) {
+                ed.setComponent(ship, new ThrustUpgrade(1));
+                ed.setComponent(ship, new SpeedUpgrade(100));
+            }
+            final RigidBody<EntityId, MBlockShape> body = bodies.createRigidBody(ship,
+                    new SpawnPosition(InfinityConstants.PHYSICS_GRID, new Vec3d()), shape, new Mass(1), Gravity.ZERO);
+            body.orientation.fromAngles(0, i * 0.01, 0);
+            drivers[i] = new PlayerDriver(ship, ed, settings);
+            drivers[i].initialize(body);
+            drivers[i].applyMovementState(new MovementInput(new Vec3d(1, 0, 1)));
+        }
+
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+
+        // Warm up
+        step(drivers, STEPS * 2);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            final long bytes = threads.getThreadAllocatedBytes(thread);
+            final long start = System.nanoTime();
+            step(drivers, STEPS);
+            final long time = System.nanoTime() - start;
+            final long allocated = threads.getThreadAllocatedBytes(thread) - bytes;
+
+            System.out.printf("round %d: %.2f us/step, %.2f bytes/step%n", round, time / 1000.0 / STEPS,
+                    (double) allocated / STEPS);
+        }
+        systems.terminate();
+    }
+
+    private static void step(final PlayerDriver[] drivers, final int steps) {
+        for (int s = 0; s < steps; s++) {
+            for (final PlayerDriver driver : drivers) {
+                driver.update(s, TPF);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.systems;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Posts energy deltas for a few hundred ships into an EnergyLedger and drains
+ * it once per frame, first from the draining thread alone and then from four
+ * producer threads at once. Reports the cost per delta and the bytes the
+ * draining thread allocates per frame.
+ */
+public class EnergyLedgerBench {
+
+    private static final int TARGETS = 500;
+    private static final int DELTAS_PER_FRAME = 10000;
+    private static final int FRAMES = 2000;
+    private static final int PRODUCERS = 4;
+    private static final int ROUNDS = 5;
+
+    private static long sum;
+
+    public static void main(final String... args) throws InterruptedException {
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+        final EnergyLedger ledger = new EnergyLedger();
+
+        // Warm up
+        runFrames(ledger, FRAMES);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            final long bytes = threads.getThreadAllocatedBytes(thread);
+            final long start = System.nanoTime();
+            runFrames(ledger, FRAMES);
+            final long time = System.nanoTime() - start;
+            final long allocated = threads.getThreadAllocatedBytes(thread) - bytes;
+            System.out.printf("round %d: single thread %.1f ns/delta, %.2f bytes/frame%n", round,
+                    (double) time / ((long) FRAMES * DELTAS_PER_FRAME), (double) allocated / FRAMES);
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            final long time = runProducers(ledger);
+            System.out.printf("round %d: %d producers %.1f ns/delta%n", round, PRODUCERS,
+                    (double) time / ((long) FRAMES * DELTAS_PER_FRAME));
+        }
+        System.out.println("(" + sum + ")");
+    }
+
+    private static void runFrames(final EnergyLedger ledger, final int frames) {
+        for (int frame = 0; frame < frames; frame++) {
+            for (int i = 0; i < DELTAS_PER_FRAME; i++) {
+                ledger.addDelta(i % TARGETS, -1, 0);
+            }
+            ledger.drain(frame, (id, delta) -> sum += delta);
+        }
+    }
+
+    private static long runProducers(final EnergyLedger ledger) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(PRODUCERS);
+        final int perProducer = FRAMES * DELTAS_PER_FRAME / PRODUCERS;
+        final long start = System.nanoTime();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int offset = p;
+            new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    ledger.addDelta((i + offset) % TARGETS, -1, 0);
+                }
+                done.countDown();
+            }).start();
+        }
+        long frame = 0;
+        while (done.getCount() > 0) {
+            ledger.drain(frame++, (id, delta) -> sum += delta);
+        }
+        ledger.drain(frame, (id, delta) -> sum += delta);
+        return System.nanoTime() - start;
+    }
+}
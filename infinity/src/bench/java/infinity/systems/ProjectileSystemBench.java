@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.systems;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.base.DefaultEntityData;
+import com.simsilica.ext.mblock.SphereFactory;
+import com.simsilica.ext.mphys.Gravity;
+import com.simsilica.ext.mphys.MPhysSystem;
+import com.simsilica.ext.mphys.SpawnPosition;
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mblock.phys.MBlockShape;
+import com.simsilica.sim.GameSystemManager;
+import com.simsilica.sim.SimTime;
+
+import infinity.InfinityConstants;
+import infinity.es.Damage;
+import infinity.es.ShapeNames;
+import infinity.es.ship.weapons.GunLevelEnum;
+import infinity.map.InfinityDefaultWorld;
+import infinity.server.AssetLoaderService;
+import infinity.server.EmptyLeafDb;
+import infinity.sim.BodyTemplates;
+import infinity.sim.CoreGameConstants;
+import infinity.sim.GameArchetypes;
+import infinity.sim.GameEntities;
+import infinity.sim.InfinityEntityBodyFactory;
+import infinity.sim.InfinityMBlockCollisionSystem;
+
+/**
+ * Steps 10000 live bullets between 50 ships in an arena with about 4000 wall
+ * tiles. Reports the median and the 99th percentile time of a ProjectileSystem
+ * frame, and the hits and wall bounces per second. Every bounce republishes
+ * the ProjectileMotion of the bullet, so the bounces are what the clients get
+ * sent.
+ */
+public class ProjectileSystemBench {
+
+    private static final int SIZE = MapSystem.MAP_SIZE;
+    private static final int SHIPS = 50;
+    private static final int BULLETS = 10000;
+    private static final int WALLS = 400;
+    private static final int FRAMES = 600;
+    private static final int ROUNDS = 5;
+    private static final long FRAME = 1000000000L / 60;
+    // Long enough that no bullet decays during the benchmark
+    private static final long DECAY = 1000L * 60 * 60;
+
+    public static void main(final String... args) {
+        final AssetLoaderService assetLoader = new AssetLoaderService();
+        assetLoader.initialize(null);
+        final EntityData ed = new DefaultEntityData();
+        final EmptyLeafDb leafDb = new EmptyLeafDb();
+        final InfinityEntityBodyFactory bodies = new InfinityEntityBodyFactory(ed,
+                Gravity.ZERO.getLinearAcceleration(), new BodyTemplates(ed, new SphereFactory()));
+        final InfinityMBlockCollisionSystem tiles = new InfinityMBlockCollisionSystem(-SIZE / 2, -SIZE / 2, SIZE);
+
+        final GameSystemManager systems = new GameSystemManager();
+        systems.register(EntityData.class, ed);
+        systems.register(InfinityDefaultWorld.class, new InfinityDefaultWorld(leafDb));
+        systems.register(InfinityMBlockCollisionSystem.class, tiles);
+        final MPhysSystem<MBlockShape> physics = new MPhysSystem<>(InfinityConstants.PHYSICS_GRID, bodies);
+        systems.register(MPhysSystem.class, physics);
+        systems.register(EnergySystem.class, new EnergySystem());
+        systems.register(MapSystem.class, new MapSystem(assetLoader));
+        final ProjectileSystem projectiles = systems.register(ProjectileSystem.class, new ProjectileSystem());
+        systems.initialize();
+        systems.start();
+
+        final Random random = new Random(1);
+        for (int i = 0; i < WALLS; i++) {
+            final int x = random.nextInt(SIZE) - SIZE / 2;
+            final int z = random.nextInt(SIZE) - SIZE / 2;
+            final int length = 1 + random.nextInt(20);
+            final boolean across = random.nextBoolean();
+            for (int k = 0; k < length; k++) {
+                tiles.setSolid(across ? x + k : x, across ? z : z + k, true);
+            }
+        }
+        System.out.println(tiles.getTileCount() + " tiles");
+
+        final EntityId[] ships = new EntityId[SHIPS];
+        for (int i = 0; i < SHIPS; i++) {
+            ships[i] = GameArchetypes.get(ed).getWarbird().create(ed, new SpawnPosition(
+                    InfinityConstants.PHYSICS_GRID, new Vec3d(position(random), 0, position(random))));
+        }
+        // Lets the physics create the ship bodies
+        systems.update();
+
+        final SimTime time = systems.getStepTime();
+        long now = System.nanoTime();
+        final long[] frames = new long[FRAMES];
+        for (int round = 0; round < ROUNDS; round++) {
+            // Tops the bullets up to BULLETS, less the few spawned inside a wall
+            final int missing = BULLETS - projectiles.getCount();
+            for (int i = 0; i < missing; i++) {
+                final double angle = random.nextDouble() * Math.PI * 2;
+                final Vec3d velocity = new Vec3d(Math.cos(angle), 0, Math.sin(angle))
+                        .multLocal(CoreGameConstants.BULLETPROJECTILESPEED);
+                GameEntities.createBullet(ed, ships[random.nextInt(SHIPS)], physics.getPhysicsSpace(),
+                        time.getTime(), new Vec3d(position(random), 0, position(random)), velocity, DECAY,
+                        GunLevelEnum.LEVEL_1, ShapeNames.BULLETL1, new Damage(-20));
+            }
+            projectiles.update(time);
+
+            int hits = 0;
+            int bounces = 0;
+            for (int f = 0; f < FRAMES; f++) {
+                now += FRAME;
+                time.update(now);
+                final long start = System.nanoTime();
+                projectiles.update(time);
+                frames[f] = System.nanoTime() - start;
+                hits += projectiles.getHitCount();
+                bounces += projectiles.getBounceCount();
+            }
+            Arrays.sort(frames);
+
+            final double seconds = FRAMES * FRAME / 1000000000.0;
+            System.out.printf("round %d: p50 %.2f ms, p99 %.2f ms, %.0f hits/s, %.0f bounces/s, %d live%n", round,
+                    frames[FRAMES / 2] / 1000000.0, frames[FRAMES * 99 / 100] / 1000000.0, hits / seconds,
+                    bounces / seconds, projectiles.getCount());
+        }
+        systems.stop();
+        systems.terminate();
+    }
+
+    private static double position(final Random random) {
+        return (random.nextDouble() - 0.5) * SIZE;
+    }
+}
@@ -128,15 +128,17 @@ public class InfinityConstants {
      * needs to account for this overlap or there will be odd position clipping at
      * the borders as objects cross zone boundaries.
      */
-    public static final Vec3Bits POSITION_BITS = new Vec3Bits(-MAX_OBJECT_RADIUS, gridSize + MAX_OBJECT_RADIUS,
-            POSITION_BIT_COUNT);
+    public static final float POSITION_MIN = -MAX_OBJECT_RADIUS;
+    public static final float POSITION_MAX = gridSize + MAX_OBJECT_RADIUS;
+    public static final Vec3Bits POSITION_BITS = new Vec3Bits(POSITION_MIN, POSITION_MAX, POSITION_BIT_COUNT);
 
     /**
      * Defines how many network message bits to encode the elements of rotation
      * fields. Given that rotation Quaternion values are always between -1 and 1, 12
      * bits seems sufficient based on ultimate resolution and visual testing.
      */
-    public static final QuatBits ROTATION_BITS = new QuatBits(12);
+    public static final int ROTATION_BIT_COUNT = 12;
+    public static final QuatBits ROTATION_BITS = new QuatBits(ROTATION_BIT_COUNT);
 
     /**
      * Defines the overall object protocol parameters for how many bits ar used to
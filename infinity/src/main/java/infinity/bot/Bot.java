@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.bot;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jme3.network.Client;
+import com.jme3.network.ClientStateListener;
+
+import com.simsilica.es.EntityId;
+import com.simsilica.ethereal.EtherealClient;
+import com.simsilica.ethereal.SharedObject;
+import com.simsilica.ethereal.SharedObjectListener;
+import com.simsilica.ethereal.net.ObjectStateMessage;
+import com.simsilica.mathd.Vec3d;
+
+import infinity.client.GameClient;
+import infinity.client.GameSessionClientService;
+import infinity.client.chat.ChatClientService;
+import infinity.es.input.MovementInput;
+import infinity.util.LatencyHistogram;
+
+/**
+ * A headless player. It connects with the same services as the real client,
+ * waits for the server to hand it an avatar and is then driven by its script.
+ * Besides sending input it keeps track of the messages it receives and of the
+ * time it takes for a thrust from standstill to show up as movement of its
+ * avatar in the object updates coming back from the server.
+ *
+ * @author Asser Fahrenholz
+ */
+public class Bot {
+
+    static Logger log = LoggerFactory.getLogger(Bot.class);
+
+    /**
+     * Movement per object update below which the avatar counts as standing
+     * still.
+     */
+    private static final double STILL_DISTANCE_SQ = 1e-6;
+
+    private final String name;
+    private final BotScript script;
+    private final LatencyHistogram inputLatency;
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong stateMessages = new AtomicLong();
+    private final AvatarObserver avatarObserver = new AvatarObserver();
+
+    private GameClient client;
+    private GameSessionClientService session;
+    private ChatClientService chat;
+    private volatile boolean connected;
+    private volatile EntityId avatar;
+    private long ticks;
+
+    // Guarded by avatarObserver
+    private final Vec3d lastPosition = new Vec3d();
+    private boolean still;
+    private long inputSent;
+
+    public Bot(final String name, final BotScript script, final LatencyHistogram inputLatency) {
+        this.name = name;
+        this.script = script;
+        this.inputLatency = inputLatency;
+    }
+
+    /**
+     * Connects to the server and starts the client services. Blocks until the
+     * network connection is made, the avatar arrives later.
+     */
+    public void connect(final String host, final int port) throws IOException {
+        client = new GameClient(host, port);
+        client.getClient().addClientStateListener(new ClientStateListener() {
+            @Override
+            public void clientConnected(final Client c) {
+                connected = true;
+            }
+
+            @Override
+            public void clientDisconnected(final Client c, final DisconnectInfo info) {
+                connected = false;
+                if (info != null) {
+                    log.warn(name + " disconnected:" + info.reason);
+                }
+            }
+        });
+        client.getClient().addMessageListener((source, m) -> {
+            messages.incrementAndGet();
+            if (m instanceof ObjectStateMessage) {
+                stateMessages.incrementAndGet();
+            }
+        });
+        session = client.getService(GameSessionClientService.class);
+        session.addGameSessionListener(a -> avatar = a);
+        chat = client.getService(ChatClientService.class);
+        client.getService(EtherealClient.class).addObjectListener(avatarObserver);
+        client.start();
+    }
+
+    /**
+     * Runs one step of the script if the bot has an avatar.
+     */
+    public void tick() {
+        if (!connected || avatar == null) {
+            return;
+        }
+        try {
+            script.tick(this, ticks++, System.nanoTime());
+        } catch (final RuntimeException e) {
+            log.error(name + " script failed", e);
+        }
+    }
+
+    public void move(final MovementInput input) {
+        final Vec3d m = input.getMove();
+        if (m.z != 0) {
+            synchronized (avatarObserver) {
+                if (still && inputSent == 0) {
+                    inputSent = System.nanoTime();
+                }
+            }
+        }
+        session.move(input);
+    }
+
+    public void attack(final byte attack) {
+        session.attack(attack);
+    }
+
+    public void chat(final String message) {
+        chat.sendMessage(message);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public EntityId getAvatar() {
+        return avatar;
+    }
+
+    public long getMessageCount() {
+        return messages.get();
+    }
+
+    public long getStateMessageCount() {
+        return stateMessages.get();
+    }
+
+    public void close() {
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Bot[" + name + ", avatar=" + avatar + "]";
+    }
+
+    /**
+     * Watches the object updates of our own avatar to time input round trips.
+     */
+    private class AvatarObserver implements SharedObjectListener {
+
+        @Override
+        public void beginFrame(final long time) {
+            return;
+        }
+
+        @Override
+        public void objectUpdated(final SharedObject obj) {
+            final EntityId id = avatar;
+            if (id == null || obj.getEntityId() == null || obj.getEntityId().longValue() != id.getId()) {
+                return;
+            }
+            final Vec3d pos = obj.getWorldPosition();
+            synchronized (this) {
+                final double moved = pos.distanceSq(lastPosition);
+                lastPosition.set(pos);
+                if (moved <= STILL_DISTANCE_SQ) {
+                    still = true;
+                    return;
+                }
+                still = false;
+                if (inputSent != 0) {
+                    inputLatency.record(System.nanoTime() - inputSent);
+                    inputSent = 0;
+                }
+            }
+        }
+
+        @Override
+        public void objectRemoved(final SharedObject obj) {
+            return;
+        }
+
+        @Override
+        public void endFrame() {
+            return;
+        }
+    }
+}
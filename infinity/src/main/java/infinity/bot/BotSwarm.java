@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.bot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jme3.network.HostedConnection;
+
+import com.simsilica.ethereal.EtherealHost;
+import com.simsilica.ethereal.NetworkStateListener;
+
+import infinity.InfinityConstants;
+import infinity.server.GameServer;
+import infinity.systems.StatsSystem;
+import infinity.util.LatencyHistogram;
+import infinity.util.TickProbe;
+
+/**
+ * Connects a swarm of headless bots to a server over loopback (or any other
+ * address) and periodically reports what the load does to the server tick,
+ * the network and the input round trip the bots see. With -local the server
+ * is started in this process so that its tick probes and per-connection
+ * network stats can be included in the report.
+ *
+ * Usage: BotSwarm [-n bots] [-h host] [-p port] [-s seconds] [-r tickHz]
+ * [-local]
+ *
+ * @author Asser Fahrenholz
+ */
+public class BotSwarm {
+
+    static Logger log = LoggerFactory.getLogger(BotSwarm.class);
+
+    private static final long REPORT_INTERVAL_MS = 5000;
+    private static final long CONNECT_STAGGER_MS = 50;
+
+    private final String host;
+    private final int port;
+    private final int tickRate;
+    private final List<Bot> bots = new ArrayList<>();
+    private final LatencyHistogram inputLatency = new LatencyHistogram();
+    private final ScheduledExecutorService executor;
+    private GameServer server;
+
+    private long lastReport;
+    private long lastMessages;
+    private long lastStateMessages;
+
+    public BotSwarm(final String host, final int port, final int tickRate, final int threads) {
+        this.host = host;
+        this.port = port;
+        this.tickRate = tickRate;
+        executor = Executors.newScheduledThreadPool(threads, new BotThreadFactory());
+    }
+
+    /**
+     * Sets an in-process server whose stats should be included in the reports.
+     */
+    public void setServer(final GameServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Creates the bots and schedules their connects, staggered so that the
+     * server isn't hit by all handshakes at once.
+     */
+    public void start(final int count) {
+        final long period = TimeUnit.SECONDS.toNanos(1) / tickRate;
+        for (int i = 0; i < count; i++) {
+            final Bot bot = new Bot("bot" + i, new WanderScript(i, 0.02, 0.002), inputLatency);
+            bots.add(bot);
+            final long delay = i * CONNECT_STAGGER_MS;
+            executor.schedule(() -> {
+                try {
+                    bot.connect(host, port);
+                } catch (final Exception e) {
+                    log.error(bot.getName() + " failed to connect", e);
+                    return;
+                }
+                executor.scheduleAtFixedRate(bot::tick, period, period, TimeUnit.NANOSECONDS);
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        lastReport = System.nanoTime();
+        executor.scheduleAtFixedRate(this::report, REPORT_INTERVAL_MS, REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void report() {
+        final long time = System.nanoTime();
+        final double seconds = (time - lastReport) / 1e9;
+        lastReport = time;
+
+        int connected = 0;
+        int spawned = 0;
+        long messages = 0;
+        long stateMessages = 0;
+        for (final Bot bot : bots) {
+            if (bot.isConnected()) {
+                connected++;
+            }
+            if (bot.getAvatar() != null) {
+                spawned++;
+            }
+            messages += bot.getMessageCount();
+            stateMessages += bot.getStateMessageCount();
+        }
+        final double messageRate = (messages - lastMessages) / seconds;
+        final double stateRate = (stateMessages - lastStateMessages) / seconds;
+        lastMessages = messages;
+        lastStateMessages = stateMessages;
+
+        log.info(String.format("bots:%d connected:%d spawned:%d msgs/s:%.0f state msgs/s:%.0f", bots.size(),
+                connected, spawned, messageRate, stateRate));
+        log.info(String.format("input latency samples:%d p50:%.1f ms p99:%.1f ms max:%.1f ms",
+                inputLatency.getCount(), inputLatency.getPercentile(50) / 1e6, inputLatency.getPercentile(99) / 1e6,
+                inputLatency.getMax() / 1e6));
+
+        if (server != null) {
+            reportServer(connected == 0 ? 0 : stateRate / connected);
+        }
+    }
+
+    private void reportServer(final double stateRatePerBot) {
+        final StatsSystem stats = server.getSystems().get(StatsSystem.class);
+        if (stats != null) {
+            final TickProbe frame = stats.getProbe("frame");
+            final LatencyHistogram h = frame.getHistogram();
+            log.info(String.format("server frame count:%d p50:%.2f ms p99:%.2f ms max:%.2f ms", h.getCount(),
+                    h.getPercentile(50) / 1e6, h.getPercentile(99) / 1e6, h.getMax() / 1e6));
+        }
+
+        final EtherealHost ethereal = server.getServer().getServices().getService(EtherealHost.class);
+        int count = 0;
+        double ping = 0;
+        double ackMiss = 0;
+        double maxAckMiss = 0;
+        double messageSize = 0;
+        for (final HostedConnection conn : server.getServer().getConnections()) {
+            final NetworkStateListener listener = ethereal.getStateListener(conn);
+            if (listener == null) {
+                continue;
+            }
+            count++;
+            ping += listener.getConnectionStats().getAveragePingTime() / 1e6;
+            final double miss = listener.getConnectionStats().getAckMissPercent();
+            ackMiss += miss;
+            maxAckMiss = Math.max(maxAckMiss, miss);
+            messageSize += listener.getConnectionStats().getAverageMessageSize();
+        }
+        if (count == 0) {
+            return;
+        }
+        messageSize /= count;
+        log.info(String.format(
+                "connections:%d ping:%.1f ms ack miss:%.2f%% (max %.2f%%) avg msg:%.0f bytes est. state bw:%.1f KB/s per client",
+                count, ping / count, ackMiss / count, maxAckMiss, messageSize,
+                stateRatePerBot * messageSize / 1024));
+    }
+
+    public void close() {
+        executor.shutdownNow();
+        for (final Bot bot : bots) {
+            bot.close();
+        }
+    }
+
+    private static class BotThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, "bot-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    public static void main(final String... args) throws Exception {
+        int count = 50;
+        String host = "localhost";
+        int port = InfinityConstants.DEFAULT_PORT;
+        int seconds = 60;
+        int tickRate = 30;
+        boolean local = false;
+        for (int i = 0; i < args.length; i++) {
+            if ("-n".equals(args[i])) {
+                count = Integer.parseInt(args[++i]);
+            } else if ("-h".equals(args[i])) {
+                host = args[++i];
+            } else if ("-p".equals(args[i])) {
+                port = Integer.parseInt(args[++i]);
+            } else if ("-s".equals(args[i])) {
+                seconds = Integer.parseInt(args[++i]);
+            } else if ("-r".equals(args[i])) {
+                tickRate = Integer.parseInt(args[++i]);
+            } else if ("-local".equals(args[i])) {
+                local = true;
+            } else {
+                System.err.println("Unknown argument:" + args[i]);
+                return;
+            }
+        }
+
+        GameServer gs = null;
+        if (local) {
+            // Turn the tick probes on before the server creates its systems
+            System.setProperty(StatsSystem.ENABLED_PROPERTY, "true");
+            gs = new GameServer(port, "Bot swarm");
+            gs.start();
+        }
+
+        final int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        final BotSwarm swarm = new BotSwarm(host, port, tickRate, threads);
+        swarm.setServer(gs);
+        swarm.start(count);
+        try {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        } finally {
+            swarm.report();
+            swarm.close();
+            if (gs != null) {
+                gs.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.bot;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.simsilica.mathd.Quatd;
+import com.simsilica.mathd.Vec3d;
+
+import infinity.es.input.MovementInput;
+import infinity.systems.AttackSystem;
+
+/**
+ * The default bot behavior: alternates bursts of thrust in a random direction
+ * with coasting, fires guns and bombs at random and says something in chat
+ * every now and then. The coasting phases let the ship come to rest so that
+ * the next burst can be used to time input latency.
+ *
+ * @author Asser Fahrenholz
+ */
+public class WanderScript implements BotScript {
+
+    private static final long THRUST_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final long COAST_NANOS = TimeUnit.SECONDS.toNanos(4);
+    private static final long CHAT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final Random random;
+    private final double gunChance;
+    private final double bombChance;
+    private final Vec3d thrust = new Vec3d();
+    private final Quatd facing = new Quatd();
+    private long phaseStart;
+    private boolean thrusting;
+    private long nextChat;
+
+    public WanderScript(final long seed, final double gunChance, final double bombChance) {
+        random = new Random(seed);
+        this.gunChance = gunChance;
+        this.bombChance = bombChance;
+    }
+
+    @Override
+    public void tick(final Bot bot, final long tick, final long nanos) {
+        if (tick == 0) {
+            phaseStart = nanos;
+            nextChat = nanos + (long) (random.nextDouble() * CHAT_NANOS);
+        }
+
+        final long phase = nanos - phaseStart;
+        if (thrusting && phase > THRUST_NANOS) {
+            thrusting = false;
+            phaseStart = nanos;
+            thrust.set(0, 0, 0);
+        } else if (!thrusting && phase > COAST_NANOS) {
+            thrusting = true;
+            phaseStart = nanos;
+            thrust.set(random.nextDouble() * 2 - 1, 0, random.nextDouble() < 0.2 ? -1 : 1);
+        }
+        bot.move(new MovementInput(thrust, facing, (byte) 0));
+
+        if (random.nextDouble() < gunChance) {
+            bot.attack(AttackSystem.GUN);
+        }
+        if (random.nextDouble() < bombChance) {
+            bot.attack(AttackSystem.BOMB);
+        }
+        if (nanos >= nextChat) {
+            bot.chat(bot.getName() + " tick " + tick);
+            nextChat = nanos + CHAT_NANOS;
+        }
+    }
+}
@@ -56,6 +56,7 @@ import com.simsilica.ethereal.TimeSource;
 import com.simsilica.mworld.net.client.WorldClientService;
 
 import infinity.InfinityConstants;
+import infinity.client.audio.SoundEventClientService;
 import infinity.client.chat.ChatClientService;
 
 /**
@@ -81,6 +82,7 @@ public class GameClient {
                 // new AccountClientService(),
                 new GameSessionClientService(), new EntityDataClientService(InfinityConstants.ES_CHANNEL),
                 new ChatClientService(InfinityConstants.CHAT_CHANNEL),
+                new SoundEventClientService(),
                 new WorldClientService(InfinityConstants.TERRAIN_CHANNEL),
                 new EtherealClient(InfinityConstants.OBJECT_PROTOCOL, InfinityConstants.ZONE_GRID,
                         InfinityConstants.ZONE_RADIUS),
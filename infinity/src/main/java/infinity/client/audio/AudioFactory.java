@@ -44,4 +44,12 @@ public interface AudioFactory {
 
     AudioNode createAudio(Entity e);
 
+    /**
+     * Creates the audio for one of the AudioTypes names
+     *
+     * @param typeName the audio type
+     * @return a new audio node
+     */
+    AudioNode createAudio(String typeName);
+
 }
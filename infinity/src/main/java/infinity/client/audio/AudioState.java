@@ -25,8 +25,10 @@
  */
 package infinity.client.audio;
 
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,6 +52,7 @@ import infinity.es.AudioType;
 import infinity.es.AudioTypes;
 import infinity.es.BodyPosition;
 import infinity.es.Parent;
+import infinity.net.audio.SoundEventListener;
 
 /**
  *
@@ -72,6 +75,12 @@ public class AudioState extends BaseAppState {
     private Map<EntityId, AudioNode> soundIndex = new HashMap<>();
     private Node soundRoot;
 
+    // Sounds the server sent without entities, played from update()
+    private SoundEventClientService soundEvents;
+    private final SoundEventObserver soundEventObserver = new SoundEventObserver();
+    private final ConcurrentLinkedQueue<byte[]> pendingEvents = new ConcurrentLinkedQueue<>();
+    private final Map<String, AudioNode> eventSounds = new HashMap<>();
+
     // private long time;
 
     public AudioState(final SIAudioFactory factory) {
@@ -85,6 +94,7 @@ public class AudioState extends BaseAppState {
         factory.setState(this);
         // timeState = getState(TimeState.class);
         ed = getState(ConnectionState.class).getEntityData();
+        soundEvents = getState(ConnectionState.class).getService(SoundEventClientService.class);
 
         // This state just needs to know which sounds to play and where to play them
         // audio = ed.getEntities(AudioType.class, BodyPosition.class);
@@ -109,6 +119,7 @@ public class AudioState extends BaseAppState {
     protected void onEnable() {
         sounds = new AudioContainer(ed);
         sounds.start();
+        soundEvents.addSoundEventListener(soundEventObserver);
 
         ((SimpleApplication) getApplication()).getRootNode().attachChild(soundRoot);
     }
@@ -117,6 +128,8 @@ public class AudioState extends BaseAppState {
     protected void onDisable() {
         sounds.stop();
         sounds = null;
+        soundEvents.removeSoundEventListener(soundEventObserver);
+        pendingEvents.clear();
     }
 
     @Override
@@ -129,6 +142,56 @@ public class AudioState extends BaseAppState {
         // time = timeState.getTime();
 
         sounds.update();
+        playSoundEvents();
+    }
+
+    /**
+     * Plays the sounds received from the server since the last frame.
+     */
+    protected void playSoundEvents() {
+        byte[] events;
+        while ((events = pendingEvents.poll()) != null) {
+            final ByteBuffer buffer = ByteBuffer.wrap(events);
+            while (buffer.remaining() >= SoundEventListener.EVENT_SIZE) {
+                final String typeName = AudioTypes.getTypeName(buffer.get() & 0xff);
+                final float x = buffer.getFloat();
+                final float y = buffer.getFloat();
+                final float z = buffer.getFloat();
+                if (typeName == null) {
+                    log.warn("Unknown audio type in sound event");
+                    continue;
+                }
+                playSound(typeName, x, y, z);
+            }
+        }
+    }
+
+    /**
+     * Plays an instance of the specified sound at a location. One node per type
+     * is reused for all its instances, it is kept out of the scene so that its
+     * location can be applied right away.
+     */
+    protected void playSound(final String typeName, final float x, final float y, final float z) {
+        AudioNode node = eventSounds.get(typeName);
+        if (node == null) {
+            node = factory.createAudio(typeName);
+            eventSounds.put(typeName, node);
+        }
+        node.setLocalTranslation(x, y, z);
+        node.updateGeometricState();
+        node.playInstance();
+    }
+
+    /**
+     * Hands the sound events from the networking thread over to the render
+     * thread.
+     */
+    private class SoundEventObserver implements SoundEventListener {
+
+        @Override
+        public void soundEvents(final byte[] events) {
+            pendingEvents.add(events);
+        }
     }
 
     /**
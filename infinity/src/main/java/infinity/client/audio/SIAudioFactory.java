@@ -60,8 +60,12 @@ public class SIAudioFactory implements AudioFactory {
     @Override
     public AudioNode createAudio(final Entity e) {
         final AudioType type = e.get(AudioType.class);
+        return createAudio(type.getTypeName(ed));
+    }
 
-        switch (type.getTypeName(ed)) {
+    @Override
+    public AudioNode createAudio(final String typeName) {
+        switch (typeName) {
         case AudioTypes.FIRE_THOR:
             return createFIRE_THOR();
         case AudioTypes.PICKUP_PRIZE:
@@ -85,7 +89,7 @@ public class SIAudioFactory implements AudioFactory {
         case AudioTypes.REPEL:
             return createREPEL();
         default:
-            throw new UnsupportedOperationException("Unknown audio type:" + type.getTypeName(ed));
+            throw new UnsupportedOperationException("Unknown audio type:" + typeName);
         }
 
     }
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.client.audio;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jme3.network.MessageConnection;
+import com.jme3.network.service.AbstractClientService;
+import com.jme3.network.service.ClientServiceManager;
+import com.jme3.network.service.rmi.RmiClientService;
+
+import infinity.net.audio.SoundEventListener;
+
+/**
+ * Client-side service receiving the positional sounds the server sends instead
+ * of sound entities.
+ *
+ * @author Asser Fahrenholz
+ */
+public class SoundEventClientService extends AbstractClientService {
+
+    static Logger log = LoggerFactory.getLogger(SoundEventClientService.class);
+
+    private RmiClientService rmiService;
+    private final int channel;
+
+    private final SoundEventCallback callback = new SoundEventCallback();
+    private final List<SoundEventListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates a new sound event service that will share its callback over the
+     * default reliable channel.
+     */
+    public SoundEventClientService() {
+        this(MessageConnection.CHANNEL_DEFAULT_RELIABLE);
+    }
+
+    /**
+     * Creates a new sound event service that will share its callback over the
+     * specified channel.
+     */
+    public SoundEventClientService(final int channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Adds a listener that will be notified about sounds to play. Note that these
+     * listeners are called on the networking thread and as such are not suitable
+     * for modifying the scene directly.
+     */
+    public void addSoundEventListener(final SoundEventListener l) {
+        listeners.add(l);
+    }
+
+    public void removeSoundEventListener(final SoundEventListener l) {
+        listeners.remove(l);
+    }
+
+    @Override
+    protected void onInitialize(final ClientServiceManager s) {
+        log.debug("onInitialize(" + s + ")");
+        rmiService = getService(RmiClientService.class);
+        if (rmiService == null) {
+            throw new RuntimeException("SoundEventClientService requires RMI service");
+        }
+        rmiService.share((byte) channel, callback, SoundEventListener.class);
+    }
+
+    /**
+     * Shared with the server over RMI so that it can send us sounds.
+     */
+    private class SoundEventCallback implements SoundEventListener {
+
+        @Override
+        public void soundEvents(final byte[] events) {
+            if (log.isTraceEnabled()) {
+                log.trace("soundEvents(" + events.length / EVENT_SIZE + ")");
+            }
+            for (final SoundEventListener l : listeners) {
+                l.soundEvents(events);
+            }
+        }
+    }
+}
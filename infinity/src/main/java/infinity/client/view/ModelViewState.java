@@ -93,6 +93,7 @@ import infinity.es.BodyPosition;
 import infinity.es.LargeGridCell;
 import infinity.es.LargeObject;
 import infinity.es.PointLightComponent;
+import infinity.es.ProjectileMotion;
 import infinity.es.ShapeNames;
 import infinity.es.TileType;
 
@@ -154,6 +155,7 @@ public class ModelViewState extends BaseAppState {
     private MobContainer mobs;
     private ModelContainer models;
     private LargeModelContainer largeModels;
+    private ProjectileContainer projectiles;
 
     private final LinkedList<MarkVisible> markerQueue = new LinkedList<>();
 
@@ -323,6 +325,7 @@ public class ModelViewState extends BaseAppState {
         mobs = new MobContainer(ed);
         models = new ModelContainer(ed);
         largeModels = new LargeModelContainer(ed);
+        projectiles = new ProjectileContainer(ed);
 
         resetModelFilter();
 
@@ -353,6 +356,7 @@ public class ModelViewState extends BaseAppState {
         mobs.start();
         models.start();
         largeModels.start();
+        projectiles.start();
         gameSession = getState(ConnectionState.class).getService(GameSessionClientService.class);
     }
 
@@ -370,10 +374,14 @@ public class ModelViewState extends BaseAppState {
         mobs.update();
         models.update();
         largeModels.update();
+        projectiles.update();
         final long time = timeSource.getTime();
         for (final Mob mob : mobs.getArray()) {
             mob.update(time);
         }
+        for (final Projectile projectile : projectiles.getArray()) {
+            projectile.update(time);
+        }
 //log.info("checking marker queue");
         while (!markerQueue.isEmpty()) {
             // Update static model visibility
@@ -404,6 +412,7 @@ public class ModelViewState extends BaseAppState {
         mobs.stop();
         models.stop();
         largeModels.stop();
+        projectiles.stop();
         objectRoot.removeFromParent();
     }
 
@@ -932,6 +941,99 @@ public class ModelViewState extends BaseAppState {
         }
     }
 
+    /**
+     * A bullet, bomb, burst or thor. Projectiles are sent once with their
+     * ProjectileMotion and moved along it locally instead of following streamed
+     * body positions.
+     */
+    private class Projectile {
+
+        private final EntityId entityId;
+        private final Model model;
+        private ProjectileMotion motion;
+        private final Vec3d location = new Vec3d();
+        private final Vector3f translation = new Vector3f();
+        private boolean visible;
+
+        public Projectile(final EntityId entityId) {
+            this.entityId = entityId;
+            model = getModel(entityId, true);
+            model.setDynamic(true);
+        }
+
+        public void setShape(final ShapeInfo shapeInfo) {
+            model.setShape(shapeInfo);
+        }
+
+        public void setMotion(final ProjectileMotion motion) {
+            this.motion = motion;
+        }
+
+        public void update(final long time) {
+            if (model.spatial == null) {
+                return;
+            }
+            motion.getLocation(time, location);
+            translation.set((float) location.x, (float) location.y, (float) location.z);
+
+            // Make the position relative to our "conveyor"
+            translation.subtractLocal(centerCellWorld);
+            model.spatial.setLocalTranslation(translation);
+
+            // The view runs behind the server, so a new projectile isn't shown
+            // before it was fired
+            setVisible(time >= motion.getStartTime());
+        }
+
+        protected void setVisible(final boolean f) {
+            if (visible == f) {
+                return;
+            }
+            visible = f;
+            if (visible) {
+                model.markVisible();
+            } else {
+                model.markInvisible();
+            }
+        }
+
+        public void release() {
+            releaseModel(entityId);
+            model.setDynamic(false);
+        }
+    }
+
+    private class ProjectileContainer extends EntityContainer<Projectile> {
+
+        @SuppressWarnings("unchecked")
+        public ProjectileContainer(final EntityData ed) {
+            super(ed, ProjectileMotion.class, ShapeInfo.class);
+        }
+
+        @Override
+        public Projectile[] getArray() {
+            return super.getArray();
+        }
+
+        @Override
+        protected Projectile addObject(final Entity e) {
+            final Projectile object = new Projectile(e.getId());
+            updateObject(object, e);
+            return object;
+        }
+
+        @Override
+        protected void updateObject(final Projectile object, final Entity e) {
+            object.setShape(e.get(ShapeInfo.class));
+            object.setMotion(e.get(ProjectileMotion.class));
+        }
+
+        @Override
+        protected void removeObject(final Projectile object, final Entity e) {
+            object.release();
+        }
+    }
+
     /**
      * Keeps track of the static models in the scene.
      */
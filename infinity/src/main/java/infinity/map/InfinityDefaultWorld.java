@@ -37,6 +37,8 @@ public class InfinityDefaultWorld implements World {
     private CellChangeListener[] cellListenerArray;
     private final CellChangeListener[] emptyCellListenerArray = new CellChangeListener[0];
 
+    private final List<LeafChangeListener> leafListeners = new ArrayList<>();
+
     public InfinityDefaultWorld(final LeafDb leafDb) {
         this.leafDb = leafDb;
     }
@@ -53,6 +55,14 @@ public class InfinityDefaultWorld implements World {
         cellListenerArray = null;
     }
 
+    public void addLeafChangeListener(final LeafChangeListener l) {
+        leafListeners.add(l);
+    }
+
+    public void removeLeafChangeListener(final LeafChangeListener l) {
+        leafListeners.remove(l);
+    }
+
     protected CellChangeListener[] getCellListenerArray() {
         if (cellListenerArray == null) {
             cellListenerArray = cellListeners.toArray(emptyCellListenerArray);
@@ -75,6 +85,24 @@ public class InfinityDefaultWorld implements World {
         }
     }
 
+    protected void fireLeafChanged(final LeafData leaf) {
+        for (final LeafChangeListener l : leafListeners) {
+            l.leafChanged(leaf);
+        }
+    }
+
+    /**
+     * Replaces a whole leaf, for example one built by a bulk import. The cell side
+     * masks of the leaf must already be calculated. Fires one leaf change instead
+     * of a cell change per cell.
+     *
+     * @param leaf the leaf to store
+     */
+    public void importLeaf(final LeafData leaf) {
+        leafDb.storeLeaf(leaf);
+        fireLeafChanged(leaf);
+    }
+
     @Override
     public int getWorldCell(final Vec3d world) {
         final LeafData leaf = getWorldLeaf(world);
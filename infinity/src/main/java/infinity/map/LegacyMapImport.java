@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.map;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mathd.Vec3i;
+import com.simsilica.mblock.CellArray;
+import com.simsilica.mblock.Direction;
+import com.simsilica.mblock.MaskUtils;
+import com.simsilica.mworld.Coordinates;
+import com.simsilica.mworld.LeafData;
+import com.simsilica.mworld.LeafInfo;
+
+import infinity.util.LongIntMap;
+
+/**
+ * Imports a legacy tile map into the world one leaf at a time. The leaves are
+ * built in parallel on a fork-join pool, with the side masks of every cell
+ * calculated once against the whole map. The finished leaves are then
+ * committed to the world from the game loop with commit(), which stops when its
+ * time budget is used up so that a map can load over several frames.
+ *
+ * <p>
+ * Imported leaves replace whatever the world had stored for them, so changes
+ * to the map file are picked up on every import. Tiles placed on top of the
+ * map in an earlier run are carried over with keepPlacedTiles().
+ * </p>
+ */
+public class LegacyMapImport {
+
+    static Logger log = LoggerFactory.getLogger(LegacyMapImport.class);
+
+    private static final int LEAF_SIZE = LeafInfo.SIZE;
+
+    // Leaves built per fork-join task before it stops splitting
+    private static final int LEAVES_PER_TASK = 4;
+
+    private final String name;
+    private final short[][] tiles;
+    private final int width;
+    private final int height;
+    private final IntUnaryOperator cellValues;
+    private final int cellX;
+    private final int cellY;
+    private final int cellZ;
+
+    private final List<Vec3i> leaves = new ArrayList<>();
+    private final int minLeafX;
+    private final int maxLeafX;
+    private final int leafY;
+    private final int minLeafZ;
+    private final int maxLeafZ;
+
+    // Placed tiles by map coordinates, filled before the leaves are built
+    private LongFunction<LeafData> stored;
+    private int placedValue;
+    private final LongIntMap placed = new LongIntMap();
+    private final ConcurrentLinkedQueue<LeafData> built = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private ForkJoinTask<?> task;
+    private int committed;
+    private long startTime;
+
+    /**
+     * @param name        the name of the map, for logging
+     * @param tiles       the legacy tiles as read by LevelFile, mirrored on both
+     *                    axes
+     * @param arenaOffset the world location of the first tile
+     * @param cellValues  converts a legacy tile id to a world cell value, 0 skips
+     *                    the tile
+     */
+    public LegacyMapImport(final String name, final short[][] tiles, final Vec3d arenaOffset,
+            final IntUnaryOperator cellValues) {
+        this.name = name;
+        this.tiles = tiles;
+        this.width = tiles.length;
+        this.height = width == 0 ? 0 : tiles[0].length;
+        this.cellValues = cellValues;
+        this.cellX = Coordinates.worldToCell(arenaOffset.x);
+        this.cellY = Coordinates.worldToCell(arenaOffset.y);
+        this.cellZ = Coordinates.worldToCell(arenaOffset.z);
+
+        // Bucket the map by the leaves that it overlaps
+        this.leafY = Math.floorDiv(cellY, LEAF_SIZE);
+        this.minLeafX = Math.floorDiv(cellX, LEAF_SIZE);
+        this.maxLeafX = Math.floorDiv(cellX + width - 1, LEAF_SIZE);
+        this.minLeafZ = Math.floorDiv(cellZ, LEAF_SIZE);
+        this.maxLeafZ = Math.floorDiv(cellZ + height - 1, LEAF_SIZE);
+        for (int x = minLeafX; x <= maxLeafX; x++) {
+            for (int z = minLeafZ; z <= maxLeafZ; z++) {
+                leaves.add(new Vec3i(x, leafY, z));
+            }
+        }
+    }
+
+    /**
+     * Carries the tiles placed on top of the map over from the leaves the world
+     * stored in an earlier run. Placed tiles are the stored cells of the given
+     * value where the map has no tile. Must be called before start().
+     *
+     * @param stored      returns the stored leaf for a leaf id, or null
+     * @param placedValue the world cell value of a placed tile, without side
+     *                    masks
+     */
+    public void keepPlacedTiles(final LongFunction<LeafData> stored, final int placedValue) {
+        if (task != null) {
+            throw new IllegalStateException("Import already started:" + name);
+        }
+        this.stored = stored;
+        this.placedValue = placedValue;
+    }
+
+    /**
+     * @return the world cells of the placed tiles that were carried over, packed
+     *         with TileIndex.pack(), only complete when the import is done
+     */
+    public long[] getPlacedTiles() {
+        final long[] result = new long[placed.size()];
+        final int[] count = new int[1];
+        placed.forEach((key, value) -> result[count[0]++] = TileIndex.pack(cellX + TileIndex.unpackX(key),
+                cellZ + TileIndex.unpackZ(key)));
+        return result;
+    }
+
+    /**
+     * @return true if the leaf is one of the leaves the map overlaps
+     */
+    public boolean containsLeaf(final long leafId) {
+        final Vec3i world = Coordinates.leafIdToWorld(leafId);
+        final int x = Math.floorDiv(world.x, LEAF_SIZE);
+        final int z = Math.floorDiv(world.z, LEAF_SIZE);
+        return Math.floorDiv(world.y, LEAF_SIZE) == leafY && x >= minLeafX && x <= maxLeafX && z >= minLeafZ
+                && z <= maxLeafZ;
+    }
+
+    /**
+     * Starts building the leaves on the given pool.
+     */
+    public void start(final ForkJoinPool pool) {
+        if (task != null) {
+            throw new IllegalStateException("Import already started:" + name);
+        }
+        startTime = System.nanoTime();
+        pending.set(leaves.size());
+        task = pool.submit(() -> {
+            if (stored != null) {
+                new FindPlacedTiles(0, leaves.size()).invoke();
+            }
+            new BuildLeaves(0, leaves.size()).invoke();
+        });
+    }
+
+    /**
+     * Stores the built leaves in the world until the time budget is used up. Must
+     * be called from the thread that owns the world.
+     *
+     * @param world  the world to store the leaves in
+     * @param budget the time budget in nanoseconds
+     * @return true when the import is finished
+     */
+    public boolean commit(final InfinityDefaultWorld world, final long budget) {
+        if (task == null) {
+            throw new IllegalStateException("Import not started:" + name);
+        }
+        if (task.isCompletedAbnormally()) {
+            log.error("Failed to import map:" + name, task.getException());
+            return true;
+        }
+        final long end = System.nanoTime() + budget;
+        LeafData leaf;
+        while ((leaf = built.poll()) != null) {
+            world.importLeaf(leaf);
+            committed++;
+            if (System.nanoTime() >= end) {
+                break;
+            }
+        }
+        if (isDone()) {
+            log.info("Imported map " + name + ": " + committed + " leaves in "
+                    + (System.nanoTime() - startTime) / 1000000 + " ms, kept " + placed.size() + " placed tiles");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true when all leaves were built and committed
+     */
+    public boolean isDone() {
+        return task != null && task.isDone() && pending.get() == 0 && built.isEmpty();
+    }
+
+    /**
+     * @return the number of leaves stored in the world so far
+     */
+    public int getCommittedCount() {
+        return committed;
+    }
+
+    /**
+     * @return the number of leaves the map overlaps
+     */
+    public int getLeafCount() {
+        return leaves.size();
+    }
+
+    /**
+     * @return the world cell value of the map tile at map coordinates, or 0
+     *         outside the map
+     */
+    private int getMapValue(final int x, final int z) {
+        if (x < 0 || z < 0 || x >= width || z >= height) {
+            return 0;
+        }
+        return cellValues.applyAsInt(Short.toUnsignedInt(tiles[width - x - 1][height - z - 1]));
+    }
+
+    /**
+     * @return the world cell value at map coordinates, the map tile or a placed
+     *         tile
+     */
+    private int getValue(final int x, final int z) {
+        final int val = getMapValue(x, z);
+        if (val != 0 || placed.isEmpty()) {
+            return val;
+        }
+        return placed.containsKey(TileIndex.pack(x, z)) ? placedValue : 0;
+    }
+
+    private void findPlacedTiles(final Vec3i leafLoc) {
+        final LeafData leaf = stored.apply(Coordinates.leafToLeafId(leafLoc.x, leafLoc.y, leafLoc.z));
+        if (leaf == null) {
+            return;
+        }
+        final int j = cellY - leafLoc.y * LEAF_SIZE;
+        final int type = MaskUtils.getType(placedValue);
+        long[] found = null;
+        int count = 0;
+        for (int i = 0; i < LEAF_SIZE; i++) {
+            final int x = leafLoc.x * LEAF_SIZE + i - cellX;
+            for (int k = 0; k < LEAF_SIZE; k++) {
+                final int z = leafLoc.z * LEAF_SIZE + k - cellZ;
+                if (MaskUtils.getType(leaf.getCell(i, j, k)) != type || getMapValue(x, z) != 0) {
+                    continue;
+                }
+                if (found == null) {
+                    found = new long[LEAF_SIZE * LEAF_SIZE];
+                }
+                found[count++] = TileIndex.pack(x, z);
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        synchronized (placed) {
+            for (int i = 0; i < count; i++) {
+                placed.put(found[i], placedValue);
+            }
+        }
+    }
+
+    private LeafData buildLeaf(final Vec3i leafLoc) {
+        final Vec3i world = new Vec3i(leafLoc.x * LEAF_SIZE, leafLoc.y * LEAF_SIZE, leafLoc.z * LEAF_SIZE);
+        final int j = cellY - world.y;
+
+        CellArray cells = null;
+        int empty = LeafInfo.CELL_COUNT;
+        for (int i = 0; i < LEAF_SIZE; i++) {
+            final int x = world.x + i - cellX;
+            for (int k = 0; k < LEAF_SIZE; k++) {
+                final int z = world.z + k - cellZ;
+                final int val = getValue(x, z);
+                if (val == 0) {
+                    continue;
+                }
+
+                // The map is a single layer, so above and below are always open
+                int sideMask = 0;
+                for (final Direction dir : Direction.values()) {
+                    final Vec3i v = dir.getVec3i();
+                    if (v.y != 0 || MaskUtils.getType(getValue(x + v.x, z + v.z)) == 0) {
+                        sideMask = sideMask | dir.getBitMask();
+                    }
+                }
+
+                if (cells == null) {
+                    cells = new CellArray(LEAF_SIZE);
+                }
+                cells.setCell(i, j, k, MaskUtils.setSideMask(val, sideMask));
+                empty--;
+            }
+        }
+        if (cells == null) {
+            return null;
+        }
+        final long leafId = Coordinates.leafToLeafId(leafLoc.x, leafLoc.y, leafLoc.z);
+        return new LeafData(new LeafInfo(world, leafId), cells, empty);
+    }
+
+    private class FindPlacedTiles extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        FindPlacedTiles(final int from, final int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LEAVES_PER_TASK) {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new FindPlacedTiles(from, mid), new FindPlacedTiles(mid, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                findPlacedTiles(leaves.get(i));
+            }
+        }
+    }
+
+    private class BuildLeaves extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        BuildLeaves(final int from, final int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LEAVES_PER_TASK) {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new BuildLeaves(from, mid), new BuildLeaves(mid, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                final LeafData leaf = buildLeaf(leaves.get(i));
+                if (leaf != null) {
+                    built.add(leaf);
+                }
+                pending.decrementAndGet();
+            }
+        }
+    }
+}
@@ -36,7 +36,13 @@ import java.util.Vector;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 public class LevelFile extends JPanel {
+
+    static Logger log = LoggerFactory.getLogger(LevelFile.class);
+
     private static final long serialVersionUID = -4658344536954311587L;
     public String m_file;
     private final BitMap m_bitmap;
@@ -69,6 +75,9 @@ public class LevelFile extends JPanel {
 
     private final short[][] m_level = new short[1024][1024];
 
+    // The reader this level was loaded with, regions are decoded from it lazily
+    private LevelReader m_reader;
+
     /**
      * Reads in a *.lvl file.
      *
@@ -89,6 +98,35 @@ public class LevelFile extends JPanel {
         m_file = file;
     }
 
+    /**
+     * Creates a lvl file from an already read level.
+     *
+     * @param b      The tileset bitmap (note read in default bitmap if lvl file does
+     *               not contain bitmap portion)
+     * @param reader the level data
+     * @param file   string representation of the file (path)
+     */
+    public LevelFile(final BitMap b, final LevelReader reader, final String file) {
+        m_bitmap = b;
+        m_containsBM = reader.hasBitMap();
+        hasELVLData = reader.hasELvl();
+        m_file = file;
+        m_reader = reader;
+
+        reader.copyTiles(m_level);
+
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            final Vector<String> row = new Vector<>();
+            row.add(reader.getAttributeKey(i));
+            row.add(reader.getAttributeValue(i));
+            eLvlAttrs.add(row);
+        }
+
+        for (final byte c : reader.getUnknownChunks()) {
+            unknownELVLData.add(Byte.valueOf(c));
+        }
+    }
+
     /**
      * Creates a new default lvl file
      *
@@ -493,6 +531,28 @@ public class LevelFile extends JPanel {
         return tiles;
     }
 
+    /**
+     * @return the regions of the level, decoded on first use when the level was
+     *         loaded through a LevelReader. Corrupt regions are logged and left
+     *         out.
+     */
+    public Vector<Region> getRegions() {
+        if (loadedRegions == null) {
+            loadedRegions = new Vector<>();
+            if (m_reader != null) {
+                for (int i = 0; i < m_reader.getRegionCount(); i++) {
+                    try {
+                        loadedRegions.add(m_reader.getRegion(i));
+                    } catch (final IllegalStateException e) {
+                        // One bad chunk should not cost the rest of the map
+                        log.warn("Skipping region of " + m_file + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+        return loadedRegions;
+    }
+
     public short[][] getMap() {
         return m_level;
     }
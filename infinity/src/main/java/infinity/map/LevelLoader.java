@@ -27,8 +27,10 @@ package infinity.map;
 
 import java.awt.Image;
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Vector;
 
 import com.jme3.asset.AssetInfo;
@@ -84,53 +86,27 @@ public class LevelLoader implements AssetLoader {
         am = assetInfo.getManager();
         m_file = assetInfo.getKey().getName();
 
-        String errorWithELVL = null;
         BitMap bmp;
 
-        try (InputStream is = assetInfo.openStream(); BufferedInputStream bis = new BufferedInputStream(is)) {
-            bmp = new BitMap(bis);
-            bmp.readBitMap(false);
+        // Read the asset once, both the bitmap and the level are parsed from it
+        final byte[] data;
+        try (InputStream is = assetInfo.openStream()) {
+            data = is.readAllBytes();
         }
-        try (InputStream is = assetInfo.openStream(); BufferedInputStream bis = new BufferedInputStream(is)) {
-            if (bmp.isBitMap()) {
-                m_lvlFile = new LevelFile(bis, bmp, true, bmp.hasELVL, m_file);
-            } else {
-                bmp = loadDefaultTileset();
-                m_lvlFile = new LevelFile(bis, bmp, false, bmp.hasELVL, m_file);
-            }
-            errorWithELVL = m_lvlFile.readLevel();
-
-            if (errorWithELVL != null) {
-
-                m_lvlFile = new LevelFile(bis, bmp, false, false, m_file); // attempt load without meta data
-                final String error = m_lvlFile.readLevel();
-
-                if (error != null) { // I give up
-                    System.out.println("First error = " + errorWithELVL);
-                    System.out.println("NON eLVL Load: " + error);
-                    throw new IOException("Corrupt LVL File");
-                }
-                System.out.println("NON eLVL Load sucessful! Previous error: " + errorWithELVL);
-            }
-
-            m_tileset = m_lvlFile.getTileSet();
-
-            m_map = m_lvlFile.getMap();
-            m_tiles = m_lvlFile.getTiles();
-
-            if (errorWithELVL != null) {
-                System.out.println("Error with eLVL Data!");
-            }
-
-        } catch (@SuppressWarnings("unused") final IOException e) {
-            // Create our lvl file
-            bmp = loadDefaultTileset();
-            m_lvlFile = new LevelFile(bmp);
 
-            m_tileset = m_lvlFile.getTileSet();
-            m_map = m_lvlFile.getMap();
-            m_tiles = m_lvlFile.getTiles();
+        // A corrupt eLVL section is skipped by the reader rather than failing the load
+        final LevelReader reader = new LevelReader(ByteBuffer.wrap(data));
+        if (reader.hasBitMap()) {
+            bmp = new BitMap(new BufferedInputStream(new ByteArrayInputStream(data)));
+            bmp.readBitMap(false);
+        } else {
+            bmp = loadDefaultTileset();
         }
+        m_lvlFile = new LevelFile(bmp, reader, m_file);
+
+        m_tileset = m_lvlFile.getTileSet();
+        m_map = m_lvlFile.getMap();
+        m_tiles = m_lvlFile.getTiles();
 
         return m_lvlFile;
     }
@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.map;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a .lvl file in one pass over a little-endian ByteBuffer: the tileset
+ * bitmap header, the eLVL chunks and the tile records. Tiles are kept as one
+ * byte per cell and regions are only decoded when asked for, so reading a level
+ * does not allocate per record.
+ */
+public class LevelReader {
+
+    public static final int MAP_SIZE = 1024;
+
+    private static final int BITMAP_HEADER_SIZE = 14;
+    private static final int ELVL_HEADER_SIZE = 12;
+    private static final int CHUNK_HEADER_SIZE = 8;
+    // The reserved bitmap header field points here when there is eLVL data
+    private static final int ELVL_BITMAP_OFFSET = 49720;
+    private static final int PLAIN_BITMAP_SIZE = 49718;
+
+    private static final int TAG_BM = 'B' | ('M' << 8);
+    private static final int TAG_ELVL = tag("elvl");
+    private static final int TAG_ATTR = tag("ATTR");
+    private static final int TAG_REGN = tag("REGN");
+
+    private final ByteBuffer buffer;
+
+    // Tile ids, one byte per cell at [y * MAP_SIZE + x]
+    private final byte[] tiles = new byte[MAP_SIZE * MAP_SIZE];
+    private int tileCount;
+
+    private boolean bitmap;
+    private int bitmapSize;
+    private int elvlOffset = -1;
+
+    // Chunk positions as (offset, length) pairs, decoded on demand
+    private int[] attrs = new int[16];
+    private int attrCount;
+    private int[] regions = new int[16];
+    private int regionCount;
+    private Region[] decodedRegions;
+    private int[] unknown = new int[4];
+    private int unknownCount;
+
+    /**
+     * Reads a level from a buffer. If the eLVL data is corrupt the level is read
+     * again without it.
+     *
+     * @param buffer the contents of the level file, read from its current
+     *               position
+     */
+    public LevelReader(final ByteBuffer buffer) {
+        this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        readHeader();
+        try {
+            readTiles(readELvl());
+        } catch (@SuppressWarnings("unused") final IOException e) {
+            clearChunks();
+            readTiles(skipELvl());
+        }
+    }
+
+    /**
+     * Maps a level file into memory and reads it.
+     */
+    public static LevelReader map(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new LevelReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads a level from a stream, for levels that are not plain files such as
+     * assets inside a jar.
+     */
+    public static LevelReader read(final InputStream in) throws IOException {
+        return new LevelReader(ByteBuffer.wrap(in.readAllBytes()));
+    }
+
+    private static int tag(final String tag) {
+        return tag.charAt(0) | (tag.charAt(1) << 8) | (tag.charAt(2) << 16) | (tag.charAt(3) << 24);
+    }
+
+    private void readHeader() {
+        if (buffer.limit() >= 4 && buffer.getInt(0) == TAG_ELVL) {
+            elvlOffset = 0;
+            return;
+        }
+        if (buffer.limit() < BITMAP_HEADER_SIZE || (buffer.getShort(0) & 0xFFFF) != TAG_BM) {
+            return;
+        }
+        bitmap = true;
+        bitmapSize = buffer.getInt(2);
+        if (bitmapSize != PLAIN_BITMAP_SIZE && (buffer.getShort(6) & 0xFFFF) == ELVL_BITMAP_OFFSET) {
+            elvlOffset = ELVL_BITMAP_OFFSET;
+        }
+    }
+
+    /**
+     * @return the offset of the first tile record
+     */
+    private int readELvl() throws IOException {
+        final int limit = buffer.limit();
+        if (elvlOffset < 0) {
+            return bitmap ? bitmapSize : 0;
+        }
+        if (limit - elvlOffset < ELVL_HEADER_SIZE) {
+            throw new IOException("File ended before we could read the eLVL header.");
+        }
+        if (buffer.getInt(elvlOffset) != TAG_ELVL) {
+            throw new IOException("The elvl header tag was not detected at the start of the eLVL data section.");
+        }
+        // Total size of the metadata section, header included
+        final int size = buffer.getInt(elvlOffset + 4);
+        final int end = elvlOffset + size;
+        if (size < ELVL_HEADER_SIZE || end > limit) {
+            throw new IOException("The eLVL data section runs past the end of the file.");
+        }
+        int pos = elvlOffset + ELVL_HEADER_SIZE;
+        while (pos < end) {
+            if (end - pos < CHUNK_HEADER_SIZE) {
+                throw new IOException("File ended while expecting a generic chunk header.");
+            }
+            final int type = buffer.getInt(pos);
+            final int length = buffer.getInt(pos + 4);
+            pos += CHUNK_HEADER_SIZE;
+            if (length < 0 || length > limit - pos) {
+                throw new IOException("EOF while reading in a eLVL chunk of type " + tagName(type));
+            }
+
+            if (type == TAG_ATTR) {
+                if (indexOf('=', pos, length) < 0) {
+                    throw new IOException("ATTR tag does not contain an '=' sign: " + string(pos, length));
+                }
+                attrs = add(attrs, attrCount++, pos, length);
+            } else if (type == TAG_REGN) {
+                regions = add(regions, regionCount++, pos, length);
+            } else {
+                // Keep the header too so the chunk can be written back as is
+                unknown = add(unknown, unknownCount++, pos - CHUNK_HEADER_SIZE, length + CHUNK_HEADER_SIZE);
+            }
+
+            // Chunks are padded to a 4 byte boundary
+            pos += (length + 3) & ~3;
+        }
+        return end;
+    }
+
+    /**
+     * @return the offset of the first tile record, skipping the eLVL data if its
+     *         header is sane or ignoring it otherwise
+     */
+    private int skipELvl() {
+        if (elvlOffset >= 0 && buffer.limit() - elvlOffset >= ELVL_HEADER_SIZE
+                && buffer.getInt(elvlOffset) == TAG_ELVL) {
+            final int size = buffer.getInt(elvlOffset + 4);
+            if (size >= ELVL_HEADER_SIZE && size <= buffer.limit() - elvlOffset) {
+                return elvlOffset + size;
+            }
+        }
+        elvlOffset = -1;
+        return bitmap ? bitmapSize : 0;
+    }
+
+    private static int[] add(final int[] pairs, final int index, final int offset, final int length) {
+        final int[] result = index * 2 + 2 > pairs.length ? Arrays.copyOf(pairs, pairs.length * 2) : pairs;
+        result[index * 2] = offset;
+        result[index * 2 + 1] = length;
+        return result;
+    }
+
+    private void clearChunks() {
+        attrCount = 0;
+        regionCount = 0;
+        unknownCount = 0;
+        decodedRegions = null;
+    }
+
+    private void readTiles(final int offset) {
+        final int end = offset + ((buffer.limit() - offset) & ~3);
+        for (int pos = offset; pos < end; pos += 4) {
+            final int i = buffer.getInt(pos);
+            final int x = i & 0x03FF;
+            final int y = (i >> 12) & 0x03FF;
+            tiles[y * MAP_SIZE + x] = (byte) (i >>> 24);
+        }
+        tileCount = (end - offset) >> 2;
+    }
+
+    private int indexOf(final int c, final int offset, final int length) {
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String string(final int offset, final int length) {
+        final byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static String tagName(final int tag) {
+        return new String(new byte[] { (byte) tag, (byte) (tag >> 8), (byte) (tag >> 16), (byte) (tag >> 24) },
+                StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return true if the level starts with a tileset bitmap
+     */
+    public boolean hasBitMap() {
+        return bitmap;
+    }
+
+    /**
+     * @return true if the level has an eLVL data section
+     */
+    public boolean hasELvl() {
+        return elvlOffset >= 0;
+    }
+
+    /**
+     * @return the number of tile records that were read
+     */
+    public int getTileCount() {
+        return tileCount;
+    }
+
+    /**
+     * @return the unsigned tile id at the given cell
+     */
+    public int getTile(final int x, final int y) {
+        return tiles[y * MAP_SIZE + x] & 0xFF;
+    }
+
+    /**
+     * Copies the tiles into an array indexed as [x][y], the way LevelFile keeps
+     * them.
+     */
+    public void copyTiles(final short[][] target) {
+        for (int x = 0; x < MAP_SIZE; x++) {
+            final short[] column = target[x];
+            for (int y = 0; y < MAP_SIZE; y++) {
+                column[y] = (short) (tiles[y * MAP_SIZE + x] & 0xFF);
+            }
+        }
+    }
+
+    public int getAttributeCount() {
+        return attrCount;
+    }
+
+    /**
+     * @return the key of an ATTR chunk
+     */
+    public String getAttributeKey(final int index) {
+        final int offset = attrs[index * 2];
+        return string(offset, indexOf('=', offset, attrs[index * 2 + 1]));
+    }
+
+    /**
+     * @return the value of an ATTR chunk
+     */
+    public String getAttributeValue(final int index) {
+        final int offset = attrs[index * 2];
+        final int length = attrs[index * 2 + 1];
+        final int split = indexOf('=', offset, length) + 1;
+        return string(offset + split, length - split);
+    }
+
+    public int getRegionCount() {
+        return regionCount;
+    }
+
+    /**
+     * Decodes a REGN chunk the first time it is asked for.
+     *
+     * @throws IllegalStateException if the region chunk is corrupt
+     */
+    public Region getRegion(final int index) {
+        if (decodedRegions == null) {
+            decodedRegions = new Region[regionCount];
+        }
+        Region result = decodedRegions[index];
+        if (result == null) {
+            final ByteArray encoding = new ByteArray(regions[index * 2 + 1]);
+            buffer.get(regions[index * 2], encoding.m_array);
+            result = new Region();
+            final String error = result.decodeRegion(encoding);
+            if (error != null) {
+                throw new IllegalStateException("Corrupt region " + index + ": " + error);
+            }
+            decodedRegions[index] = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return the unknown eLVL chunks, headers and padding included, in the order
+     *         they were read
+     */
+    public byte[] getUnknownChunks() {
+        int size = 0;
+        for (int i = 0; i < unknownCount; i++) {
+            size += (unknown[i * 2 + 1] + 3) & ~3;
+        }
+        final byte[] result = new byte[size];
+        int pos = 0;
+        for (int i = 0; i < unknownCount; i++) {
+            final int length = unknown[i * 2 + 1];
+            buffer.get(unknown[i * 2], result, pos, length);
+            pos += (length + 3) & ~3;
+        }
+        return result;
+    }
+}
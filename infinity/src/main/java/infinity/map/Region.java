@@ -27,7 +27,10 @@ package infinity.map;
 
 import java.awt.Color;
 import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Vector;
 
 /**
@@ -41,17 +44,6 @@ import java.util.Vector;
  * @author baks
  */
 public class Region {
-    // constants
-
-    private static int SMALL_EMPTY_RUN = 0;
-    private static int LONG_EMPTY_RUN = 1;
-    private static int SMALL_PRESENT_RUN = 2;
-    private static int LONG_PRESENT_RUN = 3;
-    private static int SMALL_EMPTY_ROWS = 4;
-    private static int LONG_EMPTY_ROWS = 5;
-    private static int SMALL_REPEAT = 6;
-    private static int LONG_REPEAT = 7;
-
     public Color color;
     public String name;
 
@@ -65,7 +57,10 @@ public class Region {
     public int x = 512, y = 512;
     public String arena = "";
 
-    public ArrayList<Rectangle> rects = new ArrayList<>();
+    // Only changed through addRect() so the cached tiles stay in sync
+    private final ArrayList<Rectangle> rects = new ArrayList<>();
+    // The tiles of rects as row runs, built on first use
+    private RegionTiles tiles;
     public Vector<Byte> unknownBytes = new Vector<>(); // region bytes loaded... but unknown or unused by the program
 
     public Region() {
@@ -254,249 +249,51 @@ public class Region {
      * @return the vector of bytes representing the encoding of this tiledata
      */
     private Vector<Byte> getCompressedRGN() {
-        final Vector<Byte> bytes = new Vector<>();
-
-        final boolean rgn[][] = new boolean[1024][1024];
+        final RegionTiles t = getTiles();
+        final ByteBuffer buffer = ByteBuffer.allocate(t.encode(null));
+        t.encode(buffer);
 
-        // start empty
-        for (int yPos = 0; yPos < 1024; ++yPos) {
-            for (int xPos = 0; xPos < 1024; ++xPos) {
-                rgn[yPos][xPos] = false;
-            }
+        final Vector<Byte> bytes = new Vector<>(buffer.capacity());
+        for (final byte b : buffer.array()) {
+            bytes.add(Byte.valueOf(b));
         }
-
-        // add rectangles
-        for (final Object rect : rects) {
-            final Rectangle r = (Rectangle) rect;
-
-            final int endX = r.x + r.width;
-            final int endY = r.y + r.height;
-
-            for (int yPos = r.y; yPos < endY; ++yPos) {
-                for (int xPos = r.x; xPos < endX; ++xPos) {
-                    rgn[yPos][xPos] = true;
-                }
-            }
-        }
-
-        Vector<Byte> lastRow = null;
-        int lastRowSameCount = 0;
-        int emptyRowCount = 0;
-
-        // okay now we actually have to do the encoding... row by row
-        for (int curRow = 0; curRow < 1024; ++curRow) {
-            int curY = 0;
-
-            boolean emptyRow = true;
-            for (; curY < 1024; ++curY) // check for empty row
-            {
-                if (rgn[curRow][curY]) {
-                    emptyRow = false;
-                    break;
-                }
-            }
-
-            if (emptyRow) {
-                emptyRowCount++;
-
-                if (lastRowSameCount > 0) {
-                    bytes.addAll(encodeRepeatLastRow(lastRowSameCount));
-                }
-
-                lastRow = null;
-                lastRowSameCount = 0;
-
-                if (curRow == 1023) // end, encode it
-                {
-                    bytes.addAll(encodeEmptyRows(emptyRowCount));
-                }
-
-                continue;
-            }
-
-            if (emptyRowCount > 0) { // encode a number of empty rows
-                bytes.addAll(encodeEmptyRows(emptyRowCount));
-
-                emptyRowCount = 0;
-            }
-
-            // we have to encode a single row
-            final Vector<Byte> encodedRow = new Vector<>();
-            curY = 0;
-            while (curY < 1024) {
-                final boolean encodingTiles = rgn[curRow][curY];
-
-                int count = 0;
-
-                for (; curY < 1024; ++count, ++curY) {
-                    if (rgn[curRow][curY] != encodingTiles) {
-                        break;
-                    }
-                }
-
-                // encode count tiles of type encodingTiles
-                encodedRow.addAll(encodeRun(count, encodingTiles));
-            }
-
-            boolean sameAsLastRow = true;
-
-            if (lastRow == null) {
-                sameAsLastRow = false;
-            } else if (lastRow.size() != encodedRow.size()) {
-                sameAsLastRow = false;
-            } else {
-                for (int v = 0; v < lastRow.size(); ++v) {
-                    if (!lastRow.get(v).equals(encodedRow.get(v))) {
-                        sameAsLastRow = false;
-                        break;
-                    }
-                }
-            }
-
-            if (sameAsLastRow) {
-                lastRowSameCount++;
-
-                if (curRow == 1023) {
-                    // save same as Last Row #
-                    bytes.addAll(encodeRepeatLastRow(lastRowSameCount));
-                }
-            } else {
-                if (lastRowSameCount != 0) {
-                    // save same as Last Row #
-                    bytes.addAll(encodeRepeatLastRow(lastRowSameCount));
-
-                    lastRowSameCount = 0;
-                }
-
-                bytes.addAll(encodedRow);
-                lastRow = encodedRow;
-            }
-
-        }
-
         return bytes;
     }
 
     /**
-     * Encode a number of empty rows
-     *
-     * @return a Vector of bytes containing the encoding
+     * @return the tiles of this region, built from rects the first time
      */
-    private static Vector<Byte> encodeEmptyRows(final int count) {
-        /*
-         * first, rows that contain no tiles at all can (optionally) be encoded
-         * specially:
-         *
-         * 100n nnnn - n+1 (1-32) rows of all empty 1010 00nn nnnn nnnn - n+1 (1-1024)
-         * rows of all empty
-         */
-
-        final Vector<Byte> code = new Vector<>();
-
-        int i = count;
-        if (i <= 32) {
-            i--; // cause it's 1-32 not 0-31
-            final byte encode = (byte) (i | 0x80);
-            code.add(Byte.valueOf(encode));
-
-        } else {
-            i--;
-            final byte one = (byte) ((i >> 8) | 0xA0);
-            final byte two = (byte) ((i & 0x00FF));
-
-            code.add(Byte.valueOf(one));
-            code.add(Byte.valueOf(two));
-
+    public RegionTiles getTiles() {
+        if (tiles == null) {
+            tiles = RegionTiles.fromRectangles(rects);
         }
-
-        return code;
+        return tiles;
     }
 
     /**
-     * Encode a run
-     *
-     * @param i        the number of tiles to cover
-     * @param inRegion is this a run of region tiles? (or empty spaces)
-     * @return the Vector of encodedBytes for this run
+     * @return copies of the rectangles that make up this region
      */
-    private static Vector<Byte> encodeRun(final int count, final boolean inRegion) {
-        /*
-         * for each row, split it into runs of empty tiles and present tiles. for each
-         * run, output one of these bit sequences:
-         *
-         * 000n nnnn - n+1 (1-32) empty tiles in a row 0010 00nn nnnn nnnn - n+1
-         * (1-1024) empty tiles in a row 010n nnnn - n+1 (1-32) present tiles in a row
-         * 0110 00nn nnnn nnnn - n+1 (1-1024) present tiles in a row
-         */
-
-        final Vector<Byte> code = new Vector<>();
-        int i = count;
-
-        if (i <= 32) {
-            --i;
-            byte one;
-
-            if (!inRegion) {
-                one = (byte) i;
-            } else {
-                one = (byte) (i | 0x40);
-            }
-
-            code.add(Byte.valueOf(one));
-
-        } else {
-            --i;
-            byte one, two;
-
-            if (!inRegion) // empty tiles
-            {
-                one = (byte) ((i >> 8) | 0x20);
-                two = (byte) (i & 0x00FF);
-            } else // present tiles
-            {
-                one = (byte) ((i >> 8) | 0x60);
-                two = (byte) (i & 0x00FF);
-            }
-
-            code.add(Byte.valueOf(one));
-            code.add(Byte.valueOf(two));
-
+    public List<Rectangle> getRects() {
+        final List<Rectangle> result = new ArrayList<>(rects.size());
+        for (final Rectangle r : rects) {
+            result.add(new Rectangle(r));
         }
-
-        return code;
+        return result;
     }
 
     /**
-     * encode a repeat of the last row
-     *
-     * @param count the number of times we repeated
-     * @return a Vector of Bytes containing the encoding of this repetition
+     * Adds a rectangle of tiles to this region
      */
-    private static Vector<Byte> encodeRepeatLastRow(final int count) {
-        /*
-         * if the same pattern of tiles appears in more than one consecutive row, you
-         * can use these special codes to save more space:
-         *
-         * 110n nnnn - repeat last row n+1 (1-32) times 1110 00nn nnnn nnnn - repeat
-         * last row n+1 (1-1024) times
-         */
-
-        final Vector<Byte> code = new Vector<>();
-        int i = count;
-        if (i <= 32) {
-            i--; // cause it's 1-32 not 0-31
-            final byte encode = (byte) (i | 0xC0);
-            code.add(Byte.valueOf(encode));
-        } else {
-            i--;
-            final byte one = (byte) ((i >> 8) | 0xE0);
-            final byte two = (byte) ((i & 0x00FF));
-
-            code.add(Byte.valueOf(one));
-            code.add(Byte.valueOf(two));
-        }
+    public void addRect(final Rectangle rect) {
+        rects.add(new Rectangle(rect));
+        tiles = null;
+    }
 
-        return code;
+    /**
+     * @return true if the tile is part of this region
+     */
+    public boolean contains(final int tileX, final int tileY) {
+        return getTiles().contains(tileX, tileY);
     }
 
     /**
@@ -632,156 +429,13 @@ public class Region {
      * @return the error String
      */
     private String decodeTiles(final byte[] data, final int offset, final int size) {
-        String error = null;
-        int o = offset;
-        final int endByte = o + size;
-        final boolean[][] rgn = new boolean[1024][1024];
-
-        // region starts empty
-        for (int xPos = 0; xPos < 1024; ++xPos) {
-            for (int yPos = 0; yPos < 1024; ++yPos) {
-                rgn[xPos][yPos] = false;
-            }
-        }
-
-        int curX = 0;
-        int curY = 0;
-
-        while (o < endByte) {
-            final byte typeByte = data[o];
-
-            final int type = getEncodedType(typeByte);
-            final int len = getEncodedLength(data, o, type);
-
-            if (type == SMALL_EMPTY_RUN || type == LONG_EMPTY_RUN) {
-                if (len + curX > 1024) {
-                    error = "empty run extends past end";
-                    break;
-                }
-
-                curX += len;
-            } else if (type == SMALL_PRESENT_RUN || type == LONG_PRESENT_RUN) {
-                if (len + curX > 1024) {
-                    error = "present run extends past end";
-                    break;
-                }
-
-                final int stopX = curX + len;
-
-                for (int xPos = curX; xPos < stopX; ++xPos) {
-                    rgn[curY][xPos] = true;
-                }
-
-                curX += len;
-            } else if (type == SMALL_EMPTY_ROWS || type == LONG_EMPTY_ROWS) {
-                if (curX != 0) {
-                    error = "empty row occured before a run was over, curX = " + curX;
-                    break;
-                }
-
-                curY += len;
-            } else if (type == SMALL_REPEAT || type == LONG_REPEAT) {
-                if (curX != 0) {
-                    error = "repeat occured before a run was over.";
-                    break;
-                }
-                if (curY == 0) {
-                    error = "repeat occured in the first row.";
-                    break;
-                }
-
-                final int stopY = curY + len;
-                final int copyY = curY - 1;
-
-                for (int xPos = 0; xPos < 1024; ++xPos) {
-                    for (int yPos = curY; yPos < stopY; ++yPos) {
-                        rgn[yPos][xPos] = rgn[copyY][xPos];
-                    }
-                }
-
-                curY += len;
-            }
-
-            if (curX == 1024) {
-                ++curY;
-                curX = 0;
-            }
-
-            if (type % 2 == 0) // short
-            {
-                ++o;
-            } else // long
-            {
-                o += 2;
-            }
-        }
-
-        if (error == null && curY != 1024) {
-            error = "Encoded rTIL does NOT contain 1024 rows... it has " + curY;
-        }
-
-        if (error == null) {
-            // at this point we're all encoded, make the rectangles
-            curX = curY = 0;
-
-            while (curY < 1024) {
-                if (rgn[curY][curX] == true) {
-                    final Rectangle r = new Rectangle();
-                    r.x = curX;
-                    r.y = curY;
-
-                    int w = 1;
-                    for (int XPos = curX + 1; XPos < 1024; ++XPos) {
-                        if (rgn[curY][XPos] == false) {
-                            break;
-                        }
-
-                        ++w;
-                    }
-
-                    r.width = w;
-
-                    int h = 1;
-                    for (int yPos = r.y + 1; yPos < 1024; ++yPos) {
-                        final int endX = r.x + r.width;
-                        boolean sameRow = true;
-                        for (int xPos = r.x; xPos < endX; ++xPos) {
-                            if (rgn[yPos][xPos] == false) {
-                                sameRow = false;
-                                break;
-                            }
-                        }
-
-                        if (sameRow == false) {
-                            break;
-                        }
-
-                        ++h;
-                    }
-
-                    r.height = h;
-
-                    final int endX = r.x + r.width;
-                    final int endY = r.y + r.height;
-
-                    for (int yPos = r.y; yPos < endY; ++yPos) {
-                        for (int xPos = r.x; xPos < endX; ++xPos) {
-                            rgn[yPos][xPos] = false; // this part has been proccessed
-                        }
-                    }
-
-                    rects.add(r);
-                }
-
-                // increment
-                if (++curX == 1024) {
-                    curX = 0;
-                    ++curY;
-                }
-            }
+        try {
+            tiles = RegionTiles.decode(ByteBuffer.wrap(data), offset, size);
+        } catch (final IOException e) {
+            return e.getMessage();
         }
-
-        return error;
+        rects.addAll(tiles.toRectangles());
+        return null;
     }
 
     /**
@@ -803,60 +457,6 @@ public class Region {
         return new Color(r, g, b);
     }
 
-    /**
-     * Get an encoded length for this rTil entry
-     *
-     * @param data   the data array
-     * @param offset the current offset
-     * @param type   the type of the fragment at offset in data
-     * @return the length that's encoded
-     */
-    private static int getEncodedLength(final byte[] data, final int offset, final int type) {
-        int len = -1;
-
-        if (type % 2 == 0) // short
-        {
-            len = getEncodedLength(data[offset]);
-        } else {
-            len = getEncodedLength(data[offset], data[offset + 1]);
-        }
-
-        return len;
-    }
-
-    /**
-     * Get the encoded length in this SMALL one byte rTIL encoding
-     *
-     * @param one the byte for this encoding
-     * @return an in 1-32 represeting the length that's currently encoded
-     */
-    private static int getEncodedLength(final byte one) {
-        return getBitFragment(one, 4, 8) + 1;
-    }
-
-    /**
-     * Get the encoded length in this LONG two byte rTIL encoding
-     *
-     * @param one the first byte for this encoding
-     * @param two the second byte for this encoding
-     * @return an in 1-1024 represeting the length that's currently encoded
-     */
-    private static int getEncodedLength(final byte one, final byte two) {
-        final int highByte = getBitFragment(one, 7, 8) << 8;
-        return (highByte | (0xFF & two)) + 1;
-    }
-
-    /**
-     * Get the type of encoding this is for eLVL rTIL encoding... will be a constant
-     * such as Region.SMALL_EMPTY_RUN or Region.LONG_REPEAT
-     *
-     * @param typeByte
-     * @return
-     */
-    private static int getEncodedType(final byte typeByte) {
-        return getBitFragment(typeByte, 1, 3);
-    }
-
     /**
      * get the bit fragment from startIndex to endIndex
      *
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the regions that cover a map tile. Each row of the map is split into
+ * segments where the set of covering regions does not change, so a lookup is a
+ * binary search over one row. The region properties of every distinct set are
+ * folded into flags so that per frame checks such as no weapons do not have to
+ * look at the regions themselves.
+ */
+public class RegionIndex {
+
+    public static final int BASE = 1;
+    public static final int NO_FLAGS = 2;
+    public static final int NO_WEAPONS = 4;
+    public static final int NO_ANTIWARP = 8;
+    public static final int AUTO_WARP = 16;
+
+    private static final int SIZE = RegionTiles.SIZE;
+
+    private final Region[] regions;
+
+    // Segments of row y are rowFrom[y] to rowFrom[y + 1]
+    private final int[] rowFrom = new int[SIZE + 1];
+    private int[] segmentStart = new int[64];
+    private int[] segmentSet = new int[64];
+    private int segmentCount;
+
+    // Distinct region sets, set 0 is the empty set
+    private final List<int[]> sets = new ArrayList<>();
+    private final int[] flags;
+
+    public RegionIndex(final Collection<Region> regions) {
+        this.regions = regions.toArray(new Region[0]);
+
+        final Map<BitSet, Integer> setIds = new HashMap<>();
+        final BitSet empty = new BitSet();
+        setIds.put(empty, Integer.valueOf(0));
+        sets.add(new int[0]);
+
+        final BitSet breaks = new BitSet(SIZE + 1);
+        for (int y = 0; y < SIZE; y++) {
+            rowFrom[y] = segmentCount;
+
+            // Every run start and end in the row is a place where the set can change
+            breaks.clear();
+            for (final Region r : this.regions) {
+                final RegionTiles tiles = r.getTiles();
+                for (int i = 0; i < tiles.getRunCount(y); i++) {
+                    breaks.set(tiles.getRunStart(y, i));
+                    breaks.set(tiles.getRunEnd(y, i));
+                }
+            }
+
+            int lastSet = 0;
+            for (int x = breaks.nextSetBit(0); x >= 0 && x < SIZE; x = breaks.nextSetBit(x + 1)) {
+                final BitSet members = new BitSet(this.regions.length);
+                for (int i = 0; i < this.regions.length; i++) {
+                    if (this.regions[i].contains(x, y)) {
+                        members.set(i);
+                    }
+                }
+                Integer id = setIds.get(members);
+                if (id == null) {
+                    id = Integer.valueOf(sets.size());
+                    setIds.put(members, id);
+                    sets.add(members.stream().toArray());
+                }
+                if (id.intValue() != lastSet) {
+                    addSegment(x, id.intValue());
+                    lastSet = id.intValue();
+                }
+            }
+        }
+        rowFrom[SIZE] = segmentCount;
+
+        flags = new int[sets.size()];
+        for (int i = 0; i < flags.length; i++) {
+            flags[i] = flagsOf(sets.get(i));
+        }
+    }
+
+    private int flagsOf(final int[] members) {
+        int result = 0;
+        for (final int i : members) {
+            final Region r = regions[i];
+            result |= (r.isBase ? BASE : 0) | (r.isNoFlags ? NO_FLAGS : 0) | (r.isNoWeps ? NO_WEAPONS : 0)
+                    | (r.isNoAnti ? NO_ANTIWARP : 0) | (r.isAutoWarp ? AUTO_WARP : 0);
+        }
+        return result;
+    }
+
+    private void addSegment(final int start, final int set) {
+        if (segmentCount == segmentStart.length) {
+            segmentStart = Arrays.copyOf(segmentStart, segmentCount * 2);
+            segmentSet = Arrays.copyOf(segmentSet, segmentCount * 2);
+        }
+        segmentStart[segmentCount] = start;
+        segmentSet[segmentCount] = set;
+        segmentCount++;
+    }
+
+    /**
+     * @return the id of the set of regions covering the tile, 0 for none
+     */
+    private int setAt(final int x, final int y) {
+        if (x < 0 || y < 0 || x >= SIZE || y >= SIZE) {
+            return 0;
+        }
+        int lo = rowFrom[y];
+        int hi = rowFrom[y + 1] - 1;
+        // Find the last segment that starts at or before x
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (segmentStart[mid] <= x) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return hi >= rowFrom[y] ? segmentSet[hi] : 0;
+    }
+
+    /**
+     * @return the combined flags of all regions covering the tile
+     */
+    public int getFlags(final int x, final int y) {
+        return flags[setAt(x, y)];
+    }
+
+    public boolean isNoWeapons(final int x, final int y) {
+        return (getFlags(x, y) & NO_WEAPONS) != 0;
+    }
+
+    public boolean isNoFlags(final int x, final int y) {
+        return (getFlags(x, y) & NO_FLAGS) != 0;
+    }
+
+    /**
+     * @return the first auto-warp region covering the tile or null
+     */
+    public Region getAutoWarp(final int x, final int y) {
+        final int set = setAt(x, y);
+        if ((flags[set] & AUTO_WARP) == 0) {
+            return null;
+        }
+        for (final int i : sets.get(set)) {
+            if (regions[i].isAutoWarp) {
+                return regions[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds every region covering the tile to the collection.
+     *
+     * @return the number of regions added
+     */
+    public int getRegions(final int x, final int y, final Collection<? super Region> result) {
+        final int[] members = sets.get(setAt(x, y));
+        for (final int i : members) {
+            result.add(regions[i]);
+        }
+        return members.length;
+    }
+
+    public int getRegionCount() {
+        return regions.length;
+    }
+
+    @Override
+    public String toString() {
+        return "RegionIndex[regions=" + regions.length + ", sets=" + sets.size() + ", segments=" + segmentCount
+                + "]";
+    }
+}
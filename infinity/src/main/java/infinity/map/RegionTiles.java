@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.map;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The tiles of a region kept as sorted runs of present tiles per row. Rows that
+ * repeat the row above share its runs. Point queries are a binary search over
+ * the runs of one row, and the rTIL encoding is read and written directly
+ * without building the 1024x1024 grid.
+ */
+public class RegionTiles {
+
+    public static final int SIZE = 1024;
+
+    // rTIL codes, the top three bits of the first byte
+    private static final int EMPTY_RUN = 0;
+    private static final int PRESENT_RUN = 2;
+    private static final int EMPTY_ROWS = 4;
+    private static final int REPEAT = 6;
+
+    // Runs as [start, end) pairs, the runs of row y are rowFrom[y] to rowTo[y]
+    private int[] runs;
+    private int runCount;
+    private final int[] rowFrom = new int[SIZE];
+    private final int[] rowTo = new int[SIZE];
+    // The first run of the row being built
+    private int building;
+
+    private RegionTiles(final int capacity) {
+        runs = new int[Math.max(16, capacity * 2)];
+    }
+
+    /**
+     * Builds the tiles covered by a set of rectangles.
+     */
+    public static RegionTiles fromRectangles(final List<Rectangle> rects) {
+        final RegionTiles result = new RegionTiles(rects.size());
+        final int[] row = new int[rects.size() * 2];
+        for (int y = 0; y < SIZE; y++) {
+            // Gather the spans that cover the row, sorted by start
+            int count = 0;
+            for (final Rectangle r : rects) {
+                if (y >= r.y && y < r.y + r.height && r.width > 0) {
+                    row[count++] = Math.max(0, r.x);
+                    row[count++] = Math.min(SIZE, r.x + r.width);
+                }
+            }
+            sortPairs(row, count);
+
+            for (int i = 0; i < count; i += 2) {
+                result.addRun(row[i], row[i + 1]);
+            }
+            result.endRow(y);
+        }
+        return result;
+    }
+
+    private static void sortPairs(final int[] pairs, final int count) {
+        // Insertion sort, rows rarely have more than a few spans
+        for (int i = 2; i < count; i += 2) {
+            final int start = pairs[i];
+            final int end = pairs[i + 1];
+            int j = i - 2;
+            while (j >= 0 && pairs[j] > start) {
+                pairs[j + 2] = pairs[j];
+                pairs[j + 3] = pairs[j + 1];
+                j -= 2;
+            }
+            pairs[j + 2] = start;
+            pairs[j + 3] = end;
+        }
+    }
+
+    /**
+     * Appends a run to the row being built, merging it with the last run if they
+     * touch or overlap.
+     */
+    private void addRun(final int start, final int end) {
+        if (start >= end) {
+            return;
+        }
+        if (runCount > building && runs[runCount * 2 - 1] >= start) {
+            runs[runCount * 2 - 1] = Math.max(runs[runCount * 2 - 1], end);
+            return;
+        }
+        if (runCount * 2 + 2 > runs.length) {
+            runs = Arrays.copyOf(runs, runs.length * 2);
+        }
+        runs[runCount * 2] = start;
+        runs[runCount * 2 + 1] = end;
+        runCount++;
+    }
+
+    /**
+     * Decodes rTIL data.
+     *
+     * @param data   the buffer to read from
+     * @param offset the absolute offset of the rTIL data
+     * @param size   the length of the rTIL data
+     * @throws IOException if the data is corrupt
+     */
+    public static RegionTiles decode(final ByteBuffer data, final int offset, final int size) throws IOException {
+        final RegionTiles result = new RegionTiles(size);
+        final int end = offset + size;
+        int o = offset;
+        int x = 0;
+        int y = 0;
+
+        while (o < end) {
+            final int first = data.get(o) & 0xFF;
+            final int type = first >> 5;
+            final int len;
+            if ((type & 1) == 0) {
+                len = (first & 0x1F) + 1;
+                o++;
+            } else {
+                if (o + 1 >= end) {
+                    throw new IOException("rTIL ended in the middle of a long code");
+                }
+                len = (((first & 0x03) << 8) | (data.get(o + 1) & 0xFF)) + 1;
+                o += 2;
+            }
+
+            switch (type & ~1) {
+            case EMPTY_RUN:
+            case PRESENT_RUN:
+                if (y >= SIZE) {
+                    throw new IOException("run after the last row");
+                }
+                if (len + x > SIZE) {
+                    throw new IOException((type & ~1) == EMPTY_RUN ? "empty run extends past end"
+                            : "present run extends past end");
+                }
+                if ((type & ~1) == PRESENT_RUN) {
+                    result.addRun(x, x + len);
+                }
+                x += len;
+                if (x == SIZE) {
+                    result.endRow(y++);
+                    x = 0;
+                }
+                break;
+            case EMPTY_ROWS:
+                if (x != 0) {
+                    throw new IOException("empty row occured before a run was over, curX = " + x);
+                }
+                if (y + len > SIZE) {
+                    throw new IOException("empty rows extend past the last row");
+                }
+                for (int i = 0; i < len; i++) {
+                    result.endRow(y++);
+                }
+                break;
+            default:
+                if (x != 0) {
+                    throw new IOException("repeat occured before a run was over.");
+                }
+                if (y == 0) {
+                    throw new IOException("repeat occured in the first row.");
+                }
+                if (y + len > SIZE) {
+                    throw new IOException("repeat extends past the last row");
+                }
+                for (int i = 0; i < len; i++, y++) {
+                    result.rowFrom[y] = result.rowFrom[y - 1];
+                    result.rowTo[y] = result.rowTo[y - 1];
+                }
+                break;
+            }
+        }
+
+        if (y != SIZE) {
+            throw new IOException("Encoded rTIL does NOT contain 1024 rows... it has " + y);
+        }
+        return result;
+    }
+
+    private void endRow(final int y) {
+        rowFrom[y] = building;
+        rowTo[y] = runCount;
+        building = runCount;
+    }
+
+    /**
+     * @return true if the tile is part of the region
+     */
+    public boolean contains(final int x, final int y) {
+        if (x < 0 || y < 0 || x >= SIZE || y >= SIZE) {
+            return false;
+        }
+        int lo = rowFrom[y];
+        int hi = rowTo[y] - 1;
+        // Find the last run that starts at or before x
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (runs[mid * 2] <= x) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return hi >= rowFrom[y] && x < runs[hi * 2 + 1];
+    }
+
+    /**
+     * @return true if the region has no tiles in the row
+     */
+    public boolean isEmptyRow(final int y) {
+        return rowFrom[y] == rowTo[y];
+    }
+
+    /**
+     * @return the number of runs in the row
+     */
+    public int getRunCount(final int y) {
+        return rowTo[y] - rowFrom[y];
+    }
+
+    /**
+     * @return the first tile of a run in the row
+     */
+    public int getRunStart(final int y, final int run) {
+        return runs[(rowFrom[y] + run) * 2];
+    }
+
+    /**
+     * @return the tile after the last tile of a run in the row
+     */
+    public int getRunEnd(final int y, final int run) {
+        return runs[(rowFrom[y] + run) * 2 + 1];
+    }
+
+    private boolean hasRun(final int y, final int start, final int end) {
+        if (!contains(start, y)) {
+            return false;
+        }
+        for (int i = rowFrom[y]; i < rowTo[y]; i++) {
+            if (runs[i * 2] == start) {
+                return runs[i * 2 + 1] == end;
+            }
+        }
+        return false;
+    }
+
+    private boolean sameRow(final int a, final int b) {
+        final int count = rowTo[a] - rowFrom[a];
+        if (count != rowTo[b] - rowFrom[b]) {
+            return false;
+        }
+        if (rowFrom[a] == rowFrom[b]) {
+            return true;
+        }
+        return Arrays.equals(runs, rowFrom[a] * 2, rowTo[a] * 2, runs, rowFrom[b] * 2, rowTo[b] * 2);
+    }
+
+    /**
+     * Covers the region with rectangles, each run extended down over the rows
+     * that repeat it exactly.
+     */
+    public List<Rectangle> toRectangles() {
+        final List<Rectangle> result = new ArrayList<>();
+        for (int y = 0; y < SIZE; y++) {
+            for (int i = rowFrom[y]; i < rowTo[y]; i++) {
+                final int start = runs[i * 2];
+                final int end = runs[i * 2 + 1];
+                if (y > 0 && hasRun(y - 1, start, end)) {
+                    // Part of a rectangle started above
+                    continue;
+                }
+                int h = 1;
+                while (y + h < SIZE && hasRun(y + h, start, end)) {
+                    h++;
+                }
+                result.add(new Rectangle(start, y, end - start, h));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the rTIL encoding of the region, using the same codes as the
+     * original level editors.
+     *
+     * @param out the buffer to write to, or null to only count the bytes
+     * @return the number of bytes of the encoding
+     */
+    public int encode(final ByteBuffer out) {
+        int size = 0;
+        int lastRow = -1;
+        int sameCount = 0;
+        int emptyCount = 0;
+
+        for (int y = 0; y < SIZE; y++) {
+            if (isEmptyRow(y)) {
+                emptyCount++;
+                if (sameCount > 0) {
+                    size += putCode(out, REPEAT, sameCount);
+                }
+                lastRow = -1;
+                sameCount = 0;
+                if (y == SIZE - 1) {
+                    size += putCode(out, EMPTY_ROWS, emptyCount);
+                }
+                continue;
+            }
+
+            if (emptyCount > 0) {
+                size += putCode(out, EMPTY_ROWS, emptyCount);
+                emptyCount = 0;
+            }
+
+            if (lastRow >= 0 && sameRow(lastRow, y)) {
+                sameCount++;
+                if (y == SIZE - 1) {
+                    size += putCode(out, REPEAT, sameCount);
+                }
+                continue;
+            }
+
+            if (sameCount != 0) {
+                size += putCode(out, REPEAT, sameCount);
+                sameCount = 0;
+            }
+
+            int x = 0;
+            for (int i = rowFrom[y]; i < rowTo[y]; i++) {
+                final int start = runs[i * 2];
+                final int end = runs[i * 2 + 1];
+                if (start > x) {
+                    size += putCode(out, EMPTY_RUN, start - x);
+                }
+                size += putCode(out, PRESENT_RUN, end - start);
+                x = end;
+            }
+            if (x < SIZE) {
+                size += putCode(out, EMPTY_RUN, SIZE - x);
+            }
+            lastRow = y;
+        }
+        return size;
+    }
+
+    /**
+     * Writes one code, the short form for counts up to 32.
+     */
+    private static int putCode(final ByteBuffer out, final int type, final int count) {
+        final int n = count - 1;
+        if (count <= 32) {
+            if (out != null) {
+                out.put((byte) ((type << 5) | n));
+            }
+            return 1;
+        }
+        if (out != null) {
+            out.put((byte) (((type | 1) << 5) | (n >> 8)));
+            out.put((byte) n);
+        }
+        return 2;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.map;
+
+import infinity.util.LongIntMap;
+import infinity.util.LongObjectMap;
+
+/**
+ * A sparse grid of map tiles keyed by integer cell coordinates. The grid is
+ * split into 64x64 pages that are only allocated where there are tiles. Each
+ * page keeps the entity id of every cell in a flat array plus one occupancy
+ * bit per cell, packed as one long per row, so that the 8-neighbour mask of a
+ * cell is a handful of shifts on three row words.
+ *
+ * <p>
+ * Neighbour masks use the same bit weights as the wang blob tile index: north
+ * (z + 1) is bit 0 and the bits go clockwise from there.
+ * </p>
+ */
+public class TileIndex {
+
+    public static final long NO_ENTITY = -1;
+
+    public static final int NORTH = 1;
+    public static final int NORTH_EAST = 2;
+    public static final int EAST = 4;
+    public static final int SOUTH_EAST = 8;
+    public static final int SOUTH = 16;
+    public static final int SOUTH_WEST = 32;
+    public static final int WEST = 64;
+    public static final int NORTH_WEST = 128;
+
+    private static final int EDGES = NORTH | EAST | SOUTH | WEST;
+
+    private static final int PAGE_BITS = 6;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    /**
+     * Receives the cells whose wang blob index was recalculated.
+     */
+    @FunctionalInterface
+    public interface RemaskListener {
+        void remasked(int x, int z, long entityId, int wangBlobIndex);
+    }
+
+    private static final class Page {
+        final long[] ids = new long[PAGE_SIZE * PAGE_SIZE];
+        final long[] rows = new long[PAGE_SIZE];
+        int count;
+    }
+
+    private final LongObjectMap<Page> pages = new LongObjectMap<>(64);
+    private int size;
+
+    // Last page looked up, neighbouring lookups usually hit the same page
+    private long lastPageKey = Long.MIN_VALUE;
+    private Page lastPage;
+
+    // Scratch set of cells already visited by a batch remask
+    private final LongIntMap visited = new LongIntMap(64);
+
+    /**
+     * Packs cell coordinates into a single long.
+     */
+    public static long pack(final int x, final int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    public static int unpackX(final long cell) {
+        return (int) (cell >> 32);
+    }
+
+    public static int unpackZ(final long cell) {
+        return (int) cell;
+    }
+
+    /**
+     * @return the number of tiles in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    private Page page(final int x, final int z, final boolean create) {
+        final long key = pack(x >> PAGE_BITS, z >> PAGE_BITS);
+        if (key == lastPageKey && lastPage != null) {
+            return lastPage;
+        }
+        Page page = pages.get(key);
+        if (page == null) {
+            if (!create) {
+                return null;
+            }
+            page = new Page();
+            pages.put(key, page);
+        }
+        lastPageKey = key;
+        lastPage = page;
+        return page;
+    }
+
+    public boolean contains(final int x, final int z) {
+        final Page page = page(x, z, false);
+        return page != null && (page.rows[z & PAGE_MASK] & (1L << (x & PAGE_MASK))) != 0;
+    }
+
+    /**
+     * @return the entity id of the tile at the cell or NO_ENTITY
+     */
+    public long get(final int x, final int z) {
+        final Page page = page(x, z, false);
+        if (page == null || (page.rows[z & PAGE_MASK] & (1L << (x & PAGE_MASK))) == 0) {
+            return NO_ENTITY;
+        }
+        return page.ids[((z & PAGE_MASK) << PAGE_BITS) | (x & PAGE_MASK)];
+    }
+
+    /**
+     * Sets the tile entity of a cell.
+     *
+     * @return the previous entity id of the cell or NO_ENTITY
+     */
+    public long put(final int x, final int z, final long entityId) {
+        final Page page = page(x, z, true);
+        final int row = z & PAGE_MASK;
+        final long bit = 1L << (x & PAGE_MASK);
+        final int i = (row << PAGE_BITS) | (x & PAGE_MASK);
+        long previous = NO_ENTITY;
+        if ((page.rows[row] & bit) != 0) {
+            previous = page.ids[i];
+        } else {
+            page.rows[row] |= bit;
+            page.count++;
+            size++;
+        }
+        page.ids[i] = entityId;
+        return previous;
+    }
+
+    /**
+     * Clears the tile of a cell.
+     *
+     * @return the entity id that was removed or NO_ENTITY
+     */
+    public long remove(final int x, final int z) {
+        final Page page = page(x, z, false);
+        final int row = z & PAGE_MASK;
+        final long bit = 1L << (x & PAGE_MASK);
+        if (page == null || (page.rows[row] & bit) == 0) {
+            return NO_ENTITY;
+        }
+        page.rows[row] &= ~bit;
+        page.count--;
+        size--;
+        final long result = page.ids[(row << PAGE_BITS) | (x & PAGE_MASK)];
+        if (page.count == 0) {
+            pages.remove(pack(x >> PAGE_BITS, z >> PAGE_BITS));
+            lastPage = null;
+        }
+        return result;
+    }
+
+    public void clear() {
+        pages.clear();
+        lastPage = null;
+        size = 0;
+    }
+
+    /**
+     * @return the bits of the occupied cells around the cell
+     */
+    public int neighbourMask(final int x, final int z) {
+        final int lx = x & PAGE_MASK;
+        final int lz = z & PAGE_MASK;
+        if (lx > 0 && lx < PAGE_MASK && lz > 0 && lz < PAGE_MASK) {
+            // The whole 3x3 block is inside one page
+            final Page page = page(x, z, false);
+            if (page == null) {
+                return 0;
+            }
+            // Three bits per row: west, center, east
+            final int up = (int) (page.rows[lz + 1] >>> (lx - 1)) & 7;
+            final int mid = (int) (page.rows[lz] >>> (lx - 1)) & 7;
+            final int down = (int) (page.rows[lz - 1] >>> (lx - 1)) & 7;
+            return ((up >> 1) & 1) | ((up >> 2) << 1) | ((mid >> 2) << 2) | ((down >> 2) << 3)
+                    | (((down >> 1) & 1) << 4) | ((down & 1) << 5) | ((mid & 1) << 6) | ((up & 1) << 7);
+        }
+        return bit(x, z + 1, NORTH) | bit(x + 1, z + 1, NORTH_EAST) | bit(x + 1, z, EAST)
+                | bit(x + 1, z - 1, SOUTH_EAST) | bit(x, z - 1, SOUTH) | bit(x - 1, z - 1, SOUTH_WEST)
+                | bit(x - 1, z, WEST) | bit(x - 1, z + 1, NORTH_WEST);
+    }
+
+    private int bit(final int x, final int z, final int value) {
+        return contains(x, z) ? value : 0;
+    }
+
+    /**
+     * Drops the corner bits of a neighbour mask whose two adjacent edges are not
+     * both set, which turns the 256 raw masks into the 47 wang blob tiles.
+     */
+    public static int wangBlobIndex(final int neighbourMask) {
+        final int n = neighbourMask & 1;
+        final int e = (neighbourMask >> 2) & 1;
+        final int s = (neighbourMask >> 4) & 1;
+        final int w = (neighbourMask >> 6) & 1;
+        final int corners = ((n & e) << 1) | ((e & s) << 3) | ((s & w) << 5) | ((w & n) << 7);
+        return neighbourMask & (EDGES | corners);
+    }
+
+    /**
+     * @return the wang blob index of the cell based on its current neighbours
+     */
+    public int getWangBlobIndex(final int x, final int z) {
+        return wangBlobIndex(neighbourMask(x, z));
+    }
+
+    /**
+     * Recalculates the wang blob index of every occupied cell in the 3x3 block
+     * around an edited cell.
+     */
+    public void remask(final int x, final int z, final RemaskListener listener) {
+        for (int dz = -1; dz <= 1; dz++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                remaskCell(x + dx, z + dz, listener);
+            }
+        }
+    }
+
+    /**
+     * Recalculates the wang blob index of the occupied cells around an edited
+     * cell, leaving out the cell itself.
+     */
+    public void remaskNeighbours(final int x, final int z, final RemaskListener listener) {
+        for (int dz = -1; dz <= 1; dz++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                if (dx != 0 || dz != 0) {
+                    remaskCell(x + dx, z + dz, listener);
+                }
+            }
+        }
+    }
+
+    /**
+     * Recalculates the wang blob index of every occupied cell around a batch of
+     * edited cells, visiting each affected cell once.
+     *
+     * @param cells packed cell coordinates, see pack()
+     * @param count the number of cells to use from the array
+     */
+    public void remask(final long[] cells, final int count, final RemaskListener listener) {
+        visited.clear();
+        for (int i = 0; i < count; i++) {
+            final int x = unpackX(cells[i]);
+            final int z = unpackZ(cells[i]);
+            for (int dz = -1; dz <= 1; dz++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    final long cell = pack(x + dx, z + dz);
+                    if (!visited.containsKey(cell)) {
+                        visited.put(cell, 1);
+                        remaskCell(x + dx, z + dz, listener);
+                    }
+                }
+            }
+        }
+        visited.clear();
+    }
+
+    private void remaskCell(final int x, final int z, final RemaskListener listener) {
+        final long id = get(x, z);
+        if (id != NO_ENTITY) {
+            listener.remasked(x, z, id, getWangBlobIndex(x, z));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TileIndex[tiles=" + size + ", pages=" + pages.size() + "]";
+    }
+
+}
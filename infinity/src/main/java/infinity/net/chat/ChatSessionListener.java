@@ -58,6 +58,18 @@ public interface ChatSessionListener {
     @Asynchronous
     void newMessage(int clientId, String playerName, String message);
 
+    /**
+     * Called with all the messages the server has queued for us since the last
+     * time, so that a busy chat costs one network message per frame instead of
+     * one per line.
+     */
+    @Asynchronous
+    default void newMessages(final int[] clientIds, final String[] playerNames, final String[] messages) {
+        for (int i = 0; i < messages.length; i++) {
+            newMessage(clientIds[i], playerNames[i], messages[i]);
+        }
+    }
+
     /**
      * Called when an existing player has left the chat.
      */
@@ -35,6 +35,9 @@
  */
 package infinity.server;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,6 +51,9 @@ import com.simsilica.mphys.RigidBody;
 import com.simsilica.sim.AbstractGameSystem;
 
 import infinity.es.BodyPosition;
+import infinity.es.PositionHistory;
+import infinity.systems.StatsSystem;
+import infinity.util.TickProbe;
 
 /**
  * Publishes to a BodyPosition component so that server-side systems have easy
@@ -70,6 +76,13 @@ public class BodyPositionPublisher<S extends AbstractShape> extends AbstractGame
     private EntityData ed;
     private final PhysicsObserver observer = new PhysicsObserver();
 
+    // The server side needs hardly any backlog. We'll use 3 just in case
+    // but 2 (even possibly 1) should be fine. If we ever need to rewind
+    // for shot resolution then we can increase the backlog as necessary
+    private final PositionHistory history = new PositionHistory(3, 1024);
+
+    private TickProbe positionProbe;
+
     public BodyPositionPublisher() {
         super();
     }
@@ -84,6 +97,10 @@ public class BodyPositionPublisher<S extends AbstractShape> extends AbstractGame
     @Override
     protected void initialize() {
         this.ed = getSystem(EntityData.class);
+        final StatsSystem stats = getSystem(StatsSystem.class);
+        if (stats != null) {
+            positionProbe = stats.getProbe("positions");
+        }
         final MPhysSystem<S> system = getPhysicsSystem();
         system.addPhysicsListener(observer);
         system.getBinEntityManager().addObjectStatusListener(observer);
@@ -94,12 +111,22 @@ public class BodyPositionPublisher<S extends AbstractShape> extends AbstractGame
         final MPhysSystem<S> system = getPhysicsSystem();
         system.getBinEntityManager().removeObjectStatusListener(observer);
         system.removePhysicsListener(observer);
+        observer.releaseUnloaded();
     }
 
     private class PhysicsObserver implements PhysicsListener<EntityId, S>, ObjectStatusListener<S> {
 
         private long frameTime;
 
+        // Unloaded bodies keep their history slot until the next physics frame
+        // so that the systems running after this one still see the last frame
+        private final List<BodyPosition> unloaded = new ArrayList<>();
+
+        // Time spent recording frames this physics frame, only tracked while the
+        // position probe is enabled
+        private boolean measure;
+        private long positionNanos;
+
         // private final Vector3f posf = new Vector3f();
         // private final Quaternion orientf = new Quaternion();
 
@@ -118,11 +145,23 @@ public class BodyPositionPublisher<S extends AbstractShape> extends AbstractGame
         @Override
         public void startFrame(final long time, final double stepSize) {
             frameTime = time;
+            releaseUnloaded();
+            measure = positionProbe != null && positionProbe.isEnabled();
+            positionNanos = 0;
+        }
+
+        void releaseUnloaded() {
+            for (int i = 0; i < unloaded.size(); i++) {
+                unloaded.get(i).release();
+            }
+            unloaded.clear();
         }
 
         @Override
         public void endFrame() {
-            return;
+            if (measure) {
+                positionProbe.record(positionNanos);
+            }
         }
 
         @Override
@@ -130,6 +169,7 @@ public class BodyPositionPublisher<S extends AbstractShape> extends AbstractGame
             if (log.isTraceEnabled()) {
                 log.trace("update(" + body + ")");
             }
+            final long start = measure ? System.nanoTime() : 0;
             final BodyPosition p = ed.getComponent(body.id, BodyPosition.class);
             if (p == null) {
                 // Until we have remove notifications
@@ -137,6 +177,9 @@ public class BodyPositionPublisher<S extends AbstractShape> extends AbstractGame
                 return;
             }
             p.addFrame(frameTime, body.position, body.orientation, true);
+            if (measure) {
+                positionNanos += System.nanoTime() - start;
+            }
         }
 
         @Override
@@ -144,10 +187,12 @@ public class BodyPositionPublisher<S extends AbstractShape> extends AbstractGame
             if (log.isTraceEnabled()) {
                 log.trace("objectLoaded(" + id + ", " + body + ")");
             }
-            // The server side needs hardly any backlog. We'll use 3 just in case
-            // but 2 (even possibly 1) should be fine. If we ever need to rewind
-            // for shot resolution then we can increase the backlog as necessary
-            final BodyPosition bPos = new BodyPosition(3);
+            // Give back the slot of any position we are replacing
+            final BodyPosition existing = ed.getComponent(body.id, BodyPosition.class);
+            if (existing != null) {
+                existing.release();
+            }
+            final BodyPosition bPos = new BodyPosition(history);
 
             // We have the body and the position, might as well just set it to
             // its initial value.
@@ -176,6 +221,10 @@ public class BodyPositionPublisher<S extends AbstractShape> extends AbstractGame
 
             // Add the final frame with the invisible flag
             p.addFrame(frameTime, body.position, body.orientation, false);
+
+            // The slot goes back to the pool once every system had a frame to
+            // read the invisible frame
+            unloaded.add(p);
         }
     }
 }
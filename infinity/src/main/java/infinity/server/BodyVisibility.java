@@ -36,9 +36,9 @@
 
 package infinity.server;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 
@@ -70,7 +70,11 @@ public class BodyVisibility implements ComponentVisibility {
 
     // private final Set<Long> lastActiveIds;
 
-    private final Map<EntityId, BodyPosition> lastValues = new HashMap<>();
+    // The sorted ids of the bodies the client can currently see, and the array
+    // the next active set is sorted into before the two are diffed
+    private long[] visible = new long[64];
+    private int visibleCount;
+    private long[] next = new long[64];
 
     protected BodyVisibility(final NetworkStateListener netState,
             @SuppressWarnings("unused") final Set<Long> lastActiveIds) {
@@ -94,11 +98,13 @@ public class BodyVisibility implements ComponentVisibility {
 
     @Override
     public <T extends EntityComponent> T getComponent(final EntityId entityId, final Class<T> type) {
-        log.info("getComponent(" + entityId + ", " + type + ")");
+        if (log.isTraceEnabled()) {
+            log.trace("getComponent(" + entityId + ", " + type + ")");
+        }
         // if( !netState.getActiveIds().contains(entityId) ) {
         // return null;
         // }
-        if (!lastValues.containsKey(entityId)) {
+        if (Arrays.binarySearch(visible, 0, visibleCount, entityId.getId()) < 0) {
             return null;
         }
         return ed.getComponent(entityId, type);
@@ -121,24 +127,47 @@ public class BodyVisibility implements ComponentVisibility {
          *
          * return results;
          */
-        return lastValues.keySet();
+        final Set<EntityId> results = new HashSet<>();
+        for (int i = 0; i < visibleCount; i++) {
+            results.add(new EntityId(visible[i]));
+        }
+        return results;
     }
 
     @Override
     public boolean collectChanges(final Queue<EntityChange> updates) {
-        final Set<Long> active = netState.getActiveIds();
-        boolean changed = false;
+        return collectChanges(netState.getActiveIds(), updates);
+    }
+
+    /**
+     * Diffs the specified active set against what the client saw so far.
+     */
+    boolean collectChanges(final Set<Long> active, final Queue<EntityChange> updates) {
         if (log.isTraceEnabled()) {
             log.trace("active:" + active);
-            log.info("updates before:" + updates);
+            log.trace("updates before:" + updates);
+        }
+
+        // Copy the active set into a sorted primitive array
+        int count = 0;
+        if (next.length < active.size()) {
+            next = new long[Math.max(next.length * 2, active.size())];
+        }
+        for (final Long l : active) {
+            if (count == next.length) {
+                // The set grew while we were copying it
+                next = Arrays.copyOf(next, count * 2);
+            }
+            next[count++] = l.longValue();
         }
+        Arrays.sort(next, 0, count);
 
         // Remove any BodyPosition updates that don't belong to the active
         // set
         for (final Iterator<EntityChange> it = updates.iterator(); it.hasNext();) {
             final EntityChange change = it.next();
             if (change.getComponentType() == BodyPosition.class
-                    && !active.contains(Long.valueOf(change.getEntityId().getId()))) {
+                    && Arrays.binarySearch(next, 0, count, change.getEntityId().getId()) < 0) {
                 if (log.isTraceEnabled()) {
                     log.trace("removing irrelevant change:" + change);
                 }
@@ -146,37 +175,39 @@ public class BodyVisibility implements ComponentVisibility {
             }
         }
 
-        // First process the removals
-        for (final Iterator<EntityId> it = lastValues.keySet().iterator(); it.hasNext();) {
-            final EntityId id = it.next();
-            if (active.contains(Long.valueOf(id.getId()))) {
-                continue;
-            }
-            if (log.isTraceEnabled()) {
-                log.trace("removing:" + id);
+        // Walk both sorted sets once, only ids in one of them changed
+        boolean changed = false;
+        int i = 0;
+        int j = 0;
+        while (i < visibleCount || j < count) {
+            if (j == count || i < visibleCount && visible[i] < next[j]) {
+                final EntityId id = new EntityId(visible[i++]);
+                if (log.isTraceEnabled()) {
+                    log.trace("removing:" + id);
+                }
+                updates.add(new EntityChange(id, BodyPosition.class));
+                changed = true;
+            } else if (i == visibleCount || next[j] < visible[i]) {
+                final EntityId id = new EntityId(next[j++]);
+                if (log.isTraceEnabled()) {
+                    log.trace("adding:" + id);
+                }
+                final BodyPosition pos = ed.getComponent(id, BodyPosition.class);
+                updates.add(new EntityChange(id, pos));
+                changed = true;
+            } else {
+                i++;
+                j++;
             }
-            updates.add(new EntityChange(id, BodyPosition.class));
-            it.remove();
-            changed = true;
         }
 
-        // Now the adds
-        for (final Long l : active) {
-            final EntityId id = new EntityId(l.longValue());
-            if (lastValues.containsKey(id)) {
-                continue;
-            }
-            if (log.isTraceEnabled()) {
-                log.trace("adding:" + id);
-            }
-            final BodyPosition pos = ed.getComponent(id, BodyPosition.class);
-            lastValues.put(id, pos);
-            updates.add(new EntityChange(id, pos));
-            changed = true;
-        }
+        final long[] last = visible;
+        visible = next;
+        visibleCount = count;
+        next = last;
 
-        if (changed) {
-            log.info("done collectChanges() " + active);
+        if (changed && log.isDebugEnabled()) {
+            log.debug("done collectChanges() " + active);
         }
 
         return changed;
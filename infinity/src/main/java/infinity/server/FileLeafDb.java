@@ -0,0 +1,485 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.simsilica.mblock.CellArray;
+import com.simsilica.mworld.Coordinates;
+import com.simsilica.mworld.LeafData;
+import com.simsilica.mworld.LeafInfo;
+import com.simsilica.mworld.db.LeafDb;
+
+import infinity.util.LongIntMap;
+
+/**
+ * A LeafDb that keeps leaves in one memory-mapped page file. Leaves that were
+ * never stored come from a generator LeafDb.
+ *
+ * <p>
+ * Stored leaves are queued, and a background thread run-length encodes and
+ * writes them out. Every write goes to free pages as a new record with a
+ * sequence number and a checksum, and the pages of the previous record are only
+ * reused after the new one was forced to disk. After a crash the file is
+ * scanned and the newest intact record of every leaf wins, so a torn write only
+ * loses the edits that were still queued.
+ * </p>
+ */
+public class FileLeafDb implements LeafDb {
+
+    static Logger log = LoggerFactory.getLogger(FileLeafDb.class);
+
+    public static final int LEAF_SIZE = LeafInfo.SIZE;
+    public static final int PAGE_SIZE = 4096;
+    public static final long DEFAULT_FLUSH_INTERVAL = 500;
+
+    // Records never cross a segment, a segment must hold the largest record
+    private static final int SEGMENT_PAGES = 16384;
+    private static final long SEGMENT_SIZE = (long) SEGMENT_PAGES * PAGE_SIZE;
+
+    // magic, data length, leaf id, sequence, checksum, reserved
+    private static final int HEADER_SIZE = 32;
+    private static final int MAGIC = 0x4641454C; // LEAF
+
+    private final LeafDb generator;
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    // Guards the index, the free pages and the segments
+    private final Object lock = new Object();
+    private final LongIntMap index = new LongIntMap(1024);
+    private final Map<Integer, ArrayDeque<Integer>> freePages = new HashMap<>();
+    private int nextPage;
+    private long sequence;
+
+    private final ConcurrentHashMap<Long, Pending> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final Object flushLock = new Object();
+    private boolean closed;
+
+    // Encoding scratch of the flushing thread, the largest possible encoding of a
+    // leaf
+    private final byte[] scratch = new byte[LEAF_SIZE * LEAF_SIZE * LEAF_SIZE * 8];
+
+    public FileLeafDb(final File file, final LeafDb generator) throws IOException {
+        this(file, generator, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * @param file          the page file, created if it does not exist
+     * @param generator     provides the leaves that were never stored
+     * @param flushInterval milliseconds between background flushes
+     */
+    public FileLeafDb(final File file, final LeafDb generator, final long flushInterval) throws IOException {
+        this.generator = generator;
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create directory:" + parent);
+        }
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        scan();
+        log.info("Opened " + file + " with " + index.size() + " leaves, " + nextPage + " pages");
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "LeafDb-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A queued leaf. Every store queues a new one, so a flush can tell whether
+     * the leaf was stored again while it was being written.
+     */
+    private static final class Pending {
+        final LeafData leaf;
+
+        Pending(final LeafData leaf) {
+            this.leaf = leaf;
+        }
+    }
+
+    @Override
+    public LeafData loadLeaf(final long leafId) {
+        final LeafData stored = loadStoredLeaf(leafId);
+        return stored != null ? stored : generator.loadLeaf(leafId);
+    }
+
+    /**
+     * Queues the leaf to be written. The leaf is encoded by the flushing thread,
+     * changes made to it after this call are written by the next store.
+     */
+    @Override
+    public void storeLeaf(final LeafData leaf) {
+        pending.put(Long.valueOf(leaf.getInfo().leafId), new Pending(leaf));
+    }
+
+    /**
+     * @return the stored leaf, or null if the leaf was never stored and would
+     *         come from the generator
+     */
+    public LeafData loadStoredLeaf(final long leafId) {
+        final Pending p = pending.get(Long.valueOf(leafId));
+        if (p != null) {
+            return p.leaf;
+        }
+        synchronized (lock) {
+            final int page = index.get(leafId, -1);
+            return page < 0 ? null : decode(leafId, read(page));
+        }
+    }
+
+    /**
+     * @return true if the leaf was stored before, in the file or still queued,
+     *         instead of coming from the generator
+     */
+    public boolean contains(final long leafId) {
+        if (pending.containsKey(Long.valueOf(leafId))) {
+            return true;
+        }
+        synchronized (lock) {
+            return index.containsKey(leafId);
+        }
+    }
+
+    /**
+     * @return the ids of all stored leaves, in the file or still queued
+     */
+    public long[] getStoredLeafIds() {
+        final LongIntMap ids = new LongIntMap(pending.size() + 16);
+        synchronized (lock) {
+            index.forEach((leafId, page) -> ids.put(leafId, page));
+        }
+        for (final Long leafId : pending.keySet()) {
+            ids.put(leafId.longValue(), -1);
+        }
+        final long[] result = new long[ids.size()];
+        final int[] count = new int[1];
+        ids.forEach((leafId, page) -> result[count[0]++] = leafId);
+        return result;
+    }
+
+    /**
+     * @return the number of stored leaves waiting to be written
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return the number of leaves in the file
+     */
+    public int getLeafCount() {
+        synchronized (lock) {
+            return index.size();
+        }
+    }
+
+    /**
+     * Writes every queued leaf and forces the file to disk.
+     */
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            final List<Map.Entry<Long, Pending>> batch = new ArrayList<>(pending.entrySet());
+            final int[] pages = new int[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                final Map.Entry<Long, Pending> e = batch.get(i);
+                pages[i] = write(e.getKey().longValue(), scratch, encode(e.getValue().leaf, scratch));
+            }
+            for (final MappedByteBuffer segment : segments()) {
+                segment.force();
+            }
+
+            // Only now the new records are safe, point the index at them
+            synchronized (lock) {
+                for (int i = 0; i < batch.size(); i++) {
+                    final Map.Entry<Long, Pending> e = batch.get(i);
+                    final long leafId = e.getKey().longValue();
+                    final int old = index.get(leafId, -1);
+                    if (old >= 0) {
+                        release(old, pageCount(readLength(old)));
+                    }
+                    index.put(leafId, pages[i]);
+                    // The leaf may have been stored again while writing
+                    pending.remove(e.getKey(), e.getValue());
+                }
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (final IOException | RuntimeException e) {
+            log.error("Error flushing leaves", e);
+        }
+    }
+
+    /**
+     * Stops the background flushes, writes the queued leaves and closes the file.
+     */
+    public void close() throws IOException {
+        synchronized (flushLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (@SuppressWarnings("unused") final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        channel.close();
+    }
+
+    private List<MappedByteBuffer> segments() {
+        synchronized (lock) {
+            return new ArrayList<>(segments);
+        }
+    }
+
+    private static int pageCount(final int length) {
+        return (HEADER_SIZE + length + PAGE_SIZE - 1) / PAGE_SIZE;
+    }
+
+    private ByteBuffer segment(final int page) throws IOException {
+        final int s = page / SEGMENT_PAGES;
+        while (segments.size() <= s) {
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE, segments.size() * SEGMENT_SIZE, SEGMENT_SIZE));
+        }
+        return segments.get(s);
+    }
+
+    private static int offset(final int page) {
+        return (page % SEGMENT_PAGES) * PAGE_SIZE;
+    }
+
+    /**
+     * @return the first page of a free run of pages, the run is taken
+     */
+    private int allocate(final int count) {
+        synchronized (lock) {
+            final ArrayDeque<Integer> free = freePages.get(Integer.valueOf(count));
+            if (free != null && !free.isEmpty()) {
+                return free.pop().intValue();
+            }
+            // Runs do not cross segments
+            final int room = SEGMENT_PAGES - nextPage % SEGMENT_PAGES;
+            if (room < count) {
+                release(nextPage, room);
+                nextPage += room;
+            }
+            final int result = nextPage;
+            nextPage += count;
+            return result;
+        }
+    }
+
+    private void release(final int page, final int count) {
+        freePages.computeIfAbsent(Integer.valueOf(count), k -> new ArrayDeque<>()).push(Integer.valueOf(page));
+    }
+
+    private int write(final long leafId, final byte[] data, final int length) throws IOException {
+        final int page = allocate(pageCount(length));
+        final ByteBuffer buffer;
+        final long seq;
+        synchronized (lock) {
+            buffer = segment(page);
+            seq = ++sequence;
+        }
+        final int o = offset(page);
+        buffer.putInt(o, MAGIC);
+        buffer.putInt(o + 4, length);
+        buffer.putLong(o + 8, leafId);
+        buffer.putLong(o + 16, seq);
+        final ByteBuffer target = buffer.duplicate();
+        target.position(o + HEADER_SIZE);
+        target.put(data, 0, length);
+        buffer.putInt(o + 24, checksum(buffer, o, length));
+        buffer.putInt(o + 28, 0);
+        return page;
+    }
+
+    private static int checksum(final ByteBuffer buffer, final int o, final int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.slice(o + 4, 20));
+        crc.update(buffer.slice(o + HEADER_SIZE, length));
+        return (int) crc.getValue();
+    }
+
+    private int readLength(final int page) {
+        return segments.get(page / SEGMENT_PAGES).getInt(offset(page) + 4);
+    }
+
+    private ByteBuffer read(final int page) {
+        final ByteBuffer buffer = segments.get(page / SEGMENT_PAGES);
+        final int o = offset(page);
+        return buffer.slice(o + HEADER_SIZE, buffer.getInt(o + 4));
+    }
+
+    /**
+     * Rebuilds the index from the records in the file.
+     */
+    private void scan() throws IOException {
+        final long size = channel.size();
+        final int pages = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE) * SEGMENT_PAGES;
+        final List<Integer> loose = new ArrayList<>();
+        int end = 0;
+        int page = 0;
+        while (page < pages) {
+            final ByteBuffer buffer = segment(page);
+            final int o = offset(page);
+            final int length = buffer.getInt(o + 4);
+            if (buffer.getInt(o) != MAGIC || length < 0 || offset(page) + HEADER_SIZE + length > SEGMENT_SIZE
+                    || buffer.getInt(o + 24) != checksum(buffer, o, length)) {
+                loose.add(Integer.valueOf(page));
+                page++;
+                continue;
+            }
+            final long leafId = buffer.getLong(o + 8);
+            final long seq = buffer.getLong(o + 16);
+            final int count = pageCount(length);
+            sequence = Math.max(sequence, seq);
+
+            final int old = index.get(leafId, -1);
+            if (old < 0 || segment(old).getLong(offset(old) + 16) < seq) {
+                if (old >= 0) {
+                    release(old, pageCount(readLength(old)));
+                }
+                index.put(leafId, page);
+            } else {
+                release(page, count);
+            }
+            page += count;
+            end = page;
+        }
+        // Pages past the last record are handed out in order again
+        nextPage = end;
+        for (final Integer p : loose) {
+            if (p.intValue() < end) {
+                release(p.intValue(), 1);
+            }
+        }
+    }
+
+    /**
+     * Run-length encodes the cells of a leaf as pairs of varint run length and
+     * varint cell value.
+     *
+     * @return the number of bytes written to out
+     */
+    private static int encode(final LeafData leaf, final byte[] out) {
+        int pos = 0;
+        int run = 0;
+        int last = 0;
+        for (int x = 0; x < LEAF_SIZE; x++) {
+            for (int y = 0; y < LEAF_SIZE; y++) {
+                for (int z = 0; z < LEAF_SIZE; z++) {
+                    final int val = leaf.getCell(x, y, z);
+                    if (val == last || run == 0) {
+                        last = val;
+                        run++;
+                        continue;
+                    }
+                    pos = putVarInt(out, pos, run);
+                    pos = putVarInt(out, pos, last);
+                    last = val;
+                    run = 1;
+                }
+            }
+        }
+        pos = putVarInt(out, pos, run);
+        return putVarInt(out, pos, last);
+    }
+
+    private static int putVarInt(final byte[] out, final int pos, final int value) {
+        int p = pos;
+        int v = value;
+        while ((v & ~0x7F) != 0) {
+            out[p++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out[p++] = (byte) v;
+        return p;
+    }
+
+    private static int getVarInt(final ByteBuffer in) {
+        int result = 0;
+        for (int shift = 0;; shift += 7) {
+            final int b = in.get();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+    }
+
+    private static LeafData decode(final long leafId, final ByteBuffer in) {
+        final CellArray cells = new CellArray(LEAF_SIZE);
+        int empty = 0;
+        int cell = 0;
+        while (in.hasRemaining()) {
+            final int run = getVarInt(in);
+            final int val = getVarInt(in);
+            if (val == 0) {
+                // Cells start out empty
+                cell += run;
+                empty += run;
+                continue;
+            }
+            for (final int end = cell + run; cell < end; cell++) {
+                cells.setCell(cell / (LEAF_SIZE * LEAF_SIZE), (cell / LEAF_SIZE) % LEAF_SIZE, cell % LEAF_SIZE, val);
+            }
+        }
+        return new LeafData(new LeafInfo(Coordinates.leafIdToWorld(leafId), leafId), cells, empty);
+    }
+}
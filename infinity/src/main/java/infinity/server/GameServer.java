@@ -36,11 +36,14 @@
 package infinity.server;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 
+import org.ini4j.Ini;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -71,7 +74,6 @@ import com.simsilica.ext.mphys.Gravity;
 import com.simsilica.ext.mphys.MPhysSystem;
 import com.simsilica.ext.mphys.Mass;
 import com.simsilica.ext.mphys.ShapeFactory;
-import com.simsilica.ext.mphys.ShapeFactoryRegistry;
 import com.simsilica.ext.mphys.ShapeInfo;
 import com.simsilica.ext.mphys.SpawnPosition;
 import com.simsilica.mathd.Quatd;
@@ -83,12 +85,14 @@ import com.simsilica.mworld.db.LeafDb;
 import com.simsilica.mworld.db.LeafDbCache;
 import com.simsilica.mworld.net.server.WorldHostedService;
 import com.simsilica.sim.GameLoop;
+import com.simsilica.sim.GameSystem;
 import com.simsilica.sim.GameSystemManager;
 import com.simsilica.sim.common.DecaySystem;
 
 import infinity.InfinityConstants;
 import infinity.es.AudioType;
 import infinity.es.BodyPosition;
+import infinity.es.Delay;
 import infinity.es.Flag;
 import infinity.es.Frequency;
 import infinity.es.Gold;
@@ -96,22 +100,37 @@ import infinity.es.LargeGridCell;
 import infinity.es.LargeObject;
 import infinity.es.Parent;
 import infinity.es.PointLightComponent;
-import infinity.es.ShapeNames;
+import infinity.es.ProjectileMotion;
 import infinity.es.TileType;
 import infinity.es.input.MovementInput;
+import infinity.es.ship.Energy;
 import infinity.map.InfinityDefaultWorld;
+import infinity.server.audio.SoundEventHostedService;
+import infinity.server.audio.SoundEventUpdater;
 import infinity.server.chat.ChatHostedService;
+import infinity.server.chat.ChatUpdater;
+import infinity.sim.BodyFilters;
+import infinity.sim.BodyTemplates;
+import infinity.sim.GameArchetypes;
 import infinity.sim.InfinityEntityBodyFactory;
+import infinity.sim.InfinityMBlockCollisionSystem;
 import infinity.sim.InfinityPhysicsManager;
+import infinity.sim.SoundEventPoster;
+import infinity.sim.SystemScheduler;
 import infinity.systems.ArenaSystem;
 import infinity.systems.AttackSystem;
 import infinity.systems.AvatarSystem;
 import infinity.systems.ContactSystem;
+import infinity.systems.CooldownSystem;
+import infinity.systems.DelaySystem;
 import infinity.systems.EnergySystem;
 import infinity.systems.InfinityTimeSystem;
 import infinity.systems.MapSystem;
 import infinity.systems.MovementSystem;
+import infinity.systems.ProjectileSystem;
+import infinity.systems.ResourceSystem;
 import infinity.systems.SettingsSystem;
+import infinity.systems.StatsSystem;
 import infinity.util.AdaptiveLoadingService;
 
 //import com.simsilica.sb.ai.*;
@@ -132,6 +151,15 @@ public class GameServer {
     private Server server;
     private GameSystemManager systems;
     private GameLoop loop;
+    private FileLeafDb leafStore;
+    private StatsSystem stats;
+
+    public static final String WORLD_FILE = "world/leaves.db";
+
+    /**
+     * The classpath resource the rigid body templates are loaded from.
+     */
+    public static final String BODY_TEMPLATES = "/bodies.ini";
 
     // private String description;
 
@@ -188,15 +216,36 @@ public class GameServer {
         });
         server.getServices().addService(ethereal);
 
+        // Positional sounds go to the same zones the clients see objects in
+        final SoundEventHostedService sounds = new SoundEventHostedService(InfinityConstants.ZONE_GRID,
+                InfinityConstants.ZONE_RADIUS);
+        server.getServices().addService(sounds);
+        systems.register(SoundEventPoster.class, sounds);
+
         // Setup our entity data and the hosting service
         // Make the EntityData available to other systems
         final DefaultEntityData ed = new DefaultEntityData();
         systems.register(EntityData.class, ed);
         server.getServices().addService(new EntityDataHostedService(InfinityConstants.ES_CHANNEL, ed));
 
+        // Resolve the ship and projectile templates before the first spawn
+        GameArchetypes.get(ed);
+
+        // Telemetry comes first so the other systems can find their probes,
+        // everything until the final end mark counts towards the frame
+        stats = new StatsSystem(this);
+        systems.register(StatsSystem.class, stats);
+        systems.addSystem(stats.begin("frame"));
+        stats.addGauge("connections", () -> server.getConnections().size());
+        stats.watchEntities("energy", Energy.class);
+        stats.watchEntities("delayed", Delay.class);
+
         // Just create a test world for now
         // LeafDb leafDb2 = new LeafDbCache(new TestLeafDb());
-        final LeafDb leafDb = new LeafDbCache(new EmptyLeafDb());
+        // Leaves that were edited are kept in the world file, the rest are generated
+        leafStore = new FileLeafDb(new File(WORLD_FILE), new EmptyLeafDb());
+        final LeafDb leafDb = new LeafDbCache(leafStore);
+        systems.register(FileLeafDb.class, leafStore);
 
         final InfinityDefaultWorld world = new InfinityDefaultWorld(leafDb);
         systems.register(InfinityDefaultWorld.class, world);
@@ -205,30 +254,30 @@ public class GameServer {
         // Add the game session service last so that it has access to everything else
         server.getServices().addService(new GameSessionHostedService(systems));
 
-        systems.addSystem(new LargeGridIndexSystem());
-
         // Add it to the game systems so that we send updates properly
-        systems.addSystem(new EntityUpdater(server.getServices().getService(EntityDataHostedService.class)));
+        profiled(new EntityUpdater(server.getServices().getService(EntityDataHostedService.class)));
+        profiled(new ChatUpdater(chp));
+        profiled(new SoundEventUpdater(sounds));
+        stats.addGauge("sounds", sounds::getLastFrameCount);
 
         // Add some standard systems
-        systems.addSystem(new DecaySystem());
+        profiled(new DecaySystem());
 
         // Setup the physics space
         // --------------------------
 
         // Need a shape factory to turn ShapeInfo components into
-        // MBlockShapes.
-        final ShapeFactoryRegistry<MBlockShape> shapeFactory = new ShapeFactoryRegistry<>();
-        shapeFactory.registerFactory(ShapeInfo.create(ShapeNames.SHIP_WARBIRD, 1, ed), new SphereFactory());
-        shapeFactory.registerFactory(ShapeInfo.create(ShapeNames.BOMBL1, 1, ed), new SphereFactory());
-        shapeFactory.registerFactory(ShapeInfo.create(ShapeNames.BOMBL2, 1, ed), new SphereFactory());
-        shapeFactory.registerFactory(ShapeInfo.create(ShapeNames.BOMBL3, 1, ed), new SphereFactory());
-        shapeFactory.registerFactory(ShapeInfo.create(ShapeNames.BOMBL4, 1, ed), new SphereFactory());
-        shapeFactory.registerFactory(ShapeInfo.create(ShapeNames.BULLETL1, 1, ed), new SphereFactory());
-        shapeFactory.registerFactory(ShapeInfo.create(ShapeNames.BULLETL2, 1, ed), new SphereFactory());
-        shapeFactory.registerFactory(ShapeInfo.create(ShapeNames.BULLETL3, 1, ed), new SphereFactory());
-        shapeFactory.registerFactory(ShapeInfo.create(ShapeNames.BULLETL4, 1, ed), new SphereFactory());
-        shapeFactory.setDefaultFactory(new BlocksResourceShapeFactory(ed));
+        // MBlockShapes. The body templates know how to build and set up the
+        // bodies of the shapes listed in the data file, everything else is
+        // loaded from its blocks resource.
+        final BodyTemplates shapeFactory = new BodyTemplates(ed, new BlocksResourceShapeFactory(ed));
+        shapeFactory.registerShapeType("sphere", new SphereFactory());
+        try (InputStream in = GameServer.class.getResourceAsStream(BODY_TEMPLATES)) {
+            if (in == null) {
+                throw new IOException("Missing body templates:" + BODY_TEMPLATES);
+            }
+            shapeFactory.load(new Ini(in));
+        }
         systems.register(ShapeFactory.class, shapeFactory);
 
         // And give that to an EntityBodyFactory, for the moment without any
@@ -260,26 +309,44 @@ public class GameServer {
 
         mphys.setCollisionSystem(new MBlockCollisionSystem<EntityId>(leafDb));
 
+        // The arena is a single layer of tiles, which the MapSystem also keeps in
+        // a tile grid for the wall checks of the projectiles
+        final InfinityMBlockCollisionSystem tiles = new InfinityMBlockCollisionSystem(-MapSystem.MAP_SIZE / 2,
+                -MapSystem.MAP_SIZE / 2, MapSystem.MAP_SIZE);
+        systems.register(InfinityMBlockCollisionSystem.class, tiles);
+
         // mphys.addPhysicsListener(new PositionUpdater(ed));
         // systems.register(InfinityMPhysSystem.class, mphys);
-        systems.register(MPhysSystem.class, mphys);
+        profiled(MPhysSystem.class, mphys);
         systems.register(PhysicsSpace.class, mphys.getPhysicsSpace());
         systems.register(InfinityPhysicsManager.class, new InfinityPhysicsManager(mphys.getPhysicsSpace()));
         systems.register(EntityBodyFactory.class, bodyFactory);
+        systems.register(BodyFilters.class, bodyFactory.getBodyFilters());
+        stats.addGauge("bodies", bodyFactory.getBodyFilters()::size);
+        stats.addGauge("tiles", tiles::getTileCount);
 
         // Subspace Infinity Specific Systems:-->
         // systems.register(WeaponSystem.class, new WeaponSystem());
-        systems.register(EnergySystem.class, new EnergySystem());
-        systems.register(AvatarSystem.class, new AvatarSystem(chp));
-        systems.register(MovementSystem.class, new MovementSystem());
-        systems.register(AttackSystem.class, new AttackSystem());
-        systems.register(ArenaSystem.class, new ArenaSystem());
+        profiled(CooldownSystem.class, new CooldownSystem());
+        // Independent per-frame systems are run together by this scheduler, at
+        // the point in the frame where it is registered
+        final SystemScheduler simulation = new SystemScheduler("simulation");
+        systems.register(LargeGridIndexSystem.class, simulation.schedule(new LargeGridIndexSystem()));
+        systems.register(DelaySystem.class, simulation.schedule(new DelaySystem()));
+        systems.register(EnergySystem.class, simulation.schedule(new EnergySystem()));
+        systems.register(AvatarSystem.class, simulation.schedule(new AvatarSystem(chp)));
+        systems.register(ResourceSystem.class, simulation.schedule(new ResourceSystem(server.getServices())));
+        systems.register(SystemScheduler.class, simulation);
+        stats.addGauge("scheduler.levels", simulation::getLevelCount);
+        profiled(MovementSystem.class, new MovementSystem());
+        profiled(AttackSystem.class, new AttackSystem());
+        profiled(ArenaSystem.class, new ArenaSystem());
 
         // Set up contacts to be filtered
         final ContactSystem contactSystem = new ContactSystem();
         systems.register(ContactSystem.class, contactSystem);
         mphys.getPhysicsSpace().setContactDispatcher(contactSystem);
-        systems.register(InfinityTimeSystem.class, new InfinityTimeSystem());
+        profiled(InfinityTimeSystem.class, new InfinityTimeSystem());
 
         final AssetLoaderService assetLoader = new AssetLoaderService();
         server.getServices().addService(assetLoader);
@@ -287,8 +354,10 @@ public class GameServer {
         final AdaptiveLoadingService adaptiveLoader = new AdaptiveLoadingService(systems);
         server.getServices().addService(adaptiveLoader);
 
-        systems.register(SettingsSystem.class, new SettingsSystem(assetLoader, adaptiveLoader));
-        systems.register(MapSystem.class, new MapSystem(assetLoader));
+        profiled(SettingsSystem.class, new SettingsSystem(assetLoader, adaptiveLoader));
+        profiled(MapSystem.class, new MapSystem(assetLoader));
+        final ProjectileSystem projectiles = profiled(ProjectileSystem.class, new ProjectileSystem());
+        stats.addGauge("projectiles", projectiles::getCount);
         // <--
 
         // The physics system will need some way to load physics collision shapes
@@ -328,10 +397,12 @@ public class GameServer {
         // exist
         // Add a system that will forward physics changes to the Ethereal
         // zone manager
-        systems.addSystem(new ZoneNetworkSystem<>(ethereal.getZones()));
+        profiled(new ZoneNetworkSystem<>(ethereal.getZones()));
 
         // And the system that will publish the BodyPosition components
-        systems.addSystem(new BodyPositionPublisher<>());
+        profiled(new BodyPositionPublisher<>());
+
+        systems.addSystem(stats.end("frame"));
 
         // Register some custom serializers
         registerSerializers();
@@ -356,6 +427,25 @@ public class GameServer {
         // systems.initialize();
     }
 
+    /**
+     * Registers the system between a pair of stats marks so that its updates
+     * are measured under its type name.
+     */
+    private <T> T profiled(final Class<T> type, final T system) {
+        systems.addSystem(stats.begin(type.getSimpleName()));
+        systems.register(type, system);
+        systems.addSystem(stats.end(type.getSimpleName()));
+        return system;
+    }
+
+    private <T extends GameSystem> T profiled(final T system) {
+        final String name = system.getClass().getSimpleName();
+        systems.addSystem(stats.begin(name));
+        systems.addSystem(system);
+        systems.addSystem(stats.end(name));
+        return system;
+    }
+
     protected void registerSerializers() {
         // Serializer.registerClass(Name.class, new FieldSerializer());
 
@@ -388,6 +478,7 @@ public class GameServer {
         Serializer.registerClass(TileType.class, new FieldSerializer());
         Serializer.registerClass(PointLightComponent.class, new FieldSerializer());
         Serializer.registerClass(Decay.class, new FieldSerializer());
+        Serializer.registerClass(ProjectileMotion.class, new FieldSerializer());
 
         Serializer.registerClass(MovementInput.class, new FieldSerializer());
     }
@@ -431,6 +522,12 @@ public class GameServer {
             systems.stop();
             systems.terminate();
         }
+
+        try {
+            leafStore.close();
+        } catch (final IOException e) {
+            log.error("Error closing the world file", e);
+        }
         log.info("Game server stopped.");
     }
 
@@ -464,6 +561,11 @@ public class GameServer {
             log.info("[" + conn.getId() + "] Average msg size: " + listener.getConnectionStats().getAverageMessageSize()
                     + " bytes");
         }
+
+        // Session input queues
+        log.info("Input " + systems.get(MovementSystem.class));
+        log.info("Input " + systems.get(AttackSystem.class).getSessionAttackQueue());
+        log.info("Input " + systems.get(MapSystem.class).getSessionTileQueue());
     }
 
     /**
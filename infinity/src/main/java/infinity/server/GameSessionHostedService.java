@@ -64,9 +64,13 @@ import infinity.es.input.MovementInput;
 import infinity.es.ship.Player;
 import infinity.net.GameSession;
 import infinity.net.GameSessionListener;
+import infinity.server.audio.SoundEventHostedService;
+import infinity.server.chat.ChatHostedService;
 import infinity.sim.GameEntities;
 import infinity.systems.AttackSystem;
 import infinity.systems.MapSystem;
+import infinity.systems.MovementSystem;
+import infinity.util.RateLimiter;
 
 /**
  *
@@ -79,6 +83,11 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
 
     private static final String ATTRIBUTE_SESSION = "game.session";
 
+    // Per-connection attack rate, generous enough for a client holding down
+    // every fire key. Movement needs no limit, only the latest input is kept.
+    private static final double ATTACKS_PER_SECOND = 30;
+    private static final int ATTACK_BURST = 10;
+
     private final GameSystemManager gameSystems;
     private EntityData ed;
 
@@ -197,14 +206,19 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
         private final EntityId playerEntityId;
         // private final BinIndex binIndex;
         private final AttackSystem attackSystem;
+        private final MovementSystem movementSystem;
         // private MapSystem mapSystem;
 
+        private final MovementSystem.MoveSlot moves;
+        private final RateLimiter attackLimiter = new RateLimiter(ATTACKS_PER_SECOND, ATTACK_BURST);
+
         public GameSessionImpl(final HostedConnection conn) {
             this.conn = conn;
 
             phys = gameSystems.get(PhysicsSpace.class, true);
             // mphys = gameSystems.get(MPhysSystem.class, true);
             attackSystem = gameSystems.get(AttackSystem.class, true);
+            movementSystem = gameSystems.get(MovementSystem.class, true);
             // this.mapSystem = gameSystems.get(MapSystem.class, true);
 
             // binIndex = phys.getBinIndex();
@@ -213,6 +227,7 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
             ed.setComponent(playerEntityId, new Name(conn.getAttribute("player")));
 
             avatarEntityId = GameEntities.createWarbird(ed, playerEntityId, phys, 0);
+            moves = movementSystem.openMoveSlot(avatarEntityId);
 
             ed.setComponent(avatarEntityId, new Player());
 
@@ -232,6 +247,13 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
                 log.warn("No game session callback registered so can't send avatar entity.");
             }
 
+            // Let private and team chat find this connection
+            final ChatHostedService chat = getService(ChatHostedService.class);
+            if (chat != null) {
+                chat.bindEntity(conn, playerEntityId);
+                chat.bindEntity(conn, avatarEntityId);
+            }
+
             // Setup to start using SimEthereal synching
             final EtherealHost ethereal = getService(EtherealHost.class);
             ethereal.startHostingOnConnection(conn);
@@ -253,6 +275,7 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
 
         public void close() {
             log.debug("Closing game session for:" + conn);
+            movementSystem.closeMoveSlot(moves);
             // Remove our physics body
             //// physics.removeBody(shipEntity);
             // Physics body is now removed as a side-effect of the entity
@@ -288,6 +311,12 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
                 nsl.setSelf(Long.valueOf(avatarEntityId.getId()), location);
             }
 
+            // Hear what we can see
+            final SoundEventHostedService sounds = getService(SoundEventHostedService.class);
+            if (sounds != null) {
+                sounds.setView(conn, location);
+            }
+
             lastViewLoc.set(location);
             lastViewOrient.set(rotation);
         }
@@ -327,7 +356,7 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
 
         @Override
         public void move(final MovementInput movementForces) {
-            ed.setComponent(avatarEntityId, movementForces);
+            moves.move(movementForces);
         }
 
         @Override
@@ -337,7 +366,7 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
 
         @Override
         public void attack(final byte attackInput) {
-            attackSystem.sessionAttack(avatarEntityId, attackInput);
+            attackSystem.sessionAttack(avatarEntityId, attackInput, attackLimiter);
         }
 
         @Override
@@ -55,13 +55,14 @@ import com.simsilica.mathd.Grid;
 import com.simsilica.mathd.Quatd;
 import com.simsilica.mathd.Vec3d;
 import com.simsilica.mphys.PhysicsSpace;
-import com.simsilica.sim.AbstractGameSystem;
 import com.simsilica.sim.SimTime;
 
 import infinity.InfinityConstants;
 import infinity.es.BodyPosition;
 import infinity.es.LargeGridCell;
 import infinity.es.LargeObject;
+import infinity.sim.ScheduledGameSystem;
+import infinity.sim.SystemAccess;
 
 /**
  * Watches for changes to large static objects and makes sure that their grid
@@ -69,7 +70,7 @@ import infinity.es.LargeObject;
  *
  * @author Paul Speed
  */
-public class LargeGridIndexSystem extends AbstractGameSystem {
+public class LargeGridIndexSystem extends ScheduledGameSystem {
 
     static Logger log = LoggerFactory.getLogger(LargeGridIndexSystem.class);
 
@@ -118,9 +119,13 @@ public class LargeGridIndexSystem extends AbstractGameSystem {
     }
 
     @Override
-    public void update(final SimTime time) {
-        super.update(time);
+    public SystemAccess getAccess() {
+        return SystemAccess.reads(LargeObject.class, BodyPosition.class)
+                .andWrites(SpawnPosition.class, LargeGridCell.class);
+    }
 
+    @Override
+    protected void step(final SimTime time) {
         updateLobs(time);
 
         if (changes.isEmpty()) {
@@ -203,8 +208,12 @@ public class LargeGridIndexSystem extends AbstractGameSystem {
     private class Lob {
         private final Entity entity;
         private BodyPosition pos;
-        private final Vec3d lastLoc = new Vec3d();
-        private final Quatd lastOrient = new Quatd();
+        private long lastTime = -1;
+        // The vectors handed to the last spawn position
+        private Vec3d spawnLoc;
+        private Quatd spawnOrient;
+        private Vec3d loc = new Vec3d();
+        private Quatd orient = new Quatd();
         private Long lastCellId = null;
 
         public Lob(final Entity entity) {
@@ -216,18 +225,25 @@ public class LargeGridIndexSystem extends AbstractGameSystem {
         }
 
         public void updateCell() {
-            final Vec3d loc = pos.getLastLocation();
-            final Quatd orient = pos.getLastOrientation();
-            if (loc == null || orient == null) {
+            // Nothing to do until the position history has a newer frame
+            final long time = pos.getLastTime();
+            if (time == lastTime) {
+                return;
+            }
+            lastTime = time;
+            if (pos.getLastLocation(loc) == null || pos.getLastOrientation(orient) == null) {
                 return;
             }
-            if (loc.isSimilar(lastLoc, 0.01) && orient.isSimilar(lastOrient, 0.01)) {
+            if (spawnLoc != null && loc.isSimilar(spawnLoc, 0.01) && orient.isSimilar(spawnOrient, 0.01)) {
                 return;
             }
-            lastLoc.set(loc);
-            lastOrient.set(orient);
 
+            // The spawn position takes over the vectors the frame was read into
             final SpawnPosition spawnPos = new SpawnPosition(phys.getGrid(), loc, orient);
+            spawnLoc = loc;
+            spawnOrient = orient;
+            loc = new Vec3d();
+            orient = new Quatd();
             entity.set(spawnPos);
 
             final LargeGridCell cell = LargeGridCell.create(largeGrid, spawnPos.getLocation());
@@ -48,19 +48,36 @@ import com.simsilica.mphys.PhysicsListener;
 import com.simsilica.mphys.RigidBody;
 import com.simsilica.sim.AbstractGameSystem;
 
+import infinity.InfinityConstants;
+import infinity.systems.StatsSystem;
+import infinity.util.TickProbe;
+
 /**
  * A game system that registers a listener with the SimplePhysics system and
  * then forwards those events to the SimEtheral zone manager, which in turn will
  * package them up for the clients in an efficient way.
  *
+ * Bodies that haven't moved by at least the network resolution since they were
+ * last forwarded are skipped, apart from a keep-alive every KEEP_ALIVE_FRAMES.
+ *
  * @author Paul Speed
  */
 public class ZoneNetworkSystem<S extends AbstractShape> extends AbstractGameSystem {
 
     static Logger log = LoggerFactory.getLogger(ZoneNetworkSystem.class);
 
+    /**
+     * The most physics frames an unchanged body goes without being sent to the
+     * zone manager.
+     */
+    public static final int KEEP_ALIVE_FRAMES = 30;
+
     private final ZoneManager zones;
     private final PhysicsObserver physicsObserver = new PhysicsObserver();
+    private final ZoneUpdateFilter filter = new ZoneUpdateFilter(InfinityConstants.POSITION_MIN,
+            InfinityConstants.POSITION_MAX, InfinityConstants.POSITION_BIT_COUNT,
+            InfinityConstants.ROTATION_BIT_COUNT, KEEP_ALIVE_FRAMES);
+    private TickProbe zoneProbe;
 
     public ZoneNetworkSystem(final ZoneManager zones) {
         this.zones = zones;
@@ -76,6 +93,13 @@ public class ZoneNetworkSystem<S extends AbstractShape> extends AbstractGameSyst
     @Override
     protected void initialize() {
         // getSystem(PhysicsSpace.class, true).addPhysicsListener(physicsObserver);
+        final StatsSystem stats = getSystem(StatsSystem.class);
+        if (stats != null) {
+            zoneProbe = stats.getProbe("zones");
+            stats.addGauge("zones.forwarded", filter::getForwardedCount);
+            stats.addGauge("zones.suppressed", filter::getSuppressedCount);
+            stats.addGauge("zones.keepalive", filter::getKeepAliveCount);
+        }
         final MPhysSystem<S> system = getPhysicsSystem();
         system.addPhysicsListener(physicsObserver);
         system.getBinEntityManager().addObjectStatusListener(physicsObserver);
@@ -89,6 +113,14 @@ public class ZoneNetworkSystem<S extends AbstractShape> extends AbstractGameSyst
         system.getBinEntityManager().addObjectStatusListener(physicsObserver);
     }
 
+    /**
+     * Returns the filter that decides which body updates reach the zone manager,
+     * for its counters.
+     */
+    public ZoneUpdateFilter getUpdateFilter() {
+        return filter;
+    }
+
     /**
      * Listens for changes in the physics objects and sends them to the zone
      * manager.
@@ -107,18 +139,33 @@ public class ZoneNetworkSystem<S extends AbstractShape> extends AbstractGameSyst
         // object. 2x2x2 meters should be good enough... until it isn't.
         // private final AaBBox box = new AaBBox(1);
 
+        // Time spent in the zone manager this frame, only tracked while the
+        // zone probe is enabled
+        private boolean measure;
+        private long zoneNanos;
+
         public PhysicsObserver() {
             super();
         }
 
         @Override
         public void startFrame(final long frameTime, final double stepSize) {
+            measure = zoneProbe != null && zoneProbe.isEnabled();
+            final long start = measure ? System.nanoTime() : 0;
+            filter.beginFrame();
             zones.beginUpdate(frameTime);
+            if (measure) {
+                zoneNanos = System.nanoTime() - start;
+            }
         }
 
         @Override
         public void endFrame() {
+            final long start = measure ? System.nanoTime() : 0;
             zones.endUpdate();
+            if (measure) {
+                zoneProbe.record(zoneNanos + System.nanoTime() - start);
+            }
         }
 
         @Override
@@ -131,8 +178,15 @@ public class ZoneNetworkSystem<S extends AbstractShape> extends AbstractGameSyst
 //        + "  cog:" + body.shape.getMass().getCog()
 //        + "  shape info:" + body.shape.getCenter() + "  radius:" + body.shape.getRadius()
 //        + "  cog bounds:" + body.shape.getCogBounds());
-            zones.updateEntity(Long.valueOf(body.id.getId()), active, body.position, body.orientation,
-                    body.getWorldBounds());
+            final Long id = filter.filter(body.id.getId(), active, body.position, body.orientation);
+            if (id == null) {
+                return;
+            }
+            final long start = measure ? System.nanoTime() : 0;
+            zones.updateEntity(id, active, body.position, body.orientation, body.getWorldBounds());
+            if (measure) {
+                zoneNanos += System.nanoTime() - start;
+            }
         }
 
         @Override
@@ -148,7 +202,7 @@ public class ZoneNetworkSystem<S extends AbstractShape> extends AbstractGameSyst
             if (log.isTraceEnabled()) {
                 log.trace("objectRemoved(" + id + ", " + body + ")");
             }
-            zones.remove(Long.valueOf(id.getId()));
+            zones.remove(filter.remove(id.getId()));
         }
     }
 }
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server;
+
+import java.util.Arrays;
+
+import com.simsilica.mathd.Quatd;
+import com.simsilica.mathd.Vec3d;
+
+import infinity.util.LongIntMap;
+
+/**
+ * Sits between the physics updates and the zone manager and decides which body
+ * updates are worth forwarding. The last forwarded position and orientation of
+ * every body are kept quantized to the resolution they are sent to the clients
+ * with; a body is only forwarded again when one of them changes by at least one
+ * step, when it wakes up or falls asleep, or as a keep-alive once every so many
+ * frames.
+ *
+ * The ids handed to the zone manager are boxed once per body and reused.
+ *
+ * @author Asser Fahrenholz
+ */
+public class ZoneUpdateFilter {
+
+    private final double positionStep;
+    private final double rotationScale;
+    private final int keepAliveFrames;
+
+    private final LongIntMap slots = new LongIntMap();
+    private Long[] ids = new Long[256];
+    private long[] positions = new long[256 * 3];
+    private int[] rotations = new int[256 * 4];
+    private boolean[] active = new boolean[256];
+    private long[] lastSent = new long[256];
+    private int[] freeSlots = new int[256];
+    private int freeCount;
+    private int nextSlot;
+
+    private long frame;
+    private int forwarded;
+    private int suppressed;
+    private int keepAlives;
+    private int lastForwarded;
+    private int lastSuppressed;
+    private int lastKeepAlives;
+    private long totalSuppressed;
+
+    /**
+     * @param positionMin     the lowest position the network encoding covers
+     * @param positionMax     the highest position the network encoding covers
+     * @param positionBits    the bits per position component
+     * @param rotationBits    the bits per rotation component
+     * @param keepAliveFrames the most frames an unchanged body goes without being
+     *                        forwarded
+     */
+    public ZoneUpdateFilter(final double positionMin, final double positionMax, final int positionBits,
+            final int rotationBits, final int keepAliveFrames) {
+        positionStep = (positionMax - positionMin) / ((1L << positionBits) - 1);
+        rotationScale = ((1 << rotationBits) - 1) * 0.5;
+        this.keepAliveFrames = keepAliveFrames;
+    }
+
+    public void beginFrame() {
+        frame++;
+        lastForwarded = forwarded;
+        lastSuppressed = suppressed;
+        lastKeepAlives = keepAlives;
+        forwarded = 0;
+        suppressed = 0;
+        keepAlives = 0;
+    }
+
+    /**
+     * Returns the boxed id to forward the body with or null if the update can be
+     * skipped this frame.
+     */
+    public Long filter(final long id, final boolean isActive, final Vec3d pos, final Quatd orient) {
+        int slot = slots.get(id, -1);
+        final boolean known = slot >= 0;
+        if (!known) {
+            slot = allocate();
+            slots.put(id, slot);
+            ids[slot] = Long.valueOf(id);
+        }
+
+        final long px = quantize(pos.x);
+        final long py = quantize(pos.y);
+        final long pz = quantize(pos.z);
+        final int rx = quantizeRotation(orient.x);
+        final int ry = quantizeRotation(orient.y);
+        final int rz = quantizeRotation(orient.z);
+        final int rw = quantizeRotation(orient.w);
+
+        final int p = slot * 3;
+        final int r = slot * 4;
+        final boolean changed = !known || active[slot] != isActive || positions[p] != px || positions[p + 1] != py
+                || positions[p + 2] != pz || rotations[r] != rx || rotations[r + 1] != ry || rotations[r + 2] != rz
+                || rotations[r + 3] != rw;
+        if (!changed) {
+            if (frame - lastSent[slot] < keepAliveFrames) {
+                suppressed++;
+                totalSuppressed++;
+                return null;
+            }
+            keepAlives++;
+        }
+
+        positions[p] = px;
+        positions[p + 1] = py;
+        positions[p + 2] = pz;
+        rotations[r] = rx;
+        rotations[r + 1] = ry;
+        rotations[r + 2] = rz;
+        rotations[r + 3] = rw;
+        active[slot] = isActive;
+        lastSent[slot] = frame;
+        forwarded++;
+        return ids[slot];
+    }
+
+    /**
+     * Forgets the body and returns the boxed id to remove it with.
+     */
+    public Long remove(final long id) {
+        final int slot = slots.get(id, -1);
+        if (slot < 0) {
+            return Long.valueOf(id);
+        }
+        slots.remove(id);
+        final Long result = ids[slot];
+        ids[slot] = null;
+        freeSlots[freeCount++] = slot;
+        return result;
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * Returns how many updates were forwarded in the last complete frame.
+     */
+    public int getForwardedCount() {
+        return lastForwarded;
+    }
+
+    /**
+     * Returns how many updates were skipped in the last complete frame.
+     */
+    public int getSuppressedCount() {
+        return lastSuppressed;
+    }
+
+    /**
+     * Returns how many of the forwarded updates in the last complete frame were
+     * keep-alives for unchanged bodies.
+     */
+    public int getKeepAliveCount() {
+        return lastKeepAlives;
+    }
+
+    public long getTotalSuppressedCount() {
+        return totalSuppressed;
+    }
+
+    private long quantize(final double v) {
+        return (long) Math.floor(v / positionStep);
+    }
+
+    private int quantizeRotation(final double v) {
+        return (int) Math.round((v + 1) * rotationScale);
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (nextSlot == ids.length) {
+            final int size = nextSlot * 2;
+            ids = Arrays.copyOf(ids, size);
+            positions = Arrays.copyOf(positions, size * 3);
+            rotations = Arrays.copyOf(rotations, size * 4);
+            active = Arrays.copyOf(active, size);
+            lastSent = Arrays.copyOf(lastSent, size);
+            freeSlots = Arrays.copyOf(freeSlots, size);
+        }
+        return nextSlot++;
+    }
+
+    @Override
+    public String toString() {
+        return "ZoneUpdateFilter[bodies=" + slots.size() + ", forwarded=" + lastForwarded + ", suppressed="
+                + lastSuppressed + ", keepAlives=" + lastKeepAlives + "]";
+    }
+}
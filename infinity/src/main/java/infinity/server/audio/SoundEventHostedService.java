@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server.audio;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jme3.network.HostedConnection;
+import com.jme3.network.service.AbstractHostedConnectionService;
+import com.jme3.network.service.HostedServiceManager;
+import com.jme3.network.service.rmi.RmiHostedService;
+import com.jme3.network.service.rmi.RmiRegistry;
+
+import com.simsilica.ethereal.zone.ZoneGrid;
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mathd.Vec3i;
+
+import infinity.es.AudioTypes;
+import infinity.net.audio.SoundEventListener;
+import infinity.sim.SoundEventPoster;
+
+/**
+ * HostedService that sends fire-and-forget positional sounds to the clients
+ * instead of creating a sound entity for each of them.
+ *
+ * Sounds posted during a frame are encoded once, grouped by the network zone
+ * they are played in, and flush() sends each connection the groups of the zones
+ * in its view in one unreliable message. It should be called once per frame
+ * (see SoundEventUpdater). The view of a connection is the same zone radius
+ * around the same location SimEthereal uses for it, see setView().
+ *
+ * @author Asser Fahrenholz
+ */
+public class SoundEventHostedService extends AbstractHostedConnectionService implements SoundEventPoster {
+
+    static Logger log = LoggerFactory.getLogger(SoundEventHostedService.class);
+
+    private static final String ATTRIBUTE_SESSION = "sound.session";
+
+    /**
+     * The most sounds sent to one connection per frame, so that a batch still
+     * fits in a single datagram.
+     */
+    private static final int MAX_EVENTS = 96;
+
+    /**
+     * The most sounds kept per frame, the index of an event has to fit in the low
+     * bits of its sort key.
+     */
+    private static final int MAX_PENDING = 0xffff;
+
+    private RmiHostedService rmiService;
+
+    private final List<SoundSessionImpl> sessions = new CopyOnWriteArrayList<>();
+
+    private final int zoneSizeX;
+    private final int zoneSizeY;
+    private final int zoneSizeZ;
+    private final Vec3i radius;
+
+    // Sounds posted since the last flush, guarded by this
+    private ByteBuffer pending = ByteBuffer.allocate(64 * SoundEventListener.EVENT_SIZE);
+    private long[] pendingKeys = new long[64];
+    private int pendingCount;
+
+    // The frame being flushed, swapped with the pending one
+    private ByteBuffer flushing = ByteBuffer.allocate(64 * SoundEventListener.EVENT_SIZE);
+    private long[] flushingKeys = new long[64];
+
+    // The flushed events in zone order and where each zone's run starts
+    private byte[] grouped = new byte[0];
+    private long[] zones = new long[16];
+    private int[] zoneStarts = new int[17];
+    private int zoneCount;
+
+    private long posted;
+    private long sent;
+    private long dropped;
+    private int lastFrameCount;
+
+    /**
+     * Creates a new sound event service for the specified zone grid and radius,
+     * which should be the ones given to the EtherealHost.
+     */
+    public SoundEventHostedService(final ZoneGrid grid, final Vec3i radius) {
+        final Vec3i size = grid.getZoneSize();
+        zoneSizeX = size.x;
+        zoneSizeY = size.y;
+        zoneSizeZ = size.z;
+        this.radius = radius.clone();
+    }
+
+    protected SoundSessionImpl getSoundSession(final HostedConnection conn) {
+        return conn.getAttribute(ATTRIBUTE_SESSION);
+    }
+
+    @Override
+    protected void onInitialize(final HostedServiceManager s) {
+
+        // Grab the RMI service so we can easily use it later
+        rmiService = getService(RmiHostedService.class);
+        if (rmiService == null) {
+            throw new RuntimeException("SoundEventHostedService requires an RMI service.");
+        }
+    }
+
+    @Override
+    public void startHostingOnConnection(final HostedConnection conn) {
+        log.debug("startHostingOnConnection(" + conn + ")");
+
+        final SoundSessionImpl session = new SoundSessionImpl(conn);
+        conn.setAttribute(ATTRIBUTE_SESSION, session);
+        sessions.add(session);
+    }
+
+    @Override
+    public void stopHostingOnConnection(final HostedConnection conn) {
+        log.debug("stopHostingOnConnection(" + conn + ")");
+        final SoundSessionImpl session = getSoundSession(conn);
+        if (session != null) {
+            conn.setAttribute(ATTRIBUTE_SESSION, null);
+            sessions.remove(session);
+        }
+    }
+
+    /**
+     * Centers the view of a connection on the specified location. This should be
+     * called wherever the connection's SimEthereal self location is set, so that
+     * the client hears the sounds in the zones it sees the objects of.
+     */
+    public void setView(final HostedConnection conn, final Vec3d location) {
+        final SoundSessionImpl session = getSoundSession(conn);
+        if (session == null) {
+            return;
+        }
+        session.setZone(cell(location.x, zoneSizeX), cell(location.y, zoneSizeY), cell(location.z, zoneSizeZ));
+    }
+
+    @Override
+    public void postSound(final String audioType, final Vec3d location) {
+        final int type = AudioTypes.getTypeId(audioType);
+        if (type < 0) {
+            log.warn("Unknown audio type:" + audioType);
+            return;
+        }
+        synchronized (this) {
+            if (pendingCount == MAX_PENDING) {
+                dropped++;
+                return;
+            }
+            if (pendingCount == pendingKeys.length) {
+                pendingKeys = Arrays.copyOf(pendingKeys, pendingCount * 2);
+                final ByteBuffer grown = ByteBuffer.allocate(pending.capacity() * 2);
+                pending.flip();
+                grown.put(pending);
+                pending = grown;
+            }
+            final long zone = zoneKey(cell(location.x, zoneSizeX), cell(location.y, zoneSizeY),
+                    cell(location.z, zoneSizeZ));
+            pendingKeys[pendingCount] = zone << 16 | pendingCount;
+            pendingCount++;
+            pending.put((byte) type);
+            pending.putFloat((float) location.x);
+            pending.putFloat((float) location.y);
+            pending.putFloat((float) location.z);
+            posted++;
+        }
+    }
+
+    /**
+     * Sends the sounds posted since the last flush to the connections that can
+     * see them, one network message per connection.
+     */
+    public void flush() {
+        final int count;
+        synchronized (this) {
+            count = pendingCount;
+            lastFrameCount = count;
+            if (count == 0) {
+                return;
+            }
+            final ByteBuffer buffer = flushing;
+            final long[] keys = flushingKeys;
+            flushing = pending;
+            flushingKeys = pendingKeys;
+            pending = buffer.capacity() < flushing.capacity() ? ByteBuffer.allocate(flushing.capacity()) : buffer;
+            pendingKeys = keys.length < flushingKeys.length ? new long[flushingKeys.length] : keys;
+            pending.clear();
+            pendingCount = 0;
+        }
+
+        group(count);
+
+        for (final SoundSessionImpl session : sessions) {
+            session.flush();
+        }
+    }
+
+    /**
+     * Returns the number of sounds posted so far.
+     */
+    public long getPostedCount() {
+        return posted;
+    }
+
+    /**
+     * Returns the number of sounds sent so far, counting each connection that
+     * received one.
+     */
+    public long getSentCount() {
+        return sent;
+    }
+
+    /**
+     * Returns the number of sounds dropped so far because a frame or a connection's
+     * batch was full.
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Returns the number of sounds posted during the last flushed frame.
+     */
+    public int getLastFrameCount() {
+        return lastFrameCount;
+    }
+
+    /**
+     * Sorts the flushed events by zone and copies them into the grouped array, so
+     * that every zone is one contiguous run.
+     */
+    private void group(final int count) {
+        final int size = SoundEventListener.EVENT_SIZE;
+        Arrays.sort(flushingKeys, 0, count);
+        if (grouped.length < count * size) {
+            grouped = new byte[flushing.capacity()];
+        }
+        final byte[] events = flushing.array();
+
+        zoneCount = 0;
+        long last = -1;
+        for (int i = 0; i < count; i++) {
+            final long zone = flushingKeys[i] >>> 16;
+            if (zone != last) {
+                if (zoneCount == zones.length) {
+                    zones = Arrays.copyOf(zones, zoneCount * 2);
+                    zoneStarts = Arrays.copyOf(zoneStarts, zoneCount * 2 + 1);
+                }
+                zones[zoneCount] = zone;
+                zoneStarts[zoneCount] = i * size;
+                zoneCount++;
+                last = zone;
+            }
+            final int index = (int) (flushingKeys[i] & 0xffff);
+            System.arraycopy(events, index * size, grouped, i * size, size);
+        }
+        zoneStarts[zoneCount] = count * size;
+    }
+
+    private static int cell(final double value, final int zoneSize) {
+        if (zoneSize <= 0) {
+            return 0;
+        }
+        return (int) Math.floor(value / zoneSize);
+    }
+
+    /**
+     * Packs a zone into 47 bits so that it still sorts as a positive long once
+     * shifted above the event index.
+     */
+    private static long zoneKey(final int x, final int y, final int z) {
+        return (x & 0xfffffL) << 27 | (y & 0x7fL) << 20 | z & 0xfffffL;
+    }
+
+    /**
+     * The connection-specific state of the sound event service.
+     */
+    private class SoundSessionImpl {
+
+        private final HostedConnection conn;
+        private SoundEventListener callback;
+
+        private volatile int zoneX;
+        private volatile int zoneY;
+        private volatile int zoneZ;
+        private volatile boolean viewing;
+
+        public SoundSessionImpl(final HostedConnection conn) {
+            this.conn = conn;
+        }
+
+        protected void setZone(final int x, final int y, final int z) {
+            zoneX = x;
+            zoneY = y;
+            zoneZ = z;
+            viewing = true;
+        }
+
+        /**
+         * Sends the grouped events of the zones in view, if there are any.
+         */
+        protected void flush() {
+            if (!viewing) {
+                return;
+            }
+            final int x = zoneX;
+            final int y = zoneY;
+            final int z = zoneZ;
+            final int maxBytes = MAX_EVENTS * SoundEventListener.EVENT_SIZE;
+
+            int total = 0;
+            for (int i = -radius.x; i <= radius.x; i++) {
+                for (int j = -radius.y; j <= radius.y; j++) {
+                    for (int k = -radius.z; k <= radius.z; k++) {
+                        final int zone = findZone(zoneKey(x + i, y + j, z + k));
+                        if (zone >= 0) {
+                            total += zoneStarts[zone + 1] - zoneStarts[zone];
+                        }
+                    }
+                }
+            }
+            if (total == 0) {
+                return;
+            }
+
+            final SoundEventListener listener = getCallback();
+            if (listener == null) {
+                return;
+            }
+
+            final byte[] events = new byte[Math.min(total, maxBytes)];
+            int offset = 0;
+            for (int i = -radius.x; i <= radius.x && offset < events.length; i++) {
+                for (int j = -radius.y; j <= radius.y && offset < events.length; j++) {
+                    for (int k = -radius.z; k <= radius.z && offset < events.length; k++) {
+                        final int zone = findZone(zoneKey(x + i, y + j, z + k));
+                        if (zone >= 0) {
+                            final int length = Math.min(zoneStarts[zone + 1] - zoneStarts[zone],
+                                    events.length - offset);
+                            System.arraycopy(grouped, zoneStarts[zone], events, offset, length);
+                            offset += length;
+                        }
+                    }
+                }
+            }
+            sent += events.length / SoundEventListener.EVENT_SIZE;
+            dropped += (total - events.length) / SoundEventListener.EVENT_SIZE;
+
+            listener.soundEvents(events);
+        }
+
+        private int findZone(final long key) {
+            final int index = Arrays.binarySearch(zones, 0, zoneCount, key);
+            return index < 0 ? -1 : index;
+        }
+
+        protected SoundEventListener getCallback() {
+            if (callback == null) {
+                // The client may not have shared its listener yet
+                final RmiRegistry rmi = rmiService.getRmiRegistry(conn);
+                callback = rmi.getRemoteObject(SoundEventListener.class);
+            }
+            return callback;
+        }
+    }
+}
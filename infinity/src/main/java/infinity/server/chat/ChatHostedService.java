@@ -35,12 +35,16 @@
  */
 package infinity.server.chat;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.regex.Matcher;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
@@ -53,11 +57,17 @@ import com.jme3.network.service.HostedServiceManager;
 import com.jme3.network.service.rmi.RmiHostedService;
 import com.jme3.network.service.rmi.RmiRegistry;
 
+import com.simsilica.es.Entity;
+import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
+import com.simsilica.es.EntitySet;
+import com.simsilica.es.server.EntityDataHostedService;
 
+import infinity.es.Frequency;
 import infinity.net.chat.ChatSession;
 import infinity.net.chat.ChatSessionListener;
 import infinity.server.AccountHostedService;
+import infinity.sim.AccessLevel;
 import infinity.sim.ChatHostedPoster;
 import infinity.sim.CommandConsumer;
 import infinity.sim.MessageTypes;
@@ -67,6 +77,11 @@ import infinity.sim.MessageTypes;
  * player connection setup, the game must start hosting and provide the player
  * name in order for the client to participate.
  *
+ * Chat lines are not sent right away. They are queued per connection and
+ * flush() sends each connection everything queued for it in one message, so
+ * it should be called once per frame (see ChatUpdater). The queues are
+ * bounded; when one is full, system messages are dropped before player chat.
+ *
  * @author Paul Speed
  */
 public class ChatHostedService extends AbstractHostedConnectionService implements ChatHostedPoster {
@@ -75,13 +90,27 @@ public class ChatHostedService extends AbstractHostedConnectionService implement
 
     private static final String ATTRIBUTE_SESSION = "chat.session";
 
+    /**
+     * The most messages kept for a connection between two flushes.
+     */
+    private static final int MAX_QUEUED = 64;
+    private static final int NO_FREQUENCY = Integer.MIN_VALUE;
+    private static final String TEAM_PREFIX = "//";
+
     private RmiHostedService rmiService;
     private final int channel;
 
     private final List<ChatSessionImpl> players = new CopyOnWriteArrayList<>();
 
-    private final HashMap<Pattern, CommandConsumer> patternBiConsumers;
-    // private Matcher m;
+    private final CommandRouter commands = new CommandRouter();
+
+    // Recipient indexes for private and team messages
+    private final ConcurrentHashMap<EntityId, ChatSessionImpl> sessionsByEntity = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Set<ChatSessionImpl>> sessionsByFrequency = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<EntityId> newBindings = new ConcurrentLinkedQueue<>();
+    private EntitySet frequencies;
+
+    private final AtomicLong dropped = new AtomicLong();
 
     /**
      * Creates a new chat service that will use the default reliable channel for
@@ -97,7 +126,6 @@ public class ChatHostedService extends AbstractHostedConnectionService implement
      */
     public ChatHostedService(final int channel) {
         this.channel = channel;
-        patternBiConsumers = new HashMap<>();
         // setAutoHost(false);
     }
 
@@ -115,6 +143,43 @@ public class ChatHostedService extends AbstractHostedConnectionService implement
         }
     }
 
+    @Override
+    public void start() {
+        super.start();
+
+        final EntityDataHostedService eds = getService(EntityDataHostedService.class);
+        if (eds == null) {
+            throw new RuntimeException("ChatHostedService requires an EntityDataHostedService");
+        }
+        final EntityData ed = eds.getEntityData();
+        frequencies = ed.getEntities(Frequency.class);
+    }
+
+    @Override
+    public void stop() {
+        if (frequencies != null) {
+            frequencies.release();
+            frequencies = null;
+        }
+        super.stop();
+    }
+
+    /**
+     * Associates an entity, like the player or its ship, with the chat session of
+     * a connection so that private messages to the entity and team messages to
+     * its frequency reach that connection.
+     */
+    public void bindEntity(final HostedConnection conn, final EntityId entity) {
+        final ChatSessionImpl session = getChatSession(conn);
+        if (session == null) {
+            log.warn("No chat session to bind " + entity + " to for:" + conn);
+            return;
+        }
+        session.entities.add(entity);
+        sessionsByEntity.put(entity, session);
+        newBindings.add(entity);
+    }
+
     /**
      * Starts hosting the chat services on the specified connection using a
      * specified player name. This causes the player to 'enter' the chat room and
@@ -165,6 +230,11 @@ public class ChatHostedService extends AbstractHostedConnectionService implement
 
             // Remove player session from the active sessions list
             players.remove(player);
+            player.closed = true;
+            for (final EntityId entity : player.entities) {
+                sessionsByEntity.remove(entity, player);
+            }
+            setFrequency(player, NO_FREQUENCY);
 
             // Send the leave event to other players
             for (final ChatSessionImpl chatter : players) {
@@ -178,39 +248,45 @@ public class ChatHostedService extends AbstractHostedConnectionService implement
     }
 
     protected void postMessage(final ChatSessionImpl from, final String message) {
-        final HashSet<Pattern> set = new HashSet<>(patternBiConsumers.keySet());
-        boolean matched = false;
-        for (final Pattern pattern : set) {
-            final Matcher matcher = pattern.matcher(message);
-            if (matcher.matches()) {
-                matched = true;
-                final EntityId fromEntity = AccountHostedService.getPlayerEntity(from.getConn());
-                final CommandConsumer cc = patternBiConsumers.get(pattern);
-                // TODO: Implement account service to manage security levels
-                // if (getService(AccountHostedService.class).isAtLeastAtAccessLevel(fromEntity,
-                // cc.getAccessLevelRequired())) {
-                cc.getConsumer().accept(fromEntity, matcher.group(1));
-                // }
-            }
+        EntityId fromEntity = AccountHostedService.getPlayerEntity(from.getConn());
+        if (fromEntity == null) {
+            fromEntity = from.getEntity();
         }
+        final boolean matched = commands.route(fromEntity, message, this::getAccessLevel);
 
         if (matched) {
             return;
         }
 
-        log.info("chat> " + from.name + " said:" + message);
-        for (final ChatSessionImpl chatter : players) {
-            chatter.newMessage(from.conn.getId(), from.name, message);
+        if (message.startsWith(TEAM_PREFIX)) {
+            if (from.frequency == NO_FREQUENCY) {
+                // Don't let team chat leak into public chat
+                from.queue(0, "System", "You are not on a team", true);
+                return;
+            }
+            log.info("chat> " + from.name + " said to team " + from.frequency + ":" + message);
+            deliver(getTeam(from.frequency), from.conn.getId(), from.name,
+                    message.substring(TEAM_PREFIX.length()), false);
+            return;
         }
+
+        log.info("chat> " + from.name + " said:" + message);
+        deliver(players, from.conn.getId(), from.name, message, false);
     }
 //This method doesn't match patterns. It is only called from other modules, not from player clients. Could potentially allow matching to allow modules to chain commands to other modules
 
+    private AccessLevel getAccessLevel(final EntityId id) {
+        final AccountHostedService accounts = getService(AccountHostedService.class);
+        if (accounts == null) {
+            return AccessLevel.PLAYER_LEVEL;
+        }
+        return accounts.getAccessLevel(id);
+    }
+
     @Override
     public void postPublicMessage(final String from, final int messageType, final String message) {
         log.info("chat> " + from + " said:" + message);
-        for (final ChatSessionImpl chatter : players) {
-            chatter.newMessage(0, from, message);
-        }
+        deliver(players, 0, from, message, true);
     }
 
     /**
@@ -223,7 +299,7 @@ public class ChatHostedService extends AbstractHostedConnectionService implement
     public void registerPatternBiConsumer(final Pattern pattern, final String description, final CommandConsumer c) {
         // TODO: For now, only one consumer per pattern (we could potentially have
         // multiple)
-        patternBiConsumers.put(pattern, c);
+        commands.addPattern(pattern, c);
 
         // TODO: Post message only to those who have the proper access level
         postPublicMessage("System", MessageTypes.MESSAGE, description);
@@ -236,27 +312,114 @@ public class ChatHostedService extends AbstractHostedConnectionService implement
      */
     @Override
     public void removePatternConsumer(final Pattern pattern) {
-        patternBiConsumers.remove(pattern);
+        commands.removePattern(pattern);
     }
 
     @Override
     public void postPrivateMessage(final String from, final int messageType, final EntityId targetEntityId,
             final String message) {
-        throw new UnsupportedOperationException("Not supported yet."); // To change body of generated methods, choose
-                                                                       // Tools | Templates.
+        final ChatSessionImpl target = sessionsByEntity.get(targetEntityId);
+        if (target == null) {
+            log.debug("No chat session for private message to:" + targetEntityId);
+            return;
+        }
+        // Private messages are player chat, they are not dropped before system
+        // messages
+        target.queue(0, from, message, false);
     }
 
     @Override
     public void postTeamMessage(final String from, final int messageType, final int targetFrequency,
             final String message) {
-        throw new UnsupportedOperationException("Not supported yet."); // To change body of generated methods, choose
-                                                                       // Tools | Templates.
+        deliver(getTeam(targetFrequency), 0, from, message, true);
+    }
+
+    /**
+     * Sends everything queued since the last flush, one network message per
+     * connection. Also brings the team index up to date with frequency changes,
+     * so it has to be called from the thread that owns the game's entity sets.
+     */
+    public void flush() {
+        updateFrequencies();
+        for (final ChatSessionImpl chatter : players) {
+            chatter.flush();
+        }
+    }
+
+    /**
+     * Returns the number of messages dropped so far because a connection's queue
+     * was full.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void deliver(final Iterable<ChatSessionImpl> recipients, final int clientId, final String from,
+            final String message, final boolean system) {
+        for (final ChatSessionImpl chatter : recipients) {
+            chatter.queue(clientId, from, message, system);
+        }
+    }
+
+    private Iterable<ChatSessionImpl> getTeam(final int frequency) {
+        final Set<ChatSessionImpl> team = sessionsByFrequency.get(Integer.valueOf(frequency));
+        return team == null ? Collections.emptySet() : team;
+    }
+
+    private void updateFrequencies() {
+        if (frequencies == null) {
+            return;
+        }
+        if (frequencies.applyChanges()) {
+            for (final Entity e : frequencies.getAddedEntities()) {
+                entityFrequency(e.getId(), e.get(Frequency.class).getFreq());
+            }
+            for (final Entity e : frequencies.getChangedEntities()) {
+                entityFrequency(e.getId(), e.get(Frequency.class).getFreq());
+            }
+            for (final Entity e : frequencies.getRemovedEntities()) {
+                entityFrequency(e.getId(), NO_FREQUENCY);
+            }
+        }
+
+        // Entities bound after their frequency was already known
+        EntityId id;
+        while ((id = newBindings.poll()) != null) {
+            final Entity e = frequencies.getEntity(id);
+            if (e != null) {
+                entityFrequency(id, e.get(Frequency.class).getFreq());
+            }
+        }
+    }
+
+    private void entityFrequency(final EntityId id, final int frequency) {
+        final ChatSessionImpl session = sessionsByEntity.get(id);
+        if (session != null && !session.closed) {
+            setFrequency(session, frequency);
+        }
+    }
+
+    private void setFrequency(final ChatSessionImpl session, final int frequency) {
+        final int old = session.frequency;
+        if (old == frequency) {
+            return;
+        }
+        if (old != NO_FREQUENCY) {
+            final Set<ChatSessionImpl> team = sessionsByFrequency.get(Integer.valueOf(old));
+            if (team != null) {
+                team.remove(session);
+            }
+        }
+        session.frequency = frequency;
+        if (frequency != NO_FREQUENCY) {
+            sessionsByFrequency.computeIfAbsent(Integer.valueOf(frequency), f -> ConcurrentHashMap.newKeySet())
+                    .add(session);
+        }
     }
 
     @Override
     public void registerCommandConsumer(final String cmd, final String helptext, final CommandConsumer c) {
-        // TODO: Put together the pattern that will match, depending on the sender and
-        // the command
+        commands.addCommand(cmd, c);
 
         // TODO: Post message only to those who have the proper access level
         postPublicMessage("System", MessageTypes.MESSAGE, helptext);
@@ -265,9 +428,7 @@ public class ChatHostedService extends AbstractHostedConnectionService implement
 
     @Override
     public void removeCommandConsumer(final String cmd) {
-        throw new UnsupportedOperationException("Not supported yet."); // To change body of generated methods, choose
-                                                                       // Tools | Templates.
-
+        commands.removeCommand(cmd);
     }
 
     /**
@@ -281,6 +442,12 @@ public class ChatHostedService extends AbstractHostedConnectionService implement
         private final HostedConnection conn;
         private ChatSessionListener callback;
         private final String name;
+        private final List<EntityId> entities = new CopyOnWriteArrayList<>();
+        private volatile int frequency = NO_FREQUENCY;
+        private volatile boolean closed;
+
+        // Guarded by outbox
+        private final ArrayDeque<Outgoing> outbox = new ArrayDeque<>();
 
         public ChatSessionImpl(final HostedConnection conn, final String name) {
             this.conn = conn;
@@ -294,6 +461,65 @@ public class ChatHostedService extends AbstractHostedConnectionService implement
             return conn;
         }
 
+        protected EntityId getEntity() {
+            return entities.isEmpty() ? null : entities.get(0);
+        }
+
+        /**
+         * Queues a message for the next flush. When the queue is full the oldest
+         * system message makes room; if there is none, a new system message is
+         * dropped and player chat pushes out the oldest player chat.
+         */
+        protected void queue(final int clientId, final String playerName, final String message,
+                final boolean system) {
+            synchronized (outbox) {
+                if (outbox.size() >= MAX_QUEUED) {
+                    if (!dropSystemMessage() && (system || outbox.pollFirst() == null)) {
+                        dropped.incrementAndGet();
+                        return;
+                    }
+                    dropped.incrementAndGet();
+                }
+                outbox.addLast(new Outgoing(clientId, playerName, message, system));
+            }
+        }
+
+        private boolean dropSystemMessage() {
+            for (final Iterator<Outgoing> it = outbox.iterator(); it.hasNext();) {
+                if (it.next().system) {
+                    it.remove();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        protected void flush() {
+            final int[] clientIds;
+            final String[] names;
+            final String[] messages;
+            synchronized (outbox) {
+                final int size = outbox.size();
+                if (size == 0) {
+                    return;
+                }
+                clientIds = new int[size];
+                names = new String[size];
+                messages = new String[size];
+                for (int i = 0; i < size; i++) {
+                    final Outgoing m = outbox.pollFirst();
+                    clientIds[i] = m.clientId;
+                    names[i] = m.name;
+                    messages[i] = m.message;
+                }
+            }
+            if (messages.length == 1) {
+                newMessage(clientIds[0], names[0], messages[0]);
+            } else {
+                getCallback().newMessages(clientIds, names, messages);
+            }
+        }
+
         protected ChatSessionListener getCallback() {
             if (callback == null) {
                 final RmiRegistry rmi = rmiService.getRmiRegistry(conn);
@@ -334,4 +560,18 @@ public class ChatHostedService extends AbstractHostedConnectionService implement
             getCallback().playerLeft(clientId, playerName);
         }
     }
+
+    private static final class Outgoing {
+        private final int clientId;
+        private final String name;
+        private final String message;
+        private final boolean system;
+
+        Outgoing(final int clientId, final String name, final String message, final boolean system) {
+            this.clientId = clientId;
+            this.name = name;
+            this.message = message;
+            this.system = system;
+        }
+    }
 }
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server.chat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.simsilica.es.EntityId;
+
+import infinity.sim.AccessLevel;
+import infinity.sim.CommandConsumer;
+
+/**
+ * Routes chat lines to the registered command consumers. Commands are kept in a
+ * trie keyed by the literal text they start with, which is the command name
+ * itself for plain commands and the literal prefix of the regular expression
+ * for pattern commands (like "~startModule" for "\~startModule\s(\w+)"). A chat
+ * line only walks the trie along its own characters, so only the patterns that
+ * can possibly match it are run. Patterns without a literal prefix are tried
+ * for every line.
+ *
+ * Registering and removing is rare compared to routing, so the trie is rebuilt
+ * and swapped on every change and routing never locks.
+ *
+ * @author Asser Fahrenholz
+ */
+public class CommandRouter {
+
+    private static final String META = ".[]{}()*+?^$|";
+    private static final String QUANTIFIERS = "*?{";
+
+    private final Map<Pattern, CommandConsumer> patterns = new LinkedHashMap<>();
+    private final Map<String, CommandConsumer> commands = new LinkedHashMap<>();
+    private volatile Node root = new Node();
+
+    public synchronized void addPattern(final Pattern pattern, final CommandConsumer consumer) {
+        patterns.put(pattern, consumer);
+        rebuild();
+    }
+
+    public synchronized void removePattern(final Pattern pattern) {
+        if (patterns.remove(pattern) != null) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Adds a plain command. A chat line matches it if it is the command or starts
+     * with the command followed by whitespace, and the consumer gets the trimmed
+     * rest of the line as its argument.
+     */
+    public synchronized void addCommand(final String command, final CommandConsumer consumer) {
+        commands.put(command, consumer);
+        rebuild();
+    }
+
+    public synchronized void removeCommand(final String command) {
+        if (commands.remove(command) != null) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Passes the chat line to every command it matches.
+     *
+     * @param from        the sender
+     * @param message     the chat line
+     * @param accessLevel looks up the access level of the sender, only called
+     *                    when a matching command requires more than a player
+     * @return true if the line matched a command, even if the sender wasn't
+     *         allowed to use it
+     */
+    public boolean route(final EntityId from, final String message,
+            final Function<EntityId, AccessLevel> accessLevel) {
+        final Node top = root;
+        boolean matched = false;
+        AccessLevel level = null;
+
+        Node node = top;
+        int i = 0;
+        while (true) {
+            for (final Route route : node.routes) {
+                final String argument = route.match(message, i);
+                if (argument == null) {
+                    continue;
+                }
+                matched = true;
+                final AccessLevel required = route.consumer.getAccessLevelRequired();
+                if (required.level > AccessLevel.PLAYER_LEVEL.level) {
+                    if (level == null) {
+                        level = accessLevel.apply(from);
+                    }
+                    if (level.level < required.level) {
+                        continue;
+                    }
+                }
+                route.consumer.getConsumer().accept(from, argument);
+            }
+            if (i == message.length()) {
+                break;
+            }
+            node = node.next(message.charAt(i++));
+            if (node == null) {
+                break;
+            }
+        }
+        return matched;
+    }
+
+    public synchronized int size() {
+        return patterns.size() + commands.size();
+    }
+
+    private void rebuild() {
+        final Builder builder = new Builder();
+        for (final Map.Entry<Pattern, CommandConsumer> e : patterns.entrySet()) {
+            builder.add(literalPrefix(e.getKey()), new Route(e.getKey(), null, e.getValue()));
+        }
+        for (final Map.Entry<String, CommandConsumer> e : commands.entrySet()) {
+            builder.add(e.getKey(), new Route(null, e.getKey(), e.getValue()));
+        }
+        root = builder.build();
+    }
+
+    /**
+     * Returns the text that every match of the pattern has to start with, or an
+     * empty string if that can't be told from the pattern.
+     */
+    static String literalPrefix(final Pattern pattern) {
+        final String s = pattern.pattern();
+        if ((pattern.flags() & Pattern.LITERAL) != 0) {
+            return s;
+        }
+        if ((pattern.flags() & (Pattern.CASE_INSENSITIVE | Pattern.COMMENTS)) != 0 || s.indexOf('|') >= 0) {
+            return "";
+        }
+        final StringBuilder sb = new StringBuilder();
+        int i = s.startsWith("^") ? 1 : 0;
+        for (; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= s.length() || Character.isLetterOrDigit(s.charAt(i + 1))) {
+                    // A character class or some other escape, no longer literal
+                    break;
+                }
+                sb.append(s.charAt(++i));
+            } else if (META.indexOf(c) >= 0) {
+                if (QUANTIFIERS.indexOf(c) >= 0 && sb.length() > 0) {
+                    // The last character is optional
+                    sb.setLength(sb.length() - 1);
+                }
+                break;
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static final class Route {
+        private final Pattern pattern;
+        private final String command;
+        private final CommandConsumer consumer;
+
+        Route(final Pattern pattern, final String command, final CommandConsumer consumer) {
+            this.pattern = pattern;
+            this.command = command;
+            this.consumer = consumer;
+        }
+
+        /**
+         * Returns the argument to pass on or null if the line doesn't match. For
+         * commands, end is where the command name ends in the line.
+         */
+        String match(final String message, final int end) {
+            if (pattern != null) {
+                final Matcher m = pattern.matcher(message);
+                if (!m.matches()) {
+                    return null;
+                }
+                return m.groupCount() > 0 ? m.group(1) : "";
+            }
+            if (end < message.length() && !Character.isWhitespace(message.charAt(end))) {
+                return null;
+            }
+            return message.substring(end).trim();
+        }
+
+        @Override
+        public String toString() {
+            return pattern != null ? pattern.pattern() : command;
+        }
+    }
+
+    /**
+     * An immutable trie node with its children sorted by character.
+     */
+    private static final class Node {
+        private static final Route[] NO_ROUTES = new Route[0];
+        private static final char[] NO_LABELS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        private final Route[] routes;
+        private final char[] labels;
+        private final Node[] children;
+
+        Node() {
+            this(NO_ROUTES, NO_LABELS, NO_CHILDREN);
+        }
+
+        Node(final Route[] routes, final char[] labels, final Node[] children) {
+            this.routes = routes;
+            this.labels = labels;
+            this.children = children;
+        }
+
+        Node next(final char c) {
+            final int i = Arrays.binarySearch(labels, c);
+            return i < 0 ? null : children[i];
+        }
+    }
+
+    private static final class Builder {
+        private final List<Route> routes = new ArrayList<>();
+        private final TreeMap<Character, Builder> children = new TreeMap<>();
+
+        void add(final String prefix, final Route route) {
+            Builder b = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                b = b.children.computeIfAbsent(Character.valueOf(prefix.charAt(i)), c -> new Builder());
+            }
+            b.routes.add(route);
+        }
+
+        Node build() {
+            final char[] labels = new char[children.size()];
+            final Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (final Map.Entry<Character, Builder> e : children.entrySet()) {
+                labels[i] = e.getKey().charValue();
+                nodes[i++] = e.getValue().build();
+            }
+            return new Node(routes.toArray(new Route[routes.size()]), labels, nodes);
+        }
+    }
+}
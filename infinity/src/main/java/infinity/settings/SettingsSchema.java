@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.settings;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ini4j.Ini;
+import org.ini4j.Profile.Section;
+
+/**
+ * The fixed layout of compiled arena settings. Every known section and key is
+ * given an int index once, so that a SettingsSnapshot can store the values in
+ * a flat array and callers can resolve the index up front and then look up a
+ * setting with a single array read.
+ *
+ * The keys are the ones described by the .sss template (the same keys that are
+ * listed in SettingsTypes) plus any keys found in the default arena settings.
+ * Template entries in the "All" section describe the per-ship settings and
+ * apply to every section that carries such a key.
+ *
+ * @author Asser Fahrenholz
+ */
+public final class SettingsSchema {
+
+    public static final int NOT_FOUND = -1;
+
+    private static final String ALL = "All";
+    private static final int SECTION = 0;
+    private static final int KEY = 1;
+    private static final int MIN = 2;
+    private static final int MAX = 3;
+
+    // Section name to key name to index, so a lookup doesn't build a string
+    private final Map<String, Map<String, Integer>> index = new HashMap<>();
+    private final String[] sections;
+    private final String[] keys;
+    private final int[] min;
+    private final int[] max;
+    private final boolean[] bounded;
+
+    private SettingsSchema(final List<String[]> entries) {
+        final int size = entries.size();
+        sections = new String[size];
+        keys = new String[size];
+        min = new int[size];
+        max = new int[size];
+        bounded = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            final String[] entry = entries.get(i);
+            sections[i] = entry[SECTION];
+            keys[i] = entry[KEY];
+            index.computeIfAbsent(entry[SECTION], k -> new HashMap<>()).put(entry[KEY], Integer.valueOf(i));
+            if (entry.length > MAX) {
+                try {
+                    min[i] = Integer.parseInt(entry[MIN]);
+                    max[i] = Integer.parseInt(entry[MAX]);
+                    bounded[i] = true;
+                } catch (final NumberFormatException e) {
+                    bounded[i] = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the schema from the rows of a .sss template as returned by the
+     * SSSLoader and the sections of the default settings.
+     */
+    public static SettingsSchema create(final List<String[]> template, final Ini defaults) {
+        final Map<String, String[]> entries = new LinkedHashMap<>();
+        final Map<String, String[]> all = new HashMap<>();
+        if (template != null) {
+            for (final String[] row : template) {
+                if (row.length <= MAX || row[SECTION].isEmpty() || row[KEY].isEmpty()) {
+                    continue;
+                }
+                if (ALL.equals(row[SECTION])) {
+                    all.put(row[KEY], row);
+                } else {
+                    entries.putIfAbsent(toName(row[SECTION], row[KEY]), row);
+                }
+            }
+        }
+        if (defaults != null) {
+            for (final Map.Entry<String, Section> section : defaults.entrySet()) {
+                for (final String key : section.getValue().keySet()) {
+                    final String name = toName(section.getKey(), key);
+                    if (entries.containsKey(name)) {
+                        continue;
+                    }
+                    final String[] range = all.get(key);
+                    if (range != null) {
+                        entries.put(name, new String[] { section.getKey(), key, range[MIN], range[MAX] });
+                    } else {
+                        entries.put(name, new String[] { section.getKey(), key });
+                    }
+                }
+            }
+        }
+        return new SettingsSchema(new ArrayList<>(entries.values()));
+    }
+
+    private static String toName(final String section, final String key) {
+        return section + ":" + key;
+    }
+
+    /**
+     * Returns the index of the specified setting or NOT_FOUND if the schema
+     * doesn't know it. Callers should resolve the indexes they need once and
+     * keep them.
+     */
+    public int getIndex(final String section, final String key) {
+        final Map<String, Integer> keys = index.get(section);
+        if (keys == null) {
+            return NOT_FOUND;
+        }
+        final Integer i = keys.get(key);
+        return i == null ? NOT_FOUND : i.intValue();
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public String getSection(final int i) {
+        return sections[i];
+    }
+
+    public String getKey(final int i) {
+        return keys[i];
+    }
+
+    /**
+     * Returns true if the template gives a valid range for the setting.
+     */
+    public boolean isBounded(final int i) {
+        return bounded[i];
+    }
+
+    public int getMin(final int i) {
+        return min[i];
+    }
+
+    public int getMax(final int i) {
+        return max[i];
+    }
+
+    @Override
+    public String toString() {
+        return "SettingsSchema[size=" + keys.length + "]";
+    }
+}
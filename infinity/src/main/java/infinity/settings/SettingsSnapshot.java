@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.settings;
+
+import org.ini4j.Ini;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An immutable, compiled copy of one arena's settings. The values are parsed
+ * and validated once when the snapshot is compiled and are then read by the
+ * index given to them in the SettingsSchema. Settings are replaced by
+ * compiling a new snapshot, never by changing an existing one, so a snapshot
+ * can be shared freely between threads.
+ *
+ * @author Asser Fahrenholz
+ */
+public final class SettingsSnapshot {
+
+    static Logger log = LoggerFactory.getLogger(SettingsSnapshot.class);
+
+    private final SettingsSchema schema;
+    private final int[] values;
+    private final boolean[] set;
+
+    private SettingsSnapshot(final SettingsSchema schema, final int[] values, final boolean[] set) {
+        this.schema = schema;
+        this.values = values;
+        this.set = set;
+    }
+
+    /**
+     * Parses the settings in the ini file into a new snapshot. Values outside
+     * the range given in the template are clamped, values that are missing or
+     * not numeric are left unset.
+     */
+    public static SettingsSnapshot compile(final String name, final SettingsSchema schema, final Ini ini) {
+        final int size = schema.size();
+        final int[] values = new int[size];
+        final boolean[] set = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            final String value = ini.get(schema.getSection(i), schema.getKey(i));
+            if (value == null) {
+                continue;
+            }
+            int v;
+            try {
+                v = Integer.parseInt(value.trim());
+            } catch (final NumberFormatException e) {
+                continue;
+            }
+            if (schema.isBounded(i) && (v < schema.getMin(i) || v > schema.getMax(i))) {
+                final int clamped = Math.max(schema.getMin(i), Math.min(schema.getMax(i), v));
+                log.warn(name + " " + schema.getSection(i) + ":" + schema.getKey(i) + "=" + v + " is outside ["
+                        + schema.getMin(i) + ", " + schema.getMax(i) + "], using " + clamped);
+                v = clamped;
+            }
+            values[i] = v;
+            set[i] = true;
+        }
+        return new SettingsSnapshot(schema, values, set);
+    }
+
+    public SettingsSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Returns the value of the setting with the specified schema index, or 0 if
+     * it isn't set.
+     */
+    public int get(final int key) {
+        return values[key];
+    }
+
+    public boolean isSet(final int key) {
+        return set[key];
+    }
+
+    /**
+     * Returns true if the setting differs between this snapshot and the other,
+     * which must share the same schema.
+     */
+    public boolean isChanged(final SettingsSnapshot other, final int key) {
+        return set[key] != other.set[key] || values[key] != other.values[key];
+    }
+
+    @Override
+    public String toString() {
+        return "SettingsSnapshot[" + schema + "]";
+    }
+}
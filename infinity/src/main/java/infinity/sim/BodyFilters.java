@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.sim;
+
+import java.util.Arrays;
+
+import infinity.util.LongIntMap;
+
+/**
+ * Collision category, mask and owner of every rigid body kept in primitive
+ * arrays, so that contact filtering doesn't have to look anything up in the
+ * entity data while the physics step is running. Entries are filled in when
+ * the body factory creates a body and kept current by the ContactSystem. This
+ * class is not thread safe and is only meant to be used from the physics
+ * thread.
+ *
+ * @author Asser Fahrenholz
+ */
+public class BodyFilters {
+
+    /**
+     * Parent value for bodies that have no owner.
+     */
+    public static final long NO_PARENT = -1;
+
+    /**
+     * Category and mask used for bodies without a CollisionCategory, collides
+     * with everything.
+     */
+    public static final long ALL = Long.MAX_VALUE;
+
+    private final LongIntMap slots = new LongIntMap();
+    private long[] categories = new long[256];
+    private long[] masks = new long[256];
+    private long[] parents = new long[256];
+    private int[] freeSlots = new int[256];
+    private int freeCount;
+    private int nextSlot;
+
+    /**
+     * Sets the filter values for the body with the specified entity id, adding
+     * the body if it isn't known yet.
+     */
+    public void put(final long id, final long category, final long mask, final long parent) {
+        int slot = slots.get(id, -1);
+        if (slot < 0) {
+            slot = allocate();
+            slots.put(id, slot);
+        }
+        categories[slot] = category;
+        masks[slot] = mask;
+        parents[slot] = parent;
+    }
+
+    /**
+     * Updates the category and mask of an already known body.
+     */
+    public void setFilter(final long id, final long category, final long mask) {
+        final int slot = slots.get(id, -1);
+        if (slot >= 0) {
+            categories[slot] = category;
+            masks[slot] = mask;
+        }
+    }
+
+    /**
+     * Updates the owner of an already known body.
+     */
+    public void setParent(final long id, final long parent) {
+        final int slot = slots.get(id, -1);
+        if (slot >= 0) {
+            parents[slot] = parent;
+        }
+    }
+
+    public boolean contains(final long id) {
+        return slots.containsKey(id);
+    }
+
+    public void remove(final long id) {
+        final int slot = slots.get(id, -1);
+        if (slot < 0) {
+            return;
+        }
+        slots.remove(id);
+        freeSlots[freeCount++] = slot;
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * Returns true if the two bodies are allowed to collide: each must be in a
+     * category the other one accepts and neither may own the other. Unknown
+     * bodies collide with everything.
+     */
+    public boolean isAllowed(final long one, final long two) {
+        final int a = slots.get(one, -1);
+        final int b = slots.get(two, -1);
+        if (a < 0 || b < 0) {
+            return true;
+        }
+        return (categories[a] & masks[b]) != 0 && (categories[b] & masks[a]) != 0 && parents[a] != two
+                && parents[b] != one;
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (nextSlot == categories.length) {
+            final int size = nextSlot * 2;
+            categories = Arrays.copyOf(categories, size);
+            masks = Arrays.copyOf(masks, size);
+            parents = Arrays.copyOf(parents, size);
+            freeSlots = Arrays.copyOf(freeSlots, size);
+        }
+        return nextSlot++;
+    }
+}
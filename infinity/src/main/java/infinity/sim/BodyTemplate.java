@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.sim;
+
+import com.simsilica.ext.mphys.Mass;
+import com.simsilica.ext.mphys.ShapeFactory;
+import com.simsilica.ext.mphys.ShapeInfo;
+import com.simsilica.mblock.phys.MBlockShape;
+
+/**
+ * How the rigid bodies of one shape are set up: the shape they get, their
+ * damping, what happens to their initial velocity and, optionally, their
+ * collision filter. The shape is built the first time a body with the scale
+ * and mass the template was declared with needs it, and then shared by every
+ * such body. Like the body factory, this is only meant to be used from the
+ * physics thread.
+ *
+ * @author Asser Fahrenholz
+ */
+public final class BodyTemplate {
+
+    private final String name;
+    private final int shapeId;
+    private final ShapeFactory<MBlockShape> factory;
+    private final double scale;
+    private final double mass;
+    private final ShapeInfo info;
+    private MBlockShape shape;
+    private final double linearDamping;
+    private final boolean stopped;
+    private final boolean filtered;
+    private final long category;
+    private final long mask;
+
+    BodyTemplate(final String name, final ShapeInfo info, final ShapeFactory<MBlockShape> factory,
+            final double mass, final double linearDamping, final boolean stopped, final boolean filtered,
+            final long category, final long mask) {
+        this.name = name;
+        shapeId = info.getShapeId();
+        this.factory = factory;
+        scale = info.getScale();
+        this.mass = mass;
+        this.info = info;
+        this.linearDamping = linearDamping;
+        this.stopped = stopped;
+        this.filtered = filtered;
+        this.category = category;
+        this.mask = mask;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getShapeId() {
+        return shapeId;
+    }
+
+    /**
+     * Returns the shared shape if the body matches the scale and mass of the
+     * template, else builds one for it.
+     */
+    public MBlockShape getShape(final ShapeInfo bodyInfo, final Mass bodyMass) {
+        if (bodyInfo.getScale() != scale || bodyMass.getMass() != mass) {
+            return factory.createShape(bodyInfo, bodyMass);
+        }
+        if (shape == null) {
+            shape = factory.createShape(info, bodyMass);
+        }
+        return shape;
+    }
+
+    /**
+     * Returns the linear damping given to the bodies or NaN if the template
+     * leaves it alone.
+     */
+    public double getLinearDamping() {
+        return linearDamping;
+    }
+
+    /**
+     * Returns true if bodies of this template start without velocity.
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Returns true if the template gives the collision filter, in which case the
+     * body's CollisionCategory isn't looked at.
+     */
+    public boolean hasFilter() {
+        return filtered;
+    }
+
+    public long getCategory() {
+        return category;
+    }
+
+    public long getMask() {
+        return mask;
+    }
+
+    @Override
+    public String toString() {
+        return "BodyTemplate[" + name + ", shapeId=" + shapeId + ", scale=" + scale + ", mass=" + mass
+                + ", linearDamping=" + linearDamping + ", stopped=" + stopped + "]";
+    }
+}
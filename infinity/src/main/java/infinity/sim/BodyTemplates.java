@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.sim;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ini4j.Ini;
+import org.ini4j.Profile.Section;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.simsilica.es.EntityData;
+import com.simsilica.ext.mphys.Mass;
+import com.simsilica.ext.mphys.ShapeFactory;
+import com.simsilica.ext.mphys.ShapeInfo;
+import com.simsilica.mblock.phys.MBlockShape;
+
+/**
+ * The body templates of the known shapes, indexed by shape id so that the body
+ * factory finds one with an array read instead of resolving and comparing
+ * shape names. It is also the ShapeFactory of the physics: shapes with a
+ * template get the template's shape, all others get the default factory's.
+ *
+ * Templates are read from an ini file with one section per shape name:
+ *
+ * <pre>
+ * [bomb_l1]
+ * shape = sphere      ; a registered shape type, the default factory if absent
+ * scale = 0.5         ; the scale and mass the shared shape is built for,
+ * mass = 5            ; both 1 if absent
+ * damping = 1         ; linear damping, left alone if absent
+ * velocity = zero     ; 'zero' to start at rest, 'keep' (the default) if not
+ * category = 0x2      ; a collision filter that replaces the body's
+ * mask = 0xffff       ; CollisionCategory, both or neither
+ * </pre>
+ *
+ * @author Asser Fahrenholz
+ */
+public class BodyTemplates implements ShapeFactory<MBlockShape> {
+
+    static Logger log = LoggerFactory.getLogger(BodyTemplates.class);
+
+    private final EntityData ed;
+    private final ShapeFactory<MBlockShape> defaultFactory;
+    private final Map<String, ShapeFactory<MBlockShape>> shapeTypes = new HashMap<>();
+    private BodyTemplate[] templates = new BodyTemplate[64];
+    private int count;
+
+    public BodyTemplates(final EntityData ed, final ShapeFactory<MBlockShape> defaultFactory) {
+        this.ed = ed;
+        this.defaultFactory = defaultFactory;
+    }
+
+    /**
+     * Makes a shape factory available to the templates under the specified
+     * name.
+     */
+    public void registerShapeType(final String type, final ShapeFactory<MBlockShape> factory) {
+        shapeTypes.put(type, factory);
+    }
+
+    /**
+     * Adds a template for every section of the specified ini file.
+     */
+    public void load(final Ini ini) {
+        for (final Map.Entry<String, Section> entry : ini.entrySet()) {
+            final String name = entry.getKey();
+            final Section section = entry.getValue();
+            try {
+                final String type = section.get("shape");
+                final boolean filtered = section.containsKey("category");
+                if (filtered != section.containsKey("mask")) {
+                    throw new IllegalArgumentException("A collision filter needs both category and mask");
+                }
+                final String velocity = section.get("velocity");
+                if (velocity != null && !"keep".equals(velocity) && !"zero".equals(velocity)) {
+                    throw new IllegalArgumentException("Unknown velocity policy:" + velocity);
+                }
+                add(name, type, toDouble(section.get("scale"), 1), toDouble(section.get("mass"), 1),
+                        toDouble(section.get("damping"), Double.NaN), "zero".equals(velocity), filtered,
+                        filtered ? Long.decode(section.get("category")).longValue() : BodyFilters.ALL,
+                        filtered ? Long.decode(section.get("mask")).longValue() : BodyFilters.ALL);
+            } catch (final RuntimeException e) {
+                throw new IllegalArgumentException("Invalid body template:" + name, e);
+            }
+        }
+        log.info("Loaded " + count + " body templates");
+    }
+
+    /**
+     * Adds or replaces the template of the specified shape.
+     *
+     * @param type the registered shape type, null for the default factory
+     */
+    public BodyTemplate add(final String shapeName, final String type, final double scale, final double mass,
+            final double linearDamping, final boolean stopped, final boolean filtered, final long category,
+            final long mask) {
+        final ShapeFactory<MBlockShape> factory = type == null ? defaultFactory : shapeTypes.get(type);
+        if (factory == null) {
+            throw new IllegalArgumentException("Unknown shape type:" + type);
+        }
+        final BodyTemplate template = new BodyTemplate(shapeName, ShapeInfo.create(shapeName, scale, ed), factory,
+                mass, linearDamping, stopped, filtered, category, mask);
+        final int id = template.getShapeId();
+        if (id >= templates.length) {
+            templates = Arrays.copyOf(templates, Math.max(templates.length * 2, id + 1));
+        }
+        if (templates[id] == null) {
+            count++;
+        }
+        templates[id] = template;
+        return template;
+    }
+
+    /**
+     * Returns the template of the specified shape id or null if it has none.
+     */
+    public BodyTemplate get(final int shapeId) {
+        return shapeId >= 0 && shapeId < templates.length ? templates[shapeId] : null;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public MBlockShape createShape(final ShapeInfo info, final Mass mass) {
+        final BodyTemplate template = get(info.getShapeId());
+        if (template == null) {
+            return defaultFactory.createShape(info, mass);
+        }
+        return template.getShape(info, mass);
+    }
+
+    private static double toDouble(final String value, final double defaultValue) {
+        return value == null ? defaultValue : Double.parseDouble(value.trim());
+    }
+}
@@ -10,7 +10,6 @@ import com.simsilica.es.EntityId;
 import com.simsilica.ext.mphys.EntityBodyFactory;
 import com.simsilica.ext.mphys.Gravity;
 import com.simsilica.ext.mphys.Mass;
-import com.simsilica.ext.mphys.ShapeFactory;
 import com.simsilica.ext.mphys.ShapeInfo;
 import com.simsilica.ext.mphys.SpawnPosition;
 import com.simsilica.mathd.Vec3d;
@@ -18,7 +17,8 @@ import com.simsilica.mblock.phys.MBlockShape;
 import com.simsilica.mphys.RigidBody;
 import com.simsilica.mphys.StaticBody;
 
-import infinity.es.ShapeNames;
+import infinity.es.CollisionCategory;
+import infinity.es.Parent;
 
 /**
  *
@@ -28,11 +28,22 @@ import infinity.es.ShapeNames;
 public class InfinityEntityBodyFactory extends EntityBodyFactory<MBlockShape> {
 
     EntityData ed;
+    private final BodyTemplates templates;
+    private final BodyFilters bodyFilters = new BodyFilters();
 
     public InfinityEntityBodyFactory(final EntityData ed, final Vec3d defaultGravity,
-            final ShapeFactory<MBlockShape> shapeFactory) {
-        super(ed, defaultGravity, shapeFactory);
+            final BodyTemplates templates) {
+        super(ed, defaultGravity, templates);
         this.ed = ed;
+        this.templates = templates;
+    }
+
+    /**
+     * Returns the collision filters recorded for the rigid bodies this factory
+     * created.
+     */
+    public BodyFilters getBodyFilters() {
+        return bodyFilters;
     }
 
     @Override
@@ -55,44 +66,27 @@ public class InfinityEntityBodyFactory extends EntityBodyFactory<MBlockShape> {
         // choose Tools |
         // Templates.
 
-        // Do whatever we want to the body depending on the ShapeInfo
-        switch (info.getShapeName(ed)) {
-        // Remove dampening from projectiles
-        case ShapeNames.BULLETL1:
-        case ShapeNames.BULLETL2:
-        case ShapeNames.BULLETL3:
-        case ShapeNames.BULLETL4:
-        case ShapeNames.BOMBL1:
-        case ShapeNames.BOMBL2:
-        case ShapeNames.BOMBL3:
-        case ShapeNames.BOMBL4:
-        case ShapeNames.THOR:
-        case ShapeNames.BURST:
-            result.setLinearDamping(1);
-            break;
-        case ShapeNames.SHIP_WARBIRD:
-        case ShapeNames.SHIP_JAVELIN:
-        case ShapeNames.SHIP_SPIDER:
-        case ShapeNames.SHIP_LEVI:
-        case ShapeNames.SHIP_TERRIER:
-        case ShapeNames.SHIP_LANCASTER:
-        case ShapeNames.SHIP_WEASEL:
-        case ShapeNames.SHIP_SHARK:
-            result.setLinearDamping(0.5);
-            break;
-        // Static bodies:
-        case ShapeNames.MINEL1:
-        case ShapeNames.MINEL2:
-        case ShapeNames.MINEL3:
-        case ShapeNames.MINEL4:
-        case ShapeNames.WARP:
-        case ShapeNames.WORMHOLE:
-        case ShapeNames.MAPTILE:
-            result.setLinearDamping(0);
-            result.setLinearVelocity(new Vec3d(0, 0, 0));
-            break;
-        default:
-            break;
+        // Copy the collision filter and owner onto the body so contacts can be
+        // filtered without looking at the entity data
+        final BodyTemplate template = templates.get(info.getShapeId());
+        final Parent parent = ed.getComponent(id, Parent.class);
+        final long owner = parent == null ? BodyFilters.NO_PARENT : parent.getParentEntity().getId();
+        if (template != null && template.hasFilter()) {
+            bodyFilters.put(id.getId(), template.getCategory(), template.getMask(), owner);
+        } else {
+            final CollisionCategory category = ed.getComponent(id, CollisionCategory.class);
+            bodyFilters.put(id.getId(), category == null ? BodyFilters.ALL : category.getFilter().getCategory(),
+                    category == null ? BodyFilters.ALL : category.getFilter().getMask(), owner);
+        }
+
+        // Do whatever the shape's template wants done to the body
+        if (template != null) {
+            if (!Double.isNaN(template.getLinearDamping())) {
+                result.setLinearDamping(template.getLinearDamping());
+            }
+            if (template.isStopped()) {
+                result.setLinearVelocity(new Vec3d(0, 0, 0));
+            }
         }
 
         return result;
@@ -1,17 +1,316 @@
 /*
- * To change this license header, choose License Headers in Project Properties.
- * To change this template file, choose Tools | Templates
- * and open the template in the editor.
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
  */
 package infinity.sim;
 
 /**
+ * Answers collision queries against the tile map of an arena. The arena is a
+ * single layer of square tiles, so instead of looking up world leaves like the
+ * generic MBlockCollisionSystem does, the solid tiles are kept as one bitset
+ * per row together with a tile count for every 64x64 block. Moving circles are
+ * swept through the grid by stepping along the tiles under their path, and
+ * blocks without any tiles are skipped before a single tile is looked at.
+ *
+ * <p>
+ * The grid never moves a body. The contacts of rigid bodies with the map are
+ * made by the MBlockCollisionSystem, so they reach the ContactSystem and its
+ * collision filters like any other MPhys contact. The grid serves the checks
+ * that don't need a contact, like the wall casts of the projectiles.
+ * </p>
+ *
+ * <p>
+ * Like BodyFilters, this is only meant to be used from the game loop thread.
+ * </p>
  *
- * @author AFahrenholz
+ * @author Asser Fahrenholz
  */
 public class InfinityMBlockCollisionSystem {
 
-    public InfinityMBlockCollisionSystem() {
-        super();
+    /**
+     * The width and height of a block of tiles that is skipped as a whole when
+     * it is empty.
+     */
+    public static final int BLOCK_SIZE = 64;
+    private static final int BLOCK_SHIFT = 6;
+
+    // Returned by sweepTile() for a circle that starts out overlapping the tile
+    private static final double OVERLAP = -1;
+
+    private final int minX;
+    private final int minZ;
+    private final int size;
+    private final int wordsPerRow;
+    private final int blocksPerRow;
+    private final long[] rows;
+    private final int[] blockCounts;
+
+    private double hitNormalX;
+    private double hitNormalZ;
+    private int tileCount;
+
+    /**
+     * Creates an empty grid of size x size tiles with its first tile at minX,
+     * minZ. The size is rounded up to a whole number of blocks.
+     */
+    public InfinityMBlockCollisionSystem(final int minX, final int minZ, final int size) {
+        this.minX = minX;
+        this.minZ = minZ;
+        this.blocksPerRow = (size + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+        this.size = blocksPerRow << BLOCK_SHIFT;
+        this.wordsPerRow = this.size >> 6;
+        this.rows = new long[this.size * wordsPerRow];
+        this.blockCounts = new int[blocksPerRow * blocksPerRow];
+    }
+
+    /**
+     * Sets whether the tile at x, z is solid. Tiles outside the grid are
+     * ignored.
+     */
+    public void setSolid(final int x, final int z, final boolean solid) {
+        final int gx = x - minX;
+        final int gz = z - minZ;
+        if (gx < 0 || gz < 0 || gx >= size || gz >= size) {
+            return;
+        }
+        final int word = gz * wordsPerRow + (gx >> 6);
+        final long bit = 1L << gx;
+        if (((rows[word] & bit) != 0) == solid) {
+            return;
+        }
+        rows[word] ^= bit;
+        final int delta = solid ? 1 : -1;
+        blockCounts[(gz >> BLOCK_SHIFT) * blocksPerRow + (gx >> BLOCK_SHIFT)] += delta;
+        tileCount += delta;
+    }
+
+    /**
+     * @return true if the tile at x, z is solid, tiles outside the grid never
+     *         are
+     */
+    public boolean isSolid(final int x, final int z) {
+        final int gx = x - minX;
+        final int gz = z - minZ;
+        if (gx < 0 || gz < 0 || gx >= size || gz >= size) {
+            return false;
+        }
+        return (rows[gz * wordsPerRow + (gx >> 6)] & 1L << gx) != 0;
+    }
+
+    /**
+     * @return true if the tile at x, z is covered by this grid
+     */
+    public boolean contains(final int x, final int z) {
+        final int gx = x - minX;
+        final int gz = z - minZ;
+        return gx >= 0 && gz >= 0 && gx < size && gz < size;
+    }
+
+    /**
+     * @return true if there is no solid tile in the blocks that overlap the
+     *         tiles from x0, z0 to x1, z1 inclusive
+     */
+    public boolean isEmpty(final int x0, final int z0, final int x1, final int z1) {
+        if (x1 < minX || z1 < minZ || x0 - minX >= size || z0 - minZ >= size) {
+            return true;
+        }
+        final int bx0 = Math.max(x0 - minX, 0) >> BLOCK_SHIFT;
+        final int bz0 = Math.max(z0 - minZ, 0) >> BLOCK_SHIFT;
+        final int bx1 = Math.min(x1 - minX, size - 1) >> BLOCK_SHIFT;
+        final int bz1 = Math.min(z1 - minZ, size - 1) >> BLOCK_SHIFT;
+        for (int bz = bz0; bz <= bz1; bz++) {
+            for (int bx = bx0; bx <= bx1; bx++) {
+                if (blockCounts[bz * blocksPerRow + bx] != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the first solid tile that a circle in the xz-plane touches while it
+     * moves from x, z along dx, dz. The normal of the touched tile surface is
+     * left in getHitNormalX() and getHitNormalZ(), a zero normal means that the
+     * circle started out overlapping a tile.
+     *
+     * @return the fraction of the path at which the circle touches a tile, or
+     *         infinity if it does not
+     */
+    public double sweep(final double x, final double z, final double dx, final double dz, final double radius) {
+        hitNormalX = 0;
+        hitNormalZ = 0;
+        final int reach = (int) Math.ceil(radius);
+        if (tileCount == 0 || isEmpty((int) Math.floor(Math.min(x, x + dx) - radius),
+                (int) Math.floor(Math.min(z, z + dz) - radius), (int) Math.floor(Math.max(x, x + dx) + radius),
+                (int) Math.floor(Math.max(z, z + dz) + radius))) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        int cellX = (int) Math.floor(x);
+        int cellZ = (int) Math.floor(z);
+        final int stepX = dx > 0 ? 1 : dx < 0 ? -1 : 0;
+        final int stepZ = dz > 0 ? 1 : dz < 0 ? -1 : 0;
+        final double deltaX = stepX != 0 ? Math.abs(1 / dx) : Double.POSITIVE_INFINITY;
+        final double deltaZ = stepZ != 0 ? Math.abs(1 / dz) : Double.POSITIVE_INFINITY;
+        double nextX = stepX > 0 ? (cellX + 1 - x) / dx : stepX < 0 ? (cellX - x) / dx : Double.POSITIVE_INFINITY;
+        double nextZ = stepZ > 0 ? (cellZ + 1 - z) / dz : stepZ < 0 ? (cellZ - z) / dz : Double.POSITIVE_INFINITY;
+
+        double first = Double.POSITIVE_INFINITY;
+        while (true) {
+            // Any tile the circle touches while its center is in this cell is
+            // within reach of the cell
+            if (!isEmpty(cellX - reach, cellZ - reach, cellX + reach, cellZ + reach)) {
+                for (int k = cellZ - reach; k <= cellZ + reach; k++) {
+                    for (int i = cellX - reach; i <= cellX + reach; i++) {
+                        if (!isSolid(i, k)) {
+                            continue;
+                        }
+                        final double t = sweepTile(x, z, dx, dz, radius, i, k, first);
+                        if (t == OVERLAP) {
+                            hitNormalX = 0;
+                            hitNormalZ = 0;
+                            return 0;
+                        }
+                        first = Math.min(first, t);
+                    }
+                }
+            }
+
+            // A tile touched later on would have been in reach of an earlier cell
+            final double next = Math.min(nextX, nextZ);
+            if (next > 1 || next >= first) {
+                return first <= 1 ? first : Double.POSITIVE_INFINITY;
+            }
+            if (nextX < nextZ) {
+                cellX += stepX;
+                nextX += deltaX;
+            } else {
+                cellZ += stepZ;
+                nextZ += deltaZ;
+            }
+        }
+    }
+
+    /**
+     * Sweeps a circle against a single tile, which is the same as sweeping its
+     * center against the tile grown by the radius with rounded corners. The
+     * normal is only updated if the tile is touched before the given limit.
+     *
+     * @return the fraction of the path at which the tile is touched, infinity
+     *         if it is not or OVERLAP if the circle starts out inside it
+     */
+    private double sweepTile(final double x, final double z, final double dx, final double dz,
+            final double radius, final int tileX, final int tileZ, final double limit) {
+        final double minTX = tileX - radius;
+        final double maxTX = tileX + 1 + radius;
+        final double minTZ = tileZ - radius;
+        final double maxTZ = tileZ + 1 + radius;
+
+        // Slab test against the grown tile without the rounding
+        double enter = Double.NEGATIVE_INFINITY;
+        double exit = Double.POSITIVE_INFINITY;
+        boolean xAxis = false;
+        if (dx != 0) {
+            final double t0 = ((dx > 0 ? minTX : maxTX) - x) / dx;
+            final double t1 = ((dx > 0 ? maxTX : minTX) - x) / dx;
+            enter = t0;
+            exit = t1;
+            xAxis = true;
+        } else if (x < minTX || x > maxTX) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (dz != 0) {
+            final double t0 = ((dz > 0 ? minTZ : maxTZ) - z) / dz;
+            final double t1 = ((dz > 0 ? maxTZ : minTZ) - z) / dz;
+            if (t0 > enter) {
+                enter = t0;
+                xAxis = false;
+            }
+            exit = Math.min(exit, t1);
+        } else if (z < minTZ || z > maxTZ) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (enter > exit || exit <= 0 || enter > 1 || enter >= limit) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        final boolean inside = enter < 0;
+        final double t = inside ? 0 : enter;
+        final double px = x + dx * t;
+        final double pz = z + dz * t;
+        final double cornerX = px < tileX ? tileX : px > tileX + 1 ? tileX + 1 : Double.NaN;
+        final double cornerZ = pz < tileZ ? tileZ : pz > tileZ + 1 ? tileZ + 1 : Double.NaN;
+
+        if (Double.isNaN(cornerX) || Double.isNaN(cornerZ)) {
+            // Touches a side of the tile
+            if (inside) {
+                return OVERLAP;
+            }
+            hitNormalX = xAxis ? -Math.signum(dx) : 0;
+            hitNormalZ = xAxis ? 0 : -Math.signum(dz);
+            return t;
+        }
+
+        // In a corner region, so it can only touch the corner itself
+        final double wx = x - cornerX;
+        final double wz = z - cornerZ;
+        final double c = wx * wx + wz * wz - radius * radius;
+        if (c <= 0) {
+            return OVERLAP;
+        }
+        final double b = wx * dx + wz * dz;
+        if (b >= 0) {
+            // Moving away
+            return Double.POSITIVE_INFINITY;
+        }
+        final double a = dx * dx + dz * dz;
+        final double disc = b * b - a * c;
+        if (disc < 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        final double hit = (-b - Math.sqrt(disc)) / a;
+        if (hit > 1 || hit >= limit) {
+            return Double.POSITIVE_INFINITY;
+        }
+        hitNormalX = (wx + dx * hit) / radius;
+        hitNormalZ = (wz + dz * hit) / radius;
+        return hit;
+    }
+
+    public double getHitNormalX() {
+        return hitNormalX;
+    }
+
+    public double getHitNormalZ() {
+        return hitNormalZ;
+    }
+
+    /**
+     * @return the number of solid tiles in the grid
+     */
+    public int getTileCount() {
+        return tileCount;
     }
 }
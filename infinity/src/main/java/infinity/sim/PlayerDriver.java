@@ -28,19 +28,28 @@ package infinity.sim;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import com.simsilica.es.base.DefaultWatchedEntity;
+import com.simsilica.ext.mphys.ShapeInfo;
 import com.simsilica.mathd.Vec3d;
 import com.simsilica.mblock.phys.MBlockShape;
 import com.simsilica.mphys.ControlDriver;
 import com.simsilica.mphys.RigidBody;
 
+import infinity.es.ShapeNames;
 import infinity.es.input.MovementInput;
-import infinity.es.ship.Energy;
 import infinity.es.ship.Rotation;
+import infinity.es.ship.RotationUpgrade;
 import infinity.es.ship.Speed;
+import infinity.es.ship.SpeedUpgrade;
 import infinity.es.ship.Thrust;
+import infinity.es.ship.ThrustUpgrade;
+import infinity.settings.SettingsSchema;
+import infinity.settings.SettingsSnapshot;
 import infinity.systems.SettingsSystem;
 
 /**
@@ -48,6 +57,16 @@ import infinity.systems.SettingsSystem;
  * body. We ignore the normal physics acceleration for now and just set the
  * velocity directly based on our accelerated thrust values.
  *
+ * The ship's Thrust, Speed and Rotation and their upgrades are kept in plain
+ * fields that are only read again when one of those components or the arena
+ * settings change, and a step works in scratch vectors, so updating a driver
+ * doesn't create garbage. Without a Thrust the velocity picks up at
+ * DEFAULT_PICKUP, without a Speed or Rotation the input isn't limited.
+ *
+ * An upgrade scales the base value by how far it raises the ship's Initial
+ * setting towards its Maximum setting, the setting keys are looked up once
+ * per ship type.
+ *
  * @author Paul Speed
  */
 public class PlayerDriver implements ControlDriver<EntityId, MBlockShape>, Driver {
@@ -60,23 +79,63 @@ public class PlayerDriver implements ControlDriver<EntityId, MBlockShape>, Drive
     // private volatile Quaternion orientation = new Quaternion();
     private volatile MovementInput movementForces = new MovementInput(new Vec3d());
 
-    private final double pickup = 3;
+    /**
+     * How fast the velocity follows the input, in units per second squared, for
+     * ships without a Thrust.
+     */
+    public static final double DEFAULT_PICKUP = 3;
+
+    // The force applied per unit of velocity
+    private static final double FORCE_SCALE = 20;
+
+    // The settings section of each ship shape
+    private static final Map<String, String> SHIP_SECTIONS = new HashMap<>();
+
+    static {
+        SHIP_SECTIONS.put(ShapeNames.SHIP_WARBIRD, "Warbird");
+        SHIP_SECTIONS.put(ShapeNames.SHIP_JAVELIN, "Javelin");
+        SHIP_SECTIONS.put(ShapeNames.SHIP_SPIDER, "Spider");
+        SHIP_SECTIONS.put(ShapeNames.SHIP_LEVI, "Leviathan");
+        SHIP_SECTIONS.put(ShapeNames.SHIP_TERRIER, "Terrier");
+        SHIP_SECTIONS.put(ShapeNames.SHIP_WEASEL, "Weasel");
+        SHIP_SECTIONS.put(ShapeNames.SHIP_LANCASTER, "Lancaster");
+        SHIP_SECTIONS.put(ShapeNames.SHIP_SHARK, "Shark");
+    }
+
+    // Ship performance, refreshed when the watched components change
+    private double pickup = DEFAULT_PICKUP;
+    private double topSpeed = Double.POSITIVE_INFINITY;
+    private double topRotation = Double.POSITIVE_INFINITY;
+
+    // Settings keys of the current ship type
+    private final SettingsSystem settings;
+    private final EntityData ed;
+    private ShapeInfo shape;
+    private int initialThrust = SettingsSchema.NOT_FOUND;
+    private int maximumThrust = SettingsSchema.NOT_FOUND;
+    private int initialSpeed = SettingsSchema.NOT_FOUND;
+    private int maximumSpeed = SettingsSchema.NOT_FOUND;
+    private int initialRotation = SettingsSchema.NOT_FOUND;
+    private int maximumRotation = SettingsSchema.NOT_FOUND;
+    // The snapshot the performance was last computed from
+    private SettingsSnapshot snapshot;
 
     // Local reference to the body that we want to update
     private RigidBody<?, ?> body;
     private final Vec3d velocity = new Vec3d();
-    // private final EntityData ed;
-    // private final SettingsSystem settings;
+    private final Vec3d force = new Vec3d();
 
     @SuppressWarnings({ "unchecked" })
-    public PlayerDriver(final EntityId shipEntityId, final EntityData ed,
-            @SuppressWarnings("unused") final SettingsSystem settings) {
+    public PlayerDriver(final EntityId shipEntityId, final EntityData ed, final SettingsSystem settings) {
+        this.settings = settings;
+        this.ed = ed;
         // Watch all the relevant movement components of the ship
         @SuppressWarnings("rawtypes")
-        final Class[] types = { Energy.class, Rotation.class, Speed.class, Thrust.class };
+        final Class[] types = { ShapeInfo.class, Rotation.class, Speed.class, Thrust.class,
+                RotationUpgrade.class, SpeedUpgrade.class, ThrustUpgrade.class };
         shipEntity = new DefaultWatchedEntity(ed, shipEntityId, types);
-        // this.settings = settings;
-        // this.ed = ed;
+        snapshot = currentSnapshot();
+        refreshPerformance();
     }
 
     @Override
@@ -84,6 +143,93 @@ public class PlayerDriver implements ControlDriver<EntityId, MBlockShape>, Drive
         movementForces = input;
     }
 
+    private SettingsSnapshot currentSnapshot() {
+        return settings == null ? null : settings.getSnapshot(CoreGameConstants.DEFAULTARENAID);
+    }
+
+    /**
+     * Looks up the settings keys of the ship's type, only done when the ship
+     * changes shape.
+     */
+    private void refreshSettingKeys() {
+        final ShapeInfo info = shipEntity.get(ShapeInfo.class);
+        if (info == shape) {
+            return;
+        }
+        shape = info;
+        final String section = info == null ? null : SHIP_SECTIONS.get(info.getShapeName(ed));
+        initialThrust = settingKey(section, "InitialThrust");
+        maximumThrust = settingKey(section, "MaximumThrust");
+        initialSpeed = settingKey(section, "InitialSpeed");
+        maximumSpeed = settingKey(section, "MaximumSpeed");
+        initialRotation = settingKey(section, "InitialRotation");
+        maximumRotation = settingKey(section, "MaximumRotation");
+    }
+
+    private int settingKey(final String section, final String setting) {
+        if (settings == null || section == null) {
+            return SettingsSchema.NOT_FOUND;
+        }
+        return settings.getSettingKey(section, setting);
+    }
+
+    /**
+     * Returns how much an upgrade raises a setting, the upgraded value is
+     * capped at the maximum setting. Returns 1 when the ship has no upgrade or
+     * the arena doesn't set the values.
+     */
+    private double upgradeScale(final int initialKey, final int maximumKey, final int upgrade) {
+        if (upgrade == 0 || snapshot == null || initialKey == SettingsSchema.NOT_FOUND
+                || maximumKey == SettingsSchema.NOT_FOUND) {
+            return 1;
+        }
+        final int initial = snapshot.get(initialKey);
+        if (initial <= 0) {
+            return 1;
+        }
+        final int maximum = Math.max(initial, snapshot.get(maximumKey));
+        return Math.min(initial + upgrade, maximum) / (double) initial;
+    }
+
+    /**
+     * Copies the ship's performance components into the driver's fields.
+     */
+    private void refreshPerformance() {
+        refreshSettingKeys();
+
+        final Thrust thrust = shipEntity.get(Thrust.class);
+        final Speed speed = shipEntity.get(Speed.class);
+        final Rotation rotation = shipEntity.get(Rotation.class);
+        final ThrustUpgrade thrustUp = shipEntity.get(ThrustUpgrade.class);
+        final SpeedUpgrade speedUp = shipEntity.get(SpeedUpgrade.class);
+        final RotationUpgrade rotationUp = shipEntity.get(RotationUpgrade.class);
+
+        pickup = (thrust == null ? DEFAULT_PICKUP : thrust.getThrust())
+                * upgradeScale(initialThrust, maximumThrust, thrustUp == null ? 0 : thrustUp.getEnergyUpgrade());
+        topSpeed = (speed == null ? Double.POSITIVE_INFINITY : speed.getSpeed())
+                * upgradeScale(initialSpeed, maximumSpeed, speedUp == null ? 0 : speedUp.getEnergyUpgrade());
+        topRotation = (rotation == null ? Double.POSITIVE_INFINITY : rotation.getRadSec())
+                * upgradeScale(initialRotation, maximumRotation,
+                        rotationUp == null ? 0 : rotationUp.getEnergyUpgrade());
+    }
+
+    public double getPickup() {
+        return pickup;
+    }
+
+    public double getTopSpeed() {
+        return topSpeed;
+    }
+
+    public double getTopRotation() {
+        return topRotation;
+    }
+
+    private static double clamp(final double value, final double limit) {
+        // Plain compares, Math.min/max pay for NaN and -0.0 handling every step
+        return value > limit ? limit : value < -limit ? -limit : value;
+    }
+
     private double applyThrust(final double vel, final double thrust, final double tpf) {
         double v = vel;
         if (thrust > 0) {
@@ -109,7 +255,12 @@ public class PlayerDriver implements ControlDriver<EntityId, MBlockShape>, Drive
         // Drivable bodies should not fall asleep, keep them awake at all times
         body.wakeUp(true);
 
-        shipEntity.applyChanges();
+        // A settings reload replaces the snapshot, so this is a reference compare
+        final SettingsSnapshot current = currentSnapshot();
+        if (shipEntity.applyChanges() | current != snapshot) {
+            snapshot = current;
+            refreshPerformance();
+        }
 
         // x-axis is side-to-side
         // Grab local versions of the player settings in case another
@@ -120,19 +271,19 @@ public class PlayerDriver implements ControlDriver<EntityId, MBlockShape>, Drive
         // x is rotate - we dont need to clamp that
         // velocity.x = applyThrust(velocity.x, vec.x, step);
         // z is forward
-        velocity.z = applyThrust(velocity.z, vec.z, step);
+        velocity.z = applyThrust(velocity.z, clamp(vec.z, topSpeed), step);
 
         // Rotate the ship according to left and right (should stop rotating right away
         // when not pressing the keys
         // Rotate around the y-axis (y is upwards)
-        body.setRotationalVelocity(0, vec.x, 0);
+        body.setRotationalVelocity(0, clamp(vec.x, topRotation), 0);
 
         // Set a clamped velocity on the forward axis rotated by the bodies current
         // rotation
-        final Vec3d newLinearVelocity = body.orientation.mult(velocity);
-        // body.setLinearVelocity(newLinearVelocity);
+        body.orientation.mult(velocity, force);
+        // body.setLinearVelocity(force);
 
-        body.addForce(newLinearVelocity.mult(20));
+        body.addForce(force.multLocal(FORCE_SCALE));
         // log.info("Player (body) velocity (length of linvel):
         // "+body.getLinearVelocity().length());
     }
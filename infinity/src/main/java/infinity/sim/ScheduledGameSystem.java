@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.sim;
+
+import com.simsilica.sim.AbstractGameSystem;
+import com.simsilica.sim.SimTime;
+
+/**
+ * A game system that can be handed to a SystemScheduler. It is registered
+ * with the GameSystemManager like any other system so it still gets its
+ * lifecycle calls and can be looked up, but once scheduled the manager's
+ * update() call does nothing and the scheduler calls step() instead.
+ *
+ * @author Asser Fahrenholz
+ */
+public abstract class ScheduledGameSystem extends AbstractGameSystem {
+
+    private volatile SystemScheduler scheduler;
+
+    /**
+     * Returns what this system touches during step(). By default a system is
+     * assumed to conflict with everything else.
+     */
+    public SystemAccess getAccess() {
+        return SystemAccess.EXCLUSIVE;
+    }
+
+    public SystemScheduler getScheduler() {
+        return scheduler;
+    }
+
+    void setScheduler(final SystemScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public final void update(final SimTime time) {
+        if (scheduler == null) {
+            step(time);
+        }
+    }
+
+    /**
+     * Performs the per-frame work of this system. Called by the scheduler, which
+     * may run it on a pool thread alongside systems it does not conflict with,
+     * or by the manager when the system isn't scheduled.
+     */
+    protected abstract void step(SimTime time);
+}
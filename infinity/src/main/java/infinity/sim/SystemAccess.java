@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.sim;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Declares which components, or other shared resources like a system class,
+ * a scheduled system reads and writes during its update. Two systems whose
+ * accesses don't conflict can update at the same time.
+ *
+ * @author Asser Fahrenholz
+ */
+public final class SystemAccess {
+
+    /**
+     * Conflicts with everything, the system always runs on its own.
+     */
+    public static final SystemAccess EXCLUSIVE = new SystemAccess(Collections.emptySet(), Collections.emptySet(),
+            true);
+
+    /**
+     * Touches nothing that other systems use.
+     */
+    public static final SystemAccess NONE = new SystemAccess(Collections.emptySet(), Collections.emptySet(),
+            false);
+
+    private final Set<Class<?>> reads;
+    private final Set<Class<?>> writes;
+    private final boolean exclusive;
+
+    private SystemAccess(final Set<Class<?>> reads, final Set<Class<?>> writes, final boolean exclusive) {
+        this.reads = reads;
+        this.writes = writes;
+        this.exclusive = exclusive;
+    }
+
+    public static SystemAccess reads(final Class<?>... types) {
+        return NONE.andReads(types);
+    }
+
+    public static SystemAccess writes(final Class<?>... types) {
+        return NONE.andWrites(types);
+    }
+
+    public SystemAccess andReads(final Class<?>... types) {
+        final Set<Class<?>> set = new HashSet<>(reads);
+        set.addAll(Arrays.asList(types));
+        return new SystemAccess(Collections.unmodifiableSet(set), writes, exclusive);
+    }
+
+    public SystemAccess andWrites(final Class<?>... types) {
+        final Set<Class<?>> set = new HashSet<>(writes);
+        set.addAll(Arrays.asList(types));
+        return new SystemAccess(reads, Collections.unmodifiableSet(set), exclusive);
+    }
+
+    public Set<Class<?>> getReads() {
+        return reads;
+    }
+
+    public Set<Class<?>> getWrites() {
+        return writes;
+    }
+
+    public boolean isExclusive() {
+        return exclusive;
+    }
+
+    /**
+     * Returns true if the two systems may not update at the same time, that is
+     * if either one writes something the other reads or writes.
+     */
+    public boolean conflictsWith(final SystemAccess other) {
+        if (exclusive || other.exclusive) {
+            return true;
+        }
+        return !Collections.disjoint(writes, other.writes) || !Collections.disjoint(writes, other.reads)
+                || !Collections.disjoint(reads, other.writes);
+    }
+
+    @Override
+    public String toString() {
+        if (exclusive) {
+            return "SystemAccess[exclusive]";
+        }
+        return "SystemAccess[reads=" + reads + ", writes=" + writes + "]";
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.simsilica.sim.AbstractGameSystem;
+import com.simsilica.sim.SimTime;
+
+import infinity.systems.StatsSystem;
+import infinity.util.TickProbe;
+
+/**
+ * Runs a group of scheduled systems as one phase of the game loop. The
+ * scheduler is added to the GameSystemManager at the point in the frame where
+ * the phase should run, and everything it starts has finished before its own
+ * update returns, so systems outside the phase (like the physics step) never
+ * overlap with it.
+ *
+ * Within the phase, systems are ordered into levels from their declared
+ * SystemAccess: a system goes one level after the last earlier system it
+ * conflicts with. Systems on the same level are run in parallel on a fork-join
+ * pool. Setting the system property "infinity.scheduler.serial" or calling
+ * setSerial(true) runs them one after the other, in the order they were
+ * scheduled, on the game loop thread. When a StatsSystem is registered each
+ * system and the phase as a whole also feed a probe.
+ *
+ * @author Asser Fahrenholz
+ */
+public class SystemScheduler extends AbstractGameSystem {
+
+    static Logger log = LoggerFactory.getLogger(SystemScheduler.class);
+
+    public static final String SERIAL_PROPERTY = "infinity.scheduler.serial";
+
+    private final String phase;
+    private final int parallelism;
+    private final List<Entry> entries = new ArrayList<>();
+    private Entry[][] levels = new Entry[0][];
+    private volatile boolean dirty;
+    private volatile boolean serial = Boolean.getBoolean(SERIAL_PROPERTY);
+    private final PhaseTask phaseTask = new PhaseTask();
+    private ForkJoinPool pool;
+    private StatsSystem stats;
+    private TickProbe phaseProbe;
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private SimTime time;
+
+    private volatile long lastPhaseNanos;
+    private volatile long totalPhaseNanos;
+    private volatile long frameCount;
+
+    public SystemScheduler(final String phase) {
+        this(phase, Runtime.getRuntime().availableProcessors());
+    }
+
+    public SystemScheduler(final String phase, final int parallelism) {
+        this.phase = phase;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Adds the system to this phase and returns it so that it can be registered
+     * with the GameSystemManager in the same statement.
+     */
+    public synchronized <T extends ScheduledGameSystem> T schedule(final T system) {
+        if (system.getScheduler() != null) {
+            throw new IllegalArgumentException("System is already scheduled:" + system);
+        }
+        system.setScheduler(this);
+        entries.add(new Entry(system));
+        dirty = true;
+        return system;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public void setSerial(final boolean serial) {
+        this.serial = serial;
+    }
+
+    public boolean isSerial() {
+        return serial;
+    }
+
+    public synchronized int getSystemCount() {
+        return entries.size();
+    }
+
+    public synchronized ScheduledGameSystem getSystem(final int index) {
+        return entries.get(index).system;
+    }
+
+    /**
+     * Returns the time spent in the indexed system's last step.
+     */
+    public synchronized long getLastNanos(final int index) {
+        return entries.get(index).lastNanos;
+    }
+
+    /**
+     * Returns the time spent in all steps of the indexed system so far.
+     */
+    public synchronized long getTotalNanos(final int index) {
+        return entries.get(index).totalNanos;
+    }
+
+    /**
+     * Returns the wall time of the last run of the whole phase.
+     */
+    public long getLastPhaseNanos() {
+        return lastPhaseNanos;
+    }
+
+    public long getTotalPhaseNanos() {
+        return totalPhaseNanos;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Returns the number of levels the systems were ordered into, which is the
+     * length of the longest chain of conflicting systems.
+     */
+    public synchronized int getLevelCount() {
+        if (dirty) {
+            rebuild();
+        }
+        return levels.length;
+    }
+
+    @Override
+    protected void initialize() {
+        stats = getSystem(StatsSystem.class);
+        if (stats != null) {
+            phaseProbe = stats.getProbe("phase." + phase);
+        }
+        if (parallelism > 1) {
+            pool = new ForkJoinPool(parallelism, p -> {
+                final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                thread.setName(phase + "-scheduler-" + threadCount.getAndIncrement());
+                return thread;
+            }, null, false);
+        }
+    }
+
+    @Override
+    protected void terminate() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    @Override
+    public void update(final SimTime time) {
+        if (dirty) {
+            synchronized (this) {
+                rebuild();
+            }
+        }
+        this.time = time;
+
+        if (phaseProbe != null) {
+            phaseProbe.begin();
+        }
+        final long start = System.nanoTime();
+        if (serial || pool == null) {
+            for (final Entry[] level : levels) {
+                for (final Entry e : level) {
+                    e.step();
+                }
+            }
+        } else {
+            phaseTask.reinitialize();
+            pool.invoke(phaseTask);
+        }
+        final long elapsed = System.nanoTime() - start;
+        lastPhaseNanos = elapsed;
+        totalPhaseNanos += elapsed;
+        frameCount++;
+        if (phaseProbe != null) {
+            phaseProbe.end();
+        }
+    }
+
+    /**
+     * Orders the entries into levels of mutually non-conflicting systems.
+     */
+    private void rebuild() {
+        final int size = entries.size();
+        final int[] levelOf = new int[size];
+        int levelCount = 0;
+        for (int i = 0; i < size; i++) {
+            final SystemAccess access = entries.get(i).system.getAccess();
+            int level = 0;
+            for (int j = 0; j < i; j++) {
+                if (levelOf[j] >= level && access.conflictsWith(entries.get(j).system.getAccess())) {
+                    level = levelOf[j] + 1;
+                }
+            }
+            levelOf[i] = level;
+            levelCount = Math.max(levelCount, level + 1);
+        }
+
+        final List<List<Entry>> grouped = new ArrayList<>();
+        for (int i = 0; i < levelCount; i++) {
+            grouped.add(new ArrayList<>());
+        }
+        for (int i = 0; i < size; i++) {
+            grouped.get(levelOf[i]).add(entries.get(i));
+        }
+        if (stats != null) {
+            for (final Entry e : entries) {
+                e.probe = stats.getProbe(e.system.getClass().getSimpleName());
+            }
+        }
+
+        final Entry[][] result = new Entry[levelCount][];
+        for (int i = 0; i < levelCount; i++) {
+            result[i] = grouped.get(i).toArray(new Entry[0]);
+        }
+        levels = result;
+        dirty = false;
+
+        if (log.isDebugEnabled()) {
+            for (int i = 0; i < levelCount; i++) {
+                log.debug(phase + " level " + i + ":" + grouped.get(i));
+            }
+        }
+    }
+
+    /**
+     * Runs the levels one after the other, forking the systems within a level.
+     */
+    private class PhaseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+            for (final Entry[] level : levels) {
+                if (level.length == 1) {
+                    level[0].step();
+                    continue;
+                }
+                for (final Entry e : level) {
+                    e.reinitialize();
+                }
+                ForkJoinTask.invokeAll(level);
+            }
+        }
+    }
+
+    private class Entry extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ScheduledGameSystem system;
+        private volatile long lastNanos;
+        private volatile long totalNanos;
+        private TickProbe probe;
+
+        public Entry(final ScheduledGameSystem system) {
+            this.system = system;
+        }
+
+        @Override
+        protected void compute() {
+            step();
+        }
+
+        public void step() {
+            if (probe != null) {
+                probe.begin();
+            }
+            final long start = System.nanoTime();
+            system.step(time);
+            final long elapsed = System.nanoTime() - start;
+            lastNanos = elapsed;
+            totalNanos += elapsed;
+            if (probe != null) {
+                probe.end();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return system.getClass().getSimpleName();
+        }
+    }
+}
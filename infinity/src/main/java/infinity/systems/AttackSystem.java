@@ -6,8 +6,6 @@
 package infinity.systems;
 
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,7 +48,9 @@ import infinity.es.ship.weapons.MineFireDelay;
 import infinity.sim.CoreGameConstants;
 import infinity.sim.CorePhysicsConstants;
 import infinity.sim.GameEntities;
-import infinity.sim.GameSounds;
+import infinity.sim.SoundEventPoster;
+import infinity.util.CommandQueue;
+import infinity.util.RateLimiter;
 
 /**
  *
@@ -72,11 +72,14 @@ public class AttackSystem extends AbstractGameSystem {
     // private BinEntityManager binEntityManager;
 
     static Logger log = LoggerFactory.getLogger(AttackSystem.class);
-    private final LinkedHashSet<Attack> sessionAttackCreations = new LinkedHashSet<>();
+    private final CommandQueue<Void> sessionAttackCreations = new CommandQueue<>("attacks", 1024);
+    private final CommandQueue.Handler<Void> attackHandler = this::handleAttack;
     private EntitySet thors, mines, gravityBombs, bursts, bombs, guns;
 
     private SimTime time;
     private EnergySystem health;
+    private CooldownSystem cooldowns;
+    private SoundEventPoster sounds;
     // private SettingsSystem settings;
 
     protected MPhysSystem<MBlockShape> getPhysicsSystem() {
@@ -103,6 +106,16 @@ public class AttackSystem extends AbstractGameSystem {
 
         health = getSystem(EnergySystem.class);
 
+        cooldowns = getSystem(CooldownSystem.class);
+        if (cooldowns == null) {
+            throw new RuntimeException(getClass().getName() + " system requires the CooldownSystem system.");
+        }
+
+        sounds = getSystem(SoundEventPoster.class);
+        if (sounds == null) {
+            throw new RuntimeException(getClass().getName() + " system requires a SoundEventPoster.");
+        }
+
         guns = ed.getEntities(Gun.class, GunFireDelay.class, GunCost.class);
 
         bombs = ed.getEntities(Bomb.class, BombFireDelay.class, BombCost.class);
@@ -143,7 +156,12 @@ public class AttackSystem extends AbstractGameSystem {
         time = tpf;
 
         // Update who has what ship weapons
-        guns.applyChanges();
+        if (guns.applyChanges()) {
+            // Ships that lost their guns have died or been replaced
+            for (final Entity e : guns.getRemovedEntities()) {
+                cooldowns.clear(e.getId().getId());
+            }
+        }
 
         bombs.applyChanges();
 
@@ -159,18 +177,11 @@ public class AttackSystem extends AbstractGameSystem {
          * Default pattern to let multiple sessions call methods and then process them
          * one by one
          */
-        final Iterator<Attack> iterator = sessionAttackCreations.iterator();
-        while (iterator.hasNext()) {
-            final Attack a = iterator.next();
-
-            attack(a.getOwner(), a.getWeaponType());
+        sessionAttackCreations.drain(attackHandler);
+    }
 
-            iterator.remove();
-        }
-        /*
-         * for (Attack attack : sessionAttackCreations) { this.attack(attack.getOwner(),
-         * attack.getWeaponType()); } sessionAttackCreations.clear();
-         */
+    private void handleAttack(final long attacker, final int flag, final Void unused) {
+        attack(new EntityId(attacker), (byte) flag);
     }
 
     /**
@@ -245,6 +256,10 @@ public class AttackSystem extends AbstractGameSystem {
      * @param requestor requesting entity
      */
     private void entityAttackGuns(final EntityId requestor) {
+        // Check cooldown
+        if (!cooldowns.isReady(requestor.getId(), AttackSystem.GUN, time.getTime())) {
+            return;
+        }
         final Entity entity = guns.getEntity(requestor);
         // Entity doesnt have guns
         if (entity == null) {
@@ -254,11 +269,6 @@ public class AttackSystem extends AbstractGameSystem {
         final GunCost shipGunCost = entity.get(GunCost.class);
         final GunFireDelay shipGunCooldown = entity.get(GunFireDelay.class);
 
-        // Check authorization and check cooldown
-        if (!guns.containsId(requestor) || shipGunCooldown.getPercent() < 1.0) {
-            return;
-        }
-
         // Check health
         if (!health.hasEnergy(requestor) || health.getHealth(requestor) < shipGunCost.getCost()) {
             return;
@@ -272,7 +282,7 @@ public class AttackSystem extends AbstractGameSystem {
         attackGuns(info, shipGuns.getLevel(), new Damage(-20), requestor);
 
         // Set new cooldown
-        ed.setComponent(requestor, shipGunCooldown.copy());
+        cooldowns.startCooldown(requestor.getId(), AttackSystem.GUN, time.getTime(), shipGunCooldown.getCooldown());
     }
 
     /**
@@ -281,15 +291,18 @@ public class AttackSystem extends AbstractGameSystem {
      * @param requestor requesting entity
      */
     private void entityAttackBomb(final EntityId requestor) {
+        // Check cooldown
+        if (!cooldowns.isReady(requestor.getId(), AttackSystem.BOMB, time.getTime())) {
+            return;
+        }
         final Entity entity = bombs.getEntity(requestor);
-        final Bomb shipBombs = entity.get(Bomb.class);
-        final BombFireDelay shipBombCooldown = entity.get(BombFireDelay.class);
-        final BombCost shipBombCost = entity.get(BombCost.class);
-
         // Check authorization
-        if (!bombs.containsId(requestor) || shipBombCooldown.getPercent() < 1.0) {
+        if (entity == null) {
             return;
         }
+        final Bomb shipBombs = entity.get(Bomb.class);
+        final BombFireDelay shipBombCooldown = entity.get(BombFireDelay.class);
+        final BombCost shipBombCost = entity.get(BombCost.class);
 
         // Check health
         if (!health.hasEnergy(requestor) || health.getHealth(requestor) < shipBombCost.getCost()) {
@@ -304,7 +317,7 @@ public class AttackSystem extends AbstractGameSystem {
         attackBomb(info, shipBombs.getLevel(), new Damage(-20), requestor);
 
         // Set new cooldown
-        ed.setComponent(requestor, shipBombCooldown.copy());
+        cooldowns.startCooldown(requestor.getId(), AttackSystem.BOMB, time.getTime(), shipBombCooldown.getCooldown());
 
     }
 
@@ -314,16 +327,19 @@ public class AttackSystem extends AbstractGameSystem {
      * @param requestor requesting entity
      */
     private void entityPlaceMine(final EntityId requestor) {
+        // Check cooldown
+        if (!cooldowns.isReady(requestor.getId(), AttackSystem.MINE, time.getTime())) {
+            return;
+        }
         final Entity entity = mines.getEntity(requestor);
+        // Check authorization
+        if (entity == null) {
+            return;
+        }
         final Mine shipMines = entity.get(Mine.class);
         final MineCost shipMineCost = entity.get(MineCost.class);
         final MineFireDelay shipMineCooldown = entity.get(MineFireDelay.class);
 
-        // Check authorization and cooldown
-        if (!mines.containsId(requestor) || shipMineCooldown.getPercent() < 1.0) {
-            return;
-        }
-
         // Check health
         if (!health.hasEnergy(requestor) || health.getHealth(requestor) < shipMineCost.getCost()) {
             return;
@@ -337,7 +353,7 @@ public class AttackSystem extends AbstractGameSystem {
         attackBomb(info, shipMines.getLevel(), new Damage(-20), requestor);
 
         // Set new cooldown
-        ed.setComponent(requestor, shipMineCooldown.copy());
+        cooldowns.startCooldown(requestor.getId(), AttackSystem.MINE, time.getTime(), shipMineCooldown.getCooldown());
     }
 
     /**
@@ -382,6 +398,9 @@ public class AttackSystem extends AbstractGameSystem {
             attackBurst(info, new Damage(-30), requestor);
         }
 
+        // One sound for the whole burst rather than one per fragment
+        sounds.postSound(AudioTypes.BURST, infoOrig.getLocation());
+
         // Reduce count of bursts in inventory:
         if (shipBursts.getCount() == 1) {
             ed.removeComponent(requestor, Burst.class);
@@ -396,16 +415,19 @@ public class AttackSystem extends AbstractGameSystem {
      * @param requestor requesting entity
      */
     private void entityAttackGravityBomb(final EntityId requestor) {
+        // Check cooldown
+        if (!cooldowns.isReady(requestor.getId(), AttackSystem.GRAVBOMB, time.getTime())) {
+            return;
+        }
         final Entity entity = gravityBombs.getEntity(requestor);
-
-        final GravityBombFireDelay shipGravBombCooldown = entity.get(GravityBombFireDelay.class);
-        final GravityBombCost shipGravBombCost = entity.get(GravityBombCost.class);
-
         // Check authorization
-        if (!gravityBombs.containsId(requestor) || shipGravBombCooldown.getPercent() < 1.0) {
+        if (entity == null) {
             return;
         }
 
+        final GravityBombFireDelay shipGravBombCooldown = entity.get(GravityBombFireDelay.class);
+        final GravityBombCost shipGravBombCost = entity.get(GravityBombCost.class);
+
         final GravityBomb shipGravityBombs = entity.get(GravityBomb.class);
 
         // Check health
@@ -421,7 +443,8 @@ public class AttackSystem extends AbstractGameSystem {
         attackGravBomb(info, shipGravityBombs.getLevel(), new Damage(-20), requestor);
 
         // Set new cooldown
-        ed.setComponent(requestor, shipGravBombCooldown.copy());
+        cooldowns.startCooldown(requestor.getId(), AttackSystem.GRAVBOMB, time.getTime(),
+                shipGravBombCooldown.getCooldown());
     }
 
     /**
@@ -433,10 +456,9 @@ public class AttackSystem extends AbstractGameSystem {
      */
     private void attackBomb(final AttackInfo info, final BombLevelEnum level, final Damage damage,
             final EntityId owner) {
-        final EntityId projectile = GameEntities.createBomb(ed, owner, space, time.getTime(), info.getLocation(),
-                info.getAttackVelocity(), CoreGameConstants.BULLETDECAY, level);
-        ed.setComponent(projectile, damage);
-        GameSounds.createBombSound(ed, owner, space, time.getTime(), info.getLocation(), level);
+        GameEntities.createBomb(ed, owner, space, time.getTime(), info.getLocation(), info.getAttackVelocity(),
+                CoreGameConstants.BULLETDECAY, level, damage);
+        sounds.postSound(AudioTypes.bombTypeName(level), info.getLocation());
     }
 
     /**
@@ -447,11 +469,8 @@ public class AttackSystem extends AbstractGameSystem {
      * @param damage     the damage of the bomb
      */
     private void attackBurst(final AttackInfo info, final Damage damage, final EntityId owner) {
-        EntityId projectile;
-        projectile = GameEntities.createBurst(ed, owner, space, time.getTime(), info.getLocation(),
-                info.getAttackVelocity(), CoreGameConstants.BULLETDECAY);
-        ed.setComponent(projectile, damage);
-        GameSounds.createBurstSound(ed, owner, space, time.getTime(), info.getLocation());
+        GameEntities.createBurst(ed, owner, space, time.getTime(), info.getLocation(), info.getAttackVelocity(),
+                CoreGameConstants.BULLETDECAY, damage);
     }
 
     /**
@@ -466,11 +485,9 @@ public class AttackSystem extends AbstractGameSystem {
 
         final String shapeName = "bullet_l" + level.level;
 
-        EntityId projectile;
-        projectile = GameEntities.createBullet(ed, owner, space, time.getTime(), info.getLocation(),
-                info.getAttackVelocity(), CoreGameConstants.BULLETDECAY, level, shapeName);
-        ed.setComponent(projectile, damage);
-        GameSounds.createBulletSound(ed, owner, space, time.getTime(), info.getLocation(), level);
+        GameEntities.createBullet(ed, owner, space, time.getTime(), info.getLocation(), info.getAttackVelocity(),
+                CoreGameConstants.BULLETDECAY, level, shapeName, damage);
+        sounds.postSound(AudioTypes.bulletTypeName(level), info.getLocation());
     }
 
     /**
@@ -482,7 +499,6 @@ public class AttackSystem extends AbstractGameSystem {
      */
     private void attackGravBomb(final AttackInfo info, final BombLevelEnum level, final Damage damage,
             final EntityId owner) {
-        EntityId projectile;
         final HashSet<EntityComponent> delayedComponents = new HashSet<>();
         delayedComponents.add(new GravityWell(5, CoreGameConstants.GRAVBOMBWORMHOLEFORCE, GravityWell.PULL)); // Suck
                                                                                                               // everything
@@ -490,12 +506,11 @@ public class AttackSystem extends AbstractGameSystem {
         // delayedComponents.add(new PhysicsVelocity(new Vector2(0, 0))); //Freeze the
         // bomb
 
-        projectile = GameEntities.createDelayedBomb(ed, owner, space, time.getTime(), info.getLocation(),
-                info.getAttackVelocity(), CoreGameConstants.GRAVBOMBDECAY, CoreGameConstants.GRAVBOMBDELAY,
-                delayedComponents, level);
-        ed.setComponent(projectile, new Damage(damage.getDamage()));
+        GameEntities.createDelayedBomb(ed, owner, space, time.getTime(), info.getLocation(), info.getAttackVelocity(),
+                CoreGameConstants.GRAVBOMBDECAY, CoreGameConstants.GRAVBOMBDELAY, delayedComponents, level,
+                new Damage(damage.getDamage()));
 
-        GameSounds.createSound(ed, owner, space, time.getTime(), info.getLocation(), AudioTypes.FIRE_GRAVBOMB);
+        sounds.postSound(AudioTypes.FIRE_GRAVBOMB, info.getLocation());
     }
 
     /**
@@ -505,33 +520,10 @@ public class AttackSystem extends AbstractGameSystem {
      * @param damage the damage of the thor
      */
     private void attackThor(final AttackInfo info, final Damage damage, final EntityId owner) {
-        EntityId projectile;
-
-        projectile = GameEntities.createThor(ed, owner, space, time.getTime(), info.getLocation(),
-                info.getAttackVelocity(), CoreGameConstants.THORDECAY);
+        GameEntities.createThor(ed, owner, space, time.getTime(), info.getLocation(), info.getAttackVelocity(),
+                CoreGameConstants.THORDECAY, new Damage(damage.getDamage()));
 
-        ed.setComponent(projectile, new Damage(damage.getDamage()));
-
-        GameSounds.createSound(ed, owner, space, time.getTime(), info.getLocation(), AudioTypes.FIRE_THOR);
-    }
-
-    public class Attack {
-
-        final EntityId owner;
-        final byte flag;
-
-        public Attack(final EntityId owner, final byte flag) {
-            this.owner = owner;
-            this.flag = flag;
-        }
-
-        public EntityId getOwner() {
-            return owner;
-        }
-
-        public byte getWeaponType() {
-            return flag;
-        }
+        sounds.postSound(AudioTypes.FIRE_THOR, info.getLocation());
     }
 
     /**
@@ -588,8 +580,12 @@ public class AttackSystem extends AbstractGameSystem {
             projectileVelocity.addLocal(0, 0, 50);
             break;
         case AttackSystem.BOMB:
+        case AttackSystem.THOR:
             projectileVelocity.addLocal(0, 0, 25);
             break;
+        case AttackSystem.BURST:
+            projectileVelocity.addLocal(0, 0, 50);
+            break;
         case AttackSystem.GRAVBOMB:
             break;
         case AttackSystem.MINE:
@@ -624,6 +620,12 @@ public class AttackSystem extends AbstractGameSystem {
         case AttackSystem.GUN:
             projectilePosition.addLocal(0, 0, CorePhysicsConstants.BULLETSIZERADIUS);
             break;
+        case AttackSystem.BURST:
+            projectilePosition.addLocal(0, 0, CorePhysicsConstants.BURSTSIZERADIUS);
+            break;
+        case AttackSystem.THOR:
+            projectilePosition.addLocal(0, 0, CorePhysicsConstants.THORSIZERADIUS);
+            break;
         case AttackSystem.BOMB:
         case AttackSystem.GRAVBOMB:
         case AttackSystem.MINE:
@@ -649,6 +651,25 @@ public class AttackSystem extends AbstractGameSystem {
      * @param weaponType the weapon of choice
      */
     public void sessionAttack(final EntityId attacker, final byte flag) {
-        sessionAttackCreations.add(new Attack(attacker, flag));
+        sessionAttack(attacker, flag, null);
+    }
+
+    /**
+     * Queue up an attack from a connection
+     *
+     * @param attacker the attacking entity
+     * @param flag     the weapon of choice
+     * @param limiter  the rate limiter of the connection, can be null
+     * @return true if the attack was queued, false if it was dropped
+     */
+    public boolean sessionAttack(final EntityId attacker, final byte flag, final RateLimiter limiter) {
+        return sessionAttackCreations.offer(attacker.getId(), flag, null, limiter);
+    }
+
+    /**
+     * @return the queue that session attacks go through, for stats
+     */
+    public CommandQueue<Void> getSessionAttackQueue() {
+        return sessionAttackCreations;
     }
 }
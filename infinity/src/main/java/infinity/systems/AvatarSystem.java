@@ -36,7 +36,6 @@ import com.simsilica.es.EntitySet;
 import com.simsilica.es.filter.FieldFilter;
 import com.simsilica.event.EventBus;
 import com.simsilica.ext.mphys.ShapeInfo;
-import com.simsilica.sim.AbstractGameSystem;
 import com.simsilica.sim.SimTime;
 
 import infinity.ShipRestrictor;
@@ -48,12 +47,14 @@ import infinity.server.chat.ChatHostedService;
 import infinity.sim.AccessLevel;
 import infinity.sim.CommandConsumer;
 import infinity.sim.CorePhysicsConstants;
+import infinity.sim.ScheduledGameSystem;
+import infinity.sim.SystemAccess;
 
 /**
  *
  * @author Asser
  */
-public class AvatarSystem extends AbstractGameSystem {
+public class AvatarSystem extends ScheduledGameSystem {
 
     private EntityData ed;
     // private EntitySet freqInput, avatarInput;
@@ -110,9 +111,14 @@ public class AvatarSystem extends AbstractGameSystem {
         frequencies = null;
     }
 
+    @Override
+    public SystemAccess getAccess() {
+        return SystemAccess.reads(ShapeInfo.class, Captain.class);
+    }
+
     @SuppressWarnings("unused")
     @Override
-    public void update(final SimTime tpf) {
+    protected void step(final SimTime tpf) {
 
         if (captains.applyChanges()) {
             for (final Entity e : captains.getAddedEntities()) {
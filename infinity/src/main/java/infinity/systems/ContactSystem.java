@@ -5,12 +5,16 @@
  */
 package infinity.systems;
 
+import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.simsilica.es.Entity;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import com.simsilica.es.EntitySet;
 import com.simsilica.ext.mphys.MPhysSystem;
+import com.simsilica.ext.mphys.ObjectStatusListener;
 import com.simsilica.mblock.phys.MBlockShape;
 import com.simsilica.mphys.Contact;
 import com.simsilica.mphys.ContactListener;
@@ -20,7 +24,9 @@ import com.simsilica.sim.SimTime;
 
 import infinity.es.CollisionCategory;
 import infinity.es.Parent;
+import infinity.sim.BodyFilters;
 import infinity.sim.CategoryFilter;
+import infinity.util.TickProbe;
 
 /**
  *
@@ -36,54 +42,43 @@ public class ContactSystem extends AbstractGameSystem implements ContactListener
     // private BinIndex binIndex;
     // private BinEntityManager binEntityManager;
     EntitySet categoryFilters;
+    EntitySet parents;
+    private BodyFilters bodyFilters;
+    private final BodyObserver bodyObserver = new BodyObserver();
+    private TickProbe contactProbe;
 
     @Override
     public void newContact(final Contact<EntityId, MBlockShape> contact) {
         final RigidBody<EntityId, MBlockShape> bodyOne = contact.body1;
         final RigidBody<EntityId, MBlockShape> bodyTwo = contact.body2;
 
+        final long start = contactProbe != null && contactProbe.isEnabled() ? System.nanoTime() : 0;
         if (bodyOne != null && bodyTwo != null) {
-            final EntityId one = contact.body1.id;
-            final EntityId two = contact.body2.id;
-
-            if (categoryFilters.containsId(two) && categoryFilters.containsId(one)) {
-                final CategoryFilter filterOne = categoryFilters.getEntity(one).get(CollisionCategory.class)
-                        .getFilter();
-                final CategoryFilter filterTwo = categoryFilters.getEntity(two).get(CollisionCategory.class)
-                        .getFilter();
-
-                if (!filterTwo.isAllowed(filterOne)) {
-                    contact.disable();
-                    return;
-                }
-            }
-
-            final Parent parentOfOne = ed.getComponent(one, Parent.class);
-            if (parentOfOne != null && parentOfOne.getParentEntity().compareTo(two) == 0) {
-                // We have a parent on entity one and its equal to two
+            // Categories, masks and parents were copied when the bodies were
+            // created so this doesn't touch the entity data
+            if (!bodyFilters.isAllowed(bodyOne.id.getId(), bodyTwo.id.getId())) {
                 contact.disable();
+                if (start != 0) {
+                    contactProbe.record(System.nanoTime() - start);
+                }
                 return;
             }
 
-            final Parent parentOfTwo = ed.getComponent(two, Parent.class);
-            if (parentOfTwo != null && parentOfTwo.getParentEntity().compareTo(one) == 0) {
-                // We have a parent on entity two and its equal to one
-                contact.disable();
-                return;
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Collision between: " + bodyOne + " and " + bodyTwo);
             }
 
-            log.info("Collision between: " + bodyOne + " and " + bodyTwo);
-
         } else {
             // This happens when a dynamic collides with a static body or the world
-            if (bodyOne != null) {
-                log.info("Collided: " + bodyOne.toString() + " with null");
-            } else if (bodyTwo != null) {
-                log.info("Collided: " + bodyTwo.toString() + " with null");
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Collided: " + (bodyOne != null ? bodyOne : bodyTwo) + " with null");
             }
 
             contact.restitution = 1;
         }
+        if (start != 0) {
+            contactProbe.record(System.nanoTime() - start);
+        }
 
     }
 
@@ -96,7 +91,33 @@ public class ContactSystem extends AbstractGameSystem implements ContactListener
     public void update(final SimTime time) {
         super.update(time); // To change body of generated methods, choose Tools | Templates.
 
-        categoryFilters.applyChanges();
+        if (categoryFilters.applyChanges()) {
+            updateFilters(categoryFilters.getAddedEntities());
+            updateFilters(categoryFilters.getChangedEntities());
+            for (final Entity e : categoryFilters.getRemovedEntities()) {
+                bodyFilters.setFilter(e.getId().getId(), BodyFilters.ALL, BodyFilters.ALL);
+            }
+        }
+        if (parents.applyChanges()) {
+            updateParents(parents.getAddedEntities());
+            updateParents(parents.getChangedEntities());
+            for (final Entity e : parents.getRemovedEntities()) {
+                bodyFilters.setParent(e.getId().getId(), BodyFilters.NO_PARENT);
+            }
+        }
+    }
+
+    private void updateFilters(final Set<Entity> set) {
+        for (final Entity e : set) {
+            final CategoryFilter filter = e.get(CollisionCategory.class).getFilter();
+            bodyFilters.setFilter(e.getId().getId(), filter.getCategory(), filter.getMask());
+        }
+    }
+
+    private void updateParents(final Set<Entity> set) {
+        for (final Entity e : set) {
+            bodyFilters.setParent(e.getId().getId(), e.get(Parent.class).getParentEntity().getId());
+        }
     }
 
     @Override
@@ -119,12 +140,48 @@ public class ContactSystem extends AbstractGameSystem implements ContactListener
         // binIndex = space.getBinIndex();
         // binEntityManager = physics.getBinEntityManager();
 
+        bodyFilters = getSystem(BodyFilters.class);
+        if (bodyFilters == null) {
+            throw new RuntimeException(getClass().getName() + " system requires the BodyFilters object.");
+        }
+        @SuppressWarnings("unchecked")
+        final MPhysSystem<MBlockShape> mphys = (MPhysSystem<MBlockShape>) physics;
+        mphys.getBinEntityManager().addObjectStatusListener(bodyObserver);
+
+        final StatsSystem stats = getSystem(StatsSystem.class);
+        if (stats != null) {
+            contactProbe = stats.getProbe("contacts");
+        }
+
         categoryFilters = ed.getEntities(CollisionCategory.class);
+        parents = ed.getEntities(Parent.class);
     }
 
     @Override
     protected void terminate() {
+        @SuppressWarnings("unchecked")
+        final MPhysSystem<MBlockShape> mphys = (MPhysSystem<MBlockShape>) physics;
+        mphys.getBinEntityManager().removeObjectStatusListener(bodyObserver);
+
         categoryFilters.release();
         categoryFilters = null;
+        parents.release();
+        parents = null;
+    }
+
+    /**
+     * Forgets the filters of bodies that leave the physics space.
+     */
+    private class BodyObserver implements ObjectStatusListener<MBlockShape> {
+
+        @Override
+        public void objectLoaded(final EntityId id, final RigidBody<EntityId, MBlockShape> body) {
+            return;
+        }
+
+        @Override
+        public void objectUnloaded(final EntityId id, final RigidBody<EntityId, MBlockShape> body) {
+            bodyFilters.remove(id.getId());
+        }
     }
 }
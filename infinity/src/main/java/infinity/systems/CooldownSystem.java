@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.systems;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.simsilica.es.EntityId;
+import com.simsilica.sim.AbstractGameSystem;
+import com.simsilica.sim.SimTime;
+
+import infinity.util.LongIntMap;
+import infinity.util.TimerWheel;
+
+/**
+ * Keeps cooldowns and timers on sim time instead of the wall clock. Other
+ * systems use it in one of two ways:
+ * <ul>
+ * <li>as a flag: a per-entity table of cooldown slots where checking if a slot
+ * is ready is a primitive map lookup and an array read</li>
+ * <li>as a callback: timers are scheduled on a timing wheel and the listener
+ * registered for the timer kind is called once the sim time passes them</li>
+ * </ul>
+ * Since everything is keyed on the SimTime of the game loop, cooldowns follow
+ * fast-forwarded or replayed simulations.
+ */
+public class CooldownSystem extends AbstractGameSystem {
+
+    /**
+     * Called on the game loop thread when a scheduled timer expires.
+     */
+    @FunctionalInterface
+    public interface ExpiryListener {
+        void expired(long entityId, long expireTime);
+    }
+
+    /**
+     * The number of cooldown slots each entity has in the table.
+     */
+    public static final int SLOTS = 8;
+
+    private static final long WHEEL_RESOLUTION = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int WHEEL_BUCKETS = 512;
+
+    private final TimerWheel wheel = new TimerWheel(WHEEL_RESOLUTION, WHEEL_BUCKETS);
+    private final List<ExpiryListener> listeners = new ArrayList<>();
+    private final TimerWheel.ExpiryConsumer dispatch = this::dispatch;
+
+    // Entity id -> row in the ready time table
+    private final LongIntMap rows = new LongIntMap(256);
+    private long[] readyTimes = new long[SLOTS * 64];
+    private int[] freeRows = new int[16];
+    private int freeCount;
+    private int rowCount;
+
+    private long now;
+
+    @Override
+    protected void initialize() {
+        return;
+    }
+
+    @Override
+    protected void terminate() {
+        return;
+    }
+
+    @Override
+    public void update(final SimTime time) {
+        now = time.getTime();
+        wheel.advance(now, dispatch);
+    }
+
+    private void dispatch(final long entityId, final int kind, final long expireTime) {
+        listeners.get(kind).expired(entityId, expireTime);
+    }
+
+    /**
+     * @return the sim time of the last update
+     */
+    public long getTime() {
+        return now;
+    }
+
+    /**
+     * Registers a listener for a kind of timer.
+     *
+     * @return the kind to pass to schedule()
+     */
+    public int registerListener(final ExpiryListener listener) {
+        listeners.add(listener);
+        return listeners.size() - 1;
+    }
+
+    /**
+     * Schedules a timer that calls the listener of the kind once the sim time
+     * reaches the expire time.
+     */
+    public void schedule(final EntityId entityId, final int kind, final long expireTime) {
+        if (kind < 0 || kind >= listeners.size()) {
+            throw new IllegalArgumentException("Unknown timer kind:" + kind);
+        }
+        wheel.schedule(expireTime, entityId.getId(), kind);
+    }
+
+    /**
+     * @param entityId the entity to check
+     * @param slot     the cooldown slot, 0 to SLOTS - 1
+     * @param time     the current sim time
+     * @return true if the cooldown of the slot has passed
+     */
+    public boolean isReady(final long entityId, final int slot, final long time) {
+        final int row = rows.get(entityId, -1);
+        return row < 0 || readyTimes[row * SLOTS + slot] <= time;
+    }
+
+    /**
+     * @return the sim time at which the cooldown slot is ready again
+     */
+    public long getReadyTime(final long entityId, final int slot) {
+        final int row = rows.get(entityId, -1);
+        return row < 0 ? Long.MIN_VALUE : readyTimes[row * SLOTS + slot];
+    }
+
+    /**
+     * Starts the cooldown of a slot.
+     *
+     * @param entityId the entity that used the slot
+     * @param slot     the cooldown slot, 0 to SLOTS - 1
+     * @param time     the current sim time
+     * @param duration the length of the cooldown in sim time
+     */
+    public void startCooldown(final long entityId, final int slot, final long time, final long duration) {
+        readyTimes[rowFor(entityId) * SLOTS + slot] = time + duration;
+    }
+
+    /**
+     * Forgets all cooldowns of an entity.
+     */
+    public void clear(final long entityId) {
+        final int row = rows.get(entityId, -1);
+        if (row < 0) {
+            return;
+        }
+        rows.remove(entityId);
+        if (freeCount == freeRows.length) {
+            freeRows = Arrays.copyOf(freeRows, freeCount << 1);
+        }
+        freeRows[freeCount++] = row;
+    }
+
+    private int rowFor(final long entityId) {
+        int row = rows.get(entityId, -1);
+        if (row >= 0) {
+            return row;
+        }
+        if (freeCount > 0) {
+            row = freeRows[--freeCount];
+        } else {
+            row = rowCount++;
+            if (rowCount * SLOTS > readyTimes.length) {
+                readyTimes = Arrays.copyOf(readyTimes, readyTimes.length << 1);
+            }
+        }
+        Arrays.fill(readyTimes, row * SLOTS, (row + 1) * SLOTS, Long.MIN_VALUE);
+        rows.put(entityId, row);
+        return row;
+    }
+
+    @Override
+    public String toString() {
+        return "CooldownSystem[entities=" + rows.size() + ", timers=" + wheel.size() + "]";
+    }
+}
@@ -26,58 +26,95 @@
 package infinity.systems;
 
 import java.util.Iterator;
+import java.util.Set;
 
 import com.simsilica.es.Entity;
 import com.simsilica.es.EntityComponent;
 import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
 import com.simsilica.es.EntitySet;
-import com.simsilica.sim.AbstractGameSystem;
 import com.simsilica.sim.SimTime;
 
 import infinity.es.Delay;
+import infinity.sim.ScheduledGameSystem;
+import infinity.sim.SystemAccess;
 
 /**
  *
  * @author Asser
  */
-public class DelaySystem extends AbstractGameSystem {
+public class DelaySystem extends ScheduledGameSystem {
 
     private EntityData ed;
     private EntitySet entities;
+    private CooldownSystem cooldowns;
+    private int expiryKind;
 
     @Override
-    public void update(final SimTime tpf) {
-        entities.applyChanges();
-        for (final Entity e : entities) {
-            final Delay d = e.get(Delay.class);
-            if (d.getPercent() >= 1.0) {
-                final Iterator<EntityComponent> componentIterator = d.getDelayedComponents().iterator();
-                switch (d.getType()) {
-                case Delay.REMOVE:
-                    while (componentIterator.hasNext()) {
-                        ed.removeComponent(e.getId(), componentIterator.next().getClass());
-                    }
-                    break;
-                case Delay.SET:
-
-                    while (componentIterator.hasNext()) {
-                        ed.setComponent(e.getId(), componentIterator.next());
-                    }
-                    break;
-                default:
-                    break;
-                }
-
-                ed.removeComponent(e.getId(), Delay.class);
+    public SystemAccess getAccess() {
+        return SystemAccess.reads(Delay.class).andWrites(CooldownSystem.class);
+    }
+
+    @Override
+    protected void step(final SimTime tpf) {
+        // Only new or replaced delays need scheduling, the cooldown system calls
+        // us back when they are due
+        if (entities.applyChanges()) {
+            schedule(entities.getAddedEntities());
+            schedule(entities.getChangedEntities());
+        }
+    }
+
+    private void schedule(final Set<Entity> delayed) {
+        for (final Entity e : delayed) {
+            cooldowns.schedule(e.getId(), expiryKind, e.get(Delay.class).getExpireTime());
+        }
+    }
+
+    private void expired(final long entityId, final long expireTime) {
+        final Entity e = entities.getEntity(new EntityId(entityId));
+        if (e == null) {
+            // Entity or delay was removed in the mean time
+            return;
+        }
+        final Delay d = e.get(Delay.class);
+        if (d.getExpireTime() != expireTime) {
+            // The delay was replaced, the new one has its own timer
+            return;
+        }
+
+        final Iterator<EntityComponent> componentIterator = d.getDelayedComponents().iterator();
+        switch (d.getType()) {
+        case Delay.REMOVE:
+            while (componentIterator.hasNext()) {
+                ed.removeComponent(e.getId(), componentIterator.next().getClass());
+            }
+            break;
+        case Delay.SET:
+
+            while (componentIterator.hasNext()) {
+                ed.setComponent(e.getId(), componentIterator.next());
             }
+            break;
+        default:
+            break;
         }
+
+        ed.removeComponent(e.getId(), Delay.class);
     }
 
     @Override
     protected void initialize() {
         ed = getSystem(EntityData.class);
 
+        cooldowns = getSystem(CooldownSystem.class);
+        if (cooldowns == null) {
+            throw new RuntimeException(getClass().getName() + " system requires the CooldownSystem system.");
+        }
+        expiryKind = cooldowns.registerListener(this::expired);
+
         entities = ed.getEntities(Delay.class); // This filters all entities that have delayed components
+        schedule(entities);
     }
 
     @Override
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.systems;
+
+import java.util.Arrays;
+
+import infinity.util.LongIntMap;
+import infinity.util.MpscRecordQueue;
+
+/**
+ * Accumulates energy deltas per entity id without creating entities or boxing.
+ * Producers on any thread post (target, delta, startTime) records into a
+ * lock-free queue. Once per frame the owning system drains the ledger: deltas
+ * that are already due are summed per target, deltas scheduled for later are
+ * parked in a time ordered heap until their start time is reached.
+ */
+public class EnergyLedger {
+
+    private static final int DEFAULT_CAPACITY = 1 << 14;
+
+    private final MpscRecordQueue incoming;
+    private final LongIntMap totals = new LongIntMap(256);
+
+    // Fallback for when producers outrun the queue, rarely used
+    private final Object overflowLock = new Object();
+    private long[] overflowTargets = new long[16];
+    private int[] overflowDeltas = new int[16];
+    private long[] overflowTimes = new long[16];
+    private int overflowSize;
+
+    // Min-heap of delayed deltas ordered by start time
+    private long[] delayedTimes = new long[64];
+    private long[] delayedTargets = new long[64];
+    private int[] delayedDeltas = new int[64];
+    private int delayedSize;
+
+    private long now;
+    private final MpscRecordQueue.RecordConsumer acceptRecord = this::accept;
+
+    public EnergyLedger() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public EnergyLedger(final int capacity) {
+        this.incoming = new MpscRecordQueue(capacity);
+    }
+
+    /**
+     * Posts an energy delta for the target. Safe to call from any thread.
+     *
+     * @param targetId  the id of the entity whose energy changes
+     * @param delta     the change in energy (can be both positive and negative)
+     * @param startTime the sim time at which the delta applies, 0 for right away
+     */
+    public void addDelta(final long targetId, final int delta, final long startTime) {
+        if (incoming.offer(targetId, delta, startTime)) {
+            return;
+        }
+        synchronized (overflowLock) {
+            if (overflowSize == overflowTargets.length) {
+                final int size = overflowSize << 1;
+                overflowTargets = Arrays.copyOf(overflowTargets, size);
+                overflowDeltas = Arrays.copyOf(overflowDeltas, size);
+                overflowTimes = Arrays.copyOf(overflowTimes, size);
+            }
+            overflowTargets[overflowSize] = targetId;
+            overflowDeltas[overflowSize] = delta;
+            overflowTimes[overflowSize] = startTime;
+            overflowSize++;
+        }
+    }
+
+    /**
+     * Collects every delta that is due at the specified time and passes the summed
+     * delta of each target to the consumer exactly once. Must only be called from
+     * a single thread.
+     *
+     * @param time     the current sim time
+     * @param consumer receives (targetId, summedDelta) pairs
+     */
+    public void drain(final long time, final LongIntMap.EntryConsumer consumer) {
+        now = time;
+        incoming.drain(acceptRecord);
+
+        synchronized (overflowLock) {
+            for (int i = 0; i < overflowSize; i++) {
+                accept(overflowTargets[i], overflowDeltas[i], overflowTimes[i]);
+            }
+            overflowSize = 0;
+        }
+
+        // Release any delayed deltas that have come due
+        while (delayedSize > 0 && delayedTimes[0] <= time) {
+            totals.add(delayedTargets[0], delayedDeltas[0]);
+            popDelayed();
+        }
+
+        if (!totals.isEmpty()) {
+            totals.forEach(consumer);
+            totals.clear();
+        }
+    }
+
+    private void accept(final long targetId, final int delta, final long startTime) {
+        if (startTime > now) {
+            pushDelayed(startTime, targetId, delta);
+        } else {
+            totals.add(targetId, delta);
+        }
+    }
+
+    /**
+     * @return the number of deltas waiting for their start time
+     */
+    public int getDelayedCount() {
+        return delayedSize;
+    }
+
+    /**
+     * @return an estimate of the number of deltas posted since the last drain
+     */
+    public int getPendingCount() {
+        return incoming.size() + overflowSize;
+    }
+
+    private void pushDelayed(final long time, final long targetId, final int delta) {
+        if (delayedSize == delayedTimes.length) {
+            final int size = delayedSize << 1;
+            delayedTimes = Arrays.copyOf(delayedTimes, size);
+            delayedTargets = Arrays.copyOf(delayedTargets, size);
+            delayedDeltas = Arrays.copyOf(delayedDeltas, size);
+        }
+        int i = delayedSize++;
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (delayedTimes[parent] <= time) {
+                break;
+            }
+            moveDelayed(parent, i);
+            i = parent;
+        }
+        delayedTimes[i] = time;
+        delayedTargets[i] = targetId;
+        delayedDeltas[i] = delta;
+    }
+
+    private void popDelayed() {
+        delayedSize--;
+        if (delayedSize == 0) {
+            return;
+        }
+        // Sift the last entry down from the root
+        final long time = delayedTimes[delayedSize];
+        final long targetId = delayedTargets[delayedSize];
+        final int delta = delayedDeltas[delayedSize];
+        int i = 0;
+        while (true) {
+            int child = (i << 1) + 1;
+            if (child >= delayedSize) {
+                break;
+            }
+            if (child + 1 < delayedSize && delayedTimes[child + 1] < delayedTimes[child]) {
+                child++;
+            }
+            if (time <= delayedTimes[child]) {
+                break;
+            }
+            moveDelayed(child, i);
+            i = child;
+        }
+        delayedTimes[i] = time;
+        delayedTargets[i] = targetId;
+        delayedDeltas[i] = delta;
+    }
+
+    private void moveDelayed(final int from, final int to) {
+        delayedTimes[to] = delayedTimes[from];
+        delayedTargets[to] = delayedTargets[from];
+        delayedDeltas[to] = delayedDeltas[from];
+    }
+
+    @Override
+    public String toString() {
+        return "EnergyLedger[pending=" + getPendingCount() + ", delayed=" + delayedSize + "]";
+    }
+}
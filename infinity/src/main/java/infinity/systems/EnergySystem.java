@@ -25,9 +25,6 @@
  */
 package infinity.systems;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,7 +32,6 @@ import com.simsilica.es.Entity;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import com.simsilica.es.EntitySet;
-import com.simsilica.sim.AbstractGameSystem;
 import com.simsilica.sim.SimTime;
 
 import infinity.es.Buff;
@@ -44,23 +40,29 @@ import infinity.es.HealthChange;
 import infinity.es.ship.Energy;
 import infinity.es.ship.EnergyMax;
 import infinity.es.ship.Recharge;
+import infinity.sim.ScheduledGameSystem;
+import infinity.sim.SystemAccess;
+import infinity.util.LongIntMap;
 
 /**
- * Watches entities with hitpoints and entities with health changes and applies
- * them to the hitpoints of an entity, possibly causing death.
+ * Watches entities with hitpoints and applies the health changes posted to its
+ * energy ledger to the hitpoints of an entity, possibly causing death. Legacy
+ * Buff + HealthChange entities are still picked up and moved into the ledger.
  *
  * @author Paul Speed
  */
-public class EnergySystem extends AbstractGameSystem {
+public class EnergySystem extends ScheduledGameSystem {
 
     static Logger log = LoggerFactory.getLogger(EnergySystem.class);
 
     private EntityData ed;
     private EntitySet living;
     private EntitySet changes;
-    private final Map<EntityId, Integer> health = new HashMap<>();
+    private final EnergyLedger ledger = new EnergyLedger();
+    private final LongIntMap.EntryConsumer applyDelta = this::applyDelta;
     private EntitySet recharges;
     private EntitySet maxLiving;
+    private SimTime time;
 
     public EnergySystem() {
     }
@@ -94,7 +96,14 @@ public class EnergySystem extends AbstractGameSystem {
     }
 
     @Override
-    public void update(final SimTime time) {
+    public SystemAccess getAccess() {
+        return SystemAccess.reads(Energy.class, EnergyMax.class, Recharge.class)
+                .andWrites(Energy.class, Dead.class, Buff.class, HealthChange.class);
+    }
+
+    @Override
+    protected void step(final SimTime time) {
+        this.time = time;
 
         // We accumulate all health adjustments together that are
         // in effect at this time... and then apply them all at once.
@@ -102,25 +111,14 @@ public class EnergySystem extends AbstractGameSystem {
         // now.
         living.applyChanges();
         maxLiving.applyChanges();
-        changes.applyChanges();
 
-        // Collect all of the relevant health updates
+        // Move any health change entities into the ledger, the ledger holds on
+        // to the delayed ones until they are due
+        changes.applyChanges();
         for (final Entity e : changes) {
             final Buff b = e.get(Buff.class);
-
-            // Does the buff apply yet
-            if (b.getStartTime() > time.getTime()) {
-                continue;
-            }
-
             final HealthChange change = e.get(HealthChange.class);
-            Integer hp = health.get(b.getTarget());
-            if (hp == null) {
-                hp = Integer.valueOf(change.getDelta());
-            } else {
-                hp = Integer.valueOf(hp.intValue() + change.getDelta());
-            }
-            health.put(b.getTarget(), hp);
+            ledger.addDelta(b.getTarget().getId(), change.getDelta(), b.getStartTime());
 
             // Delete the buff entity
             ed.removeEntity(e.getId());
@@ -128,67 +126,49 @@ public class EnergySystem extends AbstractGameSystem {
 
         // Perform recharges
         recharges.applyChanges();
+        final double tpf = time.getTpf();
         for (final Entity e : recharges) {
-
-            if (maxLiving.containsId(e.getId())) {
-                if (getHealth(e.getId()) < getMaxHealth(e.getId())) {
-                    final double tpf = time.getTpf();
-                    final Recharge recharge = e.get(Recharge.class);
-                    final int charge = Math.toIntExact(Math.round(tpf * recharge.getRechargePerSecond()));
-                    createHealthChange(e.getId(), charge);
-                }
-            } else {
-                final double tpf = time.getTpf();
-                final Recharge recharge = e.get(Recharge.class);
-                final int charge = Math.toIntExact(Math.round(tpf * recharge.getRechargePerSecond()));
-                createHealthChange(e.getId(), charge);
+            if (maxLiving.containsId(e.getId()) && getHealth(e.getId()) >= getMaxHealth(e.getId())) {
+                continue;
             }
+            final Recharge recharge = e.get(Recharge.class);
+            final int charge = Math.toIntExact(Math.round(tpf * recharge.getRechargePerSecond()));
+            createHealthChange(e.getId(), charge);
         }
 
-        // Now apply all accumulated adjustments
-        for (final Map.Entry<EntityId, Integer> entry : health.entrySet()) {
-            final Entity target = living.getEntity(entry.getKey());
+        // Now apply all accumulated adjustments that are due
+        ledger.drain(time.getTime(), applyDelta);
+    }
 
-            if (target == null) {
-                log.warn("No target for id:" + entry.getKey());
-                continue;
-            }
+    private void applyDelta(final long targetId, final int delta) {
+        final EntityId id = new EntityId(targetId);
+        final Entity target = living.getEntity(id);
 
-            Energy hp = target.get(Energy.class);
-
-            // if (log.isInfoEnabled()) {
-            // log.info("Applying " + entry.getValue() + " to:" + target + " result:" + hp);
-            // }
-
-            // If we dont have a max hitpoint, just set new hp
-            if (!maxLiving.containsId(target.getId())) {
-                hp = hp.newAdjusted(entry.getValue().intValue());
-            } // If we do have a maximum
-            else {
-                final EnergyMax maxHp = maxLiving.getEntity(target.getId()).get(EnergyMax.class);
-                // Check if we go above max hp
-                if (entry.getValue().intValue() <= maxHp.getMaxHealth()) {
-                    hp = hp.newAdjusted(entry.getValue().intValue());
-                } // Otherwise, set new hp
-                else {
-                    hp = hp.newAdjusted(maxHp.getMaxHealth());
-                }
-            }
+        if (target == null) {
+            log.warn("No target for id:" + id);
+            return;
+        }
 
-            target.set(hp);
+        Energy hp = target.get(Energy.class).newAdjusted(delta);
 
-            if (hp.getHealth() <= 0) {
-                System.out.println(target + " is dead");
-                // don't set death if it is already dead.
-                if (ed.getComponent(target.getId(), Dead.class) == null) {
-                    target.set(new Dead(time.getTime()));
-                }
+        // If we have a maximum, make sure we do not go above it
+        final Entity maxTarget = maxLiving.getEntity(id);
+        if (maxTarget != null) {
+            final int maxHp = maxTarget.get(EnergyMax.class).getMaxHealth();
+            if (hp.getHealth() > maxHp) {
+                hp = new Energy(maxHp);
             }
         }
 
-        // Clear our health book-keeping map.
-        health.clear();
+        target.set(hp);
 
+        if (hp.getHealth() <= 0) {
+            log.info(target + " is dead");
+            // don't set death if it is already dead.
+            if (ed.getComponent(id, Dead.class) == null) {
+                target.set(new Dead(time.getTime()));
+            }
+        }
     }
 
     /**
@@ -221,7 +201,16 @@ public class EnergySystem extends AbstractGameSystem {
      *                       negative)
      */
     public void createHealthChange(final EntityId eId, final int deltaHitPoints) {
-        final EntityId healthChange = ed.createEntity();
-        ed.setComponents(healthChange, new Buff(eId, 0), new HealthChange(deltaHitPoints));
+        ledger.addDelta(eId.getId(), deltaHitPoints, 0);
+    }
+
+    /**
+     * @param eId            the entity to create a health change for
+     * @param deltaHitPoints the change in hitpoints (can be both positive an
+     *                       negative)
+     * @param startTime      the sim time at which the change applies
+     */
+    public void createHealthChange(final EntityId eId, final int deltaHitPoints, final long startTime) {
+        ledger.addDelta(eId.getId(), deltaHitPoints, startTime);
     }
 }
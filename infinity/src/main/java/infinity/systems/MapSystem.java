@@ -26,12 +26,9 @@
 package infinity.systems;
 
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.LinkedList;
-import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,8 +42,14 @@ import com.simsilica.es.EntityId;
 import com.simsilica.es.EntitySet;
 import com.simsilica.ext.mphys.MPhysSystem;
 import com.simsilica.mathd.Vec3d;
+import com.simsilica.mathd.Vec3i;
+import com.simsilica.mblock.MaskUtils;
 import com.simsilica.mblock.phys.MBlockShape;
 import com.simsilica.mphys.PhysicsSpace;
+import com.simsilica.mworld.CellChangeListener;
+import com.simsilica.mworld.Coordinates;
+import com.simsilica.mworld.LeafData;
+import com.simsilica.mworld.LeafInfo;
 import com.simsilica.sim.AbstractGameSystem;
 import com.simsilica.sim.SimTime;
 
@@ -54,10 +57,19 @@ import infinity.es.BodyPosition;
 import infinity.es.TileType;
 import infinity.es.TileTypes;
 import infinity.map.InfinityDefaultWorld;
+import infinity.map.LeafChangeListener;
+import infinity.map.LegacyMapImport;
 import infinity.map.LevelFile;
 import infinity.map.LevelLoader;
+import infinity.map.RegionIndex;
+import infinity.map.TileIndex;
 import infinity.server.AssetLoaderService;
+import infinity.server.FileLeafDb;
 import infinity.sim.GameEntities;
+import infinity.sim.InfinityMBlockCollisionSystem;
+import infinity.util.CommandQueue;
+import infinity.util.LongObjectMap;
+import infinity.util.RateLimiter;
 
 /**
  * State
@@ -80,13 +92,24 @@ public class MapSystem extends AbstractGameSystem {
     // private BinEntityManager binEntityManager;
     private SimTime time;
 
-    private final java.util.Map<Vec3d, EntityId> index = new ConcurrentHashMap<>();
+    // Only touched from the sim thread, session edits come in through the queue
+    private final TileIndex index = new TileIndex();
+    private final TileIndex.RemaskListener wangBlobUpdater = this::updateWangBlobIndex;
     public static final int MAP_SIZE = 1024;
     private static final int HALF = 512;
     private EntitySet tileTypes;
 
-    private final LinkedHashSet<Vec3d> sessionTileRemovals = new LinkedHashSet<>();
-    private final LinkedHashSet<Vec3d> sessionTileCreations = new LinkedHashSet<>();
+    // Tile creations and removals share one queue so they are applied in the
+    // order they were requested. The entity id slot holds the packed tile key.
+    private final CommandQueue<Void> sessionTileEdits = new CommandQueue<>("tiles", 1 << 16);
+    private final CommandQueue.Handler<Void> tileEditHandler = this::handleTileEdit;
+
+    public static final long DEFAULT_IMPORT_BUDGET = 4000000L;
+
+    // Placed tiles look like tile 1 of a legacy map but are stored under their
+    // own map id, so they can be told apart from the map walls after a restart
+    private static final int PLACED_MAP_ID = 21;
+    private static final int PLACED_TILE_VALUE = 1 | (PLACED_MAP_ID << 8);
 
     public static final float NOISE4J_CORRIDOR = 0f;
     public static final float NOISE4J_FLOOR = 0.5f;
@@ -94,7 +117,21 @@ public class MapSystem extends AbstractGameSystem {
     private final AssetLoaderService assetLoader;
     private boolean mapCreated = false;
     private LinkedList<MapTileCallable> mapTileQueue;
+    // Legacy maps being imported, committed a few leaves per frame
+    private final LinkedList<LegacyMapImport> mapImports = new LinkedList<>();
+    private long importBudget = DEFAULT_IMPORT_BUDGET;
+    // Regions of the loaded legacy map and where the map was placed
+    private RegionIndex regions;
+    private Vec3d regionOffset;
     private InfinityDefaultWorld world;
+    private InfinityMBlockCollisionSystem tiles;
+    private FileLeafDb leafStore;
+    // Leaves looked up by isSolid(), NO_LEAF marks leaves that do not exist
+    private static final Object NO_LEAF = new Object();
+    private final LongObjectMap<Object> solidLeaves = new LongObjectMap<>();
+    private volatile boolean solidLeavesStale;
+    private final LeafChangeListener leafInvalidator = this::leafChanged;
+    private final CellChangeListener cellInvalidator = event -> solidLeavesStale = true;
     // private final boolean logged = false;
 
     public MapSystem(final AssetLoaderService assetLoader) {
@@ -125,6 +162,16 @@ public class MapSystem extends AbstractGameSystem {
             throw new RuntimeException(getClass().getName() + " system requires the World system.");
         }
 
+        tiles = getSystem(InfinityMBlockCollisionSystem.class);
+        if (tiles == null) {
+            throw new RuntimeException(getClass().getName() + " system requires the InfinityMBlockCollisionSystem.");
+        }
+        // Optional, without it the placed tiles are lost on every restart
+        leafStore = getSystem(FileLeafDb.class);
+
+        world.addLeafChangeListener(leafInvalidator);
+        world.addCellChangeListener(cellInvalidator);
+
         space = physics.getPhysicsSpace();
         // binIndex = space.getBinIndex();
         // binEntityManager = physics.getBinEntityManager();
@@ -191,153 +238,240 @@ public class MapSystem extends AbstractGameSystem {
      * @param arenaOffset where to position the map
      */
     public void createEntitiesFromLegacyMap(final LevelFile map, final Vec3d arenaOffset) {
-        final Set<Integer> tileSet = new HashSet<>();
-        final short[][] tiles = map.getMap();
-        // int count = 0;
-
-        // for (int xpos = 510; xpos < 516; xpos++) {
-        for (int xpos = 0; xpos < tiles.length; xpos++) {
-            // for (int zpos = 260; zpos >= 250; zpos--) {
-            for (int zpos = 0; zpos < tiles[xpos].length; zpos++) {
-                short s = tiles[1024 - xpos - 1][1024 - zpos - 1];
-                if (s != 0) {
-                    // TODO: Check on the short and only create the map tiles, not the extras
-                    // (asteroids, wormholes etc.)
-                    /*
-                     * TILE STATUS Row 2, tile 1 - Border tile Row 9, tile 10 - Vertical warpgate
-                     * (Mostly open) Row 9, tile 11 - Vertical warpgate (Frequently open) Row 9,
-                     * tile 12 - Vertical warpgate (Frequently closed) Row 9, tile 13 - Vertical
-                     * warpgate (Mostly closed) Row 9, tile 14 - Horizontal warpgate (Mostly open)
-                     * Row 9, tile 15 - Horizontal warpgate (Frequently open) Row 9, tile 16 -
-                     * Horizontal warpgate (Frequently closed) Row 9, tile 17 - Horizontal warpgate
-                     * (Mostly closed) 170 DONE Row 9, tile 18 - Flag for turf Row 9, tile 19 -
-                     * Safezone Row 10, tile 1 - Soccer goal (leave blank if you want) Row 10, tile
-                     * 2 - Flyover tile Row 10, tile 3 - Flyover tile Row 10, tile 4 - Flyover tile
-                     * Row 10, tile 5 - Flyunder (opaque) tile Row 10, tile 6 - Flyunder (opaque)
-                     * tile Row 10, tile 7 - Flyunder (opaque) tile Row 10, tile 8 - Flyunder
-                     * (opaque) tile Row 10, tile 9 - Flyunder (opaque) tile Row 10, tile 10 -
-                     * Flunder (opaque) tile Row 10, tile 11 - Flyunder (opaque) tile Row 10, tile
-                     * 12 - Flyunder (opaque) tile Row 10, tile 13 - Flyunder (black = transparent)
-                     * tile Row 10, tile 14 - Flyunder (black = transparent) tile Row 10, tile 15 -
-                     * Flyunder (black = transparent) tile Row 10, tile 16 - Flyunder (black =
-                     * transparent) tile Row 10, tile 17 - Flyunder (black = transparent) tile Row
-                     * 10, tile 18 - Flyunder (black = transparent) tile Row 10, tile 19 - Flyunder
-                     * (black = transparent) tile
-                     *
-                     * /* VIE tile constants.
-                     *
-                     * public static final char vieNoTile = 0;
-                     *
-                     * public static final char vieNormalStart = 1; public static final char
-                     * vieBorder = 20; // Borders are not included in the .lvl files public static
-                     * final char vieNormalEnd = 161; // Tiles up to this point are part of sec.chk
-                     *
-                     * public static final char vieVDoorStart = 162; public static final char
-                     * vieVDoorEnd = 165;
-                     *
-                     * public static final char vieHDoorStart = 166; public static final char
-                     * vieHDoorEnd = 169;
-                     *
-                     * public static final char vieTurfFlag = 170;
-                     *
-                     * public static final char vieSafeZone = 171; // Also included in sec.chk
-                     *
-                     * public static final char vieGoalArea = 172;
-                     *
-                     * public static final char vieFlyOverStart = 173; public static final char
-                     * vieFlyOverEnd = 175; public static final char vieFlyUnderStart = 176; public
-                     * static final char vieFlyUnderEnd = 190;
-                     *
-                     * public static final char vieAsteroidStart = 216; public static final char
-                     * vieAsteroidEnd = 218;
-                     *
-                     * public static final char vieStation = 219;
-                     *
-                     * public static final char vieWormhole = 220;
-                     *
-                     * public static final char ssbTeamBrick = 221; // These are internal public
-                     * static final char ssbEnemyBrick = 222;
-                     *
-                     * public static final char ssbTeamGoal = 223; public static final char
-                     * ssbEnemyGoal = 224;
-                     *
-                     * public static final char ssbTeamFlag = 225; public static final char
-                     * ssbEnemyFlag = 226;
-                     *
-                     * public static final char ssbPrize = 227;
-                     *
-                     * public static final char ssbBorder = 228; // Use ssbBorder instead of
-                     * vieBorder to fill border
-                     *
-                     * 20: Border 162: Door Horizontal 1 163: Door Horizontal 2 164: Door Horizontal
-                     * 3 165: Door Horizontal 4 166: Door Vertical 1 167: Door Vertical 2 168: Door
-                     * Vertical 3 169: Door Vertical 4 170: flag 171: safe 172: goal 173: fly over 1
-                     * 174: fly over 2 175: fly over 3 176: fly Under 1 177: fly Under 2 178: fly
-                     * Under 3 179: fly Under 4 180: fly Under 5 181: fly Under 6 182: fly Under 7
-                     * 183: fly Under 8 184: fly Under 9 185: fly Under 10 186: fly Under 11 187:
-                     * fly Under 12 188: fly Under 13 189: fly Under 14 190: fly Under 15 191:
-                     * invisible, Ships go through, items bounce off, Thors go through if you fire
-                     * an item while in it, it will float suspended in space. 192: invisible 193:
-                     * invisible 194: invisible 195: invisible 196: invisible 197: invisible 198:
-                     * invisible 199: invisible 200: invisible 201: invisible 202: invisible 203:
-                     * invisible 204: invisible 205: invisible 206: invisible 207: invisible 216:
-                     * small Asteroid 217: large Asteroid 218: small Asteroid 2 219: space Station
-                     * 220: wormhole 240: invisible 241: absorbs weapons, invisible 242: warp on
-                     * contact, not on radar, invisible 242: not on radar, invisible 243: not on
-                     * radar, invisible 244: not on radar, invisible 245: not on radar, invisible
-                     * 246: not on radar, invisible 247: not on radar, invisible 248: not on radar,
-                     * invisible 249: not on radar, invisible 250: not on radar, invisible 251:
-                     * invisible, not on radar, warps ship on contact, items bounce off, thors
-                     * dissappear 252: animated enemy brick, visible, not on radar. Items go
-                     * through, ship gets warped after 0-2 seconds 253: animated team brick.
-                     * Visible, invisible on radar. Items and ship go through. 254: invisible, not
-                     * on radar. Impossible to lay bricks while on/near it. 255: animated green.
-                     * visible, not on radar. Items and ship go through.
-                     *
-                     */
-
-                    if (s > 190) {
-                        // TODO: will handle special tiles later
-                        s = 1;
-                    }
-
-                    final Vec3d bottomPlane = new Vec3d(xpos, 0, zpos).add(arenaOffset);
-                    // Vec3d topPlane = new Vec3d(xpos, 1, -zpos).add(arenaOffset);
-
-                    // final Vec3i i = new Vec3i(bottomPlane.toVector3f());
-
-                    final int mapId = 20;
-                    final int tileId = Short.toUnsignedInt(s);
-                    tileSet.add(Integer.valueOf(tileId));
+        final LegacyMapImport mapImport = new LegacyMapImport(map.m_file, map.getMap(), arenaOffset,
+                MapSystem::legacyCellValue);
+        if (leafStore != null) {
+            // The map comes fresh from the file, the tiles placed on it in an
+            // earlier run from the stored leaves
+            mapImport.keepPlacedTiles(leafStore::loadStoredLeaf, PLACED_TILE_VALUE);
+        }
+        mapImport.start(ForkJoinPool.commonPool());
+        mapImports.add(mapImport);
+    }
 
-                    final int value = tileId | (mapId << 8);
-                    // log.info("createEntitiesFromLegacyMap:: value = " + value + " <= (Tile,Map) =
-                    // (" + tileId + "," + mapId + ") - Coords: " + i);
-                    // value = InfinityMaskUtils.setSideMask(value, DirectionMasks.UP_MASK);
-                    world.setWorldCell(bottomPlane, value);
+    /**
+     * Recreates the tile entities of the tiles placed in an earlier run outside
+     * of the imported maps. Inside the maps the imports carry them over.
+     */
+    private void restoreStoredTiles() {
+        if (leafStore == null) {
+            return;
+        }
+        final int type = MaskUtils.getType(PLACED_TILE_VALUE);
+        int count = 0;
+        for (final long leafId : leafStore.getStoredLeafIds()) {
+            boolean imported = false;
+            for (final LegacyMapImport mapImport : mapImports) {
+                imported |= mapImport.containsLeaf(leafId);
+            }
+            final LeafData leaf = imported ? null : leafStore.loadStoredLeaf(leafId);
+            if (leaf == null) {
+                continue;
+            }
+            final Vec3i loc = leaf.getInfo().location;
+            final int j = -loc.y;
+            if (j < 0 || j >= LeafInfo.SIZE) {
+                continue;
+            }
+            updateTiles(leaf);
+            for (int i = 0; i < LeafInfo.SIZE; i++) {
+                for (int k = 0; k < LeafInfo.SIZE; k++) {
+                    if (MaskUtils.getType(leaf.getCell(i, j, k)) == type) {
+                        addTileEntity(loc.x + i, loc.z + k);
+                        count++;
+                    }
+                }
+            }
+        }
+        log.info("Restored " + count + " stored tiles outside of the maps");
+    }
 
-                    // world.setWorldCell(topPlane, 0);
+    private void leafChanged(final LeafData leaf) {
+        solidLeavesStale = true;
+        updateTiles(leaf);
+    }
 
-                    // count++;
-                }
+    /**
+     * Copies the arena layer of a leaf into the tile grid.
+     */
+    private void updateTiles(final LeafData leaf) {
+        if (leaf == null) {
+            return;
+        }
+        final Vec3i loc = leaf.getInfo().location;
+        final int j = -loc.y;
+        if (j < 0 || j >= LeafInfo.SIZE) {
+            return;
+        }
+        for (int i = 0; i < LeafInfo.SIZE; i++) {
+            for (int k = 0; k < LeafInfo.SIZE; k++) {
+                tiles.setSolid(loc.x + i, loc.z + k, MaskUtils.getType(leaf.getCell(i, j, k)) != 0);
             }
         }
+    }
 
-        // Test:
+    /**
+     * Converts a legacy tile id into a world cell value
+     *
+     * @param tileId the unsigned legacy tile id
+     * @return the world cell value, 0 for no tile
+     */
+    private static int legacyCellValue(final int tileId) {
+        if (tileId == 0) {
+            return 0;
+        }
+        // TODO: Check on the short and only create the map tiles, not the extras
+        // (asteroids, wormholes etc.)
         /*
-         * for (int i = 0; i < 380; i++) { short s = (short) (i % 190); Vec3d
-         * bottomPlane = new Vec3d(i % 19, 0, (Math.floor(i / 19))); Vec3d topPlane =
-         * new Vec3d(i % 19, 1, (Math.floor(i / 19))); int mapId = 20; int tileId =
-         * Short.toUnsignedInt(s); tileSet.add(tileId);
+         * TILE STATUS Row 2, tile 1 - Border tile Row 9, tile 10 - Vertical warpgate
+         * (Mostly open) Row 9, tile 11 - Vertical warpgate (Frequently open) Row 9,
+         * tile 12 - Vertical warpgate (Frequently closed) Row 9, tile 13 - Vertical
+         * warpgate (Mostly closed) Row 9, tile 14 - Horizontal warpgate (Mostly open)
+         * Row 9, tile 15 - Horizontal warpgate (Frequently open) Row 9, tile 16 -
+         * Horizontal warpgate (Frequently closed) Row 9, tile 17 - Horizontal warpgate
+         * (Mostly closed) 170 DONE Row 9, tile 18 - Flag for turf Row 9, tile 19 -
+         * Safezone Row 10, tile 1 - Soccer goal (leave blank if you want) Row 10, tile
+         * 2 - Flyover tile Row 10, tile 3 - Flyover tile Row 10, tile 4 - Flyover tile
+         * Row 10, tile 5 - Flyunder (opaque) tile Row 10, tile 6 - Flyunder (opaque)
+         * tile Row 10, tile 7 - Flyunder (opaque) tile Row 10, tile 8 - Flyunder
+         * (opaque) tile Row 10, tile 9 - Flyunder (opaque) tile Row 10, tile 10 -
+         * Flunder (opaque) tile Row 10, tile 11 - Flyunder (opaque) tile Row 10, tile
+         * 12 - Flyunder (opaque) tile Row 10, tile 13 - Flyunder (black = transparent)
+         * tile Row 10, tile 14 - Flyunder (black = transparent) tile Row 10, tile 15 -
+         * Flyunder (black = transparent) tile Row 10, tile 16 - Flyunder (black =
+         * transparent) tile Row 10, tile 17 - Flyunder (black = transparent) tile Row
+         * 10, tile 18 - Flyunder (black = transparent) tile Row 10, tile 19 - Flyunder
+         * (black = transparent) tile
+         *
+         * /* VIE tile constants.
+         *
+         * public static final char vieNoTile = 0;
+         *
+         * public static final char vieNormalStart = 1; public static final char
+         * vieBorder = 20; // Borders are not included in the .lvl files public static
+         * final char vieNormalEnd = 161; // Tiles up to this point are part of sec.chk
+         *
+         * public static final char vieVDoorStart = 162; public static final char
+         * vieVDoorEnd = 165;
+         *
+         * public static final char vieHDoorStart = 166; public static final char
+         * vieHDoorEnd = 169;
+         *
+         * public static final char vieTurfFlag = 170;
+         *
+         * public static final char vieSafeZone = 171; // Also included in sec.chk
+         *
+         * public static final char vieGoalArea = 172;
+         *
+         * public static final char vieFlyOverStart = 173; public static final char
+         * vieFlyOverEnd = 175; public static final char vieFlyUnderStart = 176; public
+         * static final char vieFlyUnderEnd = 190;
+         *
+         * public static final char vieAsteroidStart = 216; public static final char
+         * vieAsteroidEnd = 218;
+         *
+         * public static final char vieStation = 219;
+         *
+         * public static final char vieWormhole = 220;
+         *
+         * public static final char ssbTeamBrick = 221; // These are internal public
+         * static final char ssbEnemyBrick = 222;
+         *
+         * public static final char ssbTeamGoal = 223; public static final char
+         * ssbEnemyGoal = 224;
+         *
+         * public static final char ssbTeamFlag = 225; public static final char
+         * ssbEnemyFlag = 226;
+         *
+         * public static final char ssbPrize = 227;
+         *
+         * public static final char ssbBorder = 228; // Use ssbBorder instead of
+         * vieBorder to fill border
+         *
+         * 20: Border 162: Door Horizontal 1 163: Door Horizontal 2 164: Door Horizontal
+         * 3 165: Door Horizontal 4 166: Door Vertical 1 167: Door Vertical 2 168: Door
+         * Vertical 3 169: Door Vertical 4 170: flag 171: safe 172: goal 173: fly over 1
+         * 174: fly over 2 175: fly over 3 176: fly Under 1 177: fly Under 2 178: fly
+         * Under 3 179: fly Under 4 180: fly Under 5 181: fly Under 6 182: fly Under 7
+         * 183: fly Under 8 184: fly Under 9 185: fly Under 10 186: fly Under 11 187:
+         * fly Under 12 188: fly Under 13 189: fly Under 14 190: fly Under 15 191:
+         * invisible, Ships go through, items bounce off, Thors go through if you fire
+         * an item while in it, it will float suspended in space. 192: invisible 193:
+         * invisible 194: invisible 195: invisible 196: invisible 197: invisible 198:
+         * invisible 199: invisible 200: invisible 201: invisible 202: invisible 203:
+         * invisible 204: invisible 205: invisible 206: invisible 207: invisible 216:
+         * small Asteroid 217: large Asteroid 218: small Asteroid 2 219: space Station
+         * 220: wormhole 240: invisible 241: absorbs weapons, invisible 242: warp on
+         * contact, not on radar, invisible 242: not on radar, invisible 243: not on
+         * radar, invisible 244: not on radar, invisible 245: not on radar, invisible
+         * 246: not on radar, invisible 247: not on radar, invisible 248: not on radar,
+         * invisible 249: not on radar, invisible 250: not on radar, invisible 251:
+         * invisible, not on radar, warps ship on contact, items bounce off, thors
+         * dissappear 252: animated enemy brick, visible, not on radar. Items go
+         * through, ship gets warped after 0-2 seconds 253: animated team brick.
+         * Visible, invisible on radar. Items and ship go through. 254: invisible, not
+         * on radar. Impossible to lay bricks while on/near it. 255: animated green.
+         * visible, not on radar. Items and ship go through.
          *
-         * int value = tileId | (mapId << 8);
-         * log.info("createEntitiesFromLegacyMap:: value = " + value +
-         * " <= (Tile,Map) = (" + tileId + "," + mapId + ") - Coords: " + bottomPlane);
-         * world.setWorldCell(bottomPlane, value); world.setWorldCell(topPlane, 0);
-         * count++; }
          */
-        // log.info("Counted: " + count + " tiles in the world");
-        // log.info("Counted: " + tileSet.size() + " different tiles added to world");
+
+        int s = tileId;
+        if (s > 190) {
+            // TODO: will handle special tiles later
+            s = 1;
+        }
+
+        final int mapId = 20;
+        return s | (mapId << 8);
+    }
+
+    /**
+     * Sets the regions of a legacy map
+     *
+     * @param regions     the regions of the map
+     * @param arenaOffset where the map was positioned
+     */
+    public void setRegions(final RegionIndex regions, final Vec3d arenaOffset) {
+        this.regions = regions;
+        this.regionOffset = arenaOffset;
+    }
+
+    /**
+     * @return the regions of the loaded legacy map, or null
+     */
+    public RegionIndex getRegions() {
+        return regions;
+    }
+
+    /**
+     * Looks up the region flags at a world location, see RegionIndex
+     *
+     * @param x the x-coordinate
+     * @param z the z-coordinate
+     * @return the combined flags of the regions covering the location
+     */
+    public int getRegionFlags(final double x, final double z) {
+        if (regions == null) {
+            return 0;
+        }
+        // Legacy maps are placed mirrored on both axes, see LegacyMapImport
+        final int tileX = MAP_SIZE - 1 - (int) Math.floor(x - regionOffset.x);
+        final int tileY = MAP_SIZE - 1 - (int) Math.floor(z - regionOffset.z);
+        return regions.getFlags(tileX, tileY);
+    }
+
+    /**
+     * Sets how much time per frame is spent storing imported map leaves in the
+     * world
+     *
+     * @param budget the time budget in nanoseconds
+     */
+    public void setImportBudget(final long budget) {
+        this.importBudget = budget;
+    }
+
+    public long getImportBudget() {
+        return importBudget;
     }
 
     /**
@@ -347,11 +481,51 @@ public class MapSystem extends AbstractGameSystem {
      * @return the entityid of the map tile
      */
     public EntityId getEntityId(final Vec3d coord) {
-        return index.get(coord);
+        final long id = index.get((int) Math.round(coord.x - 0.5), (int) Math.round(coord.z - 0.5));
+        return id == TileIndex.NO_ENTITY ? null : new EntityId(id);
+    }
+
+    /**
+     * Checks if a tile cell blocks projectiles, either because a tile was placed
+     * there or because an imported map filled the world cell. Inside the arena
+     * the imported map is answered from the tile grid, elsewhere the world
+     * leaves are cached until the world changes, so this is cheap enough to call
+     * for every cell a projectile crosses.
+     *
+     * @param x the tile x-coordinate
+     * @param z the tile z-coordinate
+     * @return true if the cell is solid
+     */
+    public boolean isSolid(final int x, final int z) {
+        if (index.contains(x, z)) {
+            return true;
+        }
+        if (tiles.contains(x, z)) {
+            return tiles.isSolid(x, z);
+        }
+        if (solidLeavesStale) {
+            solidLeavesStale = false;
+            solidLeaves.clear();
+        }
+        final long leafId = Coordinates.worldToLeafId(x + 0.5, 0.5, z + 0.5);
+        Object cached = solidLeaves.get(leafId);
+        if (cached == null) {
+            final LeafData leaf = world.getLeaf(leafId);
+            cached = leaf == null ? NO_LEAF : leaf;
+            solidLeaves.put(leafId, cached);
+        }
+        if (cached == NO_LEAF) {
+            return false;
+        }
+        final LeafData leaf = (LeafData) cached;
+        final Vec3i loc = leaf.getInfo().location;
+        return MaskUtils.getType(leaf.getCell(x - loc.x, -loc.y, z - loc.z)) != 0;
     }
 
     @Override
     protected void terminate() {
+        world.removeLeafChangeListener(leafInvalidator);
+        world.removeCellChangeListener(cellInvalidator);
         // Release reader object
         // reader = null;
 
@@ -366,53 +540,32 @@ public class MapSystem extends AbstractGameSystem {
 
         // Create map:
         if (!mapCreated) {
-            createEntitiesFromLegacyMap(loadMap("Maps/aswz/aswz.lvl"), new Vec3d(-MAP_SIZE * 0.5, 0, -MAP_SIZE * 0.5));
+            final LevelFile level = loadMap("Maps/aswz/aswz.lvl");
+            final Vec3d levelOffset = new Vec3d(-MAP_SIZE * 0.5, 0, -MAP_SIZE * 0.5);
+            createEntitiesFromLegacyMap(level, levelOffset);
+            setRegions(new RegionIndex(level.getRegions()), levelOffset);
             // createEntitiesFromLegacyMap(loadMap("Maps/tunnelbase.lvl"), new
             // Vec3d(-MAP_SIZE, 0, MAP_SIZE));
             // createEntitiesFromLegacyMap(loadMap("Maps/trench.lvl"), new
             // Vec3d(-HALF,HALF,0 , 0));
             // createEntitiesFromMap(loadMap("Maps/turretwarz.lvl"), new
             // Vec3d(0,MAP_SIZE,0,0));
+            restoreStoredTiles();
             mapCreated = true;
         }
 
-        for (final Vec3d remove : sessionTileRemovals) {
-            final Vec3d clampedLocation = getKey(remove);
-
-            if (index.containsKey(clampedLocation)) {
-                final EntityId eId = index.get(clampedLocation);
-                ed.removeEntity(eId);
-
-                index.remove(remove);
+        // Store the imported map leaves that are ready, within the frame budget
+        if (!mapImports.isEmpty() && mapImports.peek().commit(world, importBudget)) {
+            for (final long cell : mapImports.pop().getPlacedTiles()) {
+                addTileEntity(TileIndex.unpackX(cell), TileIndex.unpackZ(cell));
             }
-            // Update surrounding tiles
-            final ArrayList<Vec3d> locations = new ArrayList<>();
-            locations.add(clampedLocation);
-            updateWangBlobIndexNumber(locations, true, false);
-        }
-        sessionTileRemovals.clear();
-
-        for (final Vec3d create : sessionTileCreations) {
-            // Clamp location
-            final Vec3d clampedLocation = getKey(create);
-            if (index.containsKey(clampedLocation)) {
-                // A map entity already exists here
-                continue;
-            }
-
-            final ArrayList<Vec3d> locations = new ArrayList<>();
-            locations.add(clampedLocation);
-
-            final EntityId eId = ed.createEntity();
-
-            index.put(clampedLocation, eId);
-
-            final short tileIndexNumber = updateWangBlobIndexNumber(locations, true, true);
+        }
 
-            GameEntities.updateWangBlobEntity(ed, eId, space, time.getTime(), eId, "", tileIndexNumber,
-                    new Vec3d(clampedLocation.x, 0, clampedLocation.z));
+        // An import replaces whole leaves, edits wait until it is done so they
+        // are not overwritten
+        if (mapImports.isEmpty()) {
+            sessionTileEdits.drain(tileEditHandler);
         }
-        sessionTileCreations.clear();
 
         // Create the legacy maps in an ordered fashion instead of all at once:
         if (mapTileQueue.size() > 0) {
@@ -433,133 +586,80 @@ public class MapSystem extends AbstractGameSystem {
         }
     }
 
-    /**
-     * Updates the wang blob index number in the locations given
-     *
-     * @param locations the clamped locations to update wangblob tile index number
-     *                  for
-     * @param cascade   cascade to surrounding tiles
-     * @param create    create or remove tile
-     * @return the tileindex of the current tile being updated
-     */
-    private short updateWangBlobIndexNumber(final ArrayList<Vec3d> locations, final boolean cascade,
-            final boolean create) {
-        int result = 0;
-        final ArrayList<Vec3d> cascadedLocations = new ArrayList<>();
-
-        for (final Vec3d clampedLocation : locations) {
-            int north = 0, northEast = 0, east = 0, southEast = 0, south = 0, southWest = 0, west = 0, northWest = 0;
-
-            north = 0;
-            final Vec3d northKey = clampedLocation.clone().add(0, 0, 1);
-            if (index.containsKey(northKey)) {
-                north = 1;
-                if (cascade) {
-                    cascadedLocations.add(northKey);
-                }
-            }
-
-            northEast = 0;
-            final Vec3d northEastKey = clampedLocation.clone().add(1, 0, 1);
-            if (index.containsKey(northEastKey)) {
-                northEast = 1;
-                if (cascade) {
-                    cascadedLocations.add(northEastKey);
-                }
-            }
-
-            east = 0;
-            final Vec3d eastKey = clampedLocation.clone().add(1, 0, 0);
-            if (index.containsKey(eastKey)) {
-                east = 1;
-                if (cascade) {
-                    cascadedLocations.add(eastKey);
-                }
-            }
-
-            southEast = 0;
-            final Vec3d southEastKey = clampedLocation.clone().add(1, 0, -1);
-            if (index.containsKey(southEastKey)) {
-                southEast = 1;
-                if (cascade) {
-                    cascadedLocations.add(southEastKey);
-                }
-            }
-
-            south = 0;
-            final Vec3d southKey = clampedLocation.clone().add(0, 0, -1);
-            if (index.containsKey(southKey)) {
-                south = 1;
-                if (cascade) {
-                    cascadedLocations.add(southKey);
-                }
-            }
-
-            southWest = 0;
-            final Vec3d southWestKey = clampedLocation.clone().add(-1, 0, -1);
-            if (index.containsKey(southWestKey)) {
-                southWest = 1;
-                if (cascade) {
-                    cascadedLocations.add(southWestKey);
-                }
-            }
-
-            west = 0;
-            final Vec3d westKey = clampedLocation.clone().add(-1, 0, 0);
-            if (index.containsKey(westKey)) {
-                west = 1;
-                if (cascade) {
-                    cascadedLocations.add(westKey);
-                }
-            }
-
-            northWest = 0;
-            final Vec3d northWestkey = clampedLocation.clone().add(-1, 0, 1);
-            if (index.containsKey(northWestkey)) {
-                northWest = 1;
-                if (cascade) {
-                    cascadedLocations.add(northWestkey);
-                }
-            }
-
-            if (north == 0) {
-                northEast = 0;
-                northWest = 0;
-            }
-
-            if (west == 0) {
-                northWest = 0;
-                southWest = 0;
-            }
+    private void handleTileEdit(final long tileKey, final int command, final Void unused) {
+        final int x = TileIndex.unpackX(tileKey);
+        final int z = TileIndex.unpackZ(tileKey);
+        switch (command) {
+        case DELETE:
+            removeTile(x, z);
+            break;
+        case CREATE:
+            createTile(x, z);
+            break;
+        default:
+            log.warn("Unsupported tile command " + command + " at " + x + ", " + z);
+            break;
+        }
+    }
 
-            if (south == 0) {
-                southEast = 0;
-                southWest = 0;
-            }
+    private void removeTile(final int x, final int z) {
+        final long id = index.remove(x, z);
+        if (id == TileIndex.NO_ENTITY) {
+            // Only placed tiles are removed, the walls of the map stay
+            return;
+        }
+        setArenaCell(x, z, 0);
+        ed.removeEntity(new EntityId(id));
+        // Update surrounding tiles
+        index.remaskNeighbours(x, z, wangBlobUpdater);
+    }
 
-            if (east == 0) {
-                southEast = 0;
-                northEast = 0;
-            }
+    private void createTile(final int x, final int z) {
+        if (isSolid(x, z)) {
+            // A placed tile or a wall of the map already exists here
+            return;
+        }
 
-            result = north + 2 * northEast + 4 * east + 8 * southEast + 16 * south + 32 * southWest + 64 * west
-                    + 128 * northWest;
+        // The world keeps the cell over restarts, where the entity is recreated
+        // from it
+        setArenaCell(x, z, PLACED_TILE_VALUE);
+        addTileEntity(x, z);
+    }
 
-            if (create || !cascade) {
+    /**
+     * Creates the entity of a placed tile whose world cell is already set.
+     */
+    private void addTileEntity(final int x, final int z) {
+        if (index.contains(x, z)) {
+            return;
+        }
+        final EntityId eId = ed.createEntity();
+        index.put(x, z, eId.getId());
 
-                final EntityId currentEntity = index.get(clampedLocation);
-                final TileType tt = TileTypes.wangblob("", (short) result, ed);
+        final short tileIndexNumber = (short) index.getWangBlobIndex(x, z);
 
-                ed.setComponent(currentEntity, tt);
-            }
+        GameEntities.updateWangBlobEntity(ed, eId, space, time.getTime(), eId, "", tileIndexNumber,
+                new Vec3d(x + 0.5, 0, z + 0.5));
 
-        }
+        // Update surrounding tiles
+        index.remaskNeighbours(x, z, wangBlobUpdater);
+    }
 
-        if (cascade && cascadedLocations.size() > 0) {
-            updateWangBlobIndexNumber(cascadedLocations, false, create);
-        }
+    /**
+     * Stores a cell of the arena layer in the world, where it is saved along with
+     * its leaf, and in the tile grid.
+     */
+    private void setArenaCell(final int x, final int z, final int value) {
+        world.setWorldCell(new Vec3d(x + 0.5, 0, z + 0.5), value);
+        tiles.setSolid(x, z, value != 0);
+    }
 
-        return (short) result;
+    /**
+     * Sets the wang blob tile type of a tile whose neighbours changed
+     */
+    private void updateWangBlobIndex(final int x, final int z, final long entityId, final int wangBlobIndex) {
+        final TileType tt = TileTypes.wangblob("", (short) wangBlobIndex, ed);
+        ed.setComponent(new EntityId(entityId), tt);
     }
 
     @Override
@@ -573,25 +673,25 @@ public class MapSystem extends AbstractGameSystem {
     }
 
     /**
-     * Returns a tile location key based on a Vec3d
+     * Queue up a tile for removal
      *
-     * @param location the Vec3d to clamp
-     * @return the clamped Vec3d location
+     * @param x the x-coordinate
+     * @param z the y-coordinate
      */
-    private Vec3d getKey(final Vec3d location) {
-        final Vec3d coordinates = new Vec3d(Math.round(location.x - 0.5) + 0.5, 0, Math.round(location.z - 0.5) + 0.5);
-        return coordinates;
+    public void sessionRemoveTile(final double x, final double z) {
+        sessionRemoveTile(x, z, null);
     }
 
     /**
-     * Queue up a tile for removal
+     * Queue up a tile for removal from a connection
      *
-     * @param x the x-coordinate
-     * @param z the y-coordinate
+     * @param x       the x-coordinate
+     * @param z       the y-coordinate
+     * @param limiter the rate limiter of the connection, can be null
+     * @return true if the removal was queued, false if it was dropped
      */
-    public void sessionRemoveTile(final double x, final double z) {
-        final Vec3d clampedLocation = getKey(new Vec3d(x, 0, z));
-        sessionTileRemovals.add(clampedLocation);
+    public boolean sessionRemoveTile(final double x, final double z, final RateLimiter limiter) {
+        return sessionTileEdits.offer(packTileKey(x, z), DELETE, null, limiter);
     }
 
     /**
@@ -601,8 +701,34 @@ public class MapSystem extends AbstractGameSystem {
      * @param z the y-coordinate
      */
     public void sessionCreateTile(final double x, final double z) {
-        final Vec3d clampedLocation = getKey(new Vec3d(x, 0, z));
-        sessionTileCreations.add(clampedLocation);
+        sessionCreateTile(x, z, null);
+    }
+
+    /**
+     * Queue up a tile for creation from a connection
+     *
+     * @param x       the x-coordinate
+     * @param z       the y-coordinate
+     * @param limiter the rate limiter of the connection, can be null
+     * @return true if the creation was queued, false if it was dropped
+     */
+    public boolean sessionCreateTile(final double x, final double z, final RateLimiter limiter) {
+        return sessionTileEdits.offer(packTileKey(x, z), CREATE, null, limiter);
+    }
+
+    /**
+     * @return the queue that session tile edits go through, for stats
+     */
+    public CommandQueue<Void> getSessionTileQueue() {
+        return sessionTileEdits;
+    }
+
+    /**
+     * Packs the tile cell containing the coordinates into a long, see
+     * TileIndex.pack()
+     */
+    private static long packTileKey(final double x, final double z) {
+        return TileIndex.pack((int) Math.round(x - 0.5), (int) Math.round(z - 0.5));
     }
 
     @SuppressWarnings("unused")
@@ -771,25 +897,22 @@ public class MapSystem extends AbstractGameSystem {
         final Vec3d loc = new Vec3d(locX, 0, locZ);
         final ArrayList<Vec3d> result = new ArrayList<>();
 
-        final Vec3d west = new Vec3d(loc.x - 1, 0, loc.z);
-        final Vec3d east = new Vec3d(loc.x + 1, 0, loc.z);
-        final Vec3d north = new Vec3d(loc.x, 0, loc.z + 1);
-        final Vec3d south = new Vec3d(loc.x, 0, loc.z - 1);
+        final int mask = index.neighbourMask((int) Math.round(locX - 0.5), (int) Math.round(locZ - 0.5));
         // ((Check west))
-        if (index.containsKey(west)) {
-            result.add(west);
+        if ((mask & TileIndex.WEST) != 0) {
+            result.add(new Vec3d(loc.x - 1, 0, loc.z));
         }
         // ((Check east))
-        if (index.containsKey(east)) {
-            result.add(east);
+        if ((mask & TileIndex.EAST) != 0) {
+            result.add(new Vec3d(loc.x + 1, 0, loc.z));
         }
         // ((Check north))
-        if (index.containsKey(north)) {
-            result.add(north);
+        if ((mask & TileIndex.NORTH) != 0) {
+            result.add(new Vec3d(loc.x, 0, loc.z + 1));
         }
         // ((Check south))
-        if (index.containsKey(south)) {
-            result.add(south);
+        if ((mask & TileIndex.SOUTH) != 0) {
+            result.add(new Vec3d(loc.x, 0, loc.z - 1));
         }
 
         return result;
@@ -35,6 +35,10 @@
  */
 package infinity.systems;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -69,6 +73,10 @@ public class MovementSystem extends AbstractGameSystem {
     private PlayerContainer players;
     private final MovementBodyInitializer initializer = new MovementBodyInitializer();
     private PhysicsSpace<EntityId, MBlockShape> space;
+    // One slot per session, swapped as a whole when sessions come and go
+    private volatile MoveSlot[] moveSlots = new MoveSlot[0];
+    private final LongAdder movesReceived = new LongAdder();
+    private final LongAdder movesReplaced = new LongAdder();
     // private EntitySet thors, mines, gravityBombs, bursts, bombs, guns;
     // private EnergySystem health;
 
@@ -134,15 +142,86 @@ public class MovementSystem extends AbstractGameSystem {
 
     @Override
     public void update(final SimTime time) {
+        // Apply the latest movement input each session has sent since last frame
+        for (final MoveSlot slot : moveSlots) {
+            final MovementInput input = slot.latest.getAndSet(null);
+            if (input != null) {
+                ed.setComponent(slot.entityId, input);
+            }
+        }
+
         players.update();
     }
 
+    /**
+     * Opens the slot that a connection posts the movement input of an entity
+     * into. Closed again with closeMoveSlot() when the connection goes away.
+     */
+    public synchronized MoveSlot openMoveSlot(final EntityId entityId) {
+        final MoveSlot slot = new MoveSlot(entityId);
+        final MoveSlot[] current = moveSlots;
+        final MoveSlot[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = slot;
+        moveSlots = next;
+        return slot;
+    }
+
+    public synchronized void closeMoveSlot(final MoveSlot slot) {
+        final MoveSlot[] current = moveSlots;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == slot) {
+                final MoveSlot[] next = new MoveSlot[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, next.length - i);
+                moveSlots = next;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MovementSystem[sessions:" + moveSlots.length + ", moves received:" + movesReceived.sum()
+                + ", replaced before applied:" + movesReplaced.sum() + "]";
+    }
+
     @Override
     public void stop() {
         players.stop();
         players = null;
     }
 
+    /**
+     * Holds the latest movement input a connection has sent for an entity. Only
+     * the latest input matters, so a newer one replaces one the game loop hasn't
+     * applied yet instead of queueing behind it. That keeps a session to at most
+     * one applied input per frame and means a key release is never lost or
+     * overtaken by an older input.
+     */
+    public final class MoveSlot {
+
+        private final EntityId entityId;
+        private final AtomicReference<MovementInput> latest = new AtomicReference<>();
+
+        private MoveSlot(final EntityId entityId) {
+            this.entityId = entityId;
+        }
+
+        public EntityId getEntityId() {
+            return entityId;
+        }
+
+        /**
+         * Posts a movement input, safe to call from any thread.
+         */
+        public void move(final MovementInput input) {
+            movesReceived.increment();
+            if (latest.getAndSet(input) != null) {
+                movesReplaced.increment();
+            }
+        }
+    }
+
     /**
      * All moving ships will be mapped to a driver. We use this to lookup the
      * drivers when we need to fire a weapon on that ship
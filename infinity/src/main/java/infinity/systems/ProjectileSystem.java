@@ -0,0 +1,501 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.systems;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.simsilica.es.Entity;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.EntitySet;
+import com.simsilica.ext.mphys.MPhysSystem;
+import com.simsilica.ext.mphys.ShapeInfo;
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mblock.phys.MBlockShape;
+import com.simsilica.mphys.PhysicsSpace;
+import com.simsilica.mphys.RigidBody;
+import com.simsilica.sim.AbstractGameSystem;
+import com.simsilica.sim.SimTime;
+
+import infinity.es.Damage;
+import infinity.es.Parent;
+import infinity.es.ProjectileMotion;
+import infinity.es.ShapeNames;
+import infinity.es.ship.Energy;
+import infinity.sim.CorePhysicsConstants;
+import infinity.util.LongIntMap;
+
+/**
+ * Moves the bullets, bombs, bursts and thors. Projectiles are not rigid bodies,
+ * they travel in straight lines given by their ProjectileMotion, so their
+ * position at any time is calculated instead of stepped. Every frame the path
+ * a projectile covered is swept against the ships and walked through the tile
+ * grid. Ship hits apply the Damage of the projectile and remove it, tile hits
+ * bounce it off the wall (thors fly through walls).
+ *
+ * The projectiles are kept in parallel arrays indexed by slot, so the frame
+ * loop only touches primitive arrays.
+ *
+ * @author Asser Fahrenholz
+ */
+public class ProjectileSystem extends AbstractGameSystem {
+
+    static Logger log = LoggerFactory.getLogger(ProjectileSystem.class);
+
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+    // Wall bounces resolved per projectile in one frame
+    private static final int MAX_BOUNCES = 4;
+    // How far a bounced projectile is moved off the wall it hit
+    private static final double WALL_OFFSET = 1e-6;
+    private static final int AXIS_NONE = 0;
+    private static final int AXIS_X = 1;
+    private static final int AXIS_Z = 2;
+
+    private EntityData ed;
+    private PhysicsSpace<EntityId, MBlockShape> space;
+    private EnergySystem health;
+    private MapSystem map;
+    private EntitySet projectiles;
+    private EntitySet targets;
+    private int thorShape;
+
+    private final LongIntMap slots = new LongIntMap();
+    private int count;
+    private long[] ids = new long[256];
+    private long[] owners = new long[256];
+    private long[] startTimes = new long[256];
+    private double[] origins = new double[256 * 3];
+    private double[] velocities = new double[256 * 3];
+    private double[] radii = new double[256];
+    private boolean[] ghosts = new boolean[256];
+
+    // The targets as of the end of the current frame, with the x-range each one
+    // covers during the frame. order sorts them by the start of that range.
+    private int targetCount;
+    private long[] targetIds = new long[64];
+    private double[] targetPositions = new double[64 * 3];
+    private double[] targetVelocities = new double[64 * 3];
+    private double[] targetMaxX = new double[64];
+    private int[] order = new int[64];
+    private double[] orderedMinX = new double[64];
+    private double maxTargetWidth;
+
+    private long lastTime = -1;
+    private int hitAxis;
+    private int hitCount;
+    private int bounceCount;
+
+    protected MPhysSystem<MBlockShape> getPhysicsSystem() {
+        final MPhysSystem<?> s = getSystem(MPhysSystem.class);
+        @SuppressWarnings("unchecked")
+        final MPhysSystem<MBlockShape> result = (MPhysSystem<MBlockShape>) s;
+        return result;
+    }
+
+    @Override
+    protected void initialize() {
+        ed = getSystem(EntityData.class);
+        if (ed == null) {
+            throw new RuntimeException(getClass().getName() + " system requires an EntityData object.");
+        }
+        final MPhysSystem<MBlockShape> physics = getPhysicsSystem();
+        if (physics == null) {
+            throw new RuntimeException(getClass().getName() + " system requires the MPhysSystem system.");
+        }
+        space = physics.getPhysicsSpace();
+
+        health = getSystem(EnergySystem.class);
+        if (health == null) {
+            throw new RuntimeException(getClass().getName() + " system requires the EnergySystem system.");
+        }
+        map = getSystem(MapSystem.class);
+        if (map == null) {
+            throw new RuntimeException(getClass().getName() + " system requires the MapSystem system.");
+        }
+
+        thorShape = ShapeInfo.create(ShapeNames.THOR, 1, ed).getShapeId();
+
+        projectiles = ed.getEntities(ProjectileMotion.class, ShapeInfo.class, Parent.class);
+        targets = ed.getEntities(Energy.class);
+    }
+
+    @Override
+    protected void terminate() {
+        projectiles.release();
+        projectiles = null;
+
+        targets.release();
+        targets = null;
+    }
+
+    @Override
+    public void update(final SimTime time) {
+        if (projectiles.applyChanges()) {
+            for (final Entity e : projectiles.getRemovedEntities()) {
+                remove(e.getId().getId());
+            }
+            for (final Entity e : projectiles.getAddedEntities()) {
+                store(e);
+            }
+            for (final Entity e : projectiles.getChangedEntities()) {
+                store(e);
+            }
+        }
+        targets.applyChanges();
+
+        final long now = time.getTime();
+        final long from = lastTime < 0 ? now : lastTime;
+        lastTime = now;
+
+        hitCount = 0;
+        bounceCount = 0;
+        gatherTargets((now - from) / NANOS_PER_SECOND);
+
+        // Backwards, so a projectile moved into a freed slot was already stepped
+        for (int slot = count - 1; slot >= 0; slot--) {
+            step(slot, from, now);
+        }
+    }
+
+    /**
+     * @return the number of live projectiles
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of projectiles that hit a target in the last frame
+     */
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of wall bounces in the last frame
+     */
+    public int getBounceCount() {
+        return bounceCount;
+    }
+
+    private void store(final Entity e) {
+        final long id = e.getId().getId();
+        int slot = slots.get(id, -1);
+        if (slot < 0) {
+            slot = count++;
+            ensureCapacity(count);
+            slots.put(id, slot);
+            ids[slot] = id;
+        }
+        final ProjectileMotion motion = e.get(ProjectileMotion.class);
+        final ShapeInfo shape = e.get(ShapeInfo.class);
+        final Vec3d origin = motion.getOrigin();
+        final Vec3d velocity = motion.getVelocity();
+        final int v = slot * 3;
+        owners[slot] = e.get(Parent.class).getParentEntity().getId();
+        startTimes[slot] = motion.getStartTime();
+        origins[v] = origin.x;
+        origins[v + 1] = origin.y;
+        origins[v + 2] = origin.z;
+        velocities[v] = velocity.x;
+        velocities[v + 1] = velocity.y;
+        velocities[v + 2] = velocity.z;
+        radii[slot] = shape.getScale();
+        ghosts[slot] = shape.getShapeId() == thorShape;
+    }
+
+    private void remove(final long id) {
+        final int slot = slots.get(id, -1);
+        if (slot < 0) {
+            return;
+        }
+        slots.remove(id);
+        final int last = --count;
+        if (slot != last) {
+            // Move the last projectile into the freed slot
+            ids[slot] = ids[last];
+            owners[slot] = owners[last];
+            startTimes[slot] = startTimes[last];
+            System.arraycopy(origins, last * 3, origins, slot * 3, 3);
+            System.arraycopy(velocities, last * 3, velocities, slot * 3, 3);
+            radii[slot] = radii[last];
+            ghosts[slot] = ghosts[last];
+            slots.put(ids[slot], slot);
+        }
+    }
+
+    private void ensureCapacity(final int size) {
+        if (size <= ids.length) {
+            return;
+        }
+        final int capacity = ids.length << 1;
+        ids = Arrays.copyOf(ids, capacity);
+        owners = Arrays.copyOf(owners, capacity);
+        startTimes = Arrays.copyOf(startTimes, capacity);
+        origins = Arrays.copyOf(origins, capacity * 3);
+        velocities = Arrays.copyOf(velocities, capacity * 3);
+        radii = Arrays.copyOf(radii, capacity);
+        ghosts = Arrays.copyOf(ghosts, capacity);
+    }
+
+    private void gatherTargets(final double frame) {
+        targetCount = 0;
+        maxTargetWidth = 0;
+        if (targetIds.length < targets.size()) {
+            final int capacity = Integer.highestOneBit(targets.size()) << 1;
+            targetIds = new long[capacity];
+            targetPositions = new double[capacity * 3];
+            targetVelocities = new double[capacity * 3];
+            targetMaxX = new double[capacity];
+            order = new int[capacity];
+            orderedMinX = new double[capacity];
+        }
+        for (final Entity e : targets) {
+            final RigidBody<EntityId, MBlockShape> body = space.getBinIndex().getRigidBody(e.getId());
+            if (body == null) {
+                continue;
+            }
+            final Vec3d velocity = body.getLinearVelocity();
+            final int v = targetCount * 3;
+            targetIds[targetCount] = e.getId().getId();
+            targetPositions[v] = body.position.x;
+            targetPositions[v + 1] = body.position.y;
+            targetPositions[v + 2] = body.position.z;
+            targetVelocities[v] = velocity.x;
+            targetVelocities[v + 1] = velocity.y;
+            targetVelocities[v + 2] = velocity.z;
+
+            // Insert it by where its x-range starts, there are only a few targets
+            final double startX = body.position.x - velocity.x * frame;
+            final double minX = Math.min(startX, body.position.x);
+            targetMaxX[targetCount] = Math.max(startX, body.position.x);
+            maxTargetWidth = Math.max(maxTargetWidth, targetMaxX[targetCount] - minX);
+            int k = targetCount;
+            while (k > 0 && orderedMinX[k - 1] > minX) {
+                order[k] = order[k - 1];
+                orderedMinX[k] = orderedMinX[k - 1];
+                k--;
+            }
+            order[k] = targetCount;
+            orderedMinX[k] = minX;
+            targetCount++;
+        }
+    }
+
+    /**
+     * @return the first position in order whose target x-range starts at or
+     *         after the value
+     */
+    private int firstTarget(final double minX) {
+        int low = 0;
+        int high = targetCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (orderedMinX[mid] < minX) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Follows a projectile from the later of its start time and the last frame
+     * up to now, resolving the wall bounces and the first ship hit on the way.
+     */
+    private void step(final int slot, final long from, final long now) {
+        final int v = slot * 3;
+        long t0 = Math.max(from, startTimes[slot]);
+        boolean bounced = false;
+
+        for (int bounce = 0; bounce <= MAX_BOUNCES && t0 < now; bounce++) {
+            final double start = (t0 - startTimes[slot]) / NANOS_PER_SECOND;
+            final double dt = (now - t0) / NANOS_PER_SECOND;
+            final double x = origins[v] + velocities[v] * start;
+            final double y = origins[v + 1] + velocities[v + 1] * start;
+            final double z = origins[v + 2] + velocities[v + 2] * start;
+            final double dx = velocities[v] * dt;
+            final double dy = velocities[v + 1] * dt;
+            final double dz = velocities[v + 2] * dt;
+
+            double first = ghosts[slot] ? Double.POSITIVE_INFINITY : castTiles(x, z, dx, dz);
+            final int wallAxis = hitAxis;
+            if (first == 0 && wallAxis == AXIS_NONE) {
+                // Started inside a wall
+                destroy(slot);
+                return;
+            }
+
+            int target = -1;
+            // Only the targets whose x-range overlaps the path can be hit
+            final double reach = radii[slot] + CorePhysicsConstants.SHIPSIZERADIUS;
+            final double low = Math.min(x, x + dx) - reach;
+            final double high = Math.max(x, x + dx) + reach;
+            for (int k = firstTarget(low - maxTargetWidth); k < targetCount && orderedMinX[k] <= high; k++) {
+                final int i = order[k];
+                if (targetMaxX[i] < low || targetIds[i] == owners[slot]) {
+                    continue;
+                }
+                final int p = i * 3;
+                // The target position at t0 and the path relative to the target
+                final double wx = x - (targetPositions[p] - targetVelocities[p] * dt);
+                final double wy = y - (targetPositions[p + 1] - targetVelocities[p + 1] * dt);
+                final double wz = z - (targetPositions[p + 2] - targetVelocities[p + 2] * dt);
+                final double ux = dx - targetVelocities[p] * dt;
+                final double uy = dy - targetVelocities[p + 1] * dt;
+                final double uz = dz - targetVelocities[p + 2] * dt;
+                final double hit = sweep(wx, wy, wz, ux, uy, uz, reach);
+                if (hit < first) {
+                    first = hit;
+                    target = i;
+                }
+            }
+
+            if (target >= 0) {
+                hit(slot, new EntityId(targetIds[target]));
+                return;
+            }
+            if (first > 1) {
+                break;
+            }
+
+            // Bounce off the wall: restart the motion where it hit
+            final long hitTime = t0 + (long) ((now - t0) * first);
+            final double hitStart = (hitTime - startTimes[slot]) / NANOS_PER_SECOND;
+            final int axis = wallAxis == AXIS_X ? v : v + 2;
+            origins[v] = origins[v] + velocities[v] * hitStart;
+            origins[v + 1] = origins[v + 1] + velocities[v + 1] * hitStart;
+            origins[v + 2] = origins[v + 2] + velocities[v + 2] * hitStart;
+            origins[axis] -= Math.signum(velocities[axis]) * WALL_OFFSET;
+            velocities[axis] = -velocities[axis];
+            startTimes[slot] = hitTime;
+            t0 = hitTime;
+            bounced = true;
+            bounceCount++;
+        }
+
+        if (bounced) {
+            // Tell the clients about the new path
+            ed.setComponent(new EntityId(ids[slot]),
+                    new ProjectileMotion(startTimes[slot], new Vec3d(origins[v], origins[v + 1], origins[v + 2]),
+                            new Vec3d(velocities[v], velocities[v + 1], velocities[v + 2])));
+        }
+    }
+
+    private void hit(final int slot, final EntityId target) {
+        final EntityId id = new EntityId(ids[slot]);
+        final Damage damage = ed.getComponent(id, Damage.class);
+        if (damage != null && health.hasEnergy(target)) {
+            health.createHealthChange(target, damage.getDamage());
+        }
+        hitCount++;
+        destroy(slot);
+    }
+
+    private void destroy(final int slot) {
+        final long id = ids[slot];
+        remove(id);
+        ed.removeEntity(new EntityId(id));
+    }
+
+    /**
+     * Finds the earliest point at which a sphere moving along u from w touches
+     * the origin.
+     *
+     * @return the fraction of u at the first touch, or infinity if there is none
+     *         within the path
+     */
+    static double sweep(final double wx, final double wy, final double wz, final double ux, final double uy,
+            final double uz, final double radius) {
+        final double c = wx * wx + wy * wy + wz * wz - radius * radius;
+        if (c <= 0) {
+            return 0;
+        }
+        final double b = wx * ux + wy * uy + wz * uz;
+        if (b >= 0) {
+            // Moving away
+            return Double.POSITIVE_INFINITY;
+        }
+        final double a = ux * ux + uy * uy + uz * uz;
+        final double disc = b * b - a * c;
+        if (disc < 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        final double t = (-b - Math.sqrt(disc)) / a;
+        return t <= 1 ? t : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Walks the tile cells along a path in the xz-plane until it enters a solid
+     * one. The axis of the crossed cell border is left in hitAxis, AXIS_NONE
+     * means the path started in a solid cell.
+     *
+     * @return the fraction of the path at which it entered a solid cell, or
+     *         infinity if it did not
+     */
+    private double castTiles(final double x, final double z, final double dx, final double dz) {
+        int cellX = (int) Math.floor(x);
+        int cellZ = (int) Math.floor(z);
+        hitAxis = AXIS_NONE;
+        if (map.isSolid(cellX, cellZ)) {
+            return 0;
+        }
+
+        final int stepX = dx > 0 ? 1 : dx < 0 ? -1 : 0;
+        final int stepZ = dz > 0 ? 1 : dz < 0 ? -1 : 0;
+        final double deltaX = stepX != 0 ? Math.abs(1 / dx) : Double.POSITIVE_INFINITY;
+        final double deltaZ = stepZ != 0 ? Math.abs(1 / dz) : Double.POSITIVE_INFINITY;
+        double nextX = stepX > 0 ? (cellX + 1 - x) / dx : stepX < 0 ? (cellX - x) / dx : Double.POSITIVE_INFINITY;
+        double nextZ = stepZ > 0 ? (cellZ + 1 - z) / dz : stepZ < 0 ? (cellZ - z) / dz : Double.POSITIVE_INFINITY;
+
+        while (true) {
+            final double t;
+            final int axis;
+            if (nextX < nextZ) {
+                t = nextX;
+                axis = AXIS_X;
+                cellX += stepX;
+                nextX += deltaX;
+            } else {
+                t = nextZ;
+                axis = AXIS_Z;
+                cellZ += stepZ;
+                nextZ += deltaZ;
+            }
+            if (t > 1) {
+                return Double.POSITIVE_INFINITY;
+            }
+            if (map.isSolid(cellX, cellZ)) {
+                hitAxis = axis;
+                return t;
+            }
+        }
+    }
+}
@@ -25,7 +25,8 @@
  */
 package infinity.systems;
 
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.jme3.network.service.HostedServiceManager;
 
@@ -34,23 +35,25 @@ import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import com.simsilica.es.EntitySet;
 import com.simsilica.ext.mphys.ShapeInfo;
-import com.simsilica.sim.AbstractGameSystem;
 import com.simsilica.sim.SimTime;
 
 import infinity.es.Gold;
 import infinity.sim.CoreGameConstants;
+import infinity.sim.ScheduledGameSystem;
+import infinity.sim.SystemAccess;
 
 /**
  * This state is meant to keep track of resources that can be spent.
  *
  * @author ss
  */
-public class ResourceSystem extends AbstractGameSystem {
+public class ResourceSystem extends ScheduledGameSystem {
 
     private EntityData ed;
     private EntitySet ships;
     private double time_since_last_update;
-    private final HashMap<EntityId, Integer> goldMap = new HashMap<>();
+    // Written by step() on a scheduler thread, read by the tower purchases
+    private final Map<EntityId, Integer> goldMap = new ConcurrentHashMap<>();
     // private final HostedServiceManager serviceManager;
 
     public ResourceSystem(@SuppressWarnings("unused") final HostedServiceManager serviceManager) {
@@ -60,7 +63,7 @@ public class ResourceSystem extends AbstractGameSystem {
     @Override
     protected void initialize() {
         ed = getSystem(EntityData.class);
-        ships = ed.getEntities(ShapeInfo.class);
+        ships = ed.getEntities(ShapeInfo.class, Gold.class);
     }
 
     @Override
@@ -70,7 +73,12 @@ public class ResourceSystem extends AbstractGameSystem {
     }
 
     @Override
-    public void update(final SimTime tpf) {
+    public SystemAccess getAccess() {
+        return SystemAccess.reads(ShapeInfo.class, Gold.class).andWrites(Gold.class);
+    }
+
+    @Override
+    protected void step(final SimTime tpf) {
         // only update every RESOURCE_UPDATE_INTERVAL
         ships.applyChanges();
 
@@ -82,7 +90,7 @@ public class ResourceSystem extends AbstractGameSystem {
 
             // Handle old ships
             for (final Entity e : ships) {
-                final Gold g = ed.getComponent(e.getId(), Gold.class);
+                final Gold g = e.get(Gold.class);
                 final int totalGold = g.getGold() + gold;
                 ed.setComponent(e.getId(), new Gold(totalGold));
 
@@ -26,7 +26,8 @@
 package infinity.systems;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.ini4j.Ini;
 import org.slf4j.Logger;
@@ -40,6 +41,8 @@ import infinity.server.AssetLoaderService;
 import infinity.settings.IniLoader;
 import infinity.settings.SSSLoader;
 import infinity.settings.SettingListener;
+import infinity.settings.SettingsSchema;
+import infinity.settings.SettingsSnapshot;
 import infinity.sim.CoreGameConstants;
 import infinity.util.AdaptiveLoadingService;
 
@@ -48,6 +51,10 @@ import infinity.util.AdaptiveLoadingService;
  * the new settings. Listeners are meant to keep a local copy of the settings so
  * as not to reference this state every time they have use for a setting
  *
+ * The settings of each arena are also compiled into a SettingsSnapshot. Code
+ * that reads settings often resolves the keys it needs through getSettingKey()
+ * once and then reads them from the snapshot with a single array read.
+ *
  * @author Asser Fahrenholz
  */
 public class SettingsSystem extends AbstractGameSystem {
@@ -62,7 +69,10 @@ public class SettingsSystem extends AbstractGameSystem {
     // Server settings
     // private Ini serverSettings;
     // Arena settings (can overrule server settings)
-    private final HashMap<String, Ini> arenaSettingsMap = new HashMap<>();
+    private final ConcurrentHashMap<String, Ini> arenaSettingsMap = new ConcurrentHashMap<>();
+    // Compiled arena settings, swapped as a whole when an arena is reloaded
+    private final ConcurrentHashMap<String, SettingsSnapshot> snapshots = new ConcurrentHashMap<>();
+    private SettingsSchema schema;
 
     // private ArrayList<String[]> asssTemplate;
 
@@ -85,6 +95,7 @@ public class SettingsSystem extends AbstractGameSystem {
         listeners.remove(listener);
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     protected void initialize() {
 
@@ -102,11 +113,15 @@ public class SettingsSystem extends AbstractGameSystem {
         // Load ASSS: settings
         // asssSettings = (ArrayList<String[]>) assetLoader.loadAsset("/server.set");
 
-        // Defauælt arena settings are the svs settings
-        arenaSettingsMap.put(CoreGameConstants.DEFAULTARENAID, svsSettings);
-
         // Load ASSS: Template
-        // asssTemplate = (ArrayList<String[]>) assetLoader.loadAsset("/template.sss");
+        final List<String[]> template = (List<String[]>) assetLoader.loadAsset("/template.sss");
+
+        // The template and the default settings fix the layout of all snapshots
+        schema = SettingsSchema.create(template, svsSettings);
+
+        // Defauælt arena settings are the svs settings
+        setArenaSettings(CoreGameConstants.DEFAULTARENAID, svsSettings);
+        log.info("Compiled " + schema.size() + " settings");
 
         // SettingsValidator validator = new SettingsValidator(asssTemplate);
         // validator.getSetting("Notes:Maker");
@@ -140,7 +155,6 @@ public class SettingsSystem extends AbstractGameSystem {
      * @param section the section of the setting
      * @param setting the setting to retrieve
      */
-    @SuppressWarnings("unused")
     private void settingChanged(final ArenaId arenaId, final String section, final String setting) {
         for (final SettingListener listener : listeners) {
             listener.arenaSettingsChange(arenaId, section, setting);
@@ -156,9 +170,75 @@ public class SettingsSystem extends AbstractGameSystem {
      * @return
      */
     public int getSetting(final String arenaId, final String section, final String setting) {
+        final int key = schema.getIndex(section, setting);
+        if (key != SettingsSchema.NOT_FOUND) {
+            final SettingsSnapshot snapshot = snapshots.get(arenaId);
+            if (snapshot.isSet(key)) {
+                return snapshot.get(key);
+            }
+        }
+        // Not a numeric setting the schema knows, fall back to the raw value
         return Integer.parseInt(arenaSettingsMap.get(arenaId).get(section, setting));
     }
 
+    /**
+     * Returns the index of a setting in the compiled snapshots or
+     * SettingsSchema.NOT_FOUND if there is no such setting.
+     *
+     * @param section the section of the setting
+     * @param setting the setting to look up
+     * @return the index to use with getSetting(String, int)
+     */
+    public int getSettingKey(final String section, final String setting) {
+        return schema.getIndex(section, setting);
+    }
+
+    /**
+     * Returns a setting by the index from getSettingKey()
+     *
+     * @param arenaId the arena to look up settings for
+     * @param key     the index of the setting
+     * @return the setting or 0 if it isn't set
+     */
+    public int getSetting(final String arenaId, final int key) {
+        return snapshots.get(arenaId).get(key);
+    }
+
+    /**
+     * Returns the current compiled settings of an arena. The snapshot never
+     * changes, callers that keep it should fetch it again when they are told
+     * about a setting change.
+     *
+     * @param arenaId the arena to look up settings for
+     * @return the snapshot or null if the arena has no settings
+     */
+    public SettingsSnapshot getSnapshot(final String arenaId) {
+        return snapshots.get(arenaId);
+    }
+
+    /**
+     * Sets or reloads the settings of an arena. The compiled snapshot is
+     * replaced in one step and listeners are notified about every setting that
+     * changed.
+     *
+     * @param arenaId  the arena to set the settings for
+     * @param settings the new settings
+     */
+    public void setArenaSettings(final String arenaId, final Ini settings) {
+        final SettingsSnapshot snapshot = SettingsSnapshot.compile(arenaId, schema, settings);
+        arenaSettingsMap.put(arenaId, settings);
+        final SettingsSnapshot old = snapshots.put(arenaId, snapshot);
+        if (old == null) {
+            return;
+        }
+        final ArenaId id = new ArenaId(arenaId);
+        for (int key = 0; key < schema.size(); key++) {
+            if (snapshot.isChanged(old, key)) {
+                settingChanged(id, schema.getSection(key), schema.getKey(key));
+            }
+        }
+    }
+
     /**
      * Let states get references to the arena settings
      *
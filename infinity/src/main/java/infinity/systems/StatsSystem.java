@@ -5,50 +5,200 @@
  */
 package infinity.systems;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.simsilica.es.EntityComponent;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntitySet;
 import com.simsilica.sim.AbstractGameSystem;
+import com.simsilica.sim.GameSystem;
 import com.simsilica.sim.SimTime;
+import com.sun.net.httpserver.HttpServer;
 
 import infinity.server.GameServer;
+import infinity.util.LatencyHistogram;
+import infinity.util.TickProbe;
 
 /**
+ * Collects server telemetry: latency histograms and allocated bytes per
+ * measured piece of the game loop, plus gauges like connection and entity
+ * counts. Probes are fed by begin()/end() marker systems registered around
+ * other systems, by the SystemScheduler and by the physics listeners.
+ *
+ * Everything is off unless the "infinity.stats" system property is set or it
+ * is enabled through JMX. The numbers are published as the
+ * "infinity:type=Stats" MXBean and, when "infinity.stats.port" is set, as
+ * Prometheus text on http://localhost:port/metrics. The connection statistics
+ * are logged every LOGINTERVALMS either way, the probes only while enabled.
+ *
+ * Gauges are sampled on the game loop while enabled, the JMX and HTTP threads
+ * only see the last sampled values.
  *
  * @author asser
  */
-public class StatsSystem extends AbstractGameSystem {
+public class StatsSystem extends AbstractGameSystem implements StatsMXBean {
 
     static Logger log = LoggerFactory.getLogger(StatsSystem.class);
     /**
      * the interval between logging stats to console
      */
     public static final int LOGINTERVALMS = 10000;
+
+    public static final String ENABLED_PROPERTY = "infinity.stats";
+    public static final String PORT_PROPERTY = "infinity.stats.port";
+    public static final String OBJECT_NAME = "infinity:type=Stats";
+
     private final GameServer server;
-    private Timer timer;
-    SimTime localTime;
+    private volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+    private final Map<String, TickProbe> probes = new ConcurrentSkipListMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+    private final Map<String, Class<? extends EntityComponent>[]> watched = new TreeMap<>();
+    private final List<EntitySet> watchedSets = new ArrayList<>();
+    private EntityData ed;
+    private ObjectName objectName;
+    private HttpServer http;
+    private long nextLog;
 
     public StatsSystem(final GameServer server) {
         this.server = server;
     }
 
+    /**
+     * Returns the probe with the specified name, creating it if needed.
+     */
+    public TickProbe getProbe(final String name) {
+        return probes.computeIfAbsent(name, n -> new TickProbe(n, this::isEnabled));
+    }
+
+    /**
+     * Returns a system that begins measuring the named probe when it is updated.
+     * Registered before one or more other systems together with end().
+     */
+    public GameSystem begin(final String name) {
+        return new Mark(getProbe(name), true);
+    }
+
+    /**
+     * Returns a system that ends measuring the named probe when it is updated.
+     */
+    public GameSystem end(final String name) {
+        return new Mark(getProbe(name), false);
+    }
+
+    public void addGauge(final String name, final LongSupplier gauge) {
+        gauges.put(name, new Gauge(gauge));
+    }
+
+    /**
+     * Adds a gauge counting the entities that have all the specified components.
+     */
+    @SafeVarargs
+    public final void watchEntities(final String name, final Class<? extends EntityComponent>... types) {
+        watched.put(name, types);
+    }
+
     @Override
     protected void initialize() {
-        timer = new Timer();
-        timer.scheduleAtFixedRate(new Task(server), LOGINTERVALMS, LOGINTERVALMS);
+        ed = getSystem(EntityData.class);
+        for (final Map.Entry<String, Class<? extends EntityComponent>[]> e : watched.entrySet()) {
+            final EntitySet set = ed.getEntities(e.getValue());
+            watchedSets.add(set);
+            addGauge("entities." + e.getKey(), set::size);
+        }
+
+        final MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        try {
+            objectName = new ObjectName(OBJECT_NAME);
+            mbeans.registerMBean(this, objectName);
+        } catch (final JMException e) {
+            log.warn("Unable to register stats MXBean", e);
+            objectName = null;
+        }
+
+        final int port = Integer.getInteger(PORT_PROPERTY, 0).intValue();
+        if (port > 0) {
+            try {
+                http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+                http.createContext("/metrics", exchange -> {
+                    final byte[] body = getPrometheusText().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                http.start();
+                log.info("Serving metrics on http://localhost:" + port + "/metrics");
+            } catch (final IOException e) {
+                log.error("Unable to serve metrics on port:" + port, e);
+                http = null;
+            }
+        }
     }
 
     @Override
     protected void terminate() {
-        return;
+        if (http != null) {
+            http.stop(0);
+            http = null;
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (final JMException e) {
+                log.warn("Unable to unregister stats MXBean", e);
+            }
+            objectName = null;
+        }
+        for (final EntitySet set : watchedSets) {
+            set.release();
+        }
+        watchedSets.clear();
     }
 
     @Override
     public void update(final SimTime tpf) {
-        localTime = tpf;
+        for (final EntitySet set : watchedSets) {
+            set.applyChanges();
+        }
+
+        if (enabled) {
+            for (final Gauge gauge : gauges.values()) {
+                gauge.sample();
+            }
+        }
+
+        final long now = System.currentTimeMillis();
+        if (nextLog == 0) {
+            nextLog = now + LOGINTERVALMS;
+        } else if (now >= nextLog) {
+            nextLog = now + LOGINTERVALMS;
+            server.logStats();
+            if (enabled) {
+                for (final TickProbe probe : probes.values()) {
+                    log.info(probe.toString());
+                }
+            }
+        }
     }
 
     @Override
@@ -61,21 +211,147 @@ public class StatsSystem extends AbstractGameSystem {
         return;
     }
 
-    class Task extends TimerTask {
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        return collect(p -> p.getHistogram().getCount());
+    }
 
-        private final GameServer localServer;
+    @Override
+    public Map<String, Long> getMedianNanos() {
+        return collect(p -> p.getHistogram().getPercentile(50));
+    }
 
-        public Task(final GameServer server) {
-            localServer = server;
+    @Override
+    public Map<String, Long> getP99Nanos() {
+        return collect(p -> p.getHistogram().getPercentile(99));
+    }
+
+    @Override
+    public Map<String, Long> getMaxNanos() {
+        return collect(p -> p.getHistogram().getMax());
+    }
+
+    @Override
+    public Map<String, Long> getAllocatedBytes() {
+        return collect(TickProbe::getAllocatedBytes);
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        final Map<String, Long> result = new TreeMap<>();
+        for (final Map.Entry<String, Gauge> e : gauges.entrySet()) {
+            result.put(e.getKey(), Long.valueOf(e.getValue().value));
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        for (final TickProbe probe : probes.values()) {
+            probe.reset();
         }
+    }
 
-        int count = 1;
+    private Map<String, Long> collect(final ToLongFunction<TickProbe> value) {
+        final Map<String, Long> result = new TreeMap<>();
+        for (final TickProbe probe : probes.values()) {
+            result.put(probe.getName(), Long.valueOf(value.applyAsLong(probe)));
+        }
+        return result;
+    }
 
-        // run is a abstract method that defines task performed at scheduled time.
-        @Override
-        public void run() {
-            localServer.logStats();
+    @Override
+    public String getPrometheusText() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE infinity_tick_seconds summary\n");
+        for (final TickProbe probe : probes.values()) {
+            final LatencyHistogram h = probe.getHistogram();
+            final String label = "probe=\"" + escape(probe.getName()) + "\"";
+            for (final double q : new double[] { 0.5, 0.9, 0.99, 0.999 }) {
+                sb.append("infinity_tick_seconds{").append(label).append(",quantile=\"").append(q).append("\"} ")
+                        .append(h.getPercentile(q * 100) / 1e9).append('\n');
+            }
+            sb.append("infinity_tick_seconds_sum{").append(label).append("} ").append(h.getSum() / 1e9).append('\n');
+            sb.append("infinity_tick_seconds_count{").append(label).append("} ").append(h.getCount()).append('\n');
         }
+        sb.append("# TYPE infinity_allocated_bytes_total counter\n");
+        for (final TickProbe probe : probes.values()) {
+            sb.append("infinity_allocated_bytes_total{probe=\"").append(escape(probe.getName())).append("\"} ")
+                    .append(probe.getAllocatedBytes()).append('\n');
+        }
+        sb.append("# TYPE infinity_gauge gauge\n");
+        for (final Map.Entry<String, Gauge> e : gauges.entrySet()) {
+            sb.append("infinity_gauge{name=\"").append(escape(e.getKey())).append("\"} ")
+                    .append(e.getValue().value).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String escape(final String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
     }
 
+    /**
+     * A gauge and the value it had when it was last sampled on the game loop.
+     */
+    private static class Gauge {
+        private final LongSupplier supplier;
+        private volatile long value;
+
+        public Gauge(final LongSupplier supplier) {
+            this.supplier = supplier;
+        }
+
+        public void sample() {
+            value = supplier.getAsLong();
+        }
+    }
+
+    /**
+     * Begins or ends a probe when updated so that the systems registered between
+     * a begin and an end mark get measured together.
+     */
+    private static class Mark extends AbstractGameSystem {
+        private final TickProbe probe;
+        private final boolean begin;
+
+        public Mark(final TickProbe probe, final boolean begin) {
+            this.probe = probe;
+            this.begin = begin;
+        }
+
+        @Override
+        protected void initialize() {
+            return;
+        }
+
+        @Override
+        protected void terminate() {
+            return;
+        }
+
+        @Override
+        public void update(final SimTime time) {
+            if (begin) {
+                probe.begin();
+            } else {
+                probe.end();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Mark[" + (begin ? "begin " : "end ") + probe.getName() + "]";
+        }
+    }
 }
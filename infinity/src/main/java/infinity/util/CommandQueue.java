@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded queue of session commands that network threads post into and the
+ * game loop drains once per frame. Each command is an (entity id, command,
+ * payload) record stamped with the time it was queued. Offering and draining do
+ * not lock and, for commands without payloads, do not allocate.
+ *
+ * <p>
+ * The queue keeps stats on its depth, on how many commands were dropped
+ * because the queue was full or the sender was over its rate, and on how long
+ * commands waited before they were drained.
+ * </p>
+ *
+ * @param <T> the type of the optional payload
+ */
+public class CommandQueue<T> {
+
+    /**
+     * Handles drained commands on the game loop thread.
+     */
+    @FunctionalInterface
+    public interface Handler<T> {
+        void handle(long entityId, int command, T payload);
+    }
+
+    private final String name;
+    private final MpscRecordQueue queue;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong droppedFull = new AtomicLong();
+    private final AtomicLong droppedRate = new AtomicLong();
+
+    // Only written by the draining thread
+    private volatile long drained;
+    private volatile long totalWaitNanos;
+    private volatile long maxWaitNanos;
+    private volatile long lastWaitNanos;
+
+    private Handler<T> handler;
+    private long drainTime;
+    private final MpscRecordQueue.PayloadConsumer dispatch = this::dispatch;
+
+    /**
+     * @param name     a name used when logging the stats
+     * @param capacity the maximum number of queued commands, rounded up to a power
+     *                 of two
+     */
+    public CommandQueue(final String name, final int capacity) {
+        this.name = name;
+        this.queue = new MpscRecordQueue(capacity);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Queues a command without rate limiting.
+     *
+     * @return true if the command was queued
+     */
+    public boolean offer(final long entityId, final int command) {
+        return offer(entityId, command, null, null);
+    }
+
+    /**
+     * Queues a command. Safe to call from any thread.
+     *
+     * @param entityId the entity the command is for
+     * @param command  the command value
+     * @param payload  optional data for the command, can be null
+     * @param limiter  the rate limiter of the sending connection, can be null
+     * @return true if the command was queued, false if it was dropped
+     */
+    public boolean offer(final long entityId, final int command, final T payload, final RateLimiter limiter) {
+        final long now = System.nanoTime();
+        if (limiter != null && !limiter.tryAcquire(now)) {
+            droppedRate.incrementAndGet();
+            return false;
+        }
+        if (!queue.offer(entityId, command, now, payload)) {
+            droppedFull.incrementAndGet();
+            return false;
+        }
+        accepted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Passes every queued command to the handler in the order they were queued.
+     * Must only be called from the single thread that owns the queue.
+     *
+     * @return the number of handled commands
+     */
+    public int drain(final Handler<T> commandHandler) {
+        handler = commandHandler;
+        drainTime = System.nanoTime();
+        try {
+            return queue.drainPayloads(dispatch, Integer.MAX_VALUE);
+        } finally {
+            handler = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dispatch(final long entityId, final int command, final long queuedTime, final Object payload) {
+        final long wait = drainTime - queuedTime;
+        drained++;
+        totalWaitNanos += wait;
+        lastWaitNanos = wait;
+        if (wait > maxWaitNanos) {
+            maxWaitNanos = wait;
+        }
+        handler.handle(entityId, command, (T) payload);
+    }
+
+    /**
+     * @return an estimate of the number of commands waiting to be drained
+     */
+    public int getDepth() {
+        return queue.size();
+    }
+
+    public int getCapacity() {
+        return queue.getCapacity();
+    }
+
+    public long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    /**
+     * @return the number of commands dropped because the queue was full
+     */
+    public long getDroppedFullCount() {
+        return droppedFull.get();
+    }
+
+    /**
+     * @return the number of commands dropped because the sender was over its rate
+     */
+    public long getDroppedRateCount() {
+        return droppedRate.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedFull.get() + droppedRate.get();
+    }
+
+    public long getDrainedCount() {
+        return drained;
+    }
+
+    /**
+     * @return the average time in nanoseconds commands waited before being
+     *         drained
+     */
+    public double getAverageWaitNanos() {
+        final long count = drained;
+        return count == 0 ? 0 : (double) totalWaitNanos / count;
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    public long getLastWaitNanos() {
+        return lastWaitNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "CommandQueue[" + name + " depth:" + getDepth() + "/" + getCapacity() + ", accepted:"
+                + getAcceptedCount() + ", dropped(full):" + getDroppedFullCount() + ", dropped(rate):"
+                + getDroppedRateCount() + ", avg wait:" + String.format("%.03f", getAverageWaitNanos() / 1000000.0)
+                + " ms, max wait:" + String.format("%.03f", getMaxWaitNanos() / 1000000.0) + " ms]";
+    }
+}
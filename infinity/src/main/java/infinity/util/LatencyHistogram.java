@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, log-linear latency histogram in the style of HdrHistogram.
+ * Values are bucketed by their highest bit and the five bits below it, which
+ * keeps every bucket within about 3% of the values it holds while covering the
+ * whole positive long range in under two thousand counters. Recording never
+ * allocates and may happen from several threads.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (63 - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(final long value) {
+        final long v = Math.max(0, value);
+        counts.incrementAndGet(indexOf(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        long current;
+        while (v > (current = max.get())) {
+            if (max.compareAndSet(current, v)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        final long c = count.get();
+        return c == 0 ? 0 : (double) sum.get() / c;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the value at the specified
+     * percentile (0 to 100), or 0 if nothing has been recorded.
+     */
+    public long getPercentile(final double percentile) {
+        final long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, percentile) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int indexOf(final long value) {
+        if (value < SUB_COUNT * 2) {
+            return (int) value;
+        }
+        final int exp = 63 - Long.numberOfLeadingZeros(value);
+        final int mantissa = (int) (value >>> (exp - SUB_BITS));
+        return (exp - SUB_BITS + 1) * SUB_COUNT + (mantissa - SUB_COUNT);
+    }
+
+    static long upperBound(final int index) {
+        if (index < SUB_COUNT * 2) {
+            return index;
+        }
+        final int exp = index / SUB_COUNT + SUB_BITS - 1;
+        final long mantissa = SUB_COUNT + index % SUB_COUNT;
+        return ((mantissa + 1) << (exp - SUB_BITS)) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram[count=" + getCount() + ", p50=" + getPercentile(50) + ", p99=" + getPercentile(99)
+                + ", max=" + getMax() + "]";
+    }
+}
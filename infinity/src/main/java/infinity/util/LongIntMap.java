@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.util;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map from primitive long keys to primitive int values.
+ * Used where entity ids are the keys and boxing them into a
+ * HashMap&lt;EntityId, Integer&gt; every frame would produce garbage. This class
+ * is not thread safe.
+ */
+public class LongIntMap {
+
+    /**
+     * Receives the entries of the map during iteration.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, int value);
+    }
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    public LongIntMap() {
+        this(16);
+    }
+
+    public LongIntMap(final int initialCapacity) {
+        allocate(capacityFor(initialCapacity));
+    }
+
+    private static int capacityFor(final int expected) {
+        int capacity = 4;
+        while (capacity * LOAD_FACTOR < expected) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(final int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int hash(final long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int indexOf(final long key) {
+        int i = hash(key) & mask;
+        while (used[i]) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(final long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @param key          the key to look up
+     * @param defaultValue the value to return if the key is not present
+     * @return the value for the key or the default value
+     */
+    public int get(final long key, final int defaultValue) {
+        final int i = indexOf(key);
+        return i < 0 ? defaultValue : values[i];
+    }
+
+    /**
+     * Sets the value of the key, replacing any existing value.
+     */
+    public void put(final long key, final int value) {
+        final int i = insertionIndex(key);
+        values[i] = value;
+    }
+
+    /**
+     * Adds the delta to the value of the key, treating missing keys as zero.
+     *
+     * @return the new value for the key
+     */
+    public int add(final long key, final int delta) {
+        final int i = insertionIndex(key);
+        values[i] += delta;
+        return values[i];
+    }
+
+    /**
+     * Returns the slot index for the key, claiming a new zeroed slot if the key is
+     * not present.
+     */
+    private int insertionIndex(final long key) {
+        if (size >= resizeAt) {
+            rehash(keys.length << 1);
+        }
+        int i = hash(key) & mask;
+        while (used[i]) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        used[i] = true;
+        keys[i] = key;
+        values[i] = 0;
+        size++;
+        return i;
+    }
+
+    /**
+     * Removes the key from the map.
+     *
+     * @return true if the key was present
+     */
+    public boolean remove(final long key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return false;
+        }
+        // Backward shift deletion so that probe chains stay intact without
+        // tombstones
+        int next = (i + 1) & mask;
+        while (used[next]) {
+            final int home = hash(keys[next]) & mask;
+            // Move the entry back if its home slot is not in the (i, next] range
+            if (((next - home) & mask) >= ((next - i) & mask)) {
+                keys[i] = keys[next];
+                values[i] = values[next];
+                i = next;
+            }
+            next = (next + 1) & mask;
+        }
+        used[i] = false;
+        size--;
+        return true;
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    /**
+     * Passes every entry of the map to the consumer. The map must not be modified
+     * during iteration.
+     */
+    public void forEach(final EntryConsumer consumer) {
+        for (int i = 0; i < used.length; i++) {
+            if (used[i]) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    private void rehash(final int capacity) {
+        final long[] oldKeys = keys;
+        final int[] oldValues = values;
+        final boolean[] oldUsed = used;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) {
+                values[insertionIndex(oldKeys[i])] = oldValues[i];
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LongIntMap[size=" + size + ", capacity=" + keys.length + "]";
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.util;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map from primitive long keys to objects. Lookups do
+ * not box the key. This class is not thread safe.
+ *
+ * @param <T> the type of the values
+ */
+public class LongObjectMap<T> {
+
+    /**
+     * Receives the entries of the map during iteration.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer<T> {
+        void accept(long key, T value);
+    }
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    public LongObjectMap() {
+        this(16);
+    }
+
+    public LongObjectMap(final int initialCapacity) {
+        int capacity = 4;
+        while (capacity * LOAD_FACTOR < initialCapacity) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(final int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int hash(final long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // Null values mark empty slots
+    private int indexOf(final long key) {
+        int i = hash(key) & mask;
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(final long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @return the value for the key or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public T get(final long key) {
+        final int i = indexOf(key);
+        return i < 0 ? null : (T) values[i];
+    }
+
+    /**
+     * Sets the value of the key. Values may not be null.
+     *
+     * @return the previous value or null
+     */
+    @SuppressWarnings("unchecked")
+    public T put(final long key, final T value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not supported, key:" + key);
+        }
+        if (size >= resizeAt) {
+            rehash(keys.length << 1);
+        }
+        int i = hash(key) & mask;
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                final T previous = (T) values[i];
+                values[i] = value;
+                return previous;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        return null;
+    }
+
+    /**
+     * @return the removed value or null if the key was not present
+     */
+    @SuppressWarnings("unchecked")
+    public T remove(final long key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        final T result = (T) values[i];
+        // Backward shift deletion so that probe chains stay intact
+        int next = (i + 1) & mask;
+        while (values[next] != null) {
+            final int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - i) & mask)) {
+                keys[i] = keys[next];
+                values[i] = values[next];
+                i = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[i] = null;
+        size--;
+        return result;
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Passes every entry of the map to the consumer. The map must not be modified
+     * during iteration.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(final EntryConsumer<? super T> consumer) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                consumer.accept(keys[i], (T) values[i]);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void rehash(final int capacity) {
+        final long[] oldKeys = keys;
+        final Object[] oldValues = values;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                put(oldKeys[i], (T) oldValues[i]);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LongObjectMap[size=" + size + ", capacity=" + keys.length + "]";
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded multi-producer/single-consumer queue of primitive records. Each
+ * record is a (long, int, long) triple stored in parallel arrays so that
+ * offering and draining records does not allocate. A record may optionally carry
+ * an object payload for callers that already have one. Any number of threads may
+ * offer records without locking, but only one thread may drain them.
+ *
+ * <p>
+ * The slot sequencing follows Dmitry Vyukov's bounded queue: a producer claims a
+ * slot by advancing the tail and publishes it by bumping the slot sequence, and
+ * the consumer only reads slots whose sequence says they are published.
+ * </p>
+ */
+public class MpscRecordQueue {
+
+    /**
+     * Receives drained records.
+     */
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(long first, int second, long third);
+    }
+
+    /**
+     * Receives drained records together with their payload.
+     */
+    @FunctionalInterface
+    public interface PayloadConsumer {
+        void accept(long first, int second, long third, Object payload);
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final long[] firsts;
+    private final int[] seconds;
+    private final long[] thirds;
+    private final Object[] payloads;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    // Only ever touched by the consumer thread
+    private long head;
+
+    /**
+     * @param minCapacity the minimum number of records the queue can hold, rounded
+     *                    up to the next power of two
+     */
+    public MpscRecordQueue(final int minCapacity) {
+        if (minCapacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive:" + minCapacity);
+        }
+        int size = 1;
+        while (size < minCapacity) {
+            size <<= 1;
+        }
+        capacity = size;
+        mask = size - 1;
+        firsts = new long[size];
+        seconds = new int[size];
+        thirds = new long[size];
+        payloads = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Adds a record to the queue. Safe to call from any thread.
+     *
+     * @return true if the record was queued, false if the queue was full
+     */
+    public boolean offer(final long first, final int second, final long third) {
+        return offer(first, second, third, null);
+    }
+
+    /**
+     * Adds a record with a payload to the queue. Safe to call from any thread.
+     *
+     * @return true if the record was queued, false if the queue was full
+     */
+    public boolean offer(final long first, final int second, final long third, final Object payload) {
+        long pos = tail.get();
+        while (true) {
+            final int index = (int) (pos & mask);
+            final long seq = sequences.get(index);
+            final long dif = seq - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    firsts[index] = first;
+                    seconds[index] = second;
+                    thirds[index] = third;
+                    payloads[index] = payload;
+                    // Publish the slot to the consumer
+                    sequences.lazySet(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (dif < 0) {
+                // The consumer has not freed this slot yet
+                return false;
+            } else {
+                // Another producer claimed the slot first
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Passes all published records to the consumer in the order they were claimed.
+     * Must only be called from the single consumer thread.
+     *
+     * @return the number of drained records
+     */
+    public int drain(final RecordConsumer consumer) {
+        return drain(consumer, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Passes up to max published records to the consumer in the order they were
+     * claimed. Must only be called from the single consumer thread.
+     *
+     * @return the number of drained records
+     */
+    public int drain(final RecordConsumer consumer, final int max) {
+        int count = 0;
+        while (count < max) {
+            final int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                // Nothing published at this slot yet
+                break;
+            }
+            final long first = firsts[index];
+            final int second = seconds[index];
+            final long third = thirds[index];
+            release(index);
+            count++;
+            consumer.accept(first, second, third);
+        }
+        return count;
+    }
+
+    /**
+     * Passes up to max published records and their payloads to the consumer in the
+     * order they were claimed. Must only be called from the single consumer
+     * thread.
+     *
+     * @return the number of drained records
+     */
+    public int drainPayloads(final PayloadConsumer consumer, final int max) {
+        int count = 0;
+        while (count < max) {
+            final int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                // Nothing published at this slot yet
+                break;
+            }
+            final long first = firsts[index];
+            final int second = seconds[index];
+            final long third = thirds[index];
+            final Object payload = payloads[index];
+            release(index);
+            count++;
+            consumer.accept(first, second, third, payload);
+        }
+        return count;
+    }
+
+    private void release(final int index) {
+        // Don't hold on to payloads longer than needed
+        payloads[index] = null;
+        // Free the slot for the producer one lap ahead
+        sequences.lazySet(index, head + capacity);
+        head++;
+    }
+
+    /**
+     * @return an estimate of the number of records waiting in the queue
+     */
+    public int size() {
+        final long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "MpscRecordQueue[size=" + size() + ", capacity=" + capacity + "]";
+    }
+}
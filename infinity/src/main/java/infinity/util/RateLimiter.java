@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free rate limiter that allows a steady rate of permits plus a burst.
+ * It tracks a single "theoretical arrival time" (the generic cell rate
+ * algorithm), so acquiring a permit is one CAS and does not allocate. One
+ * instance is meant to be kept per connection.
+ */
+public class RateLimiter {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong arrival = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param permitsPerSecond the sustained number of permits per second
+     * @param burst            how many permits can be taken at once after being
+     *                         idle
+     */
+    public RateLimiter(final double permitsPerSecond, final int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Invalid rate:" + permitsPerSecond + " burst:" + burst);
+        }
+        intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        burstNanos = intervalNanos * burst;
+    }
+
+    /**
+     * @return true if a permit was available, false if the caller is over the rate
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    /**
+     * @param now the current time in nanoseconds
+     * @return true if a permit was available, false if the caller is over the rate
+     */
+    public boolean tryAcquire(final long now) {
+        while (true) {
+            final long last = arrival.get();
+            final long start = last == Long.MIN_VALUE || last < now ? now : last;
+            final long next = start + intervalNanos;
+            if (next - now > burstNanos) {
+                return false;
+            }
+            if (arrival.compareAndSet(last, next)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimiter[interval=" + intervalNanos + " ns, burst=" + burstNanos / intervalNanos + "]";
+    }
+}
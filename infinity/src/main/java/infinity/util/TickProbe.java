@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Measures one piece of the game loop: a system update, the physics step, and
+ * so on. A probe records latencies into a histogram and, where the JVM
+ * supports it, the bytes allocated by the measuring thread. When its enabled
+ * check returns false every method returns right away.
+ *
+ * begin() and end() keep their state in the probe and so must not be used by
+ * two threads at once. Code that is measured from several threads can time
+ * itself and call record() instead.
+ */
+public final class TickProbe {
+
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    private final String name;
+    private final BooleanSupplier enabled;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final LongAdder allocated = new LongAdder();
+    private long started;
+    private long startedAllocated;
+
+    public TickProbe(final String name, final BooleanSupplier enabled) {
+        this.name = name;
+        this.enabled = enabled;
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        final com.sun.management.ThreadMXBean result = (com.sun.management.ThreadMXBean) bean;
+        if (!result.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        if (!result.isThreadAllocatedMemoryEnabled()) {
+            result.setThreadAllocatedMemoryEnabled(true);
+        }
+        return result;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isEnabled() {
+        return enabled.getAsBoolean();
+    }
+
+    public void begin() {
+        if (!enabled.getAsBoolean()) {
+            started = 0;
+            return;
+        }
+        startedAllocated = allocatedBytes();
+        started = System.nanoTime();
+    }
+
+    public void end() {
+        if (started == 0) {
+            return;
+        }
+        histogram.record(System.nanoTime() - started);
+        allocated.add(allocatedBytes() - startedAllocated);
+        started = 0;
+    }
+
+    /**
+     * Records a latency that was measured elsewhere.
+     */
+    public void record(final long nanos) {
+        if (enabled.getAsBoolean()) {
+            histogram.record(nanos);
+        }
+    }
+
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Returns the bytes allocated between begin() and end() so far.
+     */
+    public long getAllocatedBytes() {
+        return allocated.sum();
+    }
+
+    public void reset() {
+        histogram.reset();
+        allocated.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "TickProbe[" + name + ", " + histogram + ", allocated=" + getAllocatedBytes() + "]";
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.util;
+
+import java.util.Arrays;
+
+/**
+ * A hashed timing wheel for sim time expiries. Timers are primitive (expire
+ * time, id, kind) records hashed into buckets by their tick. Advancing the wheel
+ * only visits the buckets for the ticks that passed, so the cost is
+ * proportional to the number of timers that are due rather than the number that
+ * are scheduled. Timers further out than one lap of the wheel stay in their
+ * bucket until the lap they expire in. This class is not thread safe.
+ */
+public class TimerWheel {
+
+    /**
+     * Receives the timers that expired during an advance.
+     */
+    @FunctionalInterface
+    public interface ExpiryConsumer {
+        void expired(long id, int kind, long expireTime);
+    }
+
+    private final long resolution;
+    private final int mask;
+    private final long[][] times;
+    private final long[][] ids;
+    private final int[][] kinds;
+    private final int[] sizes;
+    private long currentTick = Long.MIN_VALUE;
+    private int count;
+
+    // Scratch space for the timers that fire from one bucket
+    private long[] firedTimes = new long[16];
+    private long[] firedIds = new long[16];
+    private int[] firedKinds = new int[16];
+
+    /**
+     * @param resolution the length of one tick in sim time units
+     * @param minBuckets the minimum number of buckets, rounded up to a power of two
+     */
+    public TimerWheel(final long resolution, final int minBuckets) {
+        if (resolution <= 0 || minBuckets <= 0) {
+            throw new IllegalArgumentException("Invalid wheel, resolution:" + resolution + " buckets:" + minBuckets);
+        }
+        int size = 1;
+        while (size < minBuckets) {
+            size <<= 1;
+        }
+        this.resolution = resolution;
+        mask = size - 1;
+        times = new long[size][];
+        ids = new long[size][];
+        kinds = new int[size][];
+        sizes = new int[size];
+        for (int i = 0; i < size; i++) {
+            times[i] = new long[4];
+            ids[i] = new long[4];
+            kinds[i] = new int[4];
+        }
+    }
+
+    /**
+     * @return the number of scheduled timers
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Schedules a timer. Timers that are already due fire on the next advance.
+     */
+    public void schedule(final long expireTime, final long id, final int kind) {
+        long tick = Math.floorDiv(expireTime, resolution);
+        if (currentTick != Long.MIN_VALUE && tick <= currentTick) {
+            tick = currentTick + 1;
+        }
+        final int bucket = (int) (tick & mask);
+        final int size = sizes[bucket];
+        if (size == times[bucket].length) {
+            final int newSize = size << 1;
+            times[bucket] = Arrays.copyOf(times[bucket], newSize);
+            ids[bucket] = Arrays.copyOf(ids[bucket], newSize);
+            kinds[bucket] = Arrays.copyOf(kinds[bucket], newSize);
+        }
+        times[bucket][size] = expireTime;
+        ids[bucket][size] = id;
+        kinds[bucket][size] = kind;
+        sizes[bucket] = size + 1;
+        count++;
+    }
+
+    /**
+     * Moves the wheel forward to the specified time and passes every timer that
+     * expired at or before it to the consumer. The consumer may schedule new
+     * timers.
+     */
+    public void advance(final long now, final ExpiryConsumer consumer) {
+        final long targetTick = Math.floorDiv(now, resolution);
+        if (currentTick == Long.MIN_VALUE) {
+            // First advance, anything scheduled so far is in the buckets up to now
+            currentTick = targetTick - sizes.length;
+        }
+        if (targetTick <= currentTick) {
+            return;
+        }
+        // No need to visit a bucket more than once per advance
+        final long first = Math.max(currentTick + 1, targetTick - mask);
+        // The target tick is only done once its last moment has passed. Until
+        // then the timers due later in it are looked at again on the next advance
+        currentTick = Math.floorMod(now, resolution) == resolution - 1 ? targetTick : targetTick - 1;
+        for (long tick = first; tick <= targetTick; tick++) {
+            expireBucket((int) (tick & mask), now, consumer);
+        }
+    }
+
+    private void expireBucket(final int bucket, final long now, final ExpiryConsumer consumer) {
+        final int size = sizes[bucket];
+        if (size == 0) {
+            return;
+        }
+        final long[] bucketTimes = times[bucket];
+        final long[] bucketIds = ids[bucket];
+        final int[] bucketKinds = kinds[bucket];
+
+        // Compact the bucket first and only dispatch afterwards so that
+        // consumers can safely schedule into this same bucket
+        int fired = 0;
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (bucketTimes[i] <= now) {
+                if (fired == firedTimes.length) {
+                    firedTimes = Arrays.copyOf(firedTimes, fired << 1);
+                    firedIds = Arrays.copyOf(firedIds, fired << 1);
+                    firedKinds = Arrays.copyOf(firedKinds, fired << 1);
+                }
+                firedTimes[fired] = bucketTimes[i];
+                firedIds[fired] = bucketIds[i];
+                firedKinds[fired] = bucketKinds[i];
+                fired++;
+            } else {
+                bucketTimes[kept] = bucketTimes[i];
+                bucketIds[kept] = bucketIds[i];
+                bucketKinds[kept] = bucketKinds[i];
+                kept++;
+            }
+        }
+        sizes[bucket] = kept;
+        count -= fired;
+
+        for (int i = 0; i < fired; i++) {
+            consumer.expired(firedIds[i], firedKinds[i], firedTimes[i]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TimerWheel[timers=" + count + ", buckets=" + sizes.length + ", resolution=" + resolution + "]";
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mblock.MaskUtils;
+
+import infinity.server.EmptyLeafDb;
+import infinity.server.FileLeafDb;
+
+/**
+ * Restarts a world stored in a FileLeafDb and checks that the tiles placed on
+ * an imported map are kept, while changes to the map file are picked up.
+ */
+public class LegacyMapImportTest {
+
+    private static final int SIZE = 8;
+    // The cell value MapSystem stores for a placed tile
+    private static final int PLACED = 1 | (21 << 8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static int cellValue(final int tileId) {
+        return tileId == 0 ? 0 : tileId | (20 << 8);
+    }
+
+    /**
+     * @return a map with a wall at the given map coordinates
+     */
+    private static short[][] map(final int wallX, final int wallZ) {
+        final short[][] tiles = new short[SIZE][SIZE];
+        // LevelFile mirrors the map on both axes
+        tiles[SIZE - wallX - 1][SIZE - wallZ - 1] = 1;
+        return tiles;
+    }
+
+    private static LegacyMapImport load(final short[][] tiles, final InfinityDefaultWorld world,
+            final FileLeafDb leafStore) {
+        final LegacyMapImport mapImport = new LegacyMapImport("test", tiles, new Vec3d(),
+                LegacyMapImportTest::cellValue);
+        mapImport.keepPlacedTiles(leafStore::loadStoredLeaf, PLACED);
+        mapImport.start(ForkJoinPool.commonPool());
+        while (!mapImport.commit(world, Long.MAX_VALUE)) {
+            Thread.yield();
+        }
+        return mapImport;
+    }
+
+    private static boolean isSolid(final InfinityDefaultWorld world, final int x, final int z) {
+        return MaskUtils.getType(world.getWorldCell(new Vec3d(x + 0.5, 0, z + 0.5))) != 0;
+    }
+
+    @Test
+    public void placedTilesSurviveRestart() throws IOException {
+        final File file = folder.newFile("leaves.db");
+
+        FileLeafDb leafStore = new FileLeafDb(file, new EmptyLeafDb());
+        InfinityDefaultWorld world = new InfinityDefaultWorld(leafStore);
+        load(map(2, 2), world, leafStore);
+        assertTrue(isSolid(world, 2, 2));
+
+        // What MapSystem.sessionCreateTile() stores for a placed tile
+        world.setWorldCell(new Vec3d(5 + 0.5, 0, 6 + 0.5), PLACED);
+        leafStore.close();
+
+        // The wall moved in the map file while the server was down
+        leafStore = new FileLeafDb(file, new EmptyLeafDb());
+        world = new InfinityDefaultWorld(leafStore);
+        final LegacyMapImport mapImport = load(map(3, 1), world, leafStore);
+
+        assertArrayEquals(new long[] { TileIndex.pack(5, 6) }, mapImport.getPlacedTiles());
+        assertTrue(isSolid(world, 5, 6));
+        assertTrue(isSolid(world, 3, 1));
+        assertFalse(isSolid(world, 2, 2));
+        leafStore.close();
+    }
+}